@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.authorization.util;
+
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.model.Account;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Holds the roles and groups already resolved for an authenticated {@link Account} during a single request.</p>
+ *
+ * <p>Results are only memoized between {@link #beginRequest()} and {@link #endRequest()}, which are bound to the
+ * calling thread. Outside of a request scope nothing is cached and every check hits the identity stores.</p>
+ *
+ * <p>Any change to identity types, relationships or partitions must be followed by a call to {@link #invalidate()},
+ * so that checks performed later in the same request see the change.</p>
+ *
+ * @author agent
+ */
+public final class AccountAuthorizationCache {
+
+    private static final ThreadLocal<AccountAuthorizationCache> currentCache = new ThreadLocal<AccountAuthorizationCache>();
+    private static final AtomicLong version = new AtomicLong();
+
+    private int depth;
+    private String accountId;
+    private PartitionManager partitionManager;
+    private long cacheVersion;
+    private final Map<String, Boolean> roles = new HashMap<String, Boolean>();
+    private final Map<String, Boolean> groups = new HashMap<String, Boolean>();
+
+    private AccountAuthorizationCache() {
+    }
+
+    /**
+     * <p>Starts a request scope for the calling thread. Nested calls are allowed and must be balanced by the same number
+     * of calls to {@link #endRequest()}.</p>
+     */
+    public static void beginRequest() {
+        AccountAuthorizationCache cache = currentCache.get();
+
+        if (cache == null) {
+            cache = new AccountAuthorizationCache();
+            currentCache.set(cache);
+        }
+
+        cache.depth++;
+    }
+
+    /**
+     * <p>Ends the request scope of the calling thread, discarding all memoized results once the outermost scope ends.</p>
+     */
+    public static void endRequest() {
+        AccountAuthorizationCache cache = currentCache.get();
+
+        if (cache != null && --cache.depth <= 0) {
+            currentCache.remove();
+        }
+    }
+
+    /**
+     * <p>Discards the results memoized by all active request scopes.</p>
+     */
+    public static void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * <p>Returns the cache for the given account in the request scope of the calling thread, or null if there is no active
+     * request scope.</p>
+     */
+    static AccountAuthorizationCache getCache(Account account, PartitionManager partitionManager) {
+        AccountAuthorizationCache cache = currentCache.get();
+
+        if (cache == null) {
+            return null;
+        }
+
+        long currentVersion = version.get();
+
+        if (cache.cacheVersion != currentVersion || cache.partitionManager != partitionManager
+            || cache.accountId == null || !cache.accountId.equals(account.getId())) {
+            cache.roles.clear();
+            cache.groups.clear();
+            cache.accountId = account.getId();
+            cache.partitionManager = partitionManager;
+            cache.cacheVersion = currentVersion;
+        }
+
+        return cache;
+    }
+
+    Boolean hasRole(String roleName) {
+        return this.roles.get(roleName);
+    }
+
+    void setRole(String roleName, boolean granted) {
+        this.roles.put(roleName, granted);
+    }
+
+    Boolean isMember(String groupName) {
+        return this.groups.get(groupName);
+    }
+
+    void setMember(String groupName, boolean member) {
+        this.groups.put(groupName, member);
+    }
+}
@@ -23,22 +23,16 @@ package org.picketlink.authorization.util;
 
 import org.picketlink.Identity;
 import org.picketlink.authentication.levels.Level;
-import org.picketlink.common.properties.Property;
-import org.picketlink.common.properties.query.AnnotatedPropertyCriteria;
-import org.picketlink.common.properties.query.PropertyQueries;
+import org.picketlink.authorization.util.StereotypeRegistry.IdentityStereotypeMapping;
+import org.picketlink.authorization.util.StereotypeRegistry.RelationshipStereotypeMapping;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.PartitionManager;
 import org.picketlink.idm.RelationshipManager;
-import org.picketlink.idm.config.IdentityConfiguration;
-import org.picketlink.idm.config.IdentityStoreConfiguration;
 import org.picketlink.idm.model.Account;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.model.Relationship;
-import org.picketlink.idm.model.annotation.IdentityStereotype;
-import org.picketlink.idm.model.annotation.RelationshipStereotype;
-import org.picketlink.idm.model.annotation.StereotypeProperty;
 import org.picketlink.idm.query.IdentityQueryBuilder;
 
 import java.io.Serializable;
@@ -46,12 +40,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.picketlink.common.util.StringUtil.isNullOrEmpty;
-import static org.picketlink.idm.model.annotation.IdentityStereotype.Stereotype.GROUP;
-import static org.picketlink.idm.model.annotation.IdentityStereotype.Stereotype.ROLE;
-import static org.picketlink.idm.model.annotation.RelationshipStereotype.Stereotype.GRANT;
-import static org.picketlink.idm.model.annotation.RelationshipStereotype.Stereotype.GROUP_MEMBERSHIP;
-import static org.picketlink.idm.model.annotation.StereotypeProperty.Property.IDENTITY_GROUP_NAME;
-import static org.picketlink.idm.model.annotation.StereotypeProperty.Property.IDENTITY_ROLE_NAME;
 
 /**
  * <p>Provides some comon authorization methods.</p>
@@ -113,6 +101,9 @@ public class AuthorizationUtil {
     /**
      * <p>Checks if an authenticated user is granted with a role with the given name.</p>
      *
+     * <p>Within a request scope started by {@link AccountAuthorizationCache#beginRequest()}, the result is memoized so
+     * subsequent checks for the same role during the same request do not hit the identity stores.</p>
+     *
      * @param identity The {@link org.picketlink.Identity} instance representing an authenticated user.
      * @param partitionManager
      * @param roleName The role name.
@@ -124,104 +115,47 @@ public class AuthorizationUtil {
             return false;
         }
 
-        List<Class<? extends IdentityType>> roleTypes = new ArrayList<Class<? extends IdentityType>>();
-        List<Class<? extends Relationship>> grantRelationshipTypes = new ArrayList<Class<? extends Relationship>>();
-
-        // let's get all role and grant relationship types supported by the configuration
-        for (IdentityConfiguration configuration : partitionManager.getConfigurations()) {
-            for (IdentityStoreConfiguration storeConfiguration : configuration.getStoreConfiguration()) {
-                for (Class<? extends AttributedType> attributedType : storeConfiguration.getSupportedTypes().keySet()) {
-                    if (IdentityType.class.isAssignableFrom(attributedType)) {
-                        IdentityStereotype identityStereotype = attributedType.getAnnotation(IdentityStereotype.class);
+        AccountAuthorizationCache cache = AccountAuthorizationCache.getCache(identity.getAccount(), partitionManager);
 
-                        if (identityStereotype != null && ROLE.equals(identityStereotype.value())) {
-                            roleTypes.add((Class<? extends IdentityType>) attributedType);
-                        }
-                    }
+        if (cache == null) {
+            return resolveRole(identity.getAccount(), partitionManager, roleName);
+        }
 
-                    if (Relationship.class.isAssignableFrom(attributedType)) {
-                        RelationshipStereotype relationshipStereotype = attributedType.getAnnotation(RelationshipStereotype.class);
+        Boolean granted = cache.hasRole(roleName);
 
-                        if (relationshipStereotype != null && GRANT.equals(relationshipStereotype.value())) {
-                            grantRelationshipTypes.add((Class<? extends Relationship>) attributedType);
-                        }
-                    }
-                }
-            }
+        if (granted == null) {
+            granted = resolveRole(identity.getAccount(), partitionManager, roleName);
+            cache.setRole(roleName, granted);
         }
 
-        List<IdentityType> roles = new ArrayList<IdentityType>();
+        return granted;
+    }
 
-        // now we need to get the role instance by its name against all stored partitions
-        for (Class<? extends IdentityType> attributedType : roleTypes) {
-            List<Property<Object>> identityStereotypeProperties = PropertyQueries
-                .createQuery(attributedType)
-                .addCriteria(new AnnotatedPropertyCriteria(StereotypeProperty.class))
-                .getResultList();
-
-            for (Property<Object> property : identityStereotypeProperties) {
-                StereotypeProperty attributeProperty = property.getAnnotatedElement().getAnnotation(StereotypeProperty.class);
-                StereotypeProperty.Property stereotypeProperty = attributeProperty.value();
-
-                if (IDENTITY_ROLE_NAME.equals(stereotypeProperty)) {
-                    for (Partition partition : partitionManager.getPartitions(Partition.class)) {
-                        IdentityManager identityManager = partitionManager.createIdentityManager(partition);
-                        IdentityQueryBuilder queryBuilder = identityManager.getQueryBuilder();
-
-                        List<? extends IdentityType> result = queryBuilder
-                            .createIdentityQuery(attributedType)
-                            .where(queryBuilder.equal(AttributedType.QUERY_ATTRIBUTE.byName(property.getName()), roleName))
-                            .getResultList();
-
-                        if (!result.isEmpty()) {
-                            roles.add(result.get(0));
-                        }
-                    }
-                }
-            }
+    private static boolean resolveRole(Account account, PartitionManager partitionManager, String roleName) {
+        StereotypeRegistry registry = StereotypeRegistry.getRegistry(partitionManager);
+
+        if (registry.getGrantTypes().isEmpty()) {
+            return false;
         }
 
+        // now we need to get the role instance by its name against all stored partitions
+        List<IdentityType> roles = findByName(partitionManager, registry.getRoleTypes(), roleName);
+
         RelationshipManager relationshipManager = partitionManager.createRelationshipManager();
 
         // now we check the relationship between the authenticated account and roles considering the grant types supported by the configuration.
         for (IdentityType role : roles) {
-            for (Class<? extends Relationship> relationshipType : grantRelationshipTypes) {
-                List<Property<Object>> relationshipStereotypeProperties = PropertyQueries
-                    .createQuery(relationshipType)
-                    .addCriteria(new AnnotatedPropertyCriteria(StereotypeProperty.class))
-                    .getResultList();
-                Property roleProperty = null;
-                Property accountProperty = null;
-
-                for (Property<Object> property : relationshipStereotypeProperties) {
-                    StereotypeProperty attributeProperty = property.getAnnotatedElement().getAnnotation(StereotypeProperty.class);
-                    StereotypeProperty.Property stereotypeProperty = attributeProperty.value();
-
-                    if (StereotypeProperty.Property.RELATIONSHIP_GRANT_ROLE.equals(stereotypeProperty)) {
-                        roleProperty = property;
-                    } else if (StereotypeProperty.Property.RELATIONSHIP_GRANT_ASSIGNEE.equals(stereotypeProperty)) {
-                        accountProperty = property;
-                    }
+            for (RelationshipStereotypeMapping grantType : registry.getGrantTypes()) {
+                if (hasRelationship(relationshipManager, grantType, role, account)) {
+                    return true;
                 }
+            }
+        }
 
-                if (roleProperty != null && accountProperty != null) {
-                    List<? extends Relationship> result = relationshipManager
-                        .createRelationshipQuery(relationshipType)
-                        .setParameter(Relationship.RELATIONSHIP_QUERY_ATTRIBUTE.byName(roleProperty.getName()), role)
-                        .setParameter(Relationship.RELATIONSHIP_QUERY_ATTRIBUTE.byName(accountProperty.getName()), identity
-                            .getAccount())
-                        .getResultList();
-
-                    if (!result.isEmpty()) {
-                        return true;
-                    }
-
-                    boolean inheritsPrivileges = relationshipManager.inheritsPrivileges(identity.getAccount(), role);
-
-                    if (inheritsPrivileges) {
-                        return true;
-                    }
-                }
+        // the role is not directly granted, check if it is granted to any of the identities the account inherits privileges from.
+        for (IdentityType role : roles) {
+            if (relationshipManager.inheritsPrivileges(account, role)) {
+                return true;
             }
         }
 
@@ -231,6 +165,9 @@ public class AuthorizationUtil {
     /**
      * <p>Checks if an authenticated user is member of the a group with the given name.</p>
      *
+     * <p>Within a request scope started by {@link AccountAuthorizationCache#beginRequest()}, the result is memoized so
+     * subsequent checks for the same group during the same request do not hit the identity stores.</p>
+     *
      * @param identity The {@link org.picketlink.Identity} instance representing an authenticated user.
      * @param partitionManager
      * @param groupName The group name.
@@ -242,102 +179,81 @@ public class AuthorizationUtil {
             return false;
         }
 
-        List<Class<? extends IdentityType>> groupTypes = new ArrayList<Class<? extends IdentityType>>();
-        List<Class<? extends Relationship>> groupMembershipTypes = new ArrayList<Class<? extends Relationship>>();
+        AccountAuthorizationCache cache = AccountAuthorizationCache.getCache(identity.getAccount(), partitionManager);
 
-        // let's get all group and grant relationship types supported by the configuration
-        for (IdentityConfiguration configuration : partitionManager.getConfigurations()) {
-            for (IdentityStoreConfiguration storeConfiguration : configuration.getStoreConfiguration()) {
-                for (Class<? extends AttributedType> attributedType : storeConfiguration.getSupportedTypes().keySet()) {
-                    if (IdentityType.class.isAssignableFrom(attributedType)) {
-                        IdentityStereotype identityStereotype = attributedType.getAnnotation(IdentityStereotype.class);
-
-                        if (identityStereotype != null && GROUP.equals(identityStereotype.value())) {
-                            groupTypes.add((Class<? extends IdentityType>) attributedType);
-                        }
-                    }
+        if (cache == null) {
+            return resolveGroup(identity.getAccount(), partitionManager, groupName);
+        }
 
-                    if (Relationship.class.isAssignableFrom(attributedType)) {
-                        RelationshipStereotype relationshipStereotype = attributedType.getAnnotation(RelationshipStereotype.class);
+        Boolean member = cache.isMember(groupName);
 
-                        if (relationshipStereotype != null && GROUP_MEMBERSHIP.equals(relationshipStereotype.value())) {
-                            groupMembershipTypes.add((Class<? extends Relationship>) attributedType);
-                        }
-                    }
-                }
-            }
+        if (member == null) {
+            member = resolveGroup(identity.getAccount(), partitionManager, groupName);
+            cache.setMember(groupName, member);
         }
 
-        List<IdentityType> groups = new ArrayList<IdentityType>();
+        return member;
+    }
 
-        // now we need to get the group instance by its name against all stored partitions
-        for (Class<? extends IdentityType> attributedType : groupTypes) {
-            List<Property<Object>> identityStereotypeProperties = PropertyQueries
-                .createQuery(attributedType)
-                .addCriteria(new AnnotatedPropertyCriteria(StereotypeProperty.class))
-                .getResultList();
-
-            for (Property<Object> property : identityStereotypeProperties) {
-                StereotypeProperty attributeProperty = property.getAnnotatedElement().getAnnotation(StereotypeProperty.class);
-                StereotypeProperty.Property stereotypeProperty = attributeProperty.value();
-
-                if (IDENTITY_GROUP_NAME.equals(stereotypeProperty)) {
-                    for (Partition partition : partitionManager.getPartitions(Partition.class)) {
-                        IdentityManager identityManager = partitionManager.createIdentityManager(partition);
-                        IdentityQueryBuilder queryBuilder = identityManager.getQueryBuilder();
-
-                        List<? extends IdentityType> result = queryBuilder
-                            .createIdentityQuery(attributedType)
-                            .where(queryBuilder.equal(AttributedType.QUERY_ATTRIBUTE.byName(property.getName()), groupName))
-                            .getResultList();
-
-                        if (!result.isEmpty()) {
-                            groups.add(result.get(0));
-                        }
-                    }
-                }
-            }
+    private static boolean resolveGroup(Account account, PartitionManager partitionManager, String groupName) {
+        StereotypeRegistry registry = StereotypeRegistry.getRegistry(partitionManager);
+
+        if (registry.getGroupMembershipTypes().isEmpty()) {
+            return false;
         }
 
+        // now we need to get the group instance by its name against all stored partitions
+        List<IdentityType> groups = findByName(partitionManager, registry.getGroupTypes(), groupName);
+
         RelationshipManager relationshipManager = partitionManager.createRelationshipManager();
 
         // now we check the relationship between the authenticated account and groups considering the group membership types supported by the configuration.
         for (IdentityType group : groups) {
-            for (Class<? extends Relationship> relationshipType : groupMembershipTypes) {
-                List<Property<Object>> relationshipStereotypeProperties = PropertyQueries
-                    .createQuery(relationshipType)
-                    .addCriteria(new AnnotatedPropertyCriteria(StereotypeProperty.class))
-                    .getResultList();
-                Property groupProperty = null;
-                Property memberProperty = null;
-
-                for (Property<Object> property : relationshipStereotypeProperties) {
-                    StereotypeProperty attributeProperty = property.getAnnotatedElement().getAnnotation(StereotypeProperty.class);
-                    StereotypeProperty.Property stereotypeProperty = attributeProperty.value();
-
-                    if (StereotypeProperty.Property.RELATIONSHIP_GROUP_MEMBERSHIP_GROUP.equals(stereotypeProperty)) {
-                        groupProperty = property;
-                    } else if (StereotypeProperty.Property.RELATIONSHIP_GROUP_MEMBERSHIP_MEMBER.equals(stereotypeProperty)) {
-                        memberProperty = property;
-                    }
+            for (RelationshipStereotypeMapping groupMembershipType : registry.getGroupMembershipTypes()) {
+                if (hasRelationship(relationshipManager, groupMembershipType, group, account)) {
+                    return true;
                 }
+            }
+        }
 
-                if (groupProperty != null && memberProperty != null) {
-                    List<? extends Relationship> result = relationshipManager
-                        .createRelationshipQuery(relationshipType)
-                        .setParameter(Relationship.RELATIONSHIP_QUERY_ATTRIBUTE.byName(groupProperty.getName()), group)
-                        .setParameter(Relationship.RELATIONSHIP_QUERY_ATTRIBUTE.byName(memberProperty.getName()), identity
-                            .getAccount())
-                        .getResultList();
-
-                    if (!result.isEmpty()) {
-                        return true;
-                    }
+        return false;
+    }
+
+    private static List<IdentityType> findByName(PartitionManager partitionManager, List<IdentityStereotypeMapping> mappings, String name) {
+        List<IdentityType> result = new ArrayList<IdentityType>();
+
+        if (mappings.isEmpty()) {
+            return result;
+        }
+
+        List<Partition> partitions = partitionManager.getPartitions(Partition.class);
+
+        for (IdentityStereotypeMapping mapping : mappings) {
+            for (Partition partition : partitions) {
+                IdentityManager identityManager = partitionManager.createIdentityManager(partition);
+                IdentityQueryBuilder queryBuilder = identityManager.getQueryBuilder();
+
+                List<? extends IdentityType> identityTypes = queryBuilder
+                    .createIdentityQuery(mapping.getType())
+                    .where(queryBuilder.equal(AttributedType.QUERY_ATTRIBUTE.byName(mapping.getNameProperty().getName()), name))
+                    .getResultList();
+
+                if (!identityTypes.isEmpty()) {
+                    result.add(identityTypes.get(0));
                 }
             }
         }
 
-        return false;
+        return result;
+    }
+
+    private static boolean hasRelationship(RelationshipManager relationshipManager, RelationshipStereotypeMapping mapping,
+                                           IdentityType identityType, Account account) {
+        return relationshipManager
+            .createRelationshipQuery(mapping.getType())
+            .setParameter(Relationship.RELATIONSHIP_QUERY_ATTRIBUTE.byName(mapping.getIdentityTypeProperty().getName()), identityType)
+            .setParameter(Relationship.RELATIONSHIP_QUERY_ATTRIBUTE.byName(mapping.getAssigneeProperty().getName()), account)
+            .exists();
     }
 
     /**
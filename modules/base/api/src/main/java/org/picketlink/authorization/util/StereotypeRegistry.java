@@ -0,0 +1,271 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.authorization.util;
+
+import org.picketlink.common.properties.Property;
+import org.picketlink.common.properties.query.AnnotatedPropertyCriteria;
+import org.picketlink.common.properties.query.PropertyQueries;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfiguration;
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Relationship;
+import org.picketlink.idm.model.annotation.IdentityStereotype;
+import org.picketlink.idm.model.annotation.RelationshipStereotype;
+import org.picketlink.idm.model.annotation.StereotypeProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static java.util.Collections.unmodifiableList;
+import static org.picketlink.idm.model.annotation.IdentityStereotype.Stereotype.GROUP;
+import static org.picketlink.idm.model.annotation.IdentityStereotype.Stereotype.ROLE;
+import static org.picketlink.idm.model.annotation.RelationshipStereotype.Stereotype.GRANT;
+import static org.picketlink.idm.model.annotation.RelationshipStereotype.Stereotype.GROUP_MEMBERSHIP;
+import static org.picketlink.idm.model.annotation.StereotypeProperty.Property.IDENTITY_GROUP_NAME;
+import static org.picketlink.idm.model.annotation.StereotypeProperty.Property.IDENTITY_ROLE_NAME;
+import static org.picketlink.idm.model.annotation.StereotypeProperty.Property.RELATIONSHIP_GRANT_ASSIGNEE;
+import static org.picketlink.idm.model.annotation.StereotypeProperty.Property.RELATIONSHIP_GRANT_ROLE;
+import static org.picketlink.idm.model.annotation.StereotypeProperty.Property.RELATIONSHIP_GROUP_MEMBERSHIP_GROUP;
+import static org.picketlink.idm.model.annotation.StereotypeProperty.Property.RELATIONSHIP_GROUP_MEMBERSHIP_MEMBER;
+
+/**
+ * <p>Immutable registry of the role, group, grant and group membership types supported by the configurations of a
+ * {@link org.picketlink.idm.PartitionManager}, together with their stereotype properties.</p>
+ *
+ * <p>The registry is built only once for each partition manager, the first time it is requested, so the identity store
+ * configuration and the types are not scanned on every authorization check.</p>
+ *
+ * @author agent
+ */
+public final class StereotypeRegistry {
+
+    private static final Map<PartitionManager, StereotypeRegistry> registries =
+        Collections.synchronizedMap(new WeakHashMap<PartitionManager, StereotypeRegistry>());
+
+    private final List<IdentityStereotypeMapping> roleTypes;
+    private final List<IdentityStereotypeMapping> groupTypes;
+    private final List<RelationshipStereotypeMapping> grantTypes;
+    private final List<RelationshipStereotypeMapping> groupMembershipTypes;
+
+    private StereotypeRegistry(PartitionManager partitionManager) {
+        List<IdentityStereotypeMapping> roleTypes = new ArrayList<IdentityStereotypeMapping>();
+        List<IdentityStereotypeMapping> groupTypes = new ArrayList<IdentityStereotypeMapping>();
+        List<RelationshipStereotypeMapping> grantTypes = new ArrayList<RelationshipStereotypeMapping>();
+        List<RelationshipStereotypeMapping> groupMembershipTypes = new ArrayList<RelationshipStereotypeMapping>();
+
+        for (IdentityConfiguration configuration : partitionManager.getConfigurations()) {
+            for (IdentityStoreConfiguration storeConfiguration : configuration.getStoreConfiguration()) {
+                for (Class<? extends AttributedType> attributedType : storeConfiguration.getSupportedTypes().keySet()) {
+                    if (IdentityType.class.isAssignableFrom(attributedType)) {
+                        IdentityStereotype identityStereotype = attributedType.getAnnotation(IdentityStereotype.class);
+
+                        if (identityStereotype != null) {
+                            if (ROLE.equals(identityStereotype.value())) {
+                                addIdentityStereotypeMappings(roleTypes, (Class<? extends IdentityType>) attributedType, IDENTITY_ROLE_NAME);
+                            } else if (GROUP.equals(identityStereotype.value())) {
+                                addIdentityStereotypeMappings(groupTypes, (Class<? extends IdentityType>) attributedType, IDENTITY_GROUP_NAME);
+                            }
+                        }
+                    }
+
+                    if (Relationship.class.isAssignableFrom(attributedType)) {
+                        RelationshipStereotype relationshipStereotype = attributedType.getAnnotation(RelationshipStereotype.class);
+
+                        if (relationshipStereotype != null) {
+                            if (GRANT.equals(relationshipStereotype.value())) {
+                                addRelationshipStereotypeMapping(grantTypes, (Class<? extends Relationship>) attributedType,
+                                    RELATIONSHIP_GRANT_ROLE, RELATIONSHIP_GRANT_ASSIGNEE);
+                            } else if (GROUP_MEMBERSHIP.equals(relationshipStereotype.value())) {
+                                addRelationshipStereotypeMapping(groupMembershipTypes, (Class<? extends Relationship>) attributedType,
+                                    RELATIONSHIP_GROUP_MEMBERSHIP_GROUP, RELATIONSHIP_GROUP_MEMBERSHIP_MEMBER);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        this.roleTypes = unmodifiableList(roleTypes);
+        this.groupTypes = unmodifiableList(groupTypes);
+        this.grantTypes = unmodifiableList(grantTypes);
+        this.groupMembershipTypes = unmodifiableList(groupMembershipTypes);
+    }
+
+    /**
+     * <p>Returns the registry for the given {@link org.picketlink.idm.PartitionManager}.</p>
+     *
+     * @param partitionManager
+     * @return
+     */
+    public static StereotypeRegistry getRegistry(PartitionManager partitionManager) {
+        if (partitionManager == null) {
+            throw new IllegalArgumentException("You must provide a PartitionManager instance.");
+        }
+
+        StereotypeRegistry registry = registries.get(partitionManager);
+
+        if (registry == null) {
+            // concurrent threads may build the same registry, which is harmless given that it is immutable
+            registry = new StereotypeRegistry(partitionManager);
+            registries.put(partitionManager, registry);
+        }
+
+        return registry;
+    }
+
+    /**
+     * <p>Returns the mappings for all supported types annotated with the {@link IdentityStereotype.Stereotype#ROLE}
+     * stereotype.</p>
+     *
+     * @return
+     */
+    public List<IdentityStereotypeMapping> getRoleTypes() {
+        return this.roleTypes;
+    }
+
+    /**
+     * <p>Returns the mappings for all supported types annotated with the {@link IdentityStereotype.Stereotype#GROUP}
+     * stereotype.</p>
+     *
+     * @return
+     */
+    public List<IdentityStereotypeMapping> getGroupTypes() {
+        return this.groupTypes;
+    }
+
+    /**
+     * <p>Returns the mappings for all supported types annotated with the {@link RelationshipStereotype.Stereotype#GRANT}
+     * stereotype.</p>
+     *
+     * @return
+     */
+    public List<RelationshipStereotypeMapping> getGrantTypes() {
+        return this.grantTypes;
+    }
+
+    /**
+     * <p>Returns the mappings for all supported types annotated with the
+     * {@link RelationshipStereotype.Stereotype#GROUP_MEMBERSHIP} stereotype.</p>
+     *
+     * @return
+     */
+    public List<RelationshipStereotypeMapping> getGroupMembershipTypes() {
+        return this.groupMembershipTypes;
+    }
+
+    private static void addIdentityStereotypeMappings(List<IdentityStereotypeMapping> mappings,
+                                                      Class<? extends IdentityType> identityType,
+                                                      StereotypeProperty.Property nameProperty) {
+        for (Property<Object> property : getStereotypeProperties(identityType)) {
+            if (nameProperty.equals(property.getAnnotatedElement().getAnnotation(StereotypeProperty.class).value())) {
+                mappings.add(new IdentityStereotypeMapping(identityType, property));
+            }
+        }
+    }
+
+    private static void addRelationshipStereotypeMapping(List<RelationshipStereotypeMapping> mappings,
+                                                         Class<? extends Relationship> relationshipType,
+                                                         StereotypeProperty.Property identityTypeProperty,
+                                                         StereotypeProperty.Property assigneeProperty) {
+        Property<Object> identityTypeMapping = null;
+        Property<Object> assigneeMapping = null;
+
+        for (Property<Object> property : getStereotypeProperties(relationshipType)) {
+            StereotypeProperty.Property stereotypeProperty = property.getAnnotatedElement().getAnnotation(StereotypeProperty.class).value();
+
+            if (identityTypeProperty.equals(stereotypeProperty)) {
+                identityTypeMapping = property;
+            } else if (assigneeProperty.equals(stereotypeProperty)) {
+                assigneeMapping = property;
+            }
+        }
+
+        if (identityTypeMapping != null && assigneeMapping != null) {
+            mappings.add(new RelationshipStereotypeMapping(relationshipType, identityTypeMapping, assigneeMapping));
+        }
+    }
+
+    private static List<Property<Object>> getStereotypeProperties(Class<?> type) {
+        return PropertyQueries
+            .createQuery(type)
+            .addCriteria(new AnnotatedPropertyCriteria(StereotypeProperty.class))
+            .getResultList();
+    }
+
+    /**
+     * <p>Maps an identity type to the property holding its name.</p>
+     */
+    public static class IdentityStereotypeMapping {
+
+        private final Class<? extends IdentityType> type;
+        private final Property<Object> nameProperty;
+
+        IdentityStereotypeMapping(Class<? extends IdentityType> type, Property<Object> nameProperty) {
+            this.type = type;
+            this.nameProperty = nameProperty;
+        }
+
+        public Class<? extends IdentityType> getType() {
+            return this.type;
+        }
+
+        public Property<Object> getNameProperty() {
+            return this.nameProperty;
+        }
+    }
+
+    /**
+     * <p>Maps a relationship type to the properties holding the role or group and the assignee or member.</p>
+     */
+    public static class RelationshipStereotypeMapping {
+
+        private final Class<? extends Relationship> type;
+        private final Property<Object> identityTypeProperty;
+        private final Property<Object> assigneeProperty;
+
+        RelationshipStereotypeMapping(Class<? extends Relationship> type, Property<Object> identityTypeProperty,
+                                      Property<Object> assigneeProperty) {
+            this.type = type;
+            this.identityTypeProperty = identityTypeProperty;
+            this.assigneeProperty = assigneeProperty;
+        }
+
+        public Class<? extends Relationship> getType() {
+            return this.type;
+        }
+
+        /**
+         * <p>The property holding the role, for grants, or the group, for group memberships.</p>
+         */
+        public Property<Object> getIdentityTypeProperty() {
+            return this.identityTypeProperty;
+        }
+
+        /**
+         * <p>The property holding the assignee, for grants, or the member, for group memberships.</p>
+         */
+        public Property<Object> getAssigneeProperty() {
+            return this.assigneeProperty;
+        }
+    }
+}
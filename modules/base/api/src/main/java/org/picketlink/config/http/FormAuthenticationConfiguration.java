@@ -27,11 +27,18 @@ package org.picketlink.config.http;
 public class FormAuthenticationConfiguration extends AbstractAuthenticationSchemeConfiguration implements AuthenticationSchemeConfiguration {
 
     public static final String DEFAULT_AUTHENTICATION_URI = "j_security_check";
+    public static final long DEFAULT_SAVED_REQUEST_TIMEOUT = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_SAVED_REQUESTS = 10000;
+    public static final long DEFAULT_MAX_SAVED_REQUESTS_MEMORY = 16 * 1024 * 1024;
 
     private final String loginPageUrl;
     private final String errorPageUrl;
     private final String authenticationUri;
     private final boolean restoreOriginalRequest;
+    private final SavedRequestStorage savedRequestStorage;
+    private final long savedRequestTimeout;
+    private final int maxSavedRequests;
+    private final long maxSavedRequestsMemory;
 
     public FormAuthenticationConfiguration(
         String loginPageUrl,
@@ -39,6 +46,20 @@ public class FormAuthenticationConfiguration extends AbstractAuthenticationSchem
         boolean restoreOriginalRequest,
         String authenticationUri,
         AuthenticationConfiguration authenticationConfiguration) {
+        this(loginPageUrl, errorPageUrl, restoreOriginalRequest, authenticationUri, null, DEFAULT_SAVED_REQUEST_TIMEOUT,
+            DEFAULT_MAX_SAVED_REQUESTS, DEFAULT_MAX_SAVED_REQUESTS_MEMORY, authenticationConfiguration);
+    }
+
+    public FormAuthenticationConfiguration(
+        String loginPageUrl,
+        String errorPageUrl,
+        boolean restoreOriginalRequest,
+        String authenticationUri,
+        SavedRequestStorage savedRequestStorage,
+        long savedRequestTimeout,
+        int maxSavedRequests,
+        long maxSavedRequestsMemory,
+        AuthenticationConfiguration authenticationConfiguration) {
         super(authenticationConfiguration);
 
         if (loginPageUrl == null) {
@@ -59,6 +80,30 @@ public class FormAuthenticationConfiguration extends AbstractAuthenticationSchem
         }
 
         this.authenticationUri = authenticationUri;
+
+        if (savedRequestStorage == null) {
+            savedRequestStorage = SavedRequestStorage.MEMORY;
+        }
+
+        this.savedRequestStorage = savedRequestStorage;
+
+        if (savedRequestTimeout <= 0) {
+            throw new HttpSecurityConfigurationException("The saved request timeout must be greater than zero.");
+        }
+
+        this.savedRequestTimeout = savedRequestTimeout;
+
+        if (maxSavedRequests <= 0) {
+            throw new HttpSecurityConfigurationException("The maximum number of saved requests must be greater than zero.");
+        }
+
+        this.maxSavedRequests = maxSavedRequests;
+
+        if (maxSavedRequestsMemory <= 0) {
+            throw new HttpSecurityConfigurationException("The maximum memory used by saved requests must be greater than zero.");
+        }
+
+        this.maxSavedRequestsMemory = maxSavedRequestsMemory;
     }
 
     public String getLoginPageUrl() {
@@ -76,4 +121,20 @@ public class FormAuthenticationConfiguration extends AbstractAuthenticationSchem
     public String getAuthenticationUri() {
         return this.authenticationUri;
     }
+
+    public SavedRequestStorage getSavedRequestStorage() {
+        return this.savedRequestStorage;
+    }
+
+    public long getSavedRequestTimeout() {
+        return this.savedRequestTimeout;
+    }
+
+    public int getMaxSavedRequests() {
+        return this.maxSavedRequests;
+    }
+
+    public long getMaxSavedRequestsMemory() {
+        return this.maxSavedRequestsMemory;
+    }
 }
@@ -32,6 +32,10 @@ public class FormAuthenticationConfigurationBuilder extends AuthenticationMethod
     private String errorPageUrl;
     private boolean restoreOriginalRequest;
     private String authenticationUri;
+    private SavedRequestStorage savedRequestStorage = SavedRequestStorage.MEMORY;
+    private long savedRequestTimeout = FormAuthenticationConfiguration.DEFAULT_SAVED_REQUEST_TIMEOUT;
+    private int maxSavedRequests = FormAuthenticationConfiguration.DEFAULT_MAX_SAVED_REQUESTS;
+    private long maxSavedRequestsMemory = FormAuthenticationConfiguration.DEFAULT_MAX_SAVED_REQUESTS_MEMORY;
 
     FormAuthenticationConfigurationBuilder(PathConfigurationBuilder parentBuilder) {
         super(parentBuilder);
@@ -83,8 +87,58 @@ public class FormAuthenticationConfigurationBuilder extends AuthenticationMethod
         return this;
     }
 
+    /**
+     * <p>Specifies where the original request is kept until the user is authenticated. Defaults to
+     * {@link SavedRequestStorage#MEMORY}.</p>
+     *
+     * @param savedRequestStorage
+     * @return
+     */
+    public FormAuthenticationConfigurationBuilder savedRequestStorage(SavedRequestStorage savedRequestStorage) {
+        this.savedRequestStorage = savedRequestStorage;
+        return this;
+    }
+
+    /**
+     * <p>Specifies the time in milliseconds the original request is kept. If the user does not authenticate within this
+     * time, the original request is discarded. Defaults to five minutes.</p>
+     *
+     * @param savedRequestTimeout
+     * @return
+     */
+    public FormAuthenticationConfigurationBuilder savedRequestTimeout(long savedRequestTimeout) {
+        this.savedRequestTimeout = savedRequestTimeout;
+        return this;
+    }
+
+    /**
+     * <p>Specifies the maximum number of original requests kept in memory when using {@link SavedRequestStorage#MEMORY}.
+     * Once the limit is reached, the oldest requests are discarded.</p>
+     *
+     * @param maxSavedRequests
+     * @return
+     */
+    public FormAuthenticationConfigurationBuilder maxSavedRequests(int maxSavedRequests) {
+        this.maxSavedRequests = maxSavedRequests;
+        return this;
+    }
+
+    /**
+     * <p>Specifies the maximum estimated size in bytes of the original requests kept in memory when using
+     * {@link SavedRequestStorage#MEMORY}. Once the limit is reached, the oldest requests are discarded. Defaults to 16MB.</p>
+     *
+     * @param maxSavedRequestsMemory
+     * @return
+     */
+    public FormAuthenticationConfigurationBuilder maxSavedRequestsMemory(long maxSavedRequestsMemory) {
+        this.maxSavedRequestsMemory = maxSavedRequestsMemory;
+        return this;
+    }
+
     @Override
     AuthenticationSchemeConfiguration create(AuthenticationConfiguration authenticationConfiguration) {
-        return new FormAuthenticationConfiguration(this.loginPageUrl, this.errorPageUrl, this.restoreOriginalRequest, this.authenticationUri, authenticationConfiguration);
+        return new FormAuthenticationConfiguration(this.loginPageUrl, this.errorPageUrl, this.restoreOriginalRequest, this.authenticationUri,
+            this.savedRequestStorage, this.savedRequestTimeout, this.maxSavedRequests, this.maxSavedRequestsMemory,
+            authenticationConfiguration);
     }
 }
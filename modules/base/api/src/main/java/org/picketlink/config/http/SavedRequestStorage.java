@@ -0,0 +1,47 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.config.http;
+
+/**
+ * <p>Defines where requests saved during FORM authentication are kept until the user is authenticated.</p>
+ *
+ * @author agent
+ */
+public enum SavedRequestStorage {
+
+    /**
+     * <p>Saved requests are kept in a bounded cache, shared by all users, and expire after a timeout.</p>
+     */
+    MEMORY,
+
+    /**
+     * <p>Saved requests are kept in the user session.</p>
+     */
+    SESSION,
+
+    /**
+     * <p>Saved requests are kept in an encrypted cookie sent to the client. Only the method and the URL of the request are
+     * stored, its headers and parameters are discarded.</p>
+     */
+    COOKIE
+
+}
@@ -24,6 +24,7 @@ package org.picketlink.http.internal;
 import org.jboss.logging.Logger;
 import org.picketlink.Identity;
 import org.picketlink.authentication.AuthenticationException;
+import org.picketlink.authorization.util.AccountAuthorizationCache;
 import org.picketlink.config.SecurityConfiguration;
 import org.picketlink.config.SecurityConfigurationBuilder;
 import org.picketlink.config.http.AuthenticationConfiguration;
@@ -156,6 +157,9 @@ public class SecurityFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) servletRequest;
         HttpServletResponse response = (HttpServletResponse) servletResponse;
 
+        // roles and groups resolved while processing this request are memoized until the request ends
+        AccountAuthorizationCache.beginRequest();
+
         try {
             Identity identity = getIdentity();
 
@@ -196,6 +200,8 @@ public class SecurityFilter implements Filter {
             performOutboundProcessing(pathConfiguration, request, response, chain);
         } catch (Exception e) {
             handleException(pathConfiguration, request, response, e);
+        } finally {
+            AccountAuthorizationCache.endRequest();
         }
     }
 
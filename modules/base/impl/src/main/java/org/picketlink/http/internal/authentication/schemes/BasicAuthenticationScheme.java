@@ -34,6 +34,11 @@ import javax.servlet.http.HttpServletResponse;
 import static org.picketlink.http.internal.util.RequestUtil.isAjaxRequest;
 
 /**
+ * <p>Clients using this scheme usually send their credentials on every request. In order to avoid validating them
+ * against the identity stores each time, a credential cache may be enabled using
+ * {@link org.picketlink.idm.config.IdentityConfigurationBuilder#credentialCache(int, long)}, which caches successful
+ * validations for a short time.</p>
+ *
  * @author Shane Bryzak
  * @author anil saldhana
  * @author Pedro Igor
@@ -22,6 +22,7 @@
 
 package org.picketlink.http.internal.authentication.schemes;
 
+import org.picketlink.Identity;
 import org.picketlink.config.http.DigestAuthenticationConfiguration;
 import org.picketlink.credential.DefaultLoginCredentials;
 import org.picketlink.http.authentication.HttpAuthenticationScheme;
@@ -29,9 +30,10 @@ import org.picketlink.http.internal.authentication.schemes.support.HTTPDigestUti
 import org.picketlink.http.internal.authentication.schemes.support.NonceCache;
 import org.picketlink.idm.credential.Digest;
 
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Timer;
 
 import static org.picketlink.http.internal.util.RequestUtil.isAjaxRequest;
 
@@ -45,7 +47,14 @@ public class DigestAuthenticationScheme implements HttpAuthenticationScheme<Dige
     public static final String REALM_NAME_INIT_PARAM = "realmName";
     public static final String DEFAULT_REALM_NAME = "PicketLink Default Realm";
 
-    private final Timer nonceCleanupTimer = new Timer("PicketLink_Digest_Nonce_Cache_Cleanup");
+    /**
+     * <p>Request attribute holding the digest whose nonce count was reserved by the current request. Credentials may be
+     * extracted more than once during the same request, and the nonce count must only be reserved once.</p>
+     */
+    private static final String RESERVED_DIGEST_ATTRIBUTE = DigestAuthenticationScheme.class.getName() + ".RESERVED_DIGEST";
+
+    @Inject
+    private Instance<Identity> identity;
 
     private final NonceCache nonceCache = new NonceCache();
 
@@ -58,9 +67,6 @@ public class DigestAuthenticationScheme implements HttpAuthenticationScheme<Dige
         if (providedRealm != null) {
             this.realm = providedRealm;
         }
-
-        this.nonceCleanupTimer
-        .schedule(this.nonceCache, this.nonceCache.getNonceMaxValid(), this.nonceCache.getNonceMaxValid());
     }
 
     @Override
@@ -73,7 +79,8 @@ public class DigestAuthenticationScheme implements HttpAuthenticationScheme<Dige
 
                 credential.setMethod(request.getMethod());
 
-                if (this.nonceCache.hasValidNonce(credential, request)) {
+                if (isReserved(credential, request) || this.nonceCache.hasValidNonce(credential, request)) {
+                    request.setAttribute(RESERVED_DIGEST_ATTRIBUTE, credential);
                     creds.setCredential(credential);
                 }
             }
@@ -114,6 +121,25 @@ public class DigestAuthenticationScheme implements HttpAuthenticationScheme<Dige
 
     @Override
     public void onPostAuthentication(HttpServletRequest request, HttpServletResponse response) {
+        Digest reservedDigest = (Digest) request.getAttribute(RESERVED_DIGEST_ATTRIBUTE);
+
+        if (reservedDigest != null && !this.identity.get().isLoggedIn()) {
+            // the digest could not be verified, the client may send the same nonce count again. If the authentication
+            // fails with an exception the nonce count stays reserved, and the client must send a greater one
+            this.nonceCache.releaseNonceCount(reservedDigest);
+        }
+    }
+
+    private boolean isReserved(Digest credential, HttpServletRequest request) {
+        Digest reservedDigest = (Digest) request.getAttribute(RESERVED_DIGEST_ATTRIBUTE);
+
+        return reservedDigest != null
+            && isEqual(reservedDigest.getNonce(), credential.getNonce())
+            && isEqual(reservedDigest.getNonceCount(), credential.getNonceCount());
+    }
+
+    private boolean isEqual(String value, String anotherValue) {
+        return value == null ? anotherValue == null : value.equals(anotherValue);
     }
 
     private String[] extractTokens(HttpServletRequest request) {
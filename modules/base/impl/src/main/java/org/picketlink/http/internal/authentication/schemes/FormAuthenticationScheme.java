@@ -41,7 +41,7 @@ public class FormAuthenticationScheme implements HttpAuthenticationScheme<FormAu
     public static final String J_USERNAME = "j_username";
     public static final String J_PASSWORD = "j_password";
 
-    private final RequestCache requestCache = new RequestCache();
+    private RequestCache requestCache;
     private FormAuthenticationConfiguration configuration;
 
     @Inject
@@ -50,6 +50,8 @@ public class FormAuthenticationScheme implements HttpAuthenticationScheme<FormAu
     @Override
     public void initialize(FormAuthenticationConfiguration config) {
         this.configuration = config;
+        this.requestCache = new RequestCache(config.getSavedRequestStorage(), config.getSavedRequestTimeout(),
+            config.getMaxSavedRequests(), config.getMaxSavedRequestsMemory());
     }
 
     @Override
@@ -74,7 +76,7 @@ public class FormAuthenticationScheme implements HttpAuthenticationScheme<FormAu
         String requestedUri = request.getRequestURI();
 
         if (!isFormSubmitted(request) && this.configuration.isRestoreOriginalRequest() && !requestedUri.contains(this.configuration.getLoginPageUrl())) {
-            requestCache.saveRequest(request);
+            this.requestCache.saveRequest(request, response);
         }
 
         if (!requestedUri.contains(this.configuration.getLoginPageUrl())
@@ -87,7 +89,7 @@ public class FormAuthenticationScheme implements HttpAuthenticationScheme<FormAu
     public void onPostAuthentication(HttpServletRequest request, HttpServletResponse response) {
         try {
             if (this.identity.get().isLoggedIn()) {
-                SavedRequest savedRequest = requestCache.removeAndStoreSavedRequestInSession(request);
+                SavedRequest savedRequest = this.requestCache.removeAndStoreSavedRequestInSession(request, response);
 
                 if (savedRequest != null) {
                     response.sendRedirect(savedRequest.getRequestURI());
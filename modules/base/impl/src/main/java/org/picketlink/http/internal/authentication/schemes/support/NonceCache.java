@@ -22,97 +22,327 @@
 
 package org.picketlink.http.internal.authentication.schemes.support;
 
-import org.picketlink.common.util.Base64;
 import org.picketlink.idm.credential.Digest;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TimerTask;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * <p>Stores the nonces issued to clients using HTTP DIGEST authentication.</p>
+ *
+ * <p>Nonces are kept in a concurrent map, so they are looked up in constant time without locking. Each nonce is bound to
+ * the session it was issued to and is valid for a fixed period of time, after which it is removed using a timing wheel:
+ * nonces are also added to the bucket of the wheel corresponding to the time they were issued, and whole buckets are
+ * expired as time goes by. Expiration happens incrementally, while nonces are issued or validated, so there is no need
+ * for a background task.</p>
+ *
+ * <p>The number of nonces is bounded. Once the limit is reached, the oldest nonces are removed before their expiration to
+ * make room for new ones.</p>
+ *
+ * <p>The highest nonce count used by the client with each nonce is tracked, so that requests can not be replayed using
+ * the same nonce count. Nonce counts are reserved atomically by {@link #hasValidNonce(Digest, HttpServletRequest)}, so
+ * concurrent requests sending the same nonce count can not both pass, and released by
+ * {@link #releaseNonceCount(Digest)} if the authentication fails.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
  * @author Pedro Silva
  */
-public class NonceCache extends TimerTask {
+public class NonceCache {
 
-    private UUIDNonceGenerator nonceGenerator = new UUIDNonceGenerator();
+    public static final long DEFAULT_NONCE_MAX_VALID = 3 * 60 * 1000;
+    public static final int DEFAULT_MAX_NONCES = 100000;
 
-    private long nonceMaxValid = 3 * 60 * 1000;
+    private static final int WHEEL_SIZE = 60;
 
-    private Map<String, List<String>> nonceCache = new HashMap<String, List<String>>();
+    private final UUIDNonceGenerator nonceGenerator = new UUIDNonceGenerator();
+    private final ConcurrentMap<String, NonceEntry> nonces = new ConcurrentHashMap<String, NonceEntry>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final long nonceMaxValid;
+    private final int maxNonces;
 
-    @Override
-    public void run() {
-        if (nonceCache.isEmpty()) {
-            return;
-        }
+    /**
+     * <p>The wheel has one more bucket than the number of ticks a nonce is valid, so that the bucket being expired always
+     * holds nonces issued more than <code>nonceMaxValid</code> milliseconds ago.</p>
+     */
+    private final AtomicReferenceArray<Queue<NonceEntry>> wheel = new AtomicReferenceArray<Queue<NonceEntry>>(WHEEL_SIZE + 1);
+    private final long tickDuration;
+    private final AtomicLong currentTick;
 
-        Set<Entry<String, List<String>>> cacheEntries = new HashMap<String, List<String>>(this.nonceCache).entrySet();
+    public NonceCache() {
+        this(DEFAULT_NONCE_MAX_VALID, DEFAULT_MAX_NONCES);
+    }
 
-        for (Entry<String, List<String>> entry : cacheEntries) {
-            List<String> nonces = entry.getValue();
+    /**
+     * @param nonceMaxValid The time in milliseconds a nonce is valid.
+     * @param maxNonces The maximum number of nonces kept by this cache.
+     */
+    public NonceCache(long nonceMaxValid, int maxNonces) {
+        if (nonceMaxValid <= 0) {
+            throw new IllegalArgumentException("The nonce validity must be greater than zero.");
+        }
 
-            for (String nonce : new ArrayList<String>(nonces)) {
-                if (hasExpired(nonce, this.nonceMaxValid)) {
-                    nonces.remove(nonce);
-                }
-            }
+        if (maxNonces <= 0) {
+            throw new IllegalArgumentException("The maximum number of nonces must be greater than zero.");
+        }
 
-            if (nonces.isEmpty()) {
-                this.nonceCache.remove(entry.getKey());
-            }
+        this.nonceMaxValid = nonceMaxValid;
+        this.maxNonces = maxNonces;
+        this.tickDuration = Math.max(1, (nonceMaxValid + WHEEL_SIZE - 1) / WHEEL_SIZE);
+
+        for (int i = 0; i < this.wheel.length(); i++) {
+            this.wheel.set(i, new ConcurrentLinkedQueue<NonceEntry>());
         }
+
+        this.currentTick = new AtomicLong(getTick(System.currentTimeMillis()));
     }
 
     public String generateAndCacheNonce(HttpServletRequest request) {
-        String newNonce = this.nonceGenerator.get();
-
-        HttpSession session = request.getSession();
+        long now = System.currentTimeMillis();
 
-        List<String> storedNonces = this.nonceCache.get(session.getId());
+        advance(now);
 
-        if (storedNonces == null) {
-            storedNonces = new ArrayList<String>();
-            this.nonceCache.put(session.getId(), storedNonces);
+        while (this.size.get() >= this.maxNonces) {
+            if (!evictOldest()) {
+                break;
+            }
         }
 
-        storedNonces.add(newNonce);
+        String newNonce = this.nonceGenerator.get();
+        NonceEntry entry = new NonceEntry(newNonce, request.getSession().getId(), now + this.nonceMaxValid, getTick(now));
+
+        if (this.nonces.putIfAbsent(newNonce, entry) == null) {
+            this.size.incrementAndGet();
+            addToBucket(entry);
+        }
 
         return newNonce;
     }
 
+    /**
+     * <p>Checks if the nonce sent by the client was issued to the current session and is still valid. If the client sent
+     * a nonce count, it must be greater than any nonce count previously used with the same nonce, and it is reserved by
+     * this method. Only one of the requests sending the same nonce count passes this check.</p>
+     *
+     * @param digest
+     * @param request
+     * @return
+     */
     public boolean hasValidNonce(Digest digest, HttpServletRequest request) {
+        long now = System.currentTimeMillis();
+
+        advance(now);
+
         String nonce = digest.getNonce();
 
-        List<String> storedNonces = this.nonceCache.get(request.getSession().getId());
+        if (nonce == null) {
+            return false;
+        }
+
+        NonceEntry entry = this.nonces.get(nonce);
 
-        if (storedNonces == null || !storedNonces.contains(nonce) || hasExpired(nonce, this.nonceMaxValid)) {
+        if (entry == null) {
             return false;
         }
 
+        if (entry.expiration <= now) {
+            remove(entry);
+            return false;
+        }
+
+        HttpSession session = request.getSession(false);
+
+        if (session == null || !entry.sessionId.equals(session.getId())) {
+            return false;
+        }
+
+        Long nonceCount = parseNonceCount(digest.getNonceCount());
+
+        // requests without a nonce count, when no quality of protection was negotiated, are always accepted
+        if (nonceCount == null) {
+            return true;
+        }
+
+        long lastCount;
+
+        do {
+            lastCount = entry.nonceCount.get();
+
+            if (nonceCount <= lastCount) {
+                return false;
+            }
+        } while (!entry.nonceCount.compareAndSet(lastCount, nonceCount));
+
         return true;
     }
 
-    public boolean hasExpired(String nonceValue, long maxValue) {
-        nonceValue = new String(Base64.decode(nonceValue));
-        int colonIndex = nonceValue.indexOf(":");
-        if (colonIndex < 0)
-            return true;
-        String timeValue = nonceValue.substring(0, colonIndex);
-        long parsedTimeValue = Long.parseLong(timeValue);
-        long ms = System.currentTimeMillis() - parsedTimeValue;
-        if (ms > maxValue) {
-            return true;
+    /**
+     * <p>Releases the nonce count reserved by {@link #hasValidNonce(Digest, HttpServletRequest)} for a request that failed
+     * the authentication, so that the client can send it again. Nothing is released if a greater nonce count was reserved
+     * in the meantime.</p>
+     *
+     * @param digest
+     */
+    public void releaseNonceCount(Digest digest) {
+        String nonce = digest.getNonce();
+
+        if (nonce == null) {
+            return;
         }
-        return false;
+
+        NonceEntry entry = this.nonces.get(nonce);
+        Long nonceCount = parseNonceCount(digest.getNonceCount());
+
+        if (entry == null || nonceCount == null) {
+            return;
+        }
+
+        entry.nonceCount.compareAndSet(nonceCount, nonceCount - 1);
     }
 
     public long getNonceMaxValid() {
         return this.nonceMaxValid;
     }
+
+    public int getSize() {
+        return this.size.get();
+    }
+
+    /**
+     * <p>Moves the wheel to the current tick, expiring the buckets of all the ticks passed since the last move. Only the
+     * thread that moves the wheel expires the buckets.</p>
+     */
+    private void advance(long now) {
+        long tick = getTick(now);
+        long lastTick = this.currentTick.get();
+
+        if (tick <= lastTick || !this.currentTick.compareAndSet(lastTick, tick)) {
+            return;
+        }
+
+        // after a full turn all buckets are expired, there is no need to go through them again
+        long firstTick = Math.max(lastTick + 1, tick - WHEEL_SIZE);
+
+        for (long expiredTick = firstTick; expiredTick <= tick; expiredTick++) {
+            expire(expiredTick, now, false);
+        }
+    }
+
+    /**
+     * <p>Removes the oldest bucket with nonces, regardless of their expiration.</p>
+     *
+     * @return False if there are no nonces to remove.
+     */
+    private boolean evictOldest() {
+        long tick = this.currentTick.get();
+
+        // the oldest bucket is the one that is going to be expired next
+        for (long oldestTick = tick + 1; oldestTick <= tick + this.wheel.length(); oldestTick++) {
+            if (expire(oldestTick, Long.MAX_VALUE, true) > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>Replaces the bucket of the given tick by an empty one and removes the expired nonces it held. Nonces that are not
+     * expired, which may be added by concurrent threads while the bucket is replaced, are moved to the current bucket.</p>
+     *
+     * @return The number of nonces removed.
+     */
+    private int expire(long tick, long now, boolean force) {
+        Queue<NonceEntry> bucket = this.wheel.getAndSet(getBucketIndex(tick), new ConcurrentLinkedQueue<NonceEntry>());
+        int removed = 0;
+        NonceEntry entry;
+
+        while ((entry = bucket.poll()) != null) {
+            if (force || entry.expiration <= now) {
+                if (remove(entry)) {
+                    removed++;
+                }
+            } else {
+                addToBucket(entry);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * <p>Adds the given nonce to the bucket of the tick it was issued. If the bucket is replaced while the nonce is added,
+     * the nonce is added to the new bucket as well, otherwise it could be left in a bucket that was already expired and
+     * never be removed. A nonce added twice is only removed once.</p>
+     */
+    private void addToBucket(NonceEntry entry) {
+        Queue<NonceEntry> bucket;
+
+        do {
+            bucket = getBucket(entry.tick);
+            bucket.add(entry);
+        } while (bucket != getBucket(entry.tick));
+    }
+
+    private boolean remove(NonceEntry entry) {
+        if (this.nonces.remove(entry.nonce, entry)) {
+            this.size.decrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    private Queue<NonceEntry> getBucket(long tick) {
+        return this.wheel.get(getBucketIndex(tick));
+    }
+
+    private int getBucketIndex(long tick) {
+        return (int) (tick % this.wheel.length());
+    }
+
+    private long getTick(long time) {
+        return time / this.tickDuration;
+    }
+
+    /**
+     * <p>Parses the nonce count, an hexadecimal number. Invalid nonce counts are parsed as {@link Long#MIN_VALUE}, which is
+     * never greater than the last nonce count accepted.</p>
+     *
+     * @return The nonce count, or null if the client did not send one.
+     */
+    private static Long parseNonceCount(String nonceCount) {
+        if (nonceCount == null) {
+            return null;
+        }
+
+        try {
+            return Long.parseLong(nonceCount, 16);
+        } catch (NumberFormatException nfe) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static class NonceEntry {
+
+        private final String nonce;
+        private final String sessionId;
+        private final long expiration;
+        private final long tick;
+        private final AtomicLong nonceCount = new AtomicLong(-1);
+
+        NonceEntry(String nonce, String sessionId, long expiration, long tick) {
+            this.nonce = nonce;
+            this.sessionId = sessionId;
+            this.expiration = expiration;
+            this.tick = tick;
+        }
+    }
 }
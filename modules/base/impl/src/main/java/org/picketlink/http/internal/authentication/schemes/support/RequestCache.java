@@ -17,9 +17,31 @@
  */
 package org.picketlink.http.internal.authentication.schemes.support;
 
+import org.picketlink.common.util.Base64;
+import org.picketlink.config.http.SavedRequestStorage;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
@@ -28,24 +50,119 @@ import java.util.concurrent.ConcurrentHashMap;
  * the authentication process begins. It also stores the cached request in the user session for later use, if necessary.
  * </p>
  *
+ * <p>
+ * Saved requests expire after a timeout and are kept according to a {@link SavedRequestStorage}:
+ * </p>
+ *
+ * <ul>
+ *     <li>{@link SavedRequestStorage#MEMORY}: in a cache bounded by the number of requests and by their estimated size. When
+ *     any of the limits is reached the oldest requests are discarded, so traffic from clients that never authenticate does not
+ *     grow the heap.</li>
+ *     <li>{@link SavedRequestStorage#SESSION}: in the user session.</li>
+ *     <li>{@link SavedRequestStorage#COOKIE}: in a cookie encrypted and signed with keys generated when this instance is
+ *     created. Only the method and the URL are kept, and saved requests do not survive a restart nor are shared between
+ *     nodes.</li>
+ * </ul>
+ *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
 public class RequestCache {
 
     public static final String ORIGINAL_REQUEST_ATTRIBUTE_NAME = "org.picketlink.web.original.request";
+    public static final String SAVED_REQUEST_ATTRIBUTE_NAME = "org.picketlink.web.saved.request";
+    public static final String SAVED_REQUEST_COOKIE_NAME = "PL_SAVED_REQUEST";
+
+    public static final long DEFAULT_TIMEOUT = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_REQUESTS = 10000;
+    public static final long DEFAULT_MAX_MEMORY = 16 * 1024 * 1024;
+
+    private static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5Padding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int MAX_COOKIE_LENGTH = 4000;
+
+    private final SavedRequestStorage storage;
+    private final long timeout;
+    private final int maxRequests;
+    private final long maxMemory;
+
+    private final ConcurrentHashMap<String, CachedRequest> requestCache = new ConcurrentHashMap<String, CachedRequest>();
+    private final ConcurrentLinkedQueue<CachedRequest> evictionQueue = new ConcurrentLinkedQueue<CachedRequest>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong memory = new AtomicLong();
 
-    private ConcurrentHashMap<String, SavedRequest> requestCache = new ConcurrentHashMap<String, SavedRequest>();
+    private final SecureRandom random = new SecureRandom();
+    private SecretKey encryptionKey;
+    private SecretKey macKey;
+
+    public RequestCache() {
+        this(SavedRequestStorage.MEMORY, DEFAULT_TIMEOUT, DEFAULT_MAX_REQUESTS, DEFAULT_MAX_MEMORY);
+    }
+
+    /**
+     * @param storage Where saved requests are kept.
+     * @param timeout The time in milliseconds a saved request is kept.
+     * @param maxRequests The maximum number of saved requests kept in memory.
+     * @param maxMemory The maximum estimated size in bytes of the saved requests kept in memory.
+     */
+    public RequestCache(SavedRequestStorage storage, long timeout, int maxRequests, long maxMemory) {
+        if (storage == null) {
+            throw new IllegalArgumentException("You must provide a saved request storage.");
+        }
+
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("The saved request timeout must be greater than zero.");
+        }
+
+        if (maxRequests <= 0 || maxMemory <= 0) {
+            throw new IllegalArgumentException("The saved request limits must be greater than zero.");
+        }
+
+        this.storage = storage;
+        this.timeout = timeout;
+        this.maxRequests = maxRequests;
+        this.maxMemory = maxMemory;
+
+        if (SavedRequestStorage.COOKIE.equals(storage)) {
+            try {
+                KeyGenerator encryptionKeyGenerator = KeyGenerator.getInstance("AES");
+
+                encryptionKeyGenerator.init(128, this.random);
+
+                this.encryptionKey = encryptionKeyGenerator.generateKey();
+
+                KeyGenerator macKeyGenerator = KeyGenerator.getInstance(MAC_ALGORITHM);
+
+                macKeyGenerator.init(256, this.random);
+
+                this.macKey = macKeyGenerator.generateKey();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not create keys to protect saved requests.", e);
+            }
+        }
+    }
 
     /**
      * <p>
      * Saves a {@link javax.servlet.http.HttpServletRequest} as a {@link SavedRequest} instance. All the state from the original request will be
-     * copied.
+     * copied, unless it is saved in a cookie.
      * </p>
      *
      * @param request
+     * @param response
      */
-    public void saveRequest(HttpServletRequest request) {
-        this.requestCache.put(getCurrentSession(request).getId(), new SavedRequest(request));
+    public void saveRequest(HttpServletRequest request, HttpServletResponse response) {
+        SavedRequest savedRequest = new SavedRequest(request);
+
+        if (SavedRequestStorage.SESSION.equals(this.storage)) {
+            getCurrentSession(request).setAttribute(SAVED_REQUEST_ATTRIBUTE_NAME, savedRequest);
+        } else if (SavedRequestStorage.COOKIE.equals(this.storage)) {
+            saveInCookie(savedRequest, request, response);
+        } else {
+            saveInMemory(getCurrentSession(request).getId(), savedRequest);
+        }
     }
 
     /**
@@ -66,15 +183,281 @@ public class RequestCache {
 
     /**
      * <p>
-     * Removes a cached request and stores it in the session.
+     * Removes a cached request and stores it in the session. Expired requests are discarded.
      * </p>
      */
-    public SavedRequest removeAndStoreSavedRequestInSession(HttpServletRequest request) {
+    public SavedRequest removeAndStoreSavedRequestInSession(HttpServletRequest request, HttpServletResponse response) {
         HttpSession session = getCurrentSession(request);
-        SavedRequest originalRequest = this.requestCache.remove(session.getId());
+        SavedRequest originalRequest;
+
+        if (SavedRequestStorage.SESSION.equals(this.storage)) {
+            originalRequest = (SavedRequest) session.getAttribute(SAVED_REQUEST_ATTRIBUTE_NAME);
+            session.removeAttribute(SAVED_REQUEST_ATTRIBUTE_NAME);
+        } else if (SavedRequestStorage.COOKIE.equals(this.storage)) {
+            originalRequest = removeFromCookie(request, response);
+        } else {
+            originalRequest = removeFromMemory(session.getId());
+        }
+
+        if (originalRequest != null && isExpired(originalRequest, System.currentTimeMillis())) {
+            originalRequest = null;
+        }
 
         session.setAttribute(ORIGINAL_REQUEST_ATTRIBUTE_NAME, originalRequest);
 
         return originalRequest;
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Returns the number of requests kept in memory.
+     * </p>
+     */
+    public int getSize() {
+        return this.size.get();
+    }
+
+    private void saveInMemory(String sessionId, SavedRequest savedRequest) {
+        CachedRequest cachedRequest = new CachedRequest(sessionId, savedRequest);
+
+        // too large to be cached without discarding all other requests
+        if (cachedRequest.size > this.maxMemory) {
+            return;
+        }
+
+        evictExpired(savedRequest.getCreationTime());
+
+        CachedRequest previous = this.requestCache.put(sessionId, cachedRequest);
+
+        if (previous != null) {
+            release(previous);
+        }
+
+        this.size.incrementAndGet();
+        this.memory.addAndGet(cachedRequest.size);
+        this.evictionQueue.add(cachedRequest);
+        this.queuedCount.incrementAndGet();
+
+        // the queue may also hold requests already removed or replaced, which are discarded when polled
+        while (this.size.get() > this.maxRequests || this.memory.get() > this.maxMemory
+            || this.queuedCount.get() > this.maxRequests * 2) {
+            CachedRequest oldest = this.evictionQueue.poll();
+
+            if (oldest == null) {
+                break;
+            }
+
+            this.queuedCount.decrementAndGet();
+
+            if (this.requestCache.remove(oldest.sessionId, oldest)) {
+                release(oldest);
+            }
+        }
+    }
+
+    private SavedRequest removeFromMemory(String sessionId) {
+        CachedRequest cachedRequest = this.requestCache.remove(sessionId);
+
+        if (cachedRequest == null) {
+            return null;
+        }
+
+        release(cachedRequest);
+
+        return cachedRequest.savedRequest;
+    }
+
+    /**
+     * <p>
+     * Requests are queued in the order they were saved, which is also the order they expire.
+     * </p>
+     */
+    private void evictExpired(long now) {
+        CachedRequest oldest;
+
+        while ((oldest = this.evictionQueue.peek()) != null && isExpired(oldest.savedRequest, now)) {
+            if (this.evictionQueue.remove(oldest)) {
+                this.queuedCount.decrementAndGet();
+
+                if (this.requestCache.remove(oldest.sessionId, oldest)) {
+                    release(oldest);
+                }
+            }
+        }
+    }
+
+    private void release(CachedRequest cachedRequest) {
+        this.size.decrementAndGet();
+        this.memory.addAndGet(-cachedRequest.size);
+    }
+
+    private boolean isExpired(SavedRequest savedRequest, long now) {
+        return savedRequest.getCreationTime() + this.timeout <= now;
+    }
+
+    private void saveInCookie(SavedRequest savedRequest, HttpServletRequest request, HttpServletResponse response) {
+        String value;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+
+            output.writeLong(savedRequest.getCreationTime());
+            writeString(output, savedRequest.getMethod());
+            writeString(output, savedRequest.getScheme());
+            writeString(output, savedRequest.getContextPath());
+            writeString(output, savedRequest.getRequestURI());
+            writeString(output, savedRequest.getQueryString());
+            output.flush();
+
+            value = Base64.encodeBytes(encrypt(bytes.toByteArray()), Base64.DONT_BREAK_LINES);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not save request in a cookie.", e);
+        }
+
+        // requests with very long URLs can not be saved in a cookie
+        if (value.length() > MAX_COOKIE_LENGTH) {
+            return;
+        }
+
+        response.addCookie(createCookie(request, value, (int) (this.timeout / 1000)));
+    }
+
+    private SavedRequest removeFromCookie(HttpServletRequest request, HttpServletResponse response) {
+        Cookie[] cookies = request.getCookies();
+
+        if (cookies == null) {
+            return null;
+        }
+
+        for (Cookie cookie : cookies) {
+            if (SAVED_REQUEST_COOKIE_NAME.equals(cookie.getName())) {
+                response.addCookie(createCookie(request, "", 0));
+
+                byte[] decrypted = decrypt(cookie.getValue());
+
+                if (decrypted == null) {
+                    return null;
+                }
+
+                try {
+                    DataInputStream input = new DataInputStream(new ByteArrayInputStream(decrypted));
+                    long creationTime = input.readLong();
+                    String method = readString(input);
+                    String scheme = readString(input);
+                    String contextPath = readString(input);
+                    String requestURI = readString(input);
+                    String queryString = readString(input);
+
+                    return new SavedRequest(method, scheme, contextPath, requestURI, queryString, creationTime);
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private Cookie createCookie(HttpServletRequest request, String value, int maxAge) {
+        Cookie cookie = new Cookie(SAVED_REQUEST_COOKIE_NAME, value);
+        String contextPath = request.getContextPath();
+
+        if (contextPath == null || contextPath.isEmpty()) {
+            contextPath = "/";
+        }
+
+        cookie.setPath(contextPath);
+        cookie.setMaxAge(maxAge);
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+
+        return cookie;
+    }
+
+    private byte[] encrypt(byte[] value) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+
+        this.random.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+
+        cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, new IvParameterSpec(iv));
+
+        byte[] encrypted = cipher.doFinal(value);
+        byte[] result = new byte[IV_LENGTH + encrypted.length + MAC_LENGTH];
+
+        System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+        System.arraycopy(encrypted, 0, result, IV_LENGTH, encrypted.length);
+        System.arraycopy(mac(result, IV_LENGTH + encrypted.length), 0, result, IV_LENGTH + encrypted.length, MAC_LENGTH);
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Returns the decrypted value, or null if the value was not created by this instance or was tampered with.
+     * </p>
+     */
+    private byte[] decrypt(String value) {
+        try {
+            byte[] decoded = Base64.decode(value);
+
+            if (decoded == null || decoded.length < IV_LENGTH + MAC_LENGTH + 16) {
+                return null;
+            }
+
+            int macOffset = decoded.length - MAC_LENGTH;
+
+            if (!MessageDigest.isEqual(mac(decoded, macOffset), Arrays.copyOfRange(decoded, macOffset, decoded.length))) {
+                return null;
+            }
+
+            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+
+            cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, new IvParameterSpec(decoded, 0, IV_LENGTH));
+
+            return cipher.doFinal(decoded, IV_LENGTH, macOffset - IV_LENGTH);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private byte[] mac(byte[] value, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+
+        mac.init(this.macKey);
+        mac.update(value, 0, length);
+
+        return mac.doFinal();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        if (input.readBoolean()) {
+            return input.readUTF();
+        }
+
+        return null;
+    }
+
+    private static class CachedRequest {
+
+        private final String sessionId;
+        private final SavedRequest savedRequest;
+        private final long size;
+
+        CachedRequest(String sessionId, SavedRequest savedRequest) {
+            this.sessionId = sessionId;
+            this.savedRequest = savedRequest;
+            this.size = savedRequest.getEstimatedSize();
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.picketlink.http.internal.authentication.schemes.support;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -35,7 +36,9 @@ import java.util.Set;
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
-public class SavedRequest {
+public class SavedRequest implements Serializable {
+
+    private static final long serialVersionUID = -2403434271402227516L;
 
     private List<Cookie> cookies = new ArrayList<Cookie>();
     private Map<String, String> headers = new HashMap<String, String>();
@@ -45,6 +48,7 @@ public class SavedRequest {
     private String requestURI;
     private String scheme;
     private String contextPath;
+    private long creationTime;
 
     /**
      * <p>
@@ -62,6 +66,22 @@ public class SavedRequest {
         this.requestURI = request.getRequestURI();
         this.scheme = request.getScheme();
         this.contextPath = request.getContextPath();
+        this.creationTime = System.currentTimeMillis();
+    }
+
+    /**
+     * <p>
+     * Create a new instance without cookies, headers and parameters. Used to restore requests that were saved in a
+     * compact form.
+     * </p>
+     */
+    SavedRequest(String method, String scheme, String contextPath, String requestURI, String queryString, long creationTime) {
+        this.method = method;
+        this.scheme = scheme;
+        this.contextPath = contextPath;
+        this.requestURI = requestURI;
+        this.queryString = queryString;
+        this.creationTime = creationTime;
     }
 
     /**
@@ -136,6 +156,54 @@ public class SavedRequest {
         return this.contextPath;
     }
 
+    /**
+     * <p>
+     * Returns the time in milliseconds when the original request was saved.
+     * </p>
+     */
+    public long getCreationTime() {
+        return this.creationTime;
+    }
+
+    /**
+     * <p>
+     * Returns a rough estimate, in bytes, of the memory used by the state copied from the original request.
+     * </p>
+     */
+    long getEstimatedSize() {
+        long size = 64 + sizeOf(this.method) + sizeOf(this.queryString) + sizeOf(this.requestURI) + sizeOf(this.scheme)
+            + sizeOf(this.contextPath);
+
+        for (Entry<String, String> header : this.headers.entrySet()) {
+            size += 32 + sizeOf(header.getKey()) + sizeOf(header.getValue());
+        }
+
+        for (Entry<String, String[]> parameter : this.parameters.entrySet()) {
+            size += 32 + sizeOf(parameter.getKey());
+
+            if (parameter.getValue() != null) {
+                for (String value : parameter.getValue()) {
+                    size += 8 + sizeOf(value);
+                }
+            }
+        }
+
+        for (Cookie cookie : this.cookies) {
+            size += 64 + sizeOf(cookie.getName()) + sizeOf(cookie.getValue()) + sizeOf(cookie.getDomain())
+                + sizeOf(cookie.getPath());
+        }
+
+        return size;
+    }
+
+    private static long sizeOf(String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        return 40 + 2L * value.length();
+    }
+
     /**
      * <p>
      * Copy the parameters from the original {@link javax.servlet.http.HttpServletRequest}.
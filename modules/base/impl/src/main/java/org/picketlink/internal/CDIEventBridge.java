@@ -18,6 +18,10 @@
 
 package org.picketlink.internal;
 
+import org.picketlink.authorization.util.AccountAuthorizationCache;
+import org.picketlink.idm.event.AbstractBaseEvent;
+import org.picketlink.idm.event.CredentialRemovedEvent;
+import org.picketlink.idm.event.CredentialUpdatedEvent;
 import org.picketlink.idm.event.EventBridge;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -39,6 +43,11 @@ public class CDIEventBridge implements EventBridge {
 
     @Override
     public void raiseEvent(Object event) {
+        if (isIdentityModelChange(event)) {
+            // roles and groups memoized during the current requests may no longer be valid
+            AccountAuthorizationCache.invalidate();
+        }
+
         fireEvent(event);
     }
 
@@ -49,4 +58,10 @@ public class CDIEventBridge implements EventBridge {
 
         this.beanManager.fireEvent(event);
     }
+
+    private boolean isIdentityModelChange(Object event) {
+        return AbstractBaseEvent.class.isInstance(event)
+            && !CredentialUpdatedEvent.class.isInstance(event)
+            && !CredentialRemovedEvent.class.isInstance(event);
+    }
 }
@@ -18,6 +18,8 @@
 
 package org.picketlink.internal;
 
+import org.picketlink.idm.AsyncIdentityManager;
+import org.picketlink.idm.BulkIdentityManager;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.credential.Credentials;
@@ -28,8 +30,13 @@ import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.IdentityQueryBuilder;
 
 import javax.enterprise.inject.Typed;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Decorator for IdentityManager that provides secured identity management operations
@@ -37,7 +44,7 @@ import java.util.List;
  * @author Shane Bryzak
  */
 @Typed(SecuredIdentityManager.class)
-public class SecuredIdentityManager implements IdentityManager {
+public class SecuredIdentityManager implements BulkIdentityManager, AsyncIdentityManager {
 
     private static final long serialVersionUID = -8197103563768366958L;
 
@@ -52,6 +59,22 @@ public class SecuredIdentityManager implements IdentityManager {
         decorated.add(identityType);
     }
 
+    @Override
+    public void addAll(Collection<? extends IdentityType> identityTypes) throws IdentityManagementException {
+        addAll(identityTypes, DEFAULT_BATCH_SIZE);
+    }
+
+    @Override
+    public void addAll(Collection<? extends IdentityType> identityTypes, int batchSize) throws IdentityManagementException {
+        if (BulkIdentityManager.class.isInstance(decorated)) {
+            ((BulkIdentityManager) decorated).addAll(identityTypes, batchSize);
+        } else {
+            for (IdentityType identityType : identityTypes) {
+                decorated.add(identityType);
+            }
+        }
+    }
+
     @Override
     public void update(IdentityType identityType) throws IdentityManagementException {
         decorated.update(identityType);
@@ -82,6 +105,25 @@ public class SecuredIdentityManager implements IdentityManager {
         decorated.validateCredentials(credentials);
     }
 
+    @Override
+    public Future<Credentials> validateCredentialsAsync(final Credentials credentials, Executor executor) {
+        if (AsyncIdentityManager.class.isInstance(decorated)) {
+            return ((AsyncIdentityManager) decorated).validateCredentialsAsync(credentials, executor);
+        }
+
+        FutureTask<Credentials> task = new FutureTask<Credentials>(new Callable<Credentials>() {
+            @Override
+            public Credentials call() throws Exception {
+                decorated.validateCredentials(credentials);
+                return credentials;
+            }
+        });
+
+        executor.execute(task);
+
+        return task;
+    }
+
     @Override
     public void updateCredential(Account account, Object credential) {
         decorated.updateCredential(account, credential);
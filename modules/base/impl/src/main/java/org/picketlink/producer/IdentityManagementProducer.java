@@ -20,6 +20,7 @@ package org.picketlink.producer;
 
 import org.picketlink.PartitionManagerCreateEvent;
 import org.picketlink.annotations.PicketLink;
+import org.picketlink.idm.BulkIdentityManager;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.PartitionManager;
 import org.picketlink.idm.PermissionManager;
@@ -33,6 +34,7 @@ import org.picketlink.idm.permission.acl.spi.PermissionHandler;
 import org.picketlink.internal.CDIEventBridge;
 import org.picketlink.internal.SecuredIdentityManager;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.RequestScoped;
 import javax.enterprise.inject.Instance;
@@ -100,6 +102,17 @@ public class IdentityManagementProducer {
         }
     }
 
+    /**
+     * <p>Releases the resources held by the {@link PartitionManager}, only if it was created by this bean. Partition
+     * managers provided by the application are managed by the application.</p>
+     */
+    @PreDestroy
+    public void destroy() {
+        if (this.partitionManagerInstance.isUnsatisfied() && this.partitionManager instanceof DefaultPartitionManager) {
+            ((DefaultPartitionManager) this.partitionManager).close();
+        }
+    }
+
     @Produces
     public PartitionManager producePartitionManager() {
         return this.partitionManager;
@@ -109,11 +122,13 @@ public class IdentityManagementProducer {
      * <p>{@link IdentityManager} instances are produced accordingly to the current {@link Partition} in use. If no partition is
      * provided, the default partition will be used.</p>
      *
+     * <p>The produced instances also support bulk operations, so they can be injected as a {@link BulkIdentityManager}.</p>
+     *
      * @return
      */
     @Produces
     @RequestScoped
-    public IdentityManager produceIdentityManager() {
+    public BulkIdentityManager produceIdentityManager() {
         if (this.defaultPartition.isUnsatisfied() || this.defaultPartition.get() == null) {
             return new SecuredIdentityManager(this.partitionManager.createIdentityManager());
         }
@@ -22,8 +22,10 @@
 package org.picketlink.http.test.authentication;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.picketlink.config.SecurityConfigurationBuilder;
 import org.picketlink.config.http.FormAuthenticationConfiguration;
+import org.picketlink.config.http.SavedRequestStorage;
 import org.picketlink.event.SecurityConfigurationEvent;
 import org.picketlink.http.internal.authentication.schemes.FormAuthenticationScheme;
 import org.picketlink.http.internal.authentication.schemes.support.RequestCache;
@@ -32,6 +34,7 @@ import org.picketlink.http.test.SecurityInitializer;
 import org.picketlink.test.weld.Deployment;
 
 import javax.enterprise.event.Observes;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -138,6 +141,31 @@ public class FormAuthenticationSchemeTestCase extends AbstractSecurityFilterTest
         verify(this.session).setAttribute(eq(RequestCache.ORIGINAL_REQUEST_ATTRIBUTE_NAME), any());
     }
 
+    @Test
+    public void testRestoreOriginalRequestFromCookie() throws Exception {
+        String savedUri = "/formProtectedUriRestoreFromCookie/someUriToSave.html";
+
+        when(this.request.getServletPath()).thenReturn(savedUri);
+
+        this.securityFilter.doFilter(this.request, this.response, this.filterChain);
+
+        ArgumentCaptor<Cookie> savedRequestCookie = ArgumentCaptor.forClass(Cookie.class);
+
+        verify(this.response).addCookie(savedRequestCookie.capture());
+        verify(this.response).sendRedirect(eq("/picketlink-app/loginFormProtectedUriRestoreFromCookie.html"));
+
+        when(this.request.getCookies()).thenReturn(new Cookie[] {savedRequestCookie.getValue()});
+        when(this.request.getServletPath())
+            .thenReturn("/formProtectedUriRestoreFromCookie/" + FormAuthenticationConfiguration.DEFAULT_AUTHENTICATION_URI);
+        when(this.request.getParameter(FormAuthenticationScheme.J_USERNAME)).thenReturn("picketlink");
+        when(this.request.getParameter(FormAuthenticationScheme.J_PASSWORD)).thenReturn("picketlink");
+
+        this.securityFilter.doFilter(this.request, this.response, this.filterChain);
+
+        verify(this.response).sendRedirect(CONTEXT_PATH + savedUri);
+        verify(this.response, times(2)).addCookie(any(Cookie.class));
+    }
+
     public static class SecurityConfiguration {
 
         public void configureHttpSecurity(@Observes SecurityConfigurationEvent event) {
@@ -156,6 +184,13 @@ public class FormAuthenticationSchemeTestCase extends AbstractSecurityFilterTest
                 .restoreOriginalRequest()
                 .loginPage("/loginFormProtectedUriRestoreOriginalRequest.html")
                 .errorPage("/loginFormProtectedUriRestoreOriginalRequest.html")
+                .forPath("/formProtectedUriRestoreFromCookie/*")
+                .authenticateWith()
+                .form()
+                .restoreOriginalRequest()
+                .savedRequestStorage(SavedRequestStorage.COOKIE)
+                .loginPage("/loginFormProtectedUriRestoreFromCookie.html")
+                .errorPage("/loginFormProtectedUriRestoreFromCookie.html")
                 .forPath("/pathWithoutWildCard")
                 .authenticateWith()
                 .form()
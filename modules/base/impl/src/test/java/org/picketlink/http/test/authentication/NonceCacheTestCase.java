@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.http.test.authentication;
+
+import org.junit.Test;
+import org.picketlink.http.internal.authentication.schemes.support.NonceCache;
+import org.picketlink.idm.credential.Digest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author agent
+ */
+public class NonceCacheTestCase {
+
+    @Test
+    public void testValidNonce() {
+        NonceCache nonceCache = new NonceCache();
+        HttpServletRequest request = createRequest("session");
+        String nonce = nonceCache.generateAndCacheNonce(request);
+
+        assertTrue(nonceCache.hasValidNonce(createDigest(nonce, null), request));
+        assertFalse(nonceCache.hasValidNonce(createDigest(nonce, null), createRequest("anotherSession")));
+        assertFalse(nonceCache.hasValidNonce(createDigest("unknown", null), request));
+        assertFalse(nonceCache.hasValidNonce(createDigest(null, null), request));
+    }
+
+    @Test
+    public void testNonceExpiration() throws Exception {
+        NonceCache nonceCache = new NonceCache(100, NonceCache.DEFAULT_MAX_NONCES);
+        HttpServletRequest request = createRequest("session");
+        String nonce = nonceCache.generateAndCacheNonce(request);
+
+        assertTrue(nonceCache.hasValidNonce(createDigest(nonce, null), request));
+
+        Thread.sleep(200);
+
+        assertFalse(nonceCache.hasValidNonce(createDigest(nonce, null), request));
+
+        nonceCache.generateAndCacheNonce(request);
+
+        // only the nonce just issued is kept
+        assertEquals(1, nonceCache.getSize());
+    }
+
+    @Test
+    public void testMaxNonces() {
+        NonceCache nonceCache = new NonceCache(NonceCache.DEFAULT_NONCE_MAX_VALID, 2);
+        HttpServletRequest request = createRequest("session");
+        String firstNonce = nonceCache.generateAndCacheNonce(request);
+
+        nonceCache.generateAndCacheNonce(request);
+
+        String lastNonce = nonceCache.generateAndCacheNonce(request);
+
+        assertTrue(nonceCache.getSize() <= 2);
+        assertFalse(nonceCache.hasValidNonce(createDigest(firstNonce, null), request));
+        assertTrue(nonceCache.hasValidNonce(createDigest(lastNonce, null), request));
+    }
+
+    @Test
+    public void testReplayedNonceCount() {
+        NonceCache nonceCache = new NonceCache();
+        HttpServletRequest request = createRequest("session");
+        String nonce = nonceCache.generateAndCacheNonce(request);
+
+        assertTrue(nonceCache.hasValidNonce(createDigest(nonce, "00000001"), request));
+        assertFalse(nonceCache.hasValidNonce(createDigest(nonce, "00000001"), request));
+        assertTrue(nonceCache.hasValidNonce(createDigest(nonce, "0000000a"), request));
+        assertFalse(nonceCache.hasValidNonce(createDigest(nonce, "00000002"), request));
+        assertFalse(nonceCache.hasValidNonce(createDigest(nonce, "invalid"), request));
+        assertTrue(nonceCache.hasValidNonce(createDigest(nonce, "0000000b"), request));
+    }
+
+    @Test
+    public void testReleaseNonceCount() {
+        NonceCache nonceCache = new NonceCache();
+        HttpServletRequest request = createRequest("session");
+        String nonce = nonceCache.generateAndCacheNonce(request);
+
+        assertTrue(nonceCache.hasValidNonce(createDigest(nonce, "00000001"), request));
+
+        // the authentication failed, the client may send the same nonce count again
+        nonceCache.releaseNonceCount(createDigest(nonce, "00000001"));
+
+        assertTrue(nonceCache.hasValidNonce(createDigest(nonce, "00000001"), request));
+        assertTrue(nonceCache.hasValidNonce(createDigest(nonce, "00000002"), request));
+
+        // a greater nonce count was reserved in the meantime, nothing is released
+        nonceCache.releaseNonceCount(createDigest(nonce, "00000001"));
+
+        assertFalse(nonceCache.hasValidNonce(createDigest(nonce, "00000002"), request));
+    }
+
+    @Test
+    public void testConcurrentNonceCountReservation() throws Exception {
+        final NonceCache nonceCache = new NonceCache();
+        final HttpServletRequest request = createRequest("session");
+        final String nonce = nonceCache.generateAndCacheNonce(request);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger validCount = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int nonceCount = 1; nonceCount <= 1000; nonceCount++) {
+                        if (nonceCache.hasValidNonce(createDigest(nonce, Integer.toHexString(nonceCount)), request)) {
+                            validCount.incrementAndGet();
+                        }
+                    }
+                }
+            };
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // each nonce count passes at most once, no matter how many requests send it
+        assertTrue(validCount.get() <= 1000);
+        assertTrue(validCount.get() > 0);
+    }
+
+    @Test
+    public void testConcurrentlyIssuedNoncesExpire() throws Exception {
+        final NonceCache nonceCache = new NonceCache(60, NonceCache.DEFAULT_MAX_NONCES);
+        final HttpServletRequest request = createRequest("session");
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int j = 0; j < 5000; j++) {
+                        nonceCache.generateAndCacheNonce(request);
+                    }
+                }
+            };
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Thread.sleep(200);
+
+        nonceCache.generateAndCacheNonce(request);
+
+        // nonces added while their bucket was being expired must not be left behind
+        assertEquals(1, nonceCache.getSize());
+    }
+
+    private HttpServletRequest createRequest(String sessionId) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpSession session = mock(HttpSession.class);
+
+        when(session.getId()).thenReturn(sessionId);
+        when(request.getSession()).thenReturn(session);
+        when(request.getSession(false)).thenReturn(session);
+
+        return request;
+    }
+
+    private Digest createDigest(String nonce, String nonceCount) {
+        Digest digest = new Digest();
+
+        digest.setNonce(nonce);
+        digest.setNonceCount(nonceCount);
+
+        return digest;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.http.test.authentication;
+
+import org.junit.Test;
+import org.picketlink.config.http.SavedRequestStorage;
+import org.picketlink.http.internal.authentication.schemes.support.RequestCache;
+import org.picketlink.http.internal.authentication.schemes.support.SavedRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author agent
+ */
+public class RequestCacheTestCase {
+
+    @Test
+    public void testMaxRequests() {
+        RequestCache requestCache = new RequestCache(SavedRequestStorage.MEMORY, RequestCache.DEFAULT_TIMEOUT, 3,
+            RequestCache.DEFAULT_MAX_MEMORY);
+
+        for (int i = 0; i < 5; i++) {
+            saveRequest(requestCache, "session" + i, "/uri" + i);
+        }
+
+        assertEquals(3, requestCache.getSize());
+
+        // the oldest requests were discarded
+        assertNull(removeRequest(requestCache, "session0"));
+        assertNull(removeRequest(requestCache, "session1"));
+
+        for (int i = 2; i < 5; i++) {
+            assertEquals("/uri" + i, removeRequest(requestCache, "session" + i).getRequestURI());
+        }
+
+        assertEquals(0, requestCache.getSize());
+    }
+
+    @Test
+    public void testMaxMemory() {
+        StringBuilder longUri = new StringBuilder("/");
+
+        for (int i = 0; i < 1000; i++) {
+            longUri.append('a');
+        }
+
+        // each request is estimated to take more than 2KB
+        RequestCache requestCache = new RequestCache(SavedRequestStorage.MEMORY, RequestCache.DEFAULT_TIMEOUT,
+            RequestCache.DEFAULT_MAX_REQUESTS, 5000);
+
+        for (int i = 0; i < 5; i++) {
+            saveRequest(requestCache, "session" + i, longUri.toString() + i);
+        }
+
+        assertEquals(2, requestCache.getSize());
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(removeRequest(requestCache, "session" + i));
+        }
+
+        assertEquals(longUri.toString() + 3, removeRequest(requestCache, "session3").getRequestURI());
+        assertEquals(longUri.toString() + 4, removeRequest(requestCache, "session4").getRequestURI());
+
+        // a request larger than the limit is not cached
+        RequestCache smallRequestCache = new RequestCache(SavedRequestStorage.MEMORY, RequestCache.DEFAULT_TIMEOUT,
+            RequestCache.DEFAULT_MAX_REQUESTS, 1000);
+
+        saveRequest(smallRequestCache, "session0", "/uri");
+        saveRequest(smallRequestCache, "session1", longUri.toString());
+
+        assertEquals(1, smallRequestCache.getSize());
+        assertNotNull(removeRequest(smallRequestCache, "session0"));
+        assertNull(removeRequest(smallRequestCache, "session1"));
+    }
+
+    @Test
+    public void testEvictOldestFirst() {
+        RequestCache requestCache = new RequestCache(SavedRequestStorage.MEMORY, RequestCache.DEFAULT_TIMEOUT, 3,
+            RequestCache.DEFAULT_MAX_MEMORY);
+
+        saveRequest(requestCache, "session0", "/uri0");
+        saveRequest(requestCache, "session1", "/uri1");
+        saveRequest(requestCache, "session2", "/uri2");
+
+        // saving a request again for the same session makes it the most recent one
+        saveRequest(requestCache, "session0", "/anotherUri0");
+        saveRequest(requestCache, "session3", "/uri3");
+
+        assertEquals(3, requestCache.getSize());
+        assertNull(removeRequest(requestCache, "session1"));
+        assertEquals("/anotherUri0", removeRequest(requestCache, "session0").getRequestURI());
+        assertEquals("/uri2", removeRequest(requestCache, "session2").getRequestURI());
+        assertEquals("/uri3", removeRequest(requestCache, "session3").getRequestURI());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        RequestCache requestCache = new RequestCache(SavedRequestStorage.MEMORY, 100, RequestCache.DEFAULT_MAX_REQUESTS,
+            RequestCache.DEFAULT_MAX_MEMORY);
+
+        saveRequest(requestCache, "session0", "/uri0");
+        saveRequest(requestCache, "session1", "/uri1");
+
+        Thread.sleep(200);
+
+        assertNull(removeRequest(requestCache, "session0"));
+
+        // expired requests are discarded when new ones are saved
+        saveRequest(requestCache, "session2", "/uri2");
+
+        assertEquals(1, requestCache.getSize());
+        assertNull(removeRequest(requestCache, "session1"));
+        assertEquals("/uri2", removeRequest(requestCache, "session2").getRequestURI());
+    }
+
+    private void saveRequest(RequestCache requestCache, String sessionId, String requestURI) {
+        HttpServletRequest request = createRequest(sessionId);
+
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getScheme()).thenReturn("http");
+        when(request.getContextPath()).thenReturn("/app");
+        when(request.getRequestURI()).thenReturn(requestURI);
+        when(request.getHeaderNames()).thenReturn(Collections.enumeration(Collections.<String>emptyList()));
+
+        requestCache.saveRequest(request, mock(HttpServletResponse.class));
+    }
+
+    private SavedRequest removeRequest(RequestCache requestCache, String sessionId) {
+        return requestCache.removeAndStoreSavedRequestInSession(createRequest(sessionId), mock(HttpServletResponse.class));
+    }
+
+    private HttpServletRequest createRequest(String sessionId) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpSession session = mock(HttpSession.class);
+
+        when(session.getId()).thenReturn(sessionId);
+        when(request.getSession()).thenReturn(session);
+        when(request.getSession(true)).thenReturn(session);
+
+        return request;
+    }
+}
@@ -25,12 +25,18 @@ import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.picketlink.annotations.PicketLink;
+import org.picketlink.authorization.util.AccountAuthorizationCache;
+import org.picketlink.authorization.util.AuthorizationUtil;
 import org.picketlink.config.SecurityConfigurationBuilder;
 import org.picketlink.config.http.FormAuthenticationConfiguration;
 import org.picketlink.event.SecurityConfigurationEvent;
 import org.picketlink.http.internal.authentication.schemes.FormAuthenticationScheme;
 import org.picketlink.http.test.AbstractSecurityFilterTestCase;
 import org.picketlink.http.test.SecurityInitializer;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.model.basic.Role;
 import org.picketlink.test.weld.Deployment;
 
 import javax.enterprise.event.Observes;
@@ -40,6 +46,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -48,6 +56,9 @@ import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.picketlink.idm.model.basic.BasicModel.getRole;
+import static org.picketlink.idm.model.basic.BasicModel.grantRole;
+import static org.picketlink.idm.model.basic.BasicModel.revokeRole;
 
 /**
  * @author Pedro Igor
@@ -64,6 +75,9 @@ public class RoleBasedAuthorizationTestCase extends AbstractSecurityFilterTestCa
     @PicketLink
     private Instance<HttpServletRequest> picketLinkRequest;
 
+    @Inject
+    private PartitionManager partitionManager;
+
     @Test
     public void testOnlyManagers() throws Exception {
         when(this.request.getServletPath()).thenReturn("/formProtectedUri/" + FormAuthenticationConfiguration.DEFAULT_AUTHENTICATION_URI);
@@ -119,6 +133,97 @@ public class RoleBasedAuthorizationTestCase extends AbstractSecurityFilterTestCa
         verify(this.response, times(1)).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
     }
 
+    @Test
+    public void testGrantThenCheck() throws Exception {
+        login();
+
+        Role customerRole = getCustomerRole();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+
+        try {
+            AccountAuthorizationCache.beginRequest();
+
+            try {
+                assertFalse(AuthorizationUtil.hasRole(this.identity, this.partitionManager, "Customer"));
+
+                grantRole(relationshipManager, this.identity.getAccount(), customerRole);
+
+                // the grant must be visible within the same request
+                assertTrue(AuthorizationUtil.hasRole(this.identity, this.partitionManager, "Customer"));
+            } finally {
+                AccountAuthorizationCache.endRequest();
+            }
+
+            when(this.request.getServletPath()).thenReturn("/onlyCustomerRole");
+            reset(this.response);
+
+            this.securityFilter.doFilter(this.request, this.response, this.filterChain);
+
+            verify(this.filterChain, times(1)).doFilter(any(HttpServletRequest.class), any(HttpServletResponse.class));
+        } finally {
+            revokeRole(relationshipManager, this.identity.getAccount(), customerRole);
+        }
+    }
+
+    @Test
+    public void testRevokeThenCheck() throws Exception {
+        login();
+
+        Role customerRole = getCustomerRole();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+
+        grantRole(relationshipManager, this.identity.getAccount(), customerRole);
+
+        when(this.request.getServletPath()).thenReturn("/onlyCustomerRole");
+        reset(this.response);
+
+        this.securityFilter.doFilter(this.request, this.response, this.filterChain);
+
+        verify(this.filterChain, times(1)).doFilter(any(HttpServletRequest.class), any(HttpServletResponse.class));
+
+        AccountAuthorizationCache.beginRequest();
+
+        try {
+            assertTrue(AuthorizationUtil.hasRole(this.identity, this.partitionManager, "Customer"));
+
+            revokeRole(relationshipManager, this.identity.getAccount(), customerRole);
+
+            // the revocation must be visible within the same request
+            assertFalse(AuthorizationUtil.hasRole(this.identity, this.partitionManager, "Customer"));
+        } finally {
+            AccountAuthorizationCache.endRequest();
+        }
+
+        reset(this.response);
+
+        this.securityFilter.doFilter(this.request, this.response, this.filterChain);
+
+        verify(this.filterChain, times(1)).doFilter(any(HttpServletRequest.class), any(HttpServletResponse.class));
+        verify(this.response, times(1)).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
+    }
+
+    private void login() throws Exception {
+        when(this.request.getServletPath()).thenReturn("/formProtectedUri/" + FormAuthenticationConfiguration.DEFAULT_AUTHENTICATION_URI);
+        when(this.request.getParameter(FormAuthenticationScheme.J_USERNAME)).thenReturn("picketlink");
+        when(this.request.getParameter(FormAuthenticationScheme.J_PASSWORD)).thenReturn("picketlink");
+
+        this.securityFilter.doFilter(this.request, this.response, this.filterChain);
+
+        assertTrue(this.identity.isLoggedIn());
+    }
+
+    private Role getCustomerRole() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        Role customerRole = getRole(identityManager, "Customer");
+
+        if (customerRole == null) {
+            customerRole = new Role("Customer");
+            identityManager.add(customerRole);
+        }
+
+        return customerRole;
+    }
+
     public static class SecurityConfiguration {
         public void configureHttpSecurity(@Observes SecurityConfigurationEvent event) {
             SecurityConfigurationBuilder builder = event.getBuilder();
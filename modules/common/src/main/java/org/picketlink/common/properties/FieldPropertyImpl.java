@@ -67,13 +67,16 @@ class FieldPropertyImpl<V> implements FieldProperty<V> {
 
     @Override
     public V getValue(Object instance) {
-        setAccessible();
+        // properties are shared by cached queries, the privileged action only needs to run once per field
+        if (!field.isAccessible()) {
+            setAccessible();
+        }
+
         return getFieldValue(field, instance, getJavaClass());
     }
 
     @Override
     public void setValue(Object instance, V value) {
-        setAccessible();
         setFieldValue(true, field, instance, value);
     }
 
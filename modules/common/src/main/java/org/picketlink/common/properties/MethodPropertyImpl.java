@@ -22,9 +22,12 @@ import org.picketlink.common.reflection.Reflections;
 
 import java.beans.Introspector;
 import java.lang.annotation.Annotation;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import static org.picketlink.common.reflection.Reflections.invokeMethod;
 
@@ -44,6 +47,13 @@ class MethodPropertyImpl<V> implements MethodProperty<V> {
     private final String propertyName;
     private final Method setterMethod;
 
+    /**
+     * Setter methods resolved for instances of subtypes when the declaring type does not declare one. Keys are weak and
+     * methods, which reference their declaring class, are only softly reachable, so subtypes can still be unloaded.
+     */
+    private final Map<Class<?>, SoftReference<Method>> overriddenSetterMethods =
+            new WeakHashMap<Class<?>, SoftReference<Method>>();
+
     public MethodPropertyImpl(Method method) {
         final String accessorMethodPrefix;
         final String propertyNameInAccessorMethod;
@@ -135,7 +145,7 @@ class MethodPropertyImpl<V> implements MethodProperty<V> {
             // a setter method. We just check if the instance is assignable from the property declaring class and
             // try to find a overridden method.
             if (getDeclaringClass().isAssignableFrom(instance.getClass())) {
-                Method instanceSetterMethod = getSetterMethod(instance.getClass(), getName());
+                Method instanceSetterMethod = getOverriddenSetterMethod(instance.getClass());
 
                 if (instanceSetterMethod != null) {
                     invokeMethod(instanceSetterMethod, instance, value);
@@ -150,6 +160,23 @@ class MethodPropertyImpl<V> implements MethodProperty<V> {
         invokeMethod(setterMethod, instance, value);
     }
 
+    private Method getOverriddenSetterMethod(Class<?> instanceClass) {
+        synchronized (this.overriddenSetterMethods) {
+            SoftReference<Method> reference = this.overriddenSetterMethods.get(instanceClass);
+            Method instanceSetterMethod = reference != null ? reference.get() : null;
+
+            if (instanceSetterMethod == null) {
+                instanceSetterMethod = getSetterMethod(instanceClass, getName());
+
+                if (instanceSetterMethod != null) {
+                    this.overriddenSetterMethods.put(instanceClass, new SoftReference<Method>(instanceSetterMethod));
+                }
+            }
+
+            return instanceSetterMethod;
+        }
+    }
+
     private static Method getSetterMethod(Class<?> clazz, String name) {
         Method[] methods = clazz.getMethods();
         for (Method method : methods) {
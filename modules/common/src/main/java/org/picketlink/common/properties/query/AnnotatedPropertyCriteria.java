@@ -42,4 +42,21 @@ public class AnnotatedPropertyCriteria implements PropertyCriteria {
         return m.isAnnotationPresent(annotationClass);
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof AnnotatedPropertyCriteria)) {
+            return false;
+        }
+
+        return this.annotationClass.equals(((AnnotatedPropertyCriteria) obj).annotationClass);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.annotationClass.hashCode();
+    }
 }
@@ -21,6 +21,7 @@ package org.picketlink.common.properties.query;
 import java.beans.Introspector;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
 /**
  * A criteria that matches a property based on name
@@ -55,4 +56,22 @@ public class NamedPropertyCriteria implements PropertyCriteria {
         }
         return false;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof NamedPropertyCriteria)) {
+            return false;
+        }
+
+        return Arrays.equals(this.propertyNames, ((NamedPropertyCriteria) obj).propertyNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.propertyNames);
+    }
 }
@@ -23,6 +23,7 @@ import org.picketlink.common.properties.MethodProperty;
 import org.picketlink.common.properties.Properties;
 import org.picketlink.common.properties.Property;
 
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -30,6 +31,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p> Queries a target class for properties that match certain criteria. A property may either be a private or public
@@ -37,12 +41,21 @@ import java.util.Map;
  * or inherited from any of its superclasses. For properties that are exposed via a method, the property must be a
  * JavaBean style property, i.e. it must provide both an accessor and mutator method according to the JavaBean
  * specification. </p> <p/> <p> This class is not thread-safe, however the result returned by the getResultList() method
- * is. </p>
+ * is. </p> <p/> <p> Results are cached globally for each target class when all criteria are one of the built-in
+ * {@link AnnotatedPropertyCriteria}, {@link NamedPropertyCriteria} or {@link TypedPropertyCriteria}, so the class
+ * hierarchy is only scanned once for the same criteria. The cache is weakly keyed by the target class and the results
+ * for a class, which reference the class and the criteria types through their fields and methods, are only softly
+ * reachable from the cache. This way the cache never holds a strong reference to the class used as its key and does not
+ * prevent classes or their class loaders from being unloaded. </p>
  *
  * @see PropertyQueries
  * @see PropertyCriteria
  */
 public class PropertyQuery<V> {
+
+    private static final Map<Class<?>, SoftReference<ConcurrentMap<ResultKey, List<?>>>> RESULT_CACHE =
+            new WeakHashMap<Class<?>, SoftReference<ConcurrentMap<ResultKey, List<?>>>>();
+
     private final Class<?> targetClass;
     private final List<PropertyCriteria> criteria;
 
@@ -154,7 +167,37 @@ public class PropertyQuery<V> {
      *
      * @return the results, or an empty list if there are no results
      */
+    @SuppressWarnings("unchecked")
     private List<Property<V>> getResultList(boolean writable) {
+        if (!isCacheable()) {
+            return resolveResultList(writable);
+        }
+
+        ConcurrentMap<ResultKey, List<?>> classCache;
+
+        synchronized (RESULT_CACHE) {
+            SoftReference<ConcurrentMap<ResultKey, List<?>>> reference = RESULT_CACHE.get(this.targetClass);
+
+            classCache = reference != null ? reference.get() : null;
+
+            if (classCache == null) {
+                classCache = new ConcurrentHashMap<ResultKey, List<?>>();
+                RESULT_CACHE.put(this.targetClass, new SoftReference<ConcurrentMap<ResultKey, List<?>>>(classCache));
+            }
+        }
+
+        ResultKey key = new ResultKey(this.criteria, writable);
+        List<?> result = classCache.get(key);
+
+        if (result == null) {
+            result = resolveResultList(writable);
+            classCache.put(key, result);
+        }
+
+        return (List<Property<V>>) result;
+    }
+
+    private List<Property<V>> resolveResultList(boolean writable) {
         Map<String, PropertyAdapter<V>> adapters = new HashMap<String, PropertyAdapter<V>>();
 
         // First check public accessor methods (we ignore private methods)
@@ -215,4 +258,53 @@ public class PropertyQuery<V> {
         return Collections.unmodifiableList(new ArrayList<Property<V>>(adapters.values()));
     }
 
+    /**
+     * <p>Only the built-in criteria are known to be immutable and to implement equals and hashCode consistently with
+     * their matching rules.</p>
+     */
+    private boolean isCacheable() {
+        for (PropertyCriteria c : this.criteria) {
+            Class<?> criteriaType = c.getClass();
+
+            if (!AnnotatedPropertyCriteria.class.equals(criteriaType)
+                    && !NamedPropertyCriteria.class.equals(criteriaType)
+                    && !TypedPropertyCriteria.class.equals(criteriaType)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static class ResultKey {
+
+        private final List<PropertyCriteria> criteria;
+        private final boolean writable;
+
+        ResultKey(List<PropertyCriteria> criteria, boolean writable) {
+            this.criteria = new ArrayList<PropertyCriteria>(criteria);
+            this.writable = writable;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof ResultKey)) {
+                return false;
+            }
+
+            ResultKey other = (ResultKey) obj;
+
+            return this.writable == other.writable && this.criteria.equals(other.criteria);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.criteria.hashCode() + (this.writable ? 1 : 0);
+        }
+    }
+
 }
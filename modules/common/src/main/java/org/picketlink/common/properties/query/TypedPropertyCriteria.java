@@ -85,4 +85,24 @@ public class TypedPropertyCriteria implements PropertyCriteria {
 
         return false;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof TypedPropertyCriteria)) {
+            return false;
+        }
+
+        TypedPropertyCriteria other = (TypedPropertyCriteria) obj;
+
+        return this.propertyClass.equals(other.propertyClass) && this.matchOption == other.matchOption;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.propertyClass.hashCode() + (this.matchOption != null ? this.matchOption.hashCode() : 0);
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.picketlink.common.properties.query;
+
+import org.junit.Test;
+import org.picketlink.common.properties.Properties;
+import org.picketlink.common.properties.Property;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author agent
+ */
+public class PropertyQueryTestCase {
+
+    @Test
+    public void testResultsCachedForSameCriteria() {
+        List<Property<Object>> first = PropertyQueries.createQuery(Person.class)
+            .addCriteria(new NamedPropertyCriteria("name"))
+            .getResultList();
+        List<Property<Object>> second = PropertyQueries.createQuery(Person.class)
+            .addCriteria(new NamedPropertyCriteria("name"))
+            .getResultList();
+
+        assertEquals(1, first.size());
+        assertEquals("name", first.get(0).getName());
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testResultsCachedByCriteriaAndWritability() {
+        List<Property<Object>> byName = PropertyQueries.createQuery(Person.class)
+            .addCriteria(new NamedPropertyCriteria("name"))
+            .getResultList();
+        List<Property<Object>> byType = PropertyQueries.createQuery(Person.class)
+            .addCriteria(new TypedPropertyCriteria(int.class))
+            .getResultList();
+        List<Property<Object>> byAnnotation = PropertyQueries.createQuery(Person.class)
+            .addCriteria(new AnnotatedPropertyCriteria(Identifier.class))
+            .getResultList();
+
+        assertEquals("name", byName.get(0).getName());
+        assertEquals("age", byType.get(0).getName());
+        assertEquals("id", byAnnotation.get(0).getName());
+
+        List<Property<Object>> all = PropertyQueries.createQuery(Person.class)
+            .addCriteria(new NamedPropertyCriteria("name", "displayName"))
+            .getResultList();
+        List<Property<Object>> writable = PropertyQueries.createQuery(Person.class)
+            .addCriteria(new NamedPropertyCriteria("name", "displayName"))
+            .getWritableResultList();
+
+        assertEquals(2, all.size());
+        assertEquals(1, writable.size());
+        assertEquals("name", writable.get(0).getName());
+    }
+
+    @Test
+    public void testCustomCriteriaNotCached() {
+        PropertyCriteria criteria = new PropertyCriteria() {
+            @Override
+            public boolean fieldMatches(Field f) {
+                return "name".equals(f.getName());
+            }
+
+            @Override
+            public boolean methodMatches(Method m) {
+                return false;
+            }
+        };
+
+        List<Property<Object>> first = PropertyQueries.createQuery(Person.class).addCriteria(criteria).getResultList();
+        List<Property<Object>> second = PropertyQueries.createQuery(Person.class).addCriteria(criteria).getResultList();
+
+        assertEquals(1, first.size());
+        assertEquals(first.size(), second.size());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testSetValueUsingOverriddenSetter() throws Exception {
+        Property<String> property = Properties.createProperty(Named.class.getMethod("getName"));
+
+        Person john = new Person();
+        Person mary = new Person();
+
+        property.setValue(john, "john");
+        property.setValue(mary, "mary");
+
+        assertEquals("john", john.getName());
+        assertEquals("mary", mary.getName());
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD, ElementType.METHOD})
+    public @interface Identifier {
+    }
+
+    public interface Named {
+        String getName();
+    }
+
+    public static class Person implements Named {
+
+        @Identifier
+        private final String id = "1";
+        private String name;
+        private int age;
+
+        public String getId() {
+            return this.id;
+        }
+
+        public String getDisplayName() {
+            return "Person " + this.name;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getAge() {
+            return this.age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+    }
+}
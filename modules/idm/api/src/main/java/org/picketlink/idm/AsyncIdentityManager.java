@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm;
+
+import org.picketlink.idm.credential.Credentials;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * <p>An {@link IdentityManager} that is capable of validating credentials using an {@link Executor}, instead of the
+ * calling thread.</p>
+ *
+ * <p>This is an optional interface, so that existing {@link IdentityManager} implementations are not required to
+ * support asynchronous validations. The instances created by {@link PartitionManager#createIdentityManager()} implement
+ * it:</p>
+ *
+ * <pre>
+ *      IdentityManager identityManager = partitionManager.createIdentityManager();
+ *
+ *      if (identityManager instanceof AsyncIdentityManager) {
+ *          ((AsyncIdentityManager) identityManager).validateCredentialsAsync(credentials, hashingExecutor);
+ *      }
+ * </pre>
+ *
+ * @author agent
+ */
+public interface AsyncIdentityManager extends IdentityManager {
+
+    /**
+     * <p>
+     * Validates the given {@link Credentials} using the given {@link Executor}, instead of the calling thread.
+     * </p>
+     * <p>
+     * The returned {@link Future} completes with the same <code>credentials</code> instance once they are validated.
+     * If the executor is saturated the validation may also be rejected, in which case the status of the credentials is
+     * <code>Credentials.Status.REJECTED</code>. A {@link org.picketlink.idm.credential.handler.PasswordHashingExecutor}
+     * can be used for both the validation and the password hashing, so that the number of validations in progress is
+     * bounded as a whole.
+     * </p>
+     *
+     * @param credentials
+     * @param executor The executor running the validation.
+     * @return
+     * @throws java.util.concurrent.RejectedExecutionException If the executor does not accept the validation.
+     */
+    Future<Credentials> validateCredentialsAsync(Credentials credentials, Executor executor);
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm;
+
+import org.picketlink.idm.model.IdentityType;
+
+import java.util.Collection;
+
+/**
+ * <p>An {@link IdentityManager} that is capable of adding many identity types at once.</p>
+ *
+ * <p>This is an optional interface, so that existing {@link IdentityManager} implementations are not required to
+ * support bulk operations. The instances created by {@link PartitionManager#createIdentityManager()} implement it:</p>
+ *
+ * <pre>
+ *      IdentityManager identityManager = partitionManager.createIdentityManager();
+ *
+ *      if (identityManager instanceof BulkIdentityManager) {
+ *          ((BulkIdentityManager) identityManager).addAll(users);
+ *      }
+ * </pre>
+ *
+ * @author agent
+ */
+public interface BulkIdentityManager extends IdentityManager {
+
+    /**
+     * The number of identity types persisted by each batch when adding many types at once
+     */
+    int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * <p>Adds many {@link IdentityType} instances at once, persisting them in batches of {@link #DEFAULT_BATCH_SIZE}
+     * types.</p>
+     *
+     * @param identityTypes
+     * @throws IdentityManagementException
+     *
+     * @see #addAll(java.util.Collection, int)
+     */
+    void addAll(Collection<? extends IdentityType> identityTypes) throws IdentityManagementException;
+
+    /**
+     * <p>Adds many {@link IdentityType} instances at once. This method is meant for importing or provisioning a large
+     * number of types.</p>
+     *
+     * <p>The uniqueness of all types is checked before any of them is persisted, querying the stores for all the
+     * types of the same class at once. Types are then persisted in batches of the given size, allowing stores to group
+     * their writes. A single {@link org.picketlink.idm.event.IdentityTypesCreatedEvent} is raised for each batch,
+     * instead of a {@link org.picketlink.idm.event.IdentityTypeCreatedEvent} for each type.</p>
+     *
+     * <p>If a batch fails, the types of the previous batches remain persisted.</p>
+     *
+     * @param identityTypes
+     * @param batchSize The number of types persisted by each batch.
+     * @throws IdentityManagementException If any of the types already exists, or if a batch could not be persisted.
+     */
+    void addAll(Collection<? extends IdentityType> identityTypes, int batchSize) throws IdentityManagementException;
+}
@@ -108,7 +108,9 @@ public interface IdentityCache {
     void putAgent(Realm realm, Agent agent);
 
     /**
+     * Removes from the cache any entry related with the specified {@link IdentityType}, within the specified Partition.
      *
+     * @param partition
      * @param identity
      */
     void invalidate(Partition partition, IdentityType identity);
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm;
+
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+
+/**
+ * <p>An {@link IdentityCache} that can discard the types loaded before a concurrent invalidation, and that can invalidate
+ * whole partitions.</p>
+ *
+ * <p>This is an optional interface, so that existing {@link IdentityCache} implementations are not required to support
+ * it. When the cache implements it, the version of the cache is obtained before a type is loaded from the stores and
+ * the type is cached using {@link #put(Partition, IdentityType, long)}. Otherwise, types are cached using the
+ * <code>put</code> methods of {@link IdentityCache}.</p>
+ *
+ * @author agent
+ */
+public interface VersionedIdentityCache extends IdentityCache {
+
+    /**
+     * <p>Returns the current version of the cache, which changes whenever entries are invalidated. It must be obtained
+     * before loading a type from the stores and then passed to {@link #put(Partition, IdentityType, long)}.</p>
+     *
+     * @return
+     */
+    long getVersion();
+
+    /**
+     * <p>Inserts the given {@link IdentityType} into the cache, unless any entry was invalidated since the given version
+     * was obtained. In this case, the type may have been loaded before a change and is not cached.</p>
+     *
+     * @param partition
+     * @param identityType
+     * @param version The version of the cache before the type was loaded.
+     */
+    void put(Partition partition, IdentityType identityType, long version);
+
+    /**
+     * <p>Removes from the cache all entries within the specified Partition.</p>
+     *
+     * @param partition
+     */
+    void invalidate(Partition partition);
+}
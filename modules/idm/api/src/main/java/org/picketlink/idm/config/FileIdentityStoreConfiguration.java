@@ -38,12 +38,14 @@ public class FileIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
     private final boolean asyncWrite;
     private final boolean alwaysCreateFiles;
     private final String workingDir;
+    private final int journalCompactionThreshold;
 
     FileIdentityStoreConfiguration(
             String workingDir,
             boolean preserveState,
             boolean asyncWrite,
             int asyncWriteThreadPool,
+            int journalCompactionThreshold,
             Map<Class<? extends AttributedType>, Set<IdentityOperation>> supportedTypes,
             Map<Class<? extends AttributedType>, Set<IdentityOperation>> unsupportedTypes,
             List<ContextInitializer> contextInitializers,
@@ -58,6 +60,7 @@ public class FileIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
         this.alwaysCreateFiles = !preserveState;
         this.asyncWrite = asyncWrite;
         this.asyncThreadPool = asyncWriteThreadPool;
+        this.journalCompactionThreshold = journalCompactionThreshold;
     }
 
     public String getWorkingDir() {
@@ -75,4 +78,13 @@ public class FileIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
     public int getAsyncThreadPool() {
         return this.asyncThreadPool;
     }
+
+    /**
+     * <p>The number of changes recorded in the journal before the store is compacted into a new snapshot.</p>
+     *
+     * @return
+     */
+    public int getJournalCompactionThreshold() {
+        return this.journalCompactionThreshold;
+    }
 }
\ No newline at end of file
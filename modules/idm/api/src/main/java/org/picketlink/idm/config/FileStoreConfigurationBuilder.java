@@ -37,6 +37,7 @@ public class FileStoreConfigurationBuilder extends
     private boolean preserveState = false;
     private boolean asyncWrite = false;
     private int asyncWriteThreadPool = 5;
+    private int journalCompactionThreshold = 10000;
 
     public FileStoreConfigurationBuilder(IdentityStoresConfigurationBuilder builder) {
         super(builder);
@@ -90,6 +91,20 @@ public class FileStoreConfigurationBuilder extends
         return this;
     }
 
+    /**
+     * <p>Changes are appended to a journal and periodically compacted into a snapshot of the whole store. This option
+     * defines the number of changes recorded in the journal before it is compacted.</p>
+     *
+     * <p>Defaults to 10000.</p>
+     *
+     * @param threshold
+     * @return
+     */
+    public FileStoreConfigurationBuilder journalCompactionThreshold(int threshold) {
+        this.journalCompactionThreshold = threshold;
+        return this;
+    }
+
     @Override
     protected FileIdentityStoreConfiguration create() {
         return new FileIdentityStoreConfiguration(
@@ -97,6 +112,7 @@ public class FileStoreConfigurationBuilder extends
                 this.preserveState,
                 this.asyncWrite,
                 this.asyncWriteThreadPool,
+                this.journalCompactionThreshold,
                 getSupportedTypes(),
                 getUnsupportedTypes(),
                 getContextInitializers(),
@@ -114,6 +130,10 @@ public class FileStoreConfigurationBuilder extends
         if (this.asyncWriteThreadPool <= 0) {
             throw new SecurityConfigurationException("The thread pool size must be greater than zero.");
         }
+
+        if (this.journalCompactionThreshold <= 0) {
+            throw new SecurityConfigurationException("The journal compaction threshold must be greater than zero.");
+        }
     }
 
     @Override
@@ -123,6 +143,7 @@ public class FileStoreConfigurationBuilder extends
         this.preserveState = !configuration.isAlwaysCreateFiles();
         this.asyncWrite = configuration.isAsyncWrite();
         this.asyncWriteThreadPool = configuration.getAsyncThreadPool();
+        this.journalCompactionThreshold = configuration.getJournalCompactionThreshold();
 
         return this;
     }
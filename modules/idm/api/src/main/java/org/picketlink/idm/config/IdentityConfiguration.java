@@ -18,6 +18,7 @@
 
 package org.picketlink.idm.config;
 
+import org.picketlink.idm.IdentityCache;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.basic.Agent;
 import org.picketlink.idm.model.basic.Grant;
@@ -31,6 +32,7 @@ import org.picketlink.idm.spi.RelationshipPolicy;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import static java.util.Collections.unmodifiableList;
 
@@ -61,10 +63,23 @@ public class IdentityConfiguration {
     private final String name;
     private final List<? extends IdentityStoreConfiguration> storeConfiguration;
     private final RelationshipPolicy relationshipPolicy;
+    private final IdentityCache identityCache;
+    private final Executor queryExecutor;
+    private final int credentialCacheMaxEntries;
+    private final long credentialCacheLifespan;
+    private final long privilegeGraphLifespan;
+    private final int privilegeGraphMaxEntries;
 
-    @SuppressWarnings("unchecked")
     IdentityConfiguration(String name, List<? extends IdentityStoreConfiguration> identityStores,
             RelationshipPolicy relationshipPolicy) {
+        this(name, identityStores, relationshipPolicy, null, null, 0, 0, 0, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    IdentityConfiguration(String name, List<? extends IdentityStoreConfiguration> identityStores,
+            RelationshipPolicy relationshipPolicy, IdentityCache identityCache, Executor queryExecutor,
+            int credentialCacheMaxEntries, long credentialCacheLifespan, long privilegeGraphLifespan,
+            int privilegeGraphMaxEntries) {
         if (name == null) {
             throw new SecurityConfigurationException("You must specify a name for the IdentityConfiguration.");
         }
@@ -72,6 +87,12 @@ public class IdentityConfiguration {
         this.name = name;
         this.storeConfiguration = unmodifiableList(identityStores);
         this.relationshipPolicy = relationshipPolicy;
+        this.identityCache = identityCache;
+        this.queryExecutor = queryExecutor;
+        this.credentialCacheMaxEntries = credentialCacheMaxEntries;
+        this.credentialCacheLifespan = credentialCacheLifespan;
+        this.privilegeGraphLifespan = privilegeGraphLifespan;
+        this.privilegeGraphMaxEntries = privilegeGraphMaxEntries;
     }
 
     public RelationshipPolicy getRelationshipPolicy() {
@@ -82,6 +103,64 @@ public class IdentityConfiguration {
         return this.name;
     }
 
+    /**
+     * <p>Returns the {@link IdentityCache} used to resolve identity types by their unique names, or null if lookups
+     * always hit the identity stores.</p>
+     *
+     * @return
+     */
+    public IdentityCache getIdentityCache() {
+        return this.identityCache;
+    }
+
+    /**
+     * <p>Returns the {@link Executor} used to query the identity stores concurrently, or null if stores are queried
+     * sequentially.</p>
+     *
+     * @return
+     */
+    public Executor getQueryExecutor() {
+        return this.queryExecutor;
+    }
+
+    /**
+     * <p>Returns the maximum number of successful credential validations that are cached. Zero means that credentials
+     * are always validated by the identity stores.</p>
+     *
+     * @return
+     */
+    public int getCredentialCacheMaxEntries() {
+        return this.credentialCacheMaxEntries;
+    }
+
+    /**
+     * <p>Returns the time in milliseconds a successful credential validation is cached.</p>
+     *
+     * @return
+     */
+    public long getCredentialCacheLifespan() {
+        return this.credentialCacheLifespan;
+    }
+
+    /**
+     * <p>Returns the time in milliseconds the entries of the privilege graph are considered valid. Zero means that the
+     * privilege graph is disabled and privileges are always resolved from the stores.</p>
+     *
+     * @return
+     */
+    public long getPrivilegeGraphLifespan() {
+        return this.privilegeGraphLifespan;
+    }
+
+    /**
+     * <p>Returns the maximum number of identities for which privileges are kept in the privilege graph.</p>
+     *
+     * @return
+     */
+    public int getPrivilegeGraphMaxEntries() {
+        return this.privilegeGraphMaxEntries;
+    }
+
     public List<? extends IdentityStoreConfiguration> getStoreConfiguration() {
         return this.storeConfiguration;
     }
@@ -22,11 +22,14 @@
 
 package org.picketlink.idm.config;
 
+import org.picketlink.idm.IdentityCache;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static org.picketlink.idm.IDMMessages.MESSAGES;
 
@@ -43,6 +46,12 @@ import static org.picketlink.idm.IDMMessages.MESSAGES;
 public class IdentityConfigurationBuilder extends Builder<List<IdentityConfiguration>> implements IdentityConfigurationChildBuilder {
 
     private final Map<String, NamedIdentityConfigurationBuilder> namedIdentityConfigurationBuilders;
+    private IdentityCache identityCache;
+    private Executor queryExecutor;
+    private int credentialCacheMaxEntries;
+    private long credentialCacheLifespan;
+    private long privilegeGraphLifespan;
+    private int privilegeGraphMaxEntries;
 
     public IdentityConfigurationBuilder() {
         this.namedIdentityConfigurationBuilders = new LinkedHashMap<String, NamedIdentityConfigurationBuilder>();
@@ -80,6 +89,73 @@ public class IdentityConfigurationBuilder extends Builder<List<IdentityConfigura
         return namedIdentityConfiguration;
     }
 
+    /**
+     * <p>Uses the given {@link IdentityCache} to resolve users, agents, roles and groups by their unique names. Cached
+     * entries are invalidated whenever the corresponding identity types are changed through the partition manager. If
+     * the underlying stores are shared with other applications, use a cache with a short lifespan.</p>
+     *
+     * @param identityCache
+     * @return
+     */
+    public IdentityConfigurationBuilder identityCache(IdentityCache identityCache) {
+        this.identityCache = identityCache;
+        return this;
+    }
+
+    /**
+     * <p>Uses the given {@link Executor} to query the identity stores concurrently, whenever a query spans more than
+     * one store. Only the stores implementing {@link org.picketlink.idm.spi.ConcurrentQueryStore}, like the file and
+     * LDAP stores, are queried in the executor. The first store is always queried in the calling thread, as well as any
+     * other store, which may use resources bound to the calling thread, like the JPA store.</p>
+     *
+     * @param queryExecutor
+     * @return
+     */
+    public IdentityConfigurationBuilder queryExecutor(Executor queryExecutor) {
+        this.queryExecutor = queryExecutor;
+        return this;
+    }
+
+    /**
+     * <p>Caches successful username and password validations for a short time. Useful when clients send their
+     * credentials on every request, like stateless REST clients using HTTP BASIC authentication. Cached validations are
+     * invalidated whenever the credentials or the account are changed through the partition manager.</p>
+     *
+     * @param maxEntries The maximum number of validations kept in the cache.
+     * @param lifespan The time in milliseconds a validation is cached.
+     * @return
+     */
+    public IdentityConfigurationBuilder credentialCache(int maxEntries, long lifespan) {
+        if (maxEntries <= 0 || lifespan <= 0) {
+            throw new SecurityConfigurationException("The credential cache size and lifespan must be greater than zero.");
+        }
+
+        this.credentialCacheMaxEntries = maxEntries;
+        this.credentialCacheLifespan = lifespan;
+
+        return this;
+    }
+
+    /**
+     * <p>Memoizes the privilege graph used to resolve privilege inheritance, which is kept in sync with the
+     * relationships and identity types changed through the partition manager. By default, privileges are always
+     * resolved from the stores.</p>
+     *
+     * @param lifespan The time in milliseconds the privilege graph entries are considered valid.
+     * @param maxEntries The maximum number of identities for which privileges are kept in memory.
+     * @return
+     */
+    public IdentityConfigurationBuilder privilegeGraph(long lifespan, int maxEntries) {
+        if (maxEntries <= 0 || lifespan <= 0) {
+            throw new SecurityConfigurationException("The privilege graph size and lifespan must be greater than zero.");
+        }
+
+        this.privilegeGraphLifespan = lifespan;
+        this.privilegeGraphMaxEntries = maxEntries;
+
+        return this;
+    }
+
     /**
      * <p>Builds a single {@link IdentityConfiguration}.</p> <p/> <p>This method should be called when only a single
      * configuration was provided. Otherwise an exception will be thrown.</p> <p/> <p>For building multiple
@@ -186,6 +262,15 @@ public class IdentityConfigurationBuilder extends Builder<List<IdentityConfigura
             throw MESSAGES.nullArgument("Configuration to read from.");
         }
 
+        IdentityConfiguration firstConfiguration = fromConfiguration.get(0);
+
+        this.identityCache = firstConfiguration.getIdentityCache();
+        this.queryExecutor = firstConfiguration.getQueryExecutor();
+        this.credentialCacheMaxEntries = firstConfiguration.getCredentialCacheMaxEntries();
+        this.credentialCacheLifespan = firstConfiguration.getCredentialCacheLifespan();
+        this.privilegeGraphLifespan = firstConfiguration.getPrivilegeGraphLifespan();
+        this.privilegeGraphMaxEntries = firstConfiguration.getPrivilegeGraphMaxEntries();
+
         for (IdentityConfiguration identityConfiguration : fromConfiguration) {
             named(identityConfiguration.getName()).readFrom(identityConfiguration);
         }
@@ -193,4 +278,27 @@ public class IdentityConfigurationBuilder extends Builder<List<IdentityConfigura
         return this;
     }
 
+    IdentityCache getIdentityCache() {
+        return this.identityCache;
+    }
+
+    Executor getQueryExecutor() {
+        return this.queryExecutor;
+    }
+
+    int getCredentialCacheMaxEntries() {
+        return this.credentialCacheMaxEntries;
+    }
+
+    long getCredentialCacheLifespan() {
+        return this.credentialCacheLifespan;
+    }
+
+    long getPrivilegeGraphLifespan() {
+        return this.privilegeGraphLifespan;
+    }
+
+    int getPrivilegeGraphMaxEntries() {
+        return this.privilegeGraphMaxEntries;
+    }
 }
\ No newline at end of file
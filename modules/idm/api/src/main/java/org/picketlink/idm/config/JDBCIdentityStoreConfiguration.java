@@ -37,8 +37,31 @@ import java.util.Set;
  * @since September 25, 2013
  */
 public class JDBCIdentityStoreConfiguration extends AbstractIdentityStoreConfiguration {
+
+    /**
+     * The SQL used to select a page of rows.
+     */
+    public enum PaginationDialect {
+        /**
+         * <code>limit ? offset ?</code>, supported by H2, HSQLDB, MySQL, MariaDB, PostgreSQL and SQLite.
+         */
+        LIMIT_OFFSET,
+        /**
+         * <code>offset ? rows fetch next ? rows only</code>, defined by SQL:2008 and supported by Derby, DB2, Oracle 12c
+         * and SQL Server 2012 or later.
+         */
+        OFFSET_FETCH,
+        /**
+         * No pagination clause. The number of rows fetched is limited using {@link java.sql.Statement#setMaxRows(int)}
+         * and the rows before the offset are skipped by the store.
+         */
+        NONE
+    }
+
     private DataSource dataSource;
     private Map<String,Class<?>> customClassMapping = new HashMap<String, Class<?>>();
+    private boolean keysetPagination;
+    private PaginationDialect paginationDialect;
 
     protected JDBCIdentityStoreConfiguration(String jndiName,Map<Class<? extends AttributedType>, Set<IdentityOperation>> supportedTypes, Map<Class<? extends AttributedType>,
             Set<IdentityOperation>> unsupportedTypes, List<ContextInitializer> contextInitializers, Map<String, Object> credentialHandlerProperties,
@@ -90,6 +113,35 @@ public class JDBCIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
         return this;
     }
 
+    /**
+     * Indicates if queries are paginated using the last row of the previous page, passed as the pagination context of
+     * the query, instead of the offset. This allows the database to seek deep pages instead of scanning and skipping
+     * all the rows before them.
+     * @return
+     */
+    public boolean isKeysetPagination() {
+        return this.keysetPagination;
+    }
+
+    public JDBCIdentityStoreConfiguration setKeysetPagination(boolean keysetPagination) {
+        this.keysetPagination = keysetPagination;
+        return this;
+    }
+
+    /**
+     * The SQL used to select a page of rows. If null, the dialect is detected from the name of the database and
+     * {@link PaginationDialect#NONE} is used for unknown databases.
+     * @return
+     */
+    public PaginationDialect getPaginationDialect() {
+        return this.paginationDialect;
+    }
+
+    public JDBCIdentityStoreConfiguration setPaginationDialect(PaginationDialect paginationDialect) {
+        this.paginationDialect = paginationDialect;
+        return this;
+    }
+
     @Override
     public boolean supportsPermissions() {
         return false;
@@ -23,6 +23,8 @@
 package org.picketlink.idm.config;
 
 
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
+
 import javax.sql.DataSource;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,6 +41,8 @@ public class JDBCStoreConfigurationBuilder extends
     private JDBCIdentityStoreConfiguration jdbcIdentityStoreConfiguration = null;
     private Map<String,Class<?>> customClassMapping = new HashMap<String, Class<?>>();
     private DataSource dataSource = null;
+    private boolean keysetPagination;
+    private PaginationDialect paginationDialect;
 
     public JDBCStoreConfigurationBuilder(IdentityStoresConfigurationBuilder builder) {
         super(builder);
@@ -49,6 +53,32 @@ public class JDBCStoreConfigurationBuilder extends
         return this;
     }
 
+    /**
+     * <p>Enables keyset pagination. Instead of skipping the number of rows given by the offset of a query, the store
+     * returns the rows following the last row of the previous page. The last row is kept in the pagination context of
+     * the query, which must be sent back when fetching the next page.</p>
+     *
+     * @param keysetPagination
+     * @return
+     */
+    public JDBCStoreConfigurationBuilder setKeysetPagination(boolean keysetPagination) {
+        this.keysetPagination = keysetPagination;
+        return this;
+    }
+
+    /**
+     * <p>Sets the SQL used to select a page of rows. By default, the dialect is detected from the name of the database.
+     * For unknown databases, the number of rows fetched is limited by the JDBC driver and the rows before the offset of
+     * a query are skipped by the store.</p>
+     *
+     * @param paginationDialect
+     * @return
+     */
+    public JDBCStoreConfigurationBuilder setPaginationDialect(PaginationDialect paginationDialect) {
+        this.paginationDialect = paginationDialect;
+        return this;
+    }
+
     @Override
     protected JDBCIdentityStoreConfiguration create() {
         if(jdbcIdentityStoreConfiguration == null){
@@ -65,6 +95,8 @@ public class JDBCStoreConfigurationBuilder extends
             jdbcIdentityStoreConfiguration.setDataSource(dataSource);
         }
         jdbcIdentityStoreConfiguration.setCustomClassMapping(customClassMapping);
+        jdbcIdentityStoreConfiguration.setKeysetPagination(keysetPagination);
+        jdbcIdentityStoreConfiguration.setPaginationDialect(paginationDialect);
 
         return jdbcIdentityStoreConfiguration;
     }
@@ -77,6 +109,8 @@ public class JDBCStoreConfigurationBuilder extends
     @Override
     protected JDBCStoreConfigurationBuilder readFrom(JDBCIdentityStoreConfiguration configuration) {
         super.readFrom(configuration);
+        setKeysetPagination(configuration.isKeysetPagination());
+        setPaginationDialect(configuration.getPaginationDialect());
 
         return this;
     }
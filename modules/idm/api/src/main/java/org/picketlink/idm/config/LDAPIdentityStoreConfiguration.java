@@ -52,6 +52,15 @@ public class LDAPIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
     private final Properties connectionProperties;
     private final boolean pagination;
     private final String uniqueIdentifierAttributeName;
+    private final String readOnlyLdapURL;
+    private final int connectionPoolMinSize;
+    private final int connectionPoolMaxSize;
+    private final long connectionPoolIdleTimeout;
+    private final long connectionPoolBorrowTimeout;
+    private final long connectionPoolHealthCheckInterval;
+    private final int entryCacheMaxEntries;
+    private final long entryCacheLifespan;
+    private final long entryCacheChangePollInterval;
 
     private String baseDN;
     private final Map<Class<? extends AttributedType>, LDAPMappingConfiguration> mappingConfig;
@@ -64,6 +73,15 @@ public class LDAPIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
             final boolean activeDirectory,
             boolean pagination,
             String uniqueIdentifierAttributeName,
+            String readOnlyUrl,
+            int connectionPoolMinSize,
+            int connectionPoolMaxSize,
+            long connectionPoolIdleTimeout,
+            long connectionPoolBorrowTimeout,
+            long connectionPoolHealthCheckInterval,
+            int entryCacheMaxEntries,
+            long entryCacheLifespan,
+            long entryCacheChangePollInterval,
             Map<Class<? extends AttributedType>, LDAPMappingConfiguration> mappingConfig, Map<Class<? extends AttributedType>, Set<IdentityOperation>> supportedTypes,
             Map<Class<? extends AttributedType>, Set<IdentityOperation>> unsupportedTypes,
             List<ContextInitializer> contextInitializers,
@@ -80,6 +98,15 @@ public class LDAPIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
         this.baseDN = baseDN;
         this.mappingConfig = mappingConfig;
         this.pagination = pagination;
+        this.readOnlyLdapURL = readOnlyUrl;
+        this.connectionPoolMinSize = connectionPoolMinSize;
+        this.connectionPoolMaxSize = connectionPoolMaxSize;
+        this.connectionPoolIdleTimeout = connectionPoolIdleTimeout;
+        this.connectionPoolBorrowTimeout = connectionPoolBorrowTimeout;
+        this.connectionPoolHealthCheckInterval = connectionPoolHealthCheckInterval;
+        this.entryCacheMaxEntries = entryCacheMaxEntries;
+        this.entryCacheLifespan = entryCacheLifespan;
+        this.entryCacheChangePollInterval = entryCacheChangePollInterval;
         if (uniqueIdentifierAttributeName != null) {
             this.uniqueIdentifierAttributeName = uniqueIdentifierAttributeName;
         } else {
@@ -198,4 +225,88 @@ public class LDAPIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
     public boolean isPagination() {
         return pagination;
     }
+
+    /**
+     * <p>The URL of the server, usually a replica, used for read-only operations. If null, all operations are sent
+     * to the server configured by {@link #getLdapURL()}.</p>
+     *
+     * @return
+     */
+    public String getReadOnlyLdapURL() {
+        return this.readOnlyLdapURL;
+    }
+
+    /**
+     * <p>The minimum number of idle connections kept by each connection pool.</p>
+     *
+     * @return
+     */
+    public int getConnectionPoolMinSize() {
+        return this.connectionPoolMinSize;
+    }
+
+    /**
+     * <p>The maximum number of connections opened by each connection pool. Zero disables pooling, in which case a new
+     * connection is opened for each operation.</p>
+     *
+     * @return
+     */
+    public int getConnectionPoolMaxSize() {
+        return this.connectionPoolMaxSize;
+    }
+
+    /**
+     * <p>The time, in milliseconds, after which idle connections above the minimum size are closed.</p>
+     *
+     * @return
+     */
+    public long getConnectionPoolIdleTimeout() {
+        return this.connectionPoolIdleTimeout;
+    }
+
+    /**
+     * <p>The maximum time, in milliseconds, to wait for a connection when all connections are in use.</p>
+     *
+     * @return
+     */
+    public long getConnectionPoolBorrowTimeout() {
+        return this.connectionPoolBorrowTimeout;
+    }
+
+    /**
+     * <p>The time, in milliseconds, a connection may stay idle before being checked again when borrowed.</p>
+     *
+     * @return
+     */
+    public long getConnectionPoolHealthCheckInterval() {
+        return this.connectionPoolHealthCheckInterval;
+    }
+
+    /**
+     * <p>The maximum number of entries kept by the entry cache.</p>
+     *
+     * @return
+     */
+    public int getEntryCacheMaxEntries() {
+        return this.entryCacheMaxEntries;
+    }
+
+    /**
+     * <p>The time, in milliseconds, entries are kept by the entry cache. Zero means entries are not cached.</p>
+     *
+     * @return
+     */
+    public long getEntryCacheLifespan() {
+        return this.entryCacheLifespan;
+    }
+
+    /**
+     * <p>The interval, in milliseconds, in which the server is checked for entries changed by other clients. Zero means
+     * changes made by other clients are not detected.</p>
+     *
+     * @return
+     */
+    public long getEntryCacheChangePollInterval() {
+        return this.entryCacheChangePollInterval;
+    }
 }
\ No newline at end of file
@@ -53,6 +53,15 @@ public class LDAPStoreConfigurationBuilder extends
     private Set<LDAPMappingConfigurationBuilder> mappingBuilders = new HashSet<LDAPMappingConfigurationBuilder>();
     private boolean pagination;
     private String uniqueIdentifierAttributeName;
+    private String readOnlyUrl;
+    private int connectionPoolMinSize = 0;
+    private int connectionPoolMaxSize = 0;
+    private long connectionPoolIdleTimeout = 5 * 60 * 1000;
+    private long connectionPoolBorrowTimeout = 30 * 1000;
+    private long connectionPoolHealthCheckInterval = 30 * 1000;
+    private int entryCacheMaxEntries = 10000;
+    private long entryCacheLifespan = 0;
+    private long entryCacheChangePollInterval = 0;
 
     public LDAPStoreConfigurationBuilder(IdentityStoresConfigurationBuilder builder) {
         super(builder);
@@ -69,6 +78,104 @@ public class LDAPStoreConfigurationBuilder extends
         return this;
     }
 
+    /**
+     * <p>Configures the URL of a server, usually a read replica, to which read-only operations like searches and lookups
+     * are sent. Writes and authentication are always sent to the server configured by {@link #url(String)}.</p>
+     *
+     * @param url
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder readOnlyUrl(String url) {
+        this.readOnlyUrl = url;
+        return this;
+    }
+
+    /**
+     * <p>Configures the size of the connection pools. Connections are reused by subsequent operations instead of
+     * opening and binding a new connection for each one. Connections used to authenticate users are never pooled.</p>
+     *
+     * <p>Pooling is disabled by default, in which case a new connection is opened for each operation. A maximum of 0
+     * disables pooling.</p>
+     *
+     * @param minSize The minimum number of idle connections kept in the pool.
+     * @param maxSize The maximum number of connections opened by the pool.
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder connectionPool(int minSize, int maxSize) {
+        this.connectionPoolMinSize = minSize;
+        this.connectionPoolMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * <p>Configures the time, in milliseconds, after which idle connections above the minimum size of the pool are
+     * closed. Defaults to 5 minutes.</p>
+     *
+     * @param idleTimeout
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder connectionPoolIdleTimeout(long idleTimeout) {
+        this.connectionPoolIdleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * <p>Configures the maximum time, in milliseconds, to wait for a connection when all connections of the pool are in
+     * use. Defaults to 30 seconds.</p>
+     *
+     * @param borrowTimeout
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder connectionPoolBorrowTimeout(long borrowTimeout) {
+        this.connectionPoolBorrowTimeout = borrowTimeout;
+        return this;
+    }
+
+    /**
+     * <p>Configures the time, in milliseconds, a pooled connection may stay idle before being checked again when
+     * borrowed. Connections failing the check are discarded. Zero checks connections every time they are borrowed.
+     * Defaults to 30 seconds.</p>
+     *
+     * @param healthCheckInterval
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder connectionPoolHealthCheckInterval(long healthCheckInterval) {
+        this.connectionPoolHealthCheckInterval = healthCheckInterval;
+        return this;
+    }
+
+    /**
+     * <p>Enables caching of the entries read from the server. Entries are cached by their identifier and DN for the
+     * given lifespan and the least recently used ones are evicted once the maximum number of entries is reached. Entries
+     * are invalidated when changed by this store.</p>
+     *
+     * <p>Caching is disabled by default.</p>
+     *
+     * @param maxEntries The maximum number of cached entries.
+     * @param lifespan The time, in milliseconds, an entry is kept in the cache. Zero disables caching.
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder entryCache(int maxEntries, long lifespan) {
+        this.entryCacheMaxEntries = maxEntries;
+        this.entryCacheLifespan = lifespan;
+        return this;
+    }
+
+    /**
+     * <p>Configures the interval, in milliseconds, in which the server is checked for entries changed by other clients,
+     * using their <code>modifyTimestamp</code> attribute. Changed entries are evicted from the cache. Entries removed by
+     * other clients are only evicted when they expire.</p>
+     *
+     * <p>Zero, the default, disables change detection.</p>
+     *
+     * @param pollInterval
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder entryCacheChangePollInterval(long pollInterval) {
+        this.entryCacheChangePollInterval = pollInterval;
+        return this;
+    }
+
     /**
      * <p>Sets the base DN.</p>
      *
@@ -187,6 +294,15 @@ public class LDAPStoreConfigurationBuilder extends
                 this.activeDirectory,
                 this.pagination,
                 this.uniqueIdentifierAttributeName,
+                this.readOnlyUrl,
+                this.connectionPoolMinSize,
+                this.connectionPoolMaxSize,
+                this.connectionPoolIdleTimeout,
+                this.connectionPoolBorrowTimeout,
+                this.connectionPoolHealthCheckInterval,
+                this.entryCacheMaxEntries,
+                this.entryCacheLifespan,
+                this.entryCacheChangePollInterval,
                 mappingConfig,
                 getSupportedTypes(),
                 getUnsupportedTypes(),
@@ -212,6 +328,24 @@ public class LDAPStoreConfigurationBuilder extends
             throw new SecurityConfigurationException("You must provide the credentials for the Bind DN.");
         }
 
+        if (this.connectionPoolMinSize < 0 || this.connectionPoolMaxSize < 0
+            || this.connectionPoolMinSize > this.connectionPoolMaxSize) {
+            throw new SecurityConfigurationException("Invalid connection pool size. The minimum size must not be negative or greater than the maximum size.");
+        }
+
+        if (this.connectionPoolIdleTimeout < 0 || this.connectionPoolBorrowTimeout < 0
+            || this.connectionPoolHealthCheckInterval < 0) {
+            throw new SecurityConfigurationException("Connection pool timeouts must not be negative.");
+        }
+
+        if (this.entryCacheLifespan > 0 && this.entryCacheMaxEntries <= 0) {
+            throw new SecurityConfigurationException("The maximum number of cached entries must be greater than zero.");
+        }
+
+        if (this.entryCacheLifespan < 0 || this.entryCacheChangePollInterval < 0) {
+            throw new SecurityConfigurationException("Entry cache lifespan and poll interval must not be negative.");
+        }
+
         if (this.mappingBuilders.isEmpty()) {
             throw new SecurityConfigurationException("No mappings provided.");
         }
@@ -235,6 +369,15 @@ public class LDAPStoreConfigurationBuilder extends
         this.connectionProperties = configuration.getConnectionProperties();
         this.pagination = configuration.isPagination();
         this.uniqueIdentifierAttributeName = configuration.getUniqueIdentifierAttributeName();
+        this.readOnlyUrl = configuration.getReadOnlyLdapURL();
+        this.connectionPoolMinSize = configuration.getConnectionPoolMinSize();
+        this.connectionPoolMaxSize = configuration.getConnectionPoolMaxSize();
+        this.connectionPoolIdleTimeout = configuration.getConnectionPoolIdleTimeout();
+        this.connectionPoolBorrowTimeout = configuration.getConnectionPoolBorrowTimeout();
+        this.connectionPoolHealthCheckInterval = configuration.getConnectionPoolHealthCheckInterval();
+        this.entryCacheMaxEntries = configuration.getEntryCacheMaxEntries();
+        this.entryCacheLifespan = configuration.getEntryCacheLifespan();
+        this.entryCacheChangePollInterval = configuration.getEntryCacheChangePollInterval();
 
         for (Class<? extends AttributedType> attributedType: configuration.getMappingConfig().keySet()) {
             LDAPMappingConfiguration mappingConfiguration = configuration.getMappingConfig().get(attributedType);
@@ -29,6 +29,7 @@ import static org.picketlink.idm.IDMMessages.MESSAGES;
  */
 public class NamedIdentityConfigurationBuilder extends AbstractIdentityConfigurationChildBuilder<IdentityConfiguration> {
 
+    private final IdentityConfigurationBuilder identityConfigurationBuilder;
     private final IdentityStoresConfigurationBuilder identityStoresConfigurationBuilder;
     private final String name;
 
@@ -39,6 +40,7 @@ public class NamedIdentityConfigurationBuilder extends AbstractIdentityConfigura
             throw MESSAGES.nullArgument("Configuration name");
         }
 
+        this.identityConfigurationBuilder = builder;
         this.identityStoresConfigurationBuilder = new IdentityStoresConfigurationBuilder(this);
         this.name = name;
     }
@@ -58,7 +60,13 @@ public class NamedIdentityConfigurationBuilder extends AbstractIdentityConfigura
         return new IdentityConfiguration(this.name,
                 this.identityStoresConfigurationBuilder.create(),
                 new RelationshipPolicy(this.identityStoresConfigurationBuilder.getSelfRelationships(),
-                        this.identityStoresConfigurationBuilder.getGlobalRelationships()));
+                        this.identityStoresConfigurationBuilder.getGlobalRelationships()),
+                this.identityConfigurationBuilder.getIdentityCache(),
+                this.identityConfigurationBuilder.getQueryExecutor(),
+                this.identityConfigurationBuilder.getCredentialCacheMaxEntries(),
+                this.identityConfigurationBuilder.getCredentialCacheLifespan(),
+                this.identityConfigurationBuilder.getPrivilegeGraphLifespan(),
+                this.identityConfigurationBuilder.getPrivilegeGraphMaxEntries());
     }
 
     @Override
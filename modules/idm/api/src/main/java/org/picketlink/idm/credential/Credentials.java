@@ -70,7 +70,15 @@ public interface Credentials {
          * Indicates that the {@link Agent} which credentials were validated is disabled.
          * </p>
          */
-        ACCOUNT_DISABLED
+        ACCOUNT_DISABLED,
+
+        /**
+         * <p>
+         * Indicates that the credential was not validated because the server is saturated. The validation may be
+         * attempted again later.
+         * </p>
+         */
+        REJECTED
     };
 
     /**
@@ -0,0 +1,40 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.credential.encoder;
+
+/**
+ * <p>
+ * {@link PasswordEncoder} with a configurable cost, which is recorded in the encoded passwords.
+ * </p>
+ *
+ * <p>Passwords encoded with a different cost, or using a legacy format, can be detected and encoded again once their
+ * raw value is known, for instance after a successful login.</p>
+ *
+ * @author agent
+ */
+public interface AdaptivePasswordEncoder extends PasswordEncoder {
+
+    /**
+     * <p>Checks if the <code>encodedPassword</code> was encoded using a cost or format different than the ones used by
+     * this encoder, and should be encoded again.</p>
+     *
+     * @param encodedPassword
+     * @return
+     */
+    boolean requiresRehash(String encodedPassword);
+}
@@ -24,7 +24,7 @@ import org.picketlink.idm.credential.util.BCrypt;
  * @author Anil Saldhana
  * @since June 18, 2013
  */
-public class BCryptPasswordEncoder implements PasswordEncoder{
+public class BCryptPasswordEncoder implements AdaptivePasswordEncoder {
     int logRounds = 12;
 
     /**
@@ -43,4 +43,34 @@ public class BCryptPasswordEncoder implements PasswordEncoder{
     public boolean verify(String rawPassword, String encodedPassword) {
         return BCrypt.checkpw(rawPassword, encodedPassword);
     }
+
+    @Override
+    public boolean requiresRehash(String encodedPassword) {
+        return getLogRounds(encodedPassword) != this.logRounds;
+    }
+
+    public int getLogRounds() {
+        return this.logRounds;
+    }
+
+    /**
+     * <p>Returns the log rounds used to encode the given password, or -1 if it is not a BCrypt hash.</p>
+     *
+     * @param encodedPassword
+     * @return
+     */
+    private int getLogRounds(String encodedPassword) {
+        // hashes are in the form $2a$rounds$salt-and-hash, older ones have no minor version
+        if (encodedPassword == null || !encodedPassword.startsWith("$2")) {
+            return -1;
+        }
+
+        int offset = encodedPassword.charAt(2) == '$' ? 3 : 4;
+
+        try {
+            return Integer.parseInt(encodedPassword.substring(offset, offset + 2));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.math.BigInteger;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
@@ -31,10 +32,16 @@ import java.security.spec.KeySpec;
 /**
  * Implementation of {@link PasswordEncoder} that uses PBKDF2
  *
+ * <p>Passwords are encoded in the form <code>$pbkdf2-sha1$iterations$salt$key</code>, with the salt and the derived key
+ * in hexadecimal, so that the cost used to encode them is known when they are verified. Passwords encoded using the
+ * previous formats are still verified, but always require a rehash.</p>
+ *
  * @author Anil Saldhana
  * @since June 18, 2013
  */
-public class PBKDF2PasswordEncoder implements PasswordEncoder {
+public class PBKDF2PasswordEncoder implements AdaptivePasswordEncoder {
+
+    private static final String PREFIX = "$pbkdf2-sha1$";
 
     private final byte[] salt;
     private final int keyLength, iterationCount;
@@ -48,32 +55,44 @@ public class PBKDF2PasswordEncoder implements PasswordEncoder {
 
     @Override
     public String encode(String rawPassword) {
-        return encode(rawPassword, generateSalt().getBytes(), true);
+        byte[] salt = generateSalt().getBytes();
+
+        return PREFIX + this.iterationCount + "$" + toHex(salt) + "$"
+            + toHex(deriveKey(rawPassword, salt, this.iterationCount, this.keyLength));
     }
 
     public String encode(String rawPassword, byte[] salt, boolean appendSalt) {
-        try {
-            final SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(ALGO);
-            final KeySpec keySpec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterationCount, keyLength);
-            try {
-                final SecretKey secretKey = secretKeyFactory.generateSecret(keySpec);
+        String key = new String(deriveKey(rawPassword, salt, this.iterationCount, this.keyLength));
 
-                if (appendSalt) {
-                    return new String(secretKey.getEncoded()) + ":" + toHex(salt);
-                } else {
-                    // backward compatibility when salt was not being generated for each password.
-                    return new String(secretKey.getEncoded());
-                }
-            } catch (InvalidKeySpecException ikse) {
-                throw new RuntimeException(ikse);
-            }
-        } catch (NoSuchAlgorithmException nsae) {
-            throw new RuntimeException(nsae);
+        if (appendSalt) {
+            return key + ":" + toHex(salt);
+        } else {
+            // backward compatibility when salt was not being generated for each password.
+            return key;
         }
     }
 
     @Override
     public boolean verify(String rawPassword, String encodedPassword) {
+        if (encodedPassword.startsWith(PREFIX)) {
+            String[] parts = encodedPassword.substring(PREFIX.length()).split("\\$");
+
+            if (parts.length != 3) {
+                return false;
+            }
+
+            try {
+                byte[] key = fromHex(parts[2]);
+                int keyLength = getKeyLengthInBytes(this.keyLength) == key.length ? this.keyLength : key.length * 8;
+
+                return MessageDigest.isEqual(key, deriveKey(rawPassword, fromHex(parts[1]), Integer.parseInt(parts[0]),
+                    keyLength));
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+        }
+
+        // backward compatibility with passwords encoded before the cost was recorded.
         int saltIndex = encodedPassword.lastIndexOf(":");
 
         if (saltIndex != -1) {
@@ -85,6 +104,47 @@ public class PBKDF2PasswordEncoder implements PasswordEncoder {
         return encode(rawPassword, this.salt, false).equals(encodedPassword);
     }
 
+    @Override
+    public boolean requiresRehash(String encodedPassword) {
+        if (encodedPassword == null || !encodedPassword.startsWith(PREFIX)) {
+            return true;
+        }
+
+        String[] parts = encodedPassword.substring(PREFIX.length()).split("\\$");
+
+        return parts.length != 3
+            || !String.valueOf(this.iterationCount).equals(parts[0])
+            || parts[2].length() != getKeyLengthInBytes(this.keyLength) * 2;
+    }
+
+    public int getIterationCount() {
+        return this.iterationCount;
+    }
+
+    public int getKeyLength() {
+        return this.keyLength;
+    }
+
+    private int getKeyLengthInBytes(int keyLength) {
+        return (keyLength + 7) / 8;
+    }
+
+    private byte[] deriveKey(String rawPassword, byte[] salt, int iterationCount, int keyLength) {
+        try {
+            final SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(ALGO);
+            final KeySpec keySpec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterationCount, keyLength);
+            try {
+                final SecretKey secretKey = secretKeyFactory.generateSecret(keySpec);
+
+                return secretKey.getEncoded();
+            } catch (InvalidKeySpecException ikse) {
+                throw new RuntimeException(ikse);
+            }
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException(nsae);
+        }
+    }
+
     /**
      * Converts a string of hexadecimal characters into a byte array.
      *
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.credential.encoder;
+
+/**
+ * <p>
+ * Benchmarks the {@link AdaptivePasswordEncoder} implementations on the current machine to choose the highest cost that
+ * fits a given latency budget.
+ * </p>
+ *
+ * <p>Calibration takes at most a few times the latency budget, and may be done when the application starts, before
+ * creating the encoders:</p>
+ *
+ * <pre>
+ *     new BCryptPasswordEncoder(PasswordEncoderCalibrator.calibrateBCryptLogRounds(250));
+ * </pre>
+ *
+ * <p>It can also be done offline, running this class with the latency budget in milliseconds as argument. When the cost
+ * changes, passwords encoded with the previous cost are encoded again on login if the <code>PasswordCredentialHandler</code>
+ * is configured to do so.</p>
+ *
+ * @author agent
+ */
+public final class PasswordEncoderCalibrator {
+
+    private static final int MIN_BCRYPT_LOG_ROUNDS = 4;
+    private static final int MAX_BCRYPT_LOG_ROUNDS = 31;
+    private static final int MIN_PBKDF2_ITERATIONS = 1000;
+    private static final int SAMPLE_PBKDF2_ITERATIONS = 10000;
+    private static final int SAMPLES = 3;
+    private static final String SAMPLE_PASSWORD = "calibration-password";
+
+    private PasswordEncoderCalibrator() {
+    }
+
+    /**
+     * <p>Returns the highest BCrypt log rounds encoding a password within the given latency budget, never less than the
+     * minimum of 4 rounds.</p>
+     *
+     * @param maxMillis The latency budget, in milliseconds.
+     * @return
+     */
+    public static int calibrateBCryptLogRounds(long maxMillis) {
+        checkBudget(maxMillis);
+
+        int logRounds = MIN_BCRYPT_LOG_ROUNDS;
+        long elapsed = measure(new BCryptPasswordEncoder(logRounds));
+
+        // each additional round doubles the cost
+        while (logRounds < MAX_BCRYPT_LOG_ROUNDS && elapsed * 2 <= maxMillis * 1000000) {
+            logRounds++;
+            elapsed = measure(new BCryptPasswordEncoder(logRounds));
+        }
+
+        if (elapsed > maxMillis * 1000000 && logRounds > MIN_BCRYPT_LOG_ROUNDS) {
+            logRounds--;
+        }
+
+        return logRounds;
+    }
+
+    /**
+     * <p>Returns the highest PBKDF2 iteration count, rounded down to thousands, deriving a key with the given length
+     * within the given latency budget, never less than 1000 iterations.</p>
+     *
+     * @param maxMillis The latency budget, in milliseconds.
+     * @param keyLength The length of the derived key, in bits.
+     * @return
+     */
+    public static int calibratePBKDF2Iterations(long maxMillis, int keyLength) {
+        checkBudget(maxMillis);
+
+        long elapsed = measure(new PBKDF2PasswordEncoder(null, SAMPLE_PBKDF2_ITERATIONS, keyLength));
+
+        // the cost grows linearly with the number of iterations
+        long iterations = SAMPLE_PBKDF2_ITERATIONS * maxMillis * 1000000 / Math.max(elapsed, 1);
+
+        iterations = iterations / 1000 * 1000;
+
+        return (int) Math.min(Math.max(iterations, MIN_PBKDF2_ITERATIONS), Integer.MAX_VALUE);
+    }
+
+    public static void main(String[] args) {
+        long maxMillis = args.length > 0 ? Long.parseLong(args[0]) : 250;
+
+        System.out.println("Latency budget: " + maxMillis + " ms");
+        System.out.println("BCrypt log rounds: " + calibrateBCryptLogRounds(maxMillis));
+        System.out.println("PBKDF2 iterations (256 bits key): " + calibratePBKDF2Iterations(maxMillis, 256));
+    }
+
+    /**
+     * <p>Returns the shortest time, in nanoseconds, taken by the encoder to encode a password, after a warm up.</p>
+     */
+    private static long measure(PasswordEncoder encoder) {
+        encoder.encode(SAMPLE_PASSWORD);
+
+        long shortest = Long.MAX_VALUE;
+
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+
+            encoder.encode(SAMPLE_PASSWORD);
+
+            shortest = Math.min(shortest, System.nanoTime() - start);
+        }
+
+        return shortest;
+    }
+
+    private static void checkBudget(long maxMillis) {
+        if (maxMillis <= 0) {
+            throw new IllegalArgumentException("The latency budget must be greater than zero.");
+        }
+    }
+}
@@ -20,28 +20,41 @@ package org.picketlink.idm.credential.handler;
 
 import org.picketlink.common.random.DefaultSecureRandomProvider;
 import org.picketlink.common.random.SecureRandomProvider;
+import org.picketlink.idm.IdGenerator;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.config.SecurityConfigurationException;
+import org.picketlink.idm.credential.Credentials.Status;
 import org.picketlink.idm.credential.Password;
 import org.picketlink.idm.credential.UsernamePasswordCredentials;
+import org.picketlink.idm.credential.encoder.AdaptivePasswordEncoder;
 import org.picketlink.idm.credential.encoder.PasswordEncoder;
 import org.picketlink.idm.credential.encoder.SHAPasswordEncoder;
 import org.picketlink.idm.credential.handler.annotations.SupportsCredentials;
 import org.picketlink.idm.credential.storage.CredentialStorage;
 import org.picketlink.idm.credential.storage.EncodedPasswordStorage;
+import org.picketlink.idm.event.EventBridge;
 import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.permission.acl.spi.PermissionHandlerPolicy;
 import org.picketlink.idm.spi.CredentialStore;
 import org.picketlink.idm.spi.IdentityContext;
 
 import java.security.SecureRandom;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.picketlink.common.util.StringUtil.isNullOrEmpty;
+import static org.picketlink.idm.IDMLog.CREDENTIAL_LOGGER;
 import static org.picketlink.idm.IDMMessages.MESSAGES;
 
 /**
@@ -86,7 +99,39 @@ public class PasswordCredentialHandler<S extends CredentialStore<?>, V extends U
      */
     public static final String KEY_LENGTH_RANDOM_NUMBER = "KEY_LENGTH_RANDOM_NUMBER";
 
+    /**
+     * <p>An user-defined {@link PasswordHashingExecutor} instance used to verify passwords outside the calling thread.
+     * If not provided, passwords are verified in the calling thread.</p>
+     *
+     * <p>When the executor is saturated the credentials are not verified and their status is set to
+     * {@link Status#REJECTED}.</p>
+     */
+    public static final String PASSWORD_HASHING_EXECUTOR = "PASSWORD_HASHING_EXECUTOR";
+
+    /**
+     * <p>Indicates if passwords encoded with an outdated cost or format should be encoded again after a successful
+     * login. Only applies to encoders implementing {@link AdaptivePasswordEncoder}. Defaults to false.</p>
+     *
+     * <p>If a {@link PasswordHashingExecutor} is provided, the password is encoded again by the executor after the
+     * validation returns, using an {@link IdentityContext} initialized by the context initializers of the store. If the
+     * executor is saturated the password is encoded again on a later login. Without an executor there is no other thread
+     * to run it, so the password is encoded again by the calling thread before the validation returns.</p>
+     *
+     * <p>Only the validated password is replaced, and only if it was not changed by this handler in the meantime. Other
+     * passwords of the account, such as expired or future-dated ones, are kept.</p>
+     */
+    public static final String REHASH_ON_LOGIN = "REHASH_ON_LOGIN";
+
     private PasswordEncoder passwordEncoder = new SHAPasswordEncoder(512);
+    private PasswordHashingExecutor hashingExecutor;
+    private boolean rehashOnLogin;
+    private final ThreadLocal<EncodedPasswordStorage> outdatedHash = new ThreadLocal<EncodedPasswordStorage>();
+
+    /**
+     * Serializes the updates of the password of the same account, so that a rehash does not overwrite a password
+     * changed concurrently
+     */
+    private final Object[] accountLocks = new Object[64];
 
     private final Lock lock = new ReentrantLock();
     private Integer renewRandomNumberGeneratorInterval = -1;
@@ -113,6 +158,23 @@ public class PasswordCredentialHandler<S extends CredentialStore<?>, V extends U
                 }
             }
 
+            Object hashingExecutor = options.get(PASSWORD_HASHING_EXECUTOR);
+
+            if (hashingExecutor != null) {
+                if (PasswordHashingExecutor.class.isInstance(hashingExecutor)) {
+                    this.hashingExecutor = (PasswordHashingExecutor) hashingExecutor;
+                } else {
+                    throw new SecurityConfigurationException("The password hashing executor [" + hashingExecutor
+                            + "] must be an instance of " + PasswordHashingExecutor.class.getName());
+                }
+            }
+
+            Object rehashOnLogin = options.get(REHASH_ON_LOGIN);
+
+            if (rehashOnLogin != null) {
+                this.rehashOnLogin = Boolean.valueOf(rehashOnLogin.toString());
+            }
+
             Object renewRandomNumberGeneratorInterval = options.get(RENEW_RANDOM_NUMBER_GENERATOR_INTERVAL);
 
             if (renewRandomNumberGeneratorInterval != null) {
@@ -141,6 +203,29 @@ public class PasswordCredentialHandler<S extends CredentialStore<?>, V extends U
         }
 
         this.secureRandom = createSecureRandom();
+
+        for (int i = 0; i < this.accountLocks.length; i++) {
+            this.accountLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public void validate(IdentityContext context, V credentials, S store) {
+        try {
+            super.validate(context, credentials, store);
+
+            EncodedPasswordStorage outdatedHash = this.outdatedHash.get();
+
+            if (outdatedHash != null && Status.VALID.equals(credentials.getStatus())) {
+                if (this.hashingExecutor == null) {
+                    rehash(context, credentials.getValidatedAccount(), credentials.getPassword(), outdatedHash, store);
+                } else {
+                    submitRehash(context, credentials.getValidatedAccount(), credentials.getPassword(), outdatedHash, store);
+                }
+            }
+        } finally {
+            this.outdatedHash.remove();
+        }
     }
 
     @Override
@@ -159,16 +244,155 @@ public class PasswordCredentialHandler<S extends CredentialStore<?>, V extends U
 
         if (hash != null) {
             String rawPassword = new String(credentials.getPassword().getValue());
-            return this.passwordEncoder.verify(saltPassword(rawPassword, hash.getSalt()), hash.getEncodedHash());
+            String saltedPassword = saltPassword(rawPassword, hash.getSalt());
+
+            boolean valid;
+
+            if (this.hashingExecutor == null) {
+                valid = this.passwordEncoder.verify(saltedPassword, hash.getEncodedHash());
+            } else {
+                valid = verify(context, saltedPassword, hash.getEncodedHash(), credentials);
+            }
+
+            if (valid && this.rehashOnLogin && AdaptivePasswordEncoder.class.isInstance(this.passwordEncoder)
+                && ((AdaptivePasswordEncoder) this.passwordEncoder).requiresRehash(hash.getEncodedHash())) {
+                this.outdatedHash.set(hash);
+            }
+
+            return valid;
         }
 
         return false;
     }
 
+    /**
+     * <p>Verifies the password using the {@link PasswordHashingExecutor}, waiting for the result. If the executor rejects
+     * the task, the status of the <code>credentials</code> is set to {@link Status#REJECTED}.</p>
+     */
+    private boolean verify(IdentityContext context, final String saltedPassword, final String encodedHash, V credentials) {
+        Future<Boolean> result = null;
+
+        try {
+            result = this.hashingExecutor.submit(context.getPartition().getId(), new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return passwordEncoder.verify(saltedPassword, encodedHash);
+                }
+            });
+
+            return result.get();
+        } catch (RejectedExecutionException e) {
+            if (isDebugEnabled()) {
+                CREDENTIAL_LOGGER.debugf("Password verification rejected for credentials [%s]: %s", credentials, e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IdentityManagementException("Error verifying password.", e.getCause());
+        }
+
+        credentials.setStatus(Status.REJECTED);
+
+        return false;
+    }
+
+    /**
+     * <p>Submits the rehash of the password to the {@link PasswordHashingExecutor} without waiting for it. The task uses
+     * its own {@link IdentityContext}, as the one from the calling thread may not be used once the validation returns.</p>
+     */
+    private void submitRehash(IdentityContext context, final Account account, Password password,
+                              final EncodedPasswordStorage outdatedHash, final S store) {
+        // the caller may clear the password once the validation completes
+        final Password newPassword = new Password(password.getValue().clone());
+        final IdentityContext rehashContext = new RehashContext(context);
+
+        try {
+            this.hashingExecutor.submit(context.getPartition().getId(), new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    store.getConfig().initializeContext(rehashContext, store);
+                    rehash(rehashContext, account, newPassword, outdatedHash, store);
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (isDebugEnabled()) {
+                CREDENTIAL_LOGGER.debugf("Password rehash rejected for account [%s]: %s", account, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * <p>Encodes the password again using the current cost of the encoder. Only the validated password is replaced, and
+     * only if it is still the current one, which is checked and updated while holding the lock of the account. Failures
+     * are logged and ignored, the password is encoded again on the next login.</p>
+     */
+    private void rehash(IdentityContext context, Account account, Password password,
+                        EncodedPasswordStorage outdatedHash, S store) {
+        try {
+            EncodedPasswordStorage newHash = createEncodedPasswordStorage(password, outdatedHash.getEffectiveDate(),
+                outdatedHash.getExpiryDate());
+
+            synchronized (getAccountLock(account)) {
+                EncodedPasswordStorage currentHash = store.retrieveCurrentCredential(context, account, EncodedPasswordStorage.class);
+
+                if (currentHash == null || !outdatedHash.getEncodedHash().equals(currentHash.getEncodedHash())) {
+                    return;
+                }
+
+                List<EncodedPasswordStorage> storedHashes = store.retrieveCredentials(context, account, EncodedPasswordStorage.class);
+
+                // stores can only remove all the passwords of an account, the others are stored again in their order
+                store.removeCredential(context, account, EncodedPasswordStorage.class);
+
+                for (int i = storedHashes.size() - 1; i >= 0; i--) {
+                    EncodedPasswordStorage storedHash = storedHashes.get(i);
+
+                    if (outdatedHash.getEncodedHash().equals(storedHash.getEncodedHash())) {
+                        store.storeCredential(context, account, newHash);
+                    } else {
+                        store.storeCredential(context, account, storedHash);
+                    }
+                }
+
+                if (isDebugEnabled()) {
+                    CREDENTIAL_LOGGER.debugf("Password for account [%s] encoded again with the current cost.", account);
+                }
+            }
+        } catch (Exception e) {
+            CREDENTIAL_LOGGER.debugf(e, "Could not encode again the password for account [%s].", account);
+        }
+    }
+
+    /**
+     * <p>Updates the password while holding the lock of the account, so that it is not overwritten by a concurrent
+     * rehash.</p>
+     */
+    @Override
+    public void update(IdentityContext context, Account account, U password, S store, Date effectiveDate, Date expiryDate) {
+        synchronized (getAccountLock(account)) {
+            super.update(context, account, password, store, effectiveDate, expiryDate);
+        }
+    }
+
+    private Object getAccountLock(Account account) {
+        String id = account.getId();
+
+        if (id == null) {
+            return this.accountLocks[0];
+        }
+
+        return this.accountLocks[(id.hashCode() & Integer.MAX_VALUE) % this.accountLocks.length];
+    }
+
     @Override
     public CredentialStorage createCredentialStorage(IdentityContext context, Account account, U password, S store,
         Date effectiveDate, Date expiryDate) {
+        return createEncodedPasswordStorage(password, effectiveDate, expiryDate);
+    }
 
+    private EncodedPasswordStorage createEncodedPasswordStorage(Password password, Date effectiveDate, Date expiryDate) {
         EncodedPasswordStorage hash = new EncodedPasswordStorage();
 
         if (password.getValue() == null || isNullOrEmpty(password.getValue().toString())) {
@@ -254,4 +478,57 @@ public class PasswordCredentialHandler<S extends CredentialStore<?>, V extends U
         return calendar.getTime().compareTo(new Date()) <= 0;
     }
 
-}
\ No newline at end of file
+    /**
+     * <p>{@link IdentityContext} used to update the store outside the thread that validated the credentials.</p>
+     */
+    private static class RehashContext implements IdentityContext {
+
+        private final Partition partition;
+        private final EventBridge eventBridge;
+        private final IdGenerator idGenerator;
+        private final PermissionHandlerPolicy permissionHandlerPolicy;
+        private final Map<String, Object> parameters = new HashMap<String, Object>();
+
+        RehashContext(IdentityContext context) {
+            this.partition = context.getPartition();
+            this.eventBridge = context.getEventBridge();
+            this.idGenerator = context.getIdGenerator();
+            this.permissionHandlerPolicy = context.getPermissionHandlerPolicy();
+        }
+
+        @Override
+        public <P> P getParameter(String paramName) {
+            return (P) this.parameters.get(paramName);
+        }
+
+        @Override
+        public boolean isParameterSet(String paramName) {
+            return this.parameters.containsKey(paramName);
+        }
+
+        @Override
+        public void setParameter(String paramName, Object value) {
+            this.parameters.put(paramName, value);
+        }
+
+        @Override
+        public EventBridge getEventBridge() {
+            return this.eventBridge;
+        }
+
+        @Override
+        public IdGenerator getIdGenerator() {
+            return this.idGenerator;
+        }
+
+        @Override
+        public Partition getPartition() {
+            return this.partition;
+        }
+
+        @Override
+        public PermissionHandlerPolicy getPermissionHandlerPolicy() {
+            return this.permissionHandlerPolicy;
+        }
+    }
+}
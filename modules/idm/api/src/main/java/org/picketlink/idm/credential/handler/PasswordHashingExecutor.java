@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.credential.handler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Bounded {@link Executor} used to run password hashing, which is CPU intensive by design, outside the threads
+ * serving requests.</p>
+ *
+ * <p>Tasks are executed by a fixed number of threads, by default the number of available processors, and wait in a
+ * bounded queue when all threads are busy. Admission is checked when a task is submitted: if the queue is full or if
+ * the partition the task belongs to already has the maximum number of tasks queued or running, the task is rejected
+ * right away with a {@link RejectedExecutionException}. This way a burst of authentication attempts against a single
+ * partition can not starve the others, nor pin all the threads of the container.</p>
+ *
+ * <p>Tasks submitted from a thread of this executor run in the calling thread, so the whole validation of a credential
+ * may be submitted to this executor without waiting for itself.</p>
+ *
+ * <p>An instance can be shared by the {@link PasswordCredentialHandler} of different stores using the
+ * {@link PasswordCredentialHandler#PASSWORD_HASHING_EXECUTOR} option. This class is thread safe.</p>
+ *
+ * @author agent
+ */
+public class PasswordHashingExecutor implements Executor {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final int maxTasksPerPartition;
+    private final ConcurrentMap<String, Semaphore> partitionPermits = new ConcurrentHashMap<String, Semaphore>();
+    private final ThreadLocal<Boolean> workerThread = new ThreadLocal<Boolean>();
+
+    /**
+     * <p>Creates an executor with one thread per available processor, a queue of four tasks per thread and no limit per
+     * partition.</p>
+     */
+    public PasswordHashingExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * <p>Creates an executor with the given number of threads, a queue of four tasks per thread and no limit per
+     * partition.</p>
+     *
+     * @param threads
+     */
+    public PasswordHashingExecutor(int threads) {
+        this(threads, threads * 4, 0);
+    }
+
+    /**
+     * @param threads The number of threads hashing passwords.
+     * @param queueSize The maximum number of tasks waiting for a thread.
+     * @param maxTasksPerPartition The maximum number of tasks queued or running for a single partition. Zero means no
+     * limit.
+     */
+    public PasswordHashingExecutor(int threads, int queueSize, int maxTasksPerPartition) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be greater than zero.");
+        }
+
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("The queue size must be greater than zero.");
+        }
+
+        if (maxTasksPerPartition < 0) {
+            throw new IllegalArgumentException("The maximum number of tasks per partition can not be negative.");
+        }
+
+        this.maxTasksPerPartition = maxTasksPerPartition;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "picketlink-password-hashing-" + threadCount.incrementAndGet());
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * <p>Executes the given task without checking any partition limit.</p>
+     *
+     * @param task
+     * @throws RejectedExecutionException If the executor is saturated or shut down.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("You must provide a task.");
+        }
+
+        submit(null, Executors.callable(task));
+    }
+
+    /**
+     * <p>Submits the given task on behalf of the given partition. The partition permit is released before the returned
+     * {@link Future} completes. If the task is cancelled before it starts, its permit and its place in the queue are
+     * released right away.</p>
+     *
+     * @param partitionId The identifier of the partition the task belongs to. If null, no partition limit is checked.
+     * @param task
+     * @return
+     * @throws RejectedExecutionException If the executor or the partition is saturated, or if the executor is shut down.
+     */
+    public <T> Future<T> submit(String partitionId, final Callable<T> task) throws RejectedExecutionException {
+        if (task == null) {
+            throw new IllegalArgumentException("You must provide a task.");
+        }
+
+        final Semaphore permits = acquirePartitionPermit(partitionId);
+        final boolean inline = Boolean.TRUE.equals(this.workerThread.get());
+        // claimed either by the task when it starts, or by a cancellation that happens before
+        final AtomicBoolean started = new AtomicBoolean();
+        FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                started.set(true);
+
+                if (!inline) {
+                    workerThread.set(Boolean.TRUE);
+                }
+
+                try {
+                    return task.call();
+                } finally {
+                    if (!inline) {
+                        workerThread.remove();
+                    }
+
+                    release(permits);
+                }
+            }
+        }) {
+            @Override
+            protected void done() {
+                // a task cancelled while queued never runs, so nothing else would release its permit
+                if (isCancelled() && started.compareAndSet(false, true)) {
+                    release(permits);
+                    executor.remove(this);
+                }
+            }
+        };
+
+        if (inline) {
+            future.run();
+            return future;
+        }
+
+        try {
+            this.executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            release(permits);
+            throw e;
+        }
+
+        return future;
+    }
+
+    /**
+     * <p>Returns the number of tasks waiting for a thread.</p>
+     *
+     * @return
+     */
+    public int getQueuedCount() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * <p>Stops accepting tasks. Tasks already queued are still executed.</p>
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    private Semaphore acquirePartitionPermit(String partitionId) {
+        if (partitionId == null || this.maxTasksPerPartition == 0) {
+            return null;
+        }
+
+        Semaphore permits = this.partitionPermits.get(partitionId);
+
+        if (permits == null) {
+            Semaphore newPermits = new Semaphore(this.maxTasksPerPartition);
+
+            permits = this.partitionPermits.putIfAbsent(partitionId, newPermits);
+
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Too many password hashing tasks for partition [" + partitionId + "].");
+        }
+
+        return permits;
+    }
+
+    private void release(Semaphore permits) {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+}
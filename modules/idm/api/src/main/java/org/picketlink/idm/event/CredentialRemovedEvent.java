@@ -0,0 +1,47 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.event;
+
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.credential.storage.CredentialStorage;
+import org.picketlink.idm.model.Account;
+
+/**
+ * <p>This event is raised whenever the credentials of an account are removed</p>
+ *
+ * @author agent
+ */
+public class CredentialRemovedEvent extends AbstractBaseEvent {
+
+    private final Account account;
+    private final Class<? extends CredentialStorage> storageClass;
+
+    public CredentialRemovedEvent(Account account, Class<? extends CredentialStorage> storageClass, PartitionManager partitionManager) {
+        super(partitionManager);
+        this.account = account;
+        this.storageClass = storageClass;
+    }
+
+    public Account getAccount() {
+        return this.account;
+    }
+
+    public Class<? extends CredentialStorage> getStorageClass() {
+        return this.storageClass;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.event;
+
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.model.IdentityType;
+
+import java.util.List;
+
+/**
+ * <p>This event is raised whenever many IdentityType instances are created at once, using
+ * {@link org.picketlink.idm.BulkIdentityManager#addAll(java.util.Collection)}. A single event is raised for each batch,
+ * instead of a {@link IdentityTypeCreatedEvent} for each type.</p>
+ *
+ * @author agent
+ */
+public class IdentityTypesCreatedEvent extends AbstractBaseEvent {
+
+    private final List<IdentityType> identityTypes;
+
+    public IdentityTypesCreatedEvent(List<IdentityType> identityTypes, PartitionManager partitionManager) {
+        super(partitionManager);
+        this.identityTypes = identityTypes;
+    }
+
+    public List<IdentityType> getIdentityTypes() {
+        return this.identityTypes;
+    }
+
+}
@@ -455,7 +455,7 @@ public class BasicModel {
         query.setParameter(Grant.ASSIGNEE, assignee);
         query.setParameter(GroupRole.ROLE, role);
 
-        boolean hasRole = !query.getResultList().isEmpty();
+        boolean hasRole = query.exists();
 
         if (!hasRole) {
             return relationshipManager.inheritsPrivileges(assignee, role);
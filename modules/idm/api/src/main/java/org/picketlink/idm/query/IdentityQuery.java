@@ -20,6 +20,7 @@ package org.picketlink.idm.query;
 
 import org.picketlink.idm.model.IdentityType;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -64,6 +65,13 @@ public interface IdentityQuery<T extends IdentityType> {
     /**
      * Used for pagination models like LDAP when search will return some object (like cookie) for searching on next page
      *
+     * <p>For LDAP stores with pagination enabled, the context is the cookie returned by the server after each page. Setting
+     * it back on the query and executing it again returns the next page, without restarting the search. An empty cookie
+     * means there are no more pages.</p>
+     *
+     * <p>For JDBC stores with keyset pagination enabled, the context identifies the last row of the page. Setting it back
+     * on the query returns the rows that follow it, regardless of the offset.</p>
+     *
      * @param object to be used for search next page
      *
      * @return this query
@@ -225,6 +233,24 @@ public interface IdentityQuery<T extends IdentityType> {
      */
     IdentityQuery<T> setLimit(int limit);
 
+    /**
+     * <p>Indicates if the ad-hoc attributes of the results should be loaded.</p>
+     *
+     * @return
+     */
+    boolean isLoadAttributes();
+
+    /**
+     * <p>Defines if the ad-hoc attributes of the results should be loaded. Attributes are loaded by default. When disabled,
+     * the results are returned without their ad-hoc and managed attributes, which avoids additional lookups to the attribute
+     * store when they are not needed.</p>
+     *
+     * @param loadAttributes
+     *
+     * @return
+     */
+    IdentityQuery<T> setLoadAttributes(boolean loadAttributes);
+
     /**
      * <p>Execute the query against the underlying identity stores and returns a list containing all instances of
      * the type (defined when creating this query instance) that match the conditions previously specified.</p>
@@ -233,6 +259,20 @@ public interface IdentityQuery<T extends IdentityType> {
      */
     List<T> getResultList();
 
+    /**
+     * <p>Execute the query against the underlying identity stores and returns an iterator over all instances of the
+     * type (defined when creating this query instance) that match the conditions previously specified.</p>
+     *
+     * <p>Results are lazily fetched from each identity store, at most <code>fetchSize</code> instances at a time, so
+     * this method should be used instead of {@link #getResultList()} when iterating over large result sets. This query
+     * instance must not be changed until the iteration is done.</p>
+     *
+     * @param fetchSize The maximum number of instances to fetch from an identity store at a time.
+     *
+     * @return
+     */
+    Iterator<T> getResultIterator(int fetchSize);
+
     /**
      * Count of all query results. It takes into account query parameters, but it doesn't take into account pagination parameter
      * like offset and limit
@@ -240,4 +280,15 @@ public interface IdentityQuery<T extends IdentityType> {
      * @return count of all query results
      */
     int getResultCount();
+
+    /**
+     * <p>Checks if there is at least one instance matching the conditions previously specified. Pagination parameters
+     * like offset and limit are not taken into account.</p>
+     *
+     * <p>This method should be preferred over checking if {@link #getResultList()} is empty, given that identity stores
+     * stop searching as soon as a matching instance is found.</p>
+     *
+     * @return true if there is at least one instance matching this query. Otherwise returns false.
+     */
+    boolean exists();
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ package org.picketlink.idm.query;
 
 import org.picketlink.idm.model.Relationship;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -47,5 +48,23 @@ public interface RelationshipQuery<T extends Relationship> {
 
     List<T> getResultList();
 
+    /**
+     * <p>Returns an iterator over the results of this query, lazily fetching at most <code>fetchSize</code> relationships
+     * at a time from each identity store.</p>
+     *
+     * @param fetchSize The maximum number of relationships to fetch from an identity store at a time.
+     *
+     * @return
+     */
+    Iterator<T> getResultIterator(int fetchSize);
+
     int getResultCount();
+
+    /**
+     * <p>Checks if there is at least one relationship matching the parameters previously specified. Pagination
+     * parameters like offset and limit are not taken into account.</p>
+     *
+     * @return true if there is at least one relationship matching this query. Otherwise returns false.
+     */
+    boolean exists();
 }
@@ -22,6 +22,7 @@ import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
 
 import java.io.Serializable;
+import java.util.Collection;
 
 /**
  * <p>A special type of IdentityStore that is also capable of providing attribute management functionality.</p>
@@ -67,4 +68,13 @@ public interface AttributeStore<T extends IdentityStoreConfiguration> extends Id
      * @param attributedType
      */
     void loadAttributes(IdentityContext context, AttributedType attributedType);
+
+    /**
+     * Loads all attributes for the given {@link AttributedType} instances. Implementations should load the attributes
+     * of all types at once, instead of issuing a separate lookup for each of them.
+     *
+     * @param context
+     * @param attributedTypes
+     */
+    void loadAttributes(IdentityContext context, Collection<? extends AttributedType> attributedTypes);
 }
@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.spi;
+
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.model.AttributedType;
+
+import java.util.List;
+
+/**
+ * <p>A special type of IdentityStore that is capable of adding many types at once, grouping the writes to the underlying
+ * storage.</p>
+ *
+ * <p>Stores not implementing this interface have the types added one at a time, using
+ * {@link IdentityStore#add(IdentityContext, org.picketlink.idm.model.AttributedType)}.</p>
+ *
+ * @author agent
+ */
+public interface BulkIdentityStore<T extends IdentityStoreConfiguration> extends IdentityStore<T> {
+
+    /**
+     * <p>Adds all the given types, in the given order. The result must be the same as adding each type using
+     * {@link IdentityStore#add(IdentityContext, org.picketlink.idm.model.AttributedType)}, but implementations are free
+     * to group the writes, for instance, in a single transaction or flush.</p>
+     *
+     * @param context
+     * @param attributedTypes
+     */
+    void addAll(IdentityContext context, List<? extends AttributedType> attributedTypes);
+}
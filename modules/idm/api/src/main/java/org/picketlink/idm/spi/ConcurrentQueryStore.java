@@ -0,0 +1,33 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.spi;
+
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+
+/**
+ * <p>A special type of IdentityStore that does not depend on resources bound to the calling thread, like a
+ * thread-bound EntityManager or transaction, to execute queries.</p>
+ *
+ * <p>When a query executor is configured, only the queries targeting stores implementing this interface are run
+ * concurrently in the executor. Queries targeting any other store always run in the calling thread.</p>
+ *
+ * @author agent
+ */
+public interface ConcurrentQueryStore<T extends IdentityStoreConfiguration> extends IdentityStore<T> {
+
+}
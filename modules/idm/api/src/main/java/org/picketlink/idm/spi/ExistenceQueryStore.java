@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.spi;
+
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.query.IdentityQuery;
+
+/**
+ * <p>A special type of IdentityStore that is capable of checking if there is any identity type matching a query,
+ * without loading the matching entries.</p>
+ *
+ * <p>Stores not implementing this interface are checked by fetching a single result using
+ * {@link IdentityStore#fetchQueryResults(IdentityContext, org.picketlink.idm.query.IdentityQuery)}.</p>
+ *
+ * @author agent
+ */
+public interface ExistenceQueryStore<T extends IdentityStoreConfiguration> extends IdentityStore<T> {
+
+    /**
+     * <p>Checks if there is at least one identity type matching the given query. Implementations should stop searching
+     * as soon as a matching entry is found. The offset, limit and sorting of the query are not taken into account.</p>
+     *
+     * @param context
+     * @param identityQuery
+     * @return
+     */
+    <V extends IdentityType> boolean existsQueryResults(IdentityContext context, IdentityQuery<V> identityQuery);
+}
@@ -41,6 +41,12 @@ public interface IdentityContext {
      * specific operation.</p>
      */
     String CREDENTIALS = "CREDENTIALS";
+    /**
+     * <p>Name of the context parameter indicating that a paged identity query is going to be resumed using the pagination
+     * context set by the identity store. Stores may use it to keep the resources backing a paged query, such as
+     * connections, only for queries that ask for their next pages.</p>
+     */
+    String PAGINATION_RESUMABLE = "PAGINATION_RESUMABLE";
 
     /**
      * Returns the parameter value with the specified name
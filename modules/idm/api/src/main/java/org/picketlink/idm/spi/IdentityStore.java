@@ -79,12 +79,28 @@ public interface IdentityStore<T extends IdentityStoreConfiguration> {
 
     <V extends IdentityType> List<V> fetchQueryResults(IdentityContext context, IdentityQuery<V> identityQuery);
 
+    /**
+     * Returns the number of identity types stored by this store that match the given query, without taking into account
+     * its offset and limit.
+     *
+     * @param context
+     * @param identityQuery
+     * @return
+     */
     <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery);
 
     // Relationship query
 
     <V extends Relationship> List<V> fetchQueryResults(IdentityContext context, RelationshipQuery<V> query);
 
+    /**
+     * Returns the number of relationships stored by this store that match the given query, without taking into account
+     * its offset and limit.
+     *
+     * @param context
+     * @param query
+     * @return
+     */
     <V extends Relationship> int countQueryResults(IdentityContext context, RelationshipQuery<V> query);
 
     // Credentials
@@ -20,6 +20,7 @@ package org.picketlink.idm.util;
 import org.picketlink.common.properties.Property;
 import org.picketlink.common.properties.query.PropertyQueries;
 import org.picketlink.common.properties.query.TypedPropertyCriteria;
+import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.PartitionManager;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.IdentityType;
@@ -28,6 +29,12 @@ import org.picketlink.idm.model.basic.Realm;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.IdentityStore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
@@ -168,4 +175,46 @@ public class IDMUtil {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>Returns a deep copy of the given type, created by serializing and deserializing it. Classes are resolved using
+     * the class loader of the given type.</p>
+     *
+     * @param attributedType
+     * @param <T>
+     *
+     * @return
+     *
+     * @throws IdentityManagementException If the type could not be copied.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends AttributedType> T copy(T attributedType) {
+        if (attributedType == null) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream output = new ObjectOutputStream(bytes);
+
+            output.writeObject(attributedType);
+            output.close();
+
+            final ClassLoader classLoader = attributedType.getClass().getClassLoader();
+            ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())) {
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+                    try {
+                        return Class.forName(description.getName(), false, classLoader);
+                    } catch (ClassNotFoundException cnfe) {
+                        return super.resolveClass(description);
+                    }
+                }
+            };
+
+            return (T) input.readObject();
+        } catch (Exception e) {
+            throw new IdentityManagementException("Could not copy type [" + attributedType + "].", e);
+        }
+    }
+}
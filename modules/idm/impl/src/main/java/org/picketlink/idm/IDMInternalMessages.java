@@ -151,6 +151,9 @@ public interface IDMInternalMessages extends IDMMessages {
     @Message(id = 605, value = "Undefined partition for identity type [%s].")
     IdentityManagementException attributedUndefinedPartition(IdentityType identityType);
 
+    @Message(id = 606, value = "Could not add batch of IdentityType instances. [%s] instances were added before the failure.")
+    IdentityManagementException identityTypeBatchAddFailed(int addedCount, @Cause Throwable t);
+
     @Message(value = "Could not find AttributedType [%s] with the given identifier [%s] for Partition [%s]")
     IdentityManagementException attributedTypeNotFoundWithId(Class<? extends AttributedType> type, String id, Partition partition);
 
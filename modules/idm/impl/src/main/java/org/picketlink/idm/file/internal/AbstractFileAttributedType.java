@@ -25,8 +25,8 @@ import org.picketlink.common.properties.query.PropertyQuery;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.annotation.AttributeProperty;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +41,10 @@ public abstract class AbstractFileAttributedType<T extends AttributedType> exten
 
     private static final long serialVersionUID = -8312773698663190107L;
 
+    protected AbstractFileAttributedType() {
+
+    }
+
     protected AbstractFileAttributedType(String version, T object) {
         super(version, object);
     }
@@ -85,13 +89,13 @@ public abstract class AbstractFileAttributedType<T extends AttributedType> exten
     }
 
     @Override
-    protected void doWriteObject(ObjectOutputStream s) throws Exception {
+    protected void doWriteObject(ObjectOutput s) throws Exception {
         super.doWriteObject(s);
     }
 
     @SuppressWarnings("unchecked")
     @Override
-    protected void doReadObject(ObjectInputStream s) throws Exception {
+    protected void doReadObject(ObjectInput s) throws Exception {
     }
 
     private List<Property<Serializable>> getAttributedProperties(T attributedType) {
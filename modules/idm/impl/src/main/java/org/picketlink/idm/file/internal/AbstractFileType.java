@@ -20,7 +20,9 @@ package org.picketlink.idm.file.internal;
 
 import org.picketlink.idm.IdentityManagementException;
 
+import java.io.ObjectInput;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Map;
@@ -42,6 +44,13 @@ public abstract class AbstractFileType<T> implements Serializable {
 
     private transient T loadedObject;
 
+    /**
+     * <p>Used when reading entries written using the {@link FileBinaryFormat}.</p>
+     */
+    protected AbstractFileType() {
+
+    }
+
     protected AbstractFileType(String version, T object) {
         if (version == null) {
             throw new IdentityManagementException("Version not specified.");
@@ -58,6 +67,10 @@ public abstract class AbstractFileType<T> implements Serializable {
     }
 
     private void writeObject(ObjectOutputStream s) {
+        writeTo(s);
+    }
+
+    void writeTo(ObjectOutput s) {
         try {
             s.writeObject(this.version);
             s.writeObject(this.type);
@@ -72,14 +85,18 @@ public abstract class AbstractFileType<T> implements Serializable {
         }
     }
 
-    protected void doWriteObject(ObjectOutputStream s) throws Exception {
+    protected void doWriteObject(ObjectOutput s) throws Exception {
 
     }
 
     protected abstract void doPopulateProperties(Map<String, Serializable> properties) throws Exception;
 
-    @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream s) {
+        readFrom(s);
+    }
+
+    @SuppressWarnings("unchecked")
+    void readFrom(ObjectInput s) {
         try {
             this.version = (String) s.readObject();
             this.type = (String) s.readObject();
@@ -91,7 +108,7 @@ public abstract class AbstractFileType<T> implements Serializable {
         }
     }
 
-    protected void doReadObject(ObjectInputStream s) throws Exception {
+    protected void doReadObject(ObjectInput s) throws Exception {
 
     }
 
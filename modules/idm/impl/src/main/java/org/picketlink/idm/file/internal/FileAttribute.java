@@ -20,8 +20,8 @@ package org.picketlink.idm.file.internal;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -37,6 +37,10 @@ public class FileAttribute extends AbstractFileType<Collection<Attribute<? exten
     private static final String VERSION = "1";
     private String identityTypeId;
 
+    FileAttribute() {
+
+    }
+
     protected FileAttribute(AttributedType identityType) {
         super(VERSION, Collections.synchronizedList(new ArrayList<Attribute<? extends Serializable>>(identityType
                 .getAttributes())));
@@ -55,13 +59,13 @@ public class FileAttribute extends AbstractFileType<Collection<Attribute<? exten
     }
 
     @Override
-    protected void doWriteObject(final ObjectOutputStream s) throws Exception {
+    protected void doWriteObject(final ObjectOutput s) throws Exception {
         super.doWriteObject(s);
         s.writeObject(this.identityTypeId);
     }
 
     @Override
-    protected void doReadObject(final ObjectInputStream s) throws Exception {
+    protected void doReadObject(final ObjectInput s) throws Exception {
         super.doReadObject(s);
         this.identityTypeId = s.readObject().toString();
     }
@@ -26,6 +26,10 @@ public class FileAttributedType extends AbstractFileAttributedType<AttributedTyp
 
     private static final String VERSION = "1";
 
+    FileAttributedType() {
+
+    }
+
     protected FileAttributedType(AttributedType object) {
         super(VERSION, object);
     }
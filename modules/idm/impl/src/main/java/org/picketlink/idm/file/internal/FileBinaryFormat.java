@@ -0,0 +1,752 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.file.internal;
+
+import org.picketlink.idm.IdentityManagementException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Compact binary format used to persist the entries of a {@link FileDataSource}.</p>
+ *
+ * <p>Data is written as a sequence of records, each one holding a single entry together with the keys identifying it.
+ * Entries are written field by field instead of using Java serialization, which is only used for values of types not
+ * known by this format. Strings are interned within each record: each distinct string is written only once and later
+ * occurrences refer to it by index, so type and property names repeated by an entry take just a few bytes. Records do
+ * not share strings, so each one can be encoded and decoded on its own.</p>
+ *
+ * <p>Snapshot files start with a header holding a magic number and the version of the format, followed by the records,
+ * each one prefixed by its length. Files are read at once into a heap buffer through a {@link FileChannel}, so they are
+ * not kept open or mapped after loading and can be replaced by the next snapshot. Files without the header were written
+ * by previous versions using Java serialization and must be read as such.</p>
+ *
+ * @author agent
+ */
+final class FileBinaryFormat {
+
+    private static final int MAGIC = 0x504C4944;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte DATE = 5;
+    private static final byte BYTES = 6;
+    private static final byte HASH_MAP = 7;
+    private static final byte CONCURRENT_MAP = 8;
+    private static final byte ARRAY_LIST = 9;
+    private static final byte SYNCHRONIZED_LIST = 10;
+    private static final byte ENTRY = 11;
+    private static final byte SERIALIZED = 12;
+
+    private static final byte PARTITION_ENTRY = 1;
+    private static final byte IDENTITY_TYPE_ENTRY = 2;
+    private static final byte RELATIONSHIP_ENTRY = 3;
+    private static final byte ATTRIBUTE_ENTRY = 4;
+    private static final byte ATTRIBUTED_TYPE_ENTRY = 5;
+    private static final byte CREDENTIAL_ENTRY = 6;
+    private static final byte PERMISSION_ENTRY = 7;
+
+    private static final Class<?> SYNCHRONIZED_LIST_TYPE = Collections.synchronizedList(new ArrayList<Object>()).getClass();
+
+    private FileBinaryFormat() {
+
+    }
+
+    /**
+     * <p>Checks if the given file was written using this format. Empty files are considered to be in this format.</p>
+     *
+     * @param file
+     * @return
+     */
+    static boolean isBinary(File file) {
+        if (file.length() == 0) {
+            return true;
+        }
+
+        if (file.length() < HEADER_LENGTH) {
+            return false;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+
+            return randomAccessFile.readInt() == MAGIC;
+        } catch (IOException e) {
+            throw new IdentityManagementException("Could not read file [" + file.getPath() + "].", e);
+        } finally {
+            close(randomAccessFile);
+        }
+    }
+
+    /**
+     * <p>Encodes a single record, without any header.</p>
+     *
+     * @param type
+     * @param keys
+     * @param value
+     * @return
+     */
+    static byte[] encode(String type, String[] keys, Object value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Output output = new Output(bos);
+
+        try {
+            output.writeRecord(type, keys, value);
+            output.flush();
+        } catch (IOException e) {
+            throw new IdentityManagementException("Could not encode record for [" + type + "].", e);
+        }
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * <p>Decodes a single record written by {@link #encode(String, String[], Object)}.</p>
+     *
+     * @param payload
+     * @return
+     */
+    static FileJournal.Record decode(byte[] payload) {
+        try {
+            return new Input(ByteBuffer.wrap(payload)).readRecord();
+        } catch (Exception e) {
+            throw new IdentityManagementException("Could not decode record.", e);
+        }
+    }
+
+    private static void close(RandomAccessFile randomAccessFile) {
+        try {
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * <p>Writes records to a snapshot file.</p>
+     */
+    static class Writer {
+
+        private final DataOutputStream out;
+
+        Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(FORMAT_VERSION);
+        }
+
+        /**
+         * <p>Writes a record previously encoded using {@link FileBinaryFormat#encode(String, String[], Object)}.</p>
+         */
+        void write(byte[] record) throws IOException {
+            this.out.writeInt(record.length);
+            this.out.write(record);
+        }
+
+        void flush() throws IOException {
+            this.out.flush();
+        }
+    }
+
+    /**
+     * <p>Reads the records from a snapshot file.</p>
+     */
+    static class Reader {
+
+        private final File file;
+        private final ByteBuffer buffer;
+
+        Reader(File file) {
+            this.file = file;
+
+            RandomAccessFile randomAccessFile = null;
+
+            try {
+                randomAccessFile = new RandomAccessFile(file, "r");
+
+                FileChannel channel = randomAccessFile.getChannel();
+                long size = channel.size();
+
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("File too large [" + size + "].");
+                }
+
+                // read into a heap buffer instead of mapping the file, which would keep it open until the mapping is
+                // garbage collected and prevent it from being replaced or deleted on some platforms
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        throw new EOFException("Unexpected end of file.");
+                    }
+                }
+
+                buffer.flip();
+
+                if (buffer.remaining() > 0) {
+                    if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+                        throw new IOException("Not a binary file.");
+                    }
+
+                    int version = buffer.getInt();
+
+                    if (version != FORMAT_VERSION) {
+                        throw new IOException("Unsupported format version [" + version + "].");
+                    }
+                }
+
+                this.buffer = buffer;
+            } catch (IOException e) {
+                throw new IdentityManagementException("Could not read file [" + file.getPath() + "].", e);
+            } finally {
+                close(randomAccessFile);
+            }
+        }
+
+        /**
+         * <p>Returns the next record, or null if there are no more records.</p>
+         *
+         * @return
+         */
+        FileJournal.Record read() {
+            ByteBuffer buffer = this.buffer;
+
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+
+            try {
+                int length = buffer.getInt();
+
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new EOFException("Incomplete record.");
+                }
+
+                // each record is decoded on its own, records do not share interned strings
+                ByteBuffer payload = buffer.slice();
+
+                payload.limit(length);
+                buffer.position(buffer.position() + length);
+
+                FileJournal.Record record = new Input(payload).readRecord();
+
+                if (payload.hasRemaining()) {
+                    throw new IOException("Invalid record length.");
+                }
+
+                return record;
+            } catch (Exception e) {
+                throw new IdentityManagementException("Could not read record from [" + this.file.getPath() + "].", e);
+            }
+        }
+    }
+
+    /**
+     * <p>{@link ObjectOutput} writing values using this format.</p>
+     */
+    static class Output extends DataOutputStream implements ObjectOutput {
+
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        Output(OutputStream out) {
+            super(out);
+        }
+
+        void writeRecord(String type, String[] keys, Object value) throws IOException {
+            writeString(type);
+            writeInt(keys.length);
+
+            for (String key : keys) {
+                writeString(key);
+            }
+
+            writeObject(value);
+        }
+
+        @Override
+        public void writeObject(Object value) throws IOException {
+            if (value == null) {
+                writeByte(NULL);
+            } else if (String.class.equals(value.getClass())) {
+                writeByte(STRING);
+                writeString((String) value);
+            } else if (Boolean.class.equals(value.getClass())) {
+                writeByte(BOOLEAN);
+                writeBoolean((Boolean) value);
+            } else if (Integer.class.equals(value.getClass())) {
+                writeByte(INTEGER);
+                writeInt((Integer) value);
+            } else if (Long.class.equals(value.getClass())) {
+                writeByte(LONG);
+                writeLong((Long) value);
+            } else if (Date.class.equals(value.getClass())) {
+                writeByte(DATE);
+                writeLong(((Date) value).getTime());
+            } else if (byte[].class.equals(value.getClass())) {
+                writeByte(BYTES);
+                writeByteArray((byte[]) value);
+            } else if (HashMap.class.equals(value.getClass())) {
+                writeByte(HASH_MAP);
+                writeMap((Map<?, ?>) value);
+            } else if (ConcurrentHashMap.class.equals(value.getClass())) {
+                writeByte(CONCURRENT_MAP);
+                writeMap((Map<?, ?>) value);
+            } else if (ArrayList.class.equals(value.getClass())) {
+                writeByte(ARRAY_LIST);
+                writeCollection((Collection<?>) value);
+            } else if (SYNCHRONIZED_LIST_TYPE.equals(value.getClass())) {
+                writeByte(SYNCHRONIZED_LIST);
+
+                synchronized (value) {
+                    writeCollection((Collection<?>) value);
+                }
+            } else if (AbstractFileType.class.isInstance(value)) {
+                writeByte(ENTRY);
+                writeEntry((AbstractFileType<?>) value);
+            } else {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(bos);
+
+                oos.writeObject(value);
+                oos.close();
+
+                writeByte(SERIALIZED);
+                writeByteArray(bos.toByteArray());
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            Integer index = this.strings.get(value);
+
+            if (index != null) {
+                writeInt(index);
+            } else {
+                byte[] bytes = value.getBytes("UTF-8");
+
+                writeInt(this.strings.size());
+                writeByteArray(bytes);
+
+                this.strings.put(value, this.strings.size());
+            }
+        }
+
+        private void writeByteArray(byte[] bytes) throws IOException {
+            writeInt(bytes.length);
+            write(bytes);
+        }
+
+        private void writeMap(Map<?, ?> map) throws IOException {
+            // copied first, the size must match the entries written even if the map is concurrently changed
+            List<Map.Entry<?, ?>> entries = new ArrayList<Map.Entry<?, ?>>(map.entrySet());
+
+            writeInt(entries.size());
+
+            for (Map.Entry<?, ?> entry : entries) {
+                writeObject(entry.getKey());
+                writeObject(entry.getValue());
+            }
+        }
+
+        private void writeCollection(Collection<?> collection) throws IOException {
+            List<?> elements = new ArrayList<Object>(collection);
+
+            writeInt(elements.size());
+
+            for (Object element : elements) {
+                writeObject(element);
+            }
+        }
+
+        private void writeEntry(AbstractFileType<?> entry) throws IOException {
+            if (FilePartition.class.isInstance(entry)) {
+                writeByte(PARTITION_ENTRY);
+            } else if (FileIdentityType.class.isInstance(entry)) {
+                writeByte(IDENTITY_TYPE_ENTRY);
+            } else if (FileRelationship.class.isInstance(entry)) {
+                writeByte(RELATIONSHIP_ENTRY);
+            } else if (FileAttribute.class.isInstance(entry)) {
+                writeByte(ATTRIBUTE_ENTRY);
+            } else if (FileAttributedType.class.isInstance(entry)) {
+                writeByte(ATTRIBUTED_TYPE_ENTRY);
+            } else if (FileCredentialStorage.class.isInstance(entry)) {
+                writeByte(CREDENTIAL_ENTRY);
+            } else if (FilePermission.class.isInstance(entry)) {
+                writeByte(PERMISSION_ENTRY);
+            } else {
+                throw new IOException("Unsupported entry type [" + entry.getClass().getName() + "].");
+            }
+
+            entry.writeTo(this);
+        }
+    }
+
+    /**
+     * <p>{@link ObjectInput} reading values written by {@link Output} from a {@link ByteBuffer}.</p>
+     */
+    static class Input implements ObjectInput {
+
+        private final ByteBuffer buffer;
+        private final List<String> strings = new ArrayList<String>();
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        FileJournal.Record readRecord() throws IOException, ClassNotFoundException {
+            String type = readString();
+            String[] keys = new String[readInt()];
+
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = readString();
+            }
+
+            return new FileJournal.Record(type, keys, readObject());
+        }
+
+        @Override
+        public Object readObject() throws ClassNotFoundException, IOException {
+            byte tag = readByte();
+
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case BOOLEAN:
+                    return readBoolean();
+                case INTEGER:
+                    return readInt();
+                case LONG:
+                    return readLong();
+                case DATE:
+                    return new Date(readLong());
+                case BYTES:
+                    return readBytes();
+                case HASH_MAP:
+                    return readMap(new HashMap<Object, Object>());
+                case CONCURRENT_MAP:
+                    return readMap(new ConcurrentHashMap<Object, Object>());
+                case ARRAY_LIST:
+                    return readCollection(new ArrayList<Object>());
+                case SYNCHRONIZED_LIST:
+                    return Collections.synchronizedList(readCollection(new ArrayList<Object>()));
+                case ENTRY:
+                    return readEntry();
+                case SERIALIZED:
+                    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes()));
+
+                    try {
+                        return ois.readObject();
+                    } finally {
+                        ois.close();
+                    }
+                default:
+                    throw new IOException("Unknown value type [" + tag + "].");
+            }
+        }
+
+        private String readString() throws IOException {
+            int index = readInt();
+
+            if (index < this.strings.size()) {
+                return this.strings.get(index);
+            }
+
+            if (index != this.strings.size()) {
+                throw new IOException("Invalid string reference [" + index + "].");
+            }
+
+            String value = new String(readBytes(), "UTF-8");
+
+            this.strings.add(value);
+
+            return value;
+        }
+
+        private byte[] readBytes() throws IOException {
+            int length = readInt();
+
+            if (length < 0 || length > this.buffer.remaining()) {
+                throw new EOFException();
+            }
+
+            byte[] bytes = new byte[length];
+
+            readFully(bytes);
+
+            return bytes;
+        }
+
+        private Map<Object, Object> readMap(Map<Object, Object> map) throws IOException, ClassNotFoundException {
+            int size = readInt();
+
+            for (int i = 0; i < size; i++) {
+                map.put(readObject(), readObject());
+            }
+
+            return map;
+        }
+
+        private List<Object> readCollection(List<Object> list) throws IOException, ClassNotFoundException {
+            int size = readInt();
+
+            for (int i = 0; i < size; i++) {
+                list.add(readObject());
+            }
+
+            return list;
+        }
+
+        private AbstractFileType<?> readEntry() throws IOException {
+            byte kind = readByte();
+            AbstractFileType<?> entry;
+
+            switch (kind) {
+                case PARTITION_ENTRY:
+                    entry = new FilePartition();
+                    break;
+                case IDENTITY_TYPE_ENTRY:
+                    entry = new FileIdentityType();
+                    break;
+                case RELATIONSHIP_ENTRY:
+                    entry = new FileRelationship();
+                    break;
+                case ATTRIBUTE_ENTRY:
+                    entry = new FileAttribute();
+                    break;
+                case ATTRIBUTED_TYPE_ENTRY:
+                    entry = new FileAttributedType();
+                    break;
+                case CREDENTIAL_ENTRY:
+                    entry = new FileCredentialStorage();
+                    break;
+                case PERMISSION_ENTRY:
+                    entry = new FilePermission();
+                    break;
+                default:
+                    throw new IOException("Unknown entry type [" + kind + "].");
+            }
+
+            entry.readFrom(this);
+
+            return entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+
+            return this.buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(len, this.buffer.remaining());
+
+            this.buffer.get(b, off, count);
+
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.buffer.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException {
+            readFully(b, 0, b.length);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            try {
+                this.buffer.get(b, off, len);
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public int skipBytes(int n) throws IOException {
+            int count = Math.max(0, Math.min(n, this.buffer.remaining()));
+
+            this.buffer.position(this.buffer.position() + count);
+
+            return count;
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            try {
+                return this.buffer.get();
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return readByte() & 0xFF;
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            try {
+                return this.buffer.getShort();
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return readShort() & 0xFFFF;
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            try {
+                return this.buffer.getChar();
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            try {
+                return this.buffer.getInt();
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            try {
+                return this.buffer.getLong();
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return Float.intBitsToFloat(readInt());
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            if (!this.buffer.hasRemaining()) {
+                return null;
+            }
+
+            StringBuilder line = new StringBuilder();
+
+            while (this.buffer.hasRemaining()) {
+                int c = this.buffer.get() & 0xff;
+
+                if (c == '\n') {
+                    break;
+                }
+
+                if (c == '\r') {
+                    if (this.buffer.hasRemaining() && this.buffer.get(this.buffer.position()) == '\n') {
+                        this.buffer.get();
+                    }
+
+                    break;
+                }
+
+                line.append((char) c);
+            }
+
+            return line.toString();
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return DataInputStream.readUTF(this);
+        }
+    }
+}
@@ -35,6 +35,10 @@ public class FileCredentialStorage extends AbstractFileType<CredentialStorage> {
 
     private static final String VERSION = "1";
 
+    FileCredentialStorage() {
+
+    }
+
     protected FileCredentialStorage(CredentialStorage object) {
         super(VERSION, object);
     }
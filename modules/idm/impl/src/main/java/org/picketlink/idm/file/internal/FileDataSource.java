@@ -20,21 +20,30 @@ package org.picketlink.idm.file.internal;
 
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.config.FileIdentityStoreConfiguration;
+import org.picketlink.idm.model.Attribute;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.picketlink.common.util.StringUtil.isNullOrEmpty;
 import static org.picketlink.idm.IDMInternalLog.FILE_STORE_LOGGER;
@@ -43,6 +52,17 @@ import static org.picketlink.idm.file.internal.FileUtils.delete;
 import static org.picketlink.idm.file.internal.FileUtils.readObject;
 
 /**
+ * <p>Holds all data managed by a {@link FileIdentityStore} and persists it to the filesystem.</p>
+ *
+ * <p>Data is persisted as a snapshot, one file for each kind of entry, and a {@link FileJournal} holding the changes made
+ * since the snapshot was taken. Each change only appends the state of the changed entry to the journal. Once the journal
+ * reaches the configured number of records, a new snapshot is written and the journal is discarded. During the
+ * initialization, the snapshot is loaded and the journal is replayed on top of it. Both are written using the
+ * {@link FileBinaryFormat}.</p>
+ *
+ * <p>When writes are asynchronous, records are still appended by the calling thread in order to preserve their order,
+ * but forcing them to disk and taking snapshots is done in background.</p>
+ *
  * @author Pedro Silva
  */
 public class FileDataSource {
@@ -54,6 +74,7 @@ public class FileDataSource {
      * </p>
      */
     private static final int FLUSH_BYTE_BUFFER = 1024;
+    private static final int MAX_SNAPSHOT_COPY_ATTEMPTS = 10;
 
     private static final String DEFAULT_WORKING_DIR = System.getProperty("java.io.tmpdir", File.separator + "tmp")
             + File.separator + "pl-idm";
@@ -65,6 +86,7 @@ public class FileDataSource {
     private static final String RELATIONSHIPS_FILE_NAME = "pl-idm-relationships.db";
     private static final String CREDENTIALS_FILE_NAME = "pl-idm-credentials.db";
     private static final String PERMISSIONS_FILE_NAME = "pl-idm-permissions.db";
+    private static final String JOURNAL_FILE_NAME = "pl-idm-journal.db";
 
     private final FileIdentityStoreConfiguration configuration;
 
@@ -104,8 +126,46 @@ public class FileDataSource {
      */
     private Map<String, FileAttributedType> attributedTypes;
 
+    /**
+     * <p>
+     * Indexes for the stored attributes, keyed by attribute name. An index is only built the first time a query
+     * needs it.
+     * </p>
+     */
+    private final ConcurrentMap<String, FileIndex> attributeIndexes = new ConcurrentHashMap<String, FileIndex>();
+
+    /**
+     * <p>
+     * Index mapping the formatted identifier of each identity type to the relationships referencing it.
+     * </p>
+     */
+    private FileIndex relationshipIndex;
+
     private ExecutorService executorService;
 
+    private FileJournal journal;
+
+    /**
+     * <p>Serializes snapshots, which are written without holding the lock used to append records.</p>
+     */
+    private final Object snapshotLock = new Object();
+
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    /**
+     * <p>When writing asynchronously, the highest journal position requested to be synced and if a task to sync it is
+     * already pending. Writes made while a sync is pending are covered by that same task.</p>
+     */
+    private final AtomicLong pendingSyncPosition = new AtomicLong();
+    private final AtomicBoolean syncScheduled = new AtomicBoolean();
+
+    /**
+     * <p>
+     * The journal position reached by the batch being executed by the current thread, if any.
+     * </p>
+     */
+    private final ThreadLocal<long[]> currentBatch = new ThreadLocal<long[]>();
+
     FileDataSource(FileIdentityStoreConfiguration configuration) {
         this.configuration = configuration;
         init();
@@ -127,39 +187,124 @@ public class FileDataSource {
         return this.attributedTypes;
     }
 
-    void flushPartitions() {
-        flush(PARTITIONS_FILE_NAME, getPartitions());
+    /**
+     * <p>
+     * Returns the index for the attribute with the given name, building it if necessary.
+     * </p>
+     *
+     * @param attributeName
+     * @return
+     */
+    FileIndex getAttributeIndex(String attributeName) {
+        FileIndex index = this.attributeIndexes.get(attributeName);
+
+        if (index == null) {
+            FileIndex newIndex = new FileIndex();
+
+            // lookups and updates wait until the index is built
+            synchronized (newIndex) {
+                index = this.attributeIndexes.putIfAbsent(attributeName, newIndex);
+
+                if (index == null) {
+                    index = newIndex;
+
+                    for (Entry<String, FileAttribute> entry : getAttributes().entrySet()) {
+                        index.put(entry.getKey(), getAttributeValues(entry.getValue(), attributeName));
+                    }
+                }
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * <p>
+     * Updates the attribute indexes after the attributes of the given owner were changed.
+     * </p>
+     *
+     * @param ownerId
+     */
+    void indexAttributes(String ownerId) {
+        FileAttribute fileAttribute = getAttributes().get(ownerId);
+
+        for (Entry<String, FileIndex> entry : this.attributeIndexes.entrySet()) {
+            if (fileAttribute == null) {
+                entry.getValue().remove(ownerId);
+            } else {
+                entry.getValue().put(ownerId, getAttributeValues(fileAttribute, entry.getKey()));
+            }
+        }
     }
 
-    void flushPartitions(FilePartition partition) {
+    /**
+     * <p>
+     * Returns the index mapping identity types to the relationships referencing them, building it if necessary.
+     * </p>
+     *
+     * @return
+     */
+    synchronized FileIndex getRelationshipIndex() {
+        if (this.relationshipIndex == null) {
+            FileIndex index = new FileIndex();
+
+            for (Map<String, FileRelationship> typedRelationships : getRelationships().values()) {
+                for (FileRelationship fileRelationship : typedRelationships.values()) {
+                    index.put(fileRelationship.getId(), fileRelationship.getIdentityTypeIds());
+                }
+            }
+
+            this.relationshipIndex = index;
+        }
+
+        return this.relationshipIndex;
+    }
+
+    void addPartition(FilePartition partition) {
+        this.partitions.put(partition.getId(), partition);
         initPartition(partition.getId());
-        flush(PARTITIONS_FILE_NAME, getPartitions());
+        flushPartition(partition.getId());
+    }
+
+    void flushPartition(String partitionId) {
+        flush(PARTITIONS_FILE_NAME, new String[] {partitionId}, getPartitions(), partitionId);
     }
 
-    void flushAttributedTypes(FilePartition partition) {
-        flush(partition, IDENTITY_TYPES__FILE_NAME, partition.getIdentityTypes());
+    void flushIdentityType(FilePartition partition, String type, String identifier) {
+        flush(IDENTITY_TYPES__FILE_NAME, new String[] {partition.getId(), type, identifier},
+            partition.getIdentityTypes().get(type), identifier);
     }
 
-    void flushRelationships() {
-        flush(RELATIONSHIPS_FILE_NAME, getRelationships());
+    void flushRelationship(String type, String identifier) {
+        flush(RELATIONSHIPS_FILE_NAME, new String[] {type, identifier}, getRelationships().get(type), identifier);
     }
 
-    void flushAttributes() {
-        flush(ATTRIBUTES_FILE_NAME, getAttributes());
+    void flushAttributes(String ownerId) {
+        flush(ATTRIBUTES_FILE_NAME, new String[] {ownerId}, getAttributes(), ownerId);
     }
 
-    void flushAttributedTypes() {
-        flush(ATTRIBUTED_TYPES__FILE_NAME, getAttributedTypes());
+    void flushAttributedType(String identifier) {
+        flush(ATTRIBUTED_TYPES__FILE_NAME, new String[] {identifier}, getAttributedTypes(), identifier);
     }
 
-    void flushCredentials(FilePartition partition) {
-        FilePartition filePartition = getPartitions().get(partition.getId());
-        flush(filePartition, CREDENTIALS_FILE_NAME, filePartition.getCredentials());
+    void flushCredentials(FilePartition partition, String accountId) {
+        flush(CREDENTIALS_FILE_NAME, new String[] {partition.getId(), accountId}, partition.getCredentials(), accountId);
     }
 
-    void flushPermissions(FilePartition partition) {
-        FilePartition filePartition = getPartitions().get(partition.getId());
-        flush(filePartition, PERMISSIONS_FILE_NAME, filePartition.getPermissions());
+    void flushPermissions(FilePartition partition, String assigneeId) {
+        flush(PERMISSIONS_FILE_NAME, new String[] {partition.getId(), assigneeId}, partition.getPermissions(), assigneeId);
+    }
+
+    private List<Serializable> getAttributeValues(FileAttribute fileAttribute, String attributeName) {
+        List<Serializable> values = new ArrayList<Serializable>();
+
+        for (Attribute<? extends Serializable> attribute : fileAttribute.getEntry()) {
+            if (attribute.getName().equals(attributeName)) {
+                values.add(attribute.getValue());
+            }
+        }
+
+        return values;
     }
 
     /**
@@ -189,62 +334,161 @@ public class FileDataSource {
     private void init() {
         initWorkingDirectory();
 
-        File partitionsFile =
-                createFileIfNotExists(getWorkingDirFile(PARTITIONS_FILE_NAME));
+        loadSnapshot();
 
-        loadPartitions(partitionsFile);
+        this.journal = new FileJournal(createFileIfNotExists(getWorkingDirFile(JOURNAL_FILE_NAME)));
 
-        Map<String, Map<String, FileRelationship>> relationships =
-                readObject(createFileIfNotExists(getWorkingDirFile(RELATIONSHIPS_FILE_NAME)));
+        List<FileJournal.Record> records = this.journal.read();
 
-        if (relationships == null) {
-            relationships = new ConcurrentHashMap<String, Map<String, FileRelationship>>();
+        for (FileJournal.Record record : records) {
+            replay(record);
         }
 
-        this.relationships = relationships;
+        if (isDebugEnabled()) {
+            FILE_STORE_LOGGER.debugf("Replayed [%s] change(s) from journal.", records.size());
+        }
 
-        Map<String, FileAttribute> attributes =
-                readObject(createFileIfNotExists(getWorkingDirFile(ATTRIBUTES_FILE_NAME)));
+        if (!records.isEmpty()) {
+            takeSnapshot();
+        }
 
-        if (attributes == null) {
-            attributes = new ConcurrentHashMap<String, FileAttribute>();
+        if (this.configuration.isAsyncWrite()) {
+            FILE_STORE_LOGGER.fileAsyncWriteEnabled(this.configuration.getAsyncThreadPool());
+            this.executorService = Executors.newFixedThreadPool(this.configuration.getAsyncThreadPool());
         }
+    }
+
+    private void replay(FileJournal.Record record) {
+        String type = record.getType();
+        Object value = record.getValue();
+
+        if (PARTITIONS_FILE_NAME.equals(type)) {
+            String partitionId = record.getKey(0);
+
+            if (value == null) {
+                this.partitions.remove(partitionId);
+            } else {
+                FilePartition partition = (FilePartition) value;
+                FilePartition existingPartition = this.partitions.put(partitionId, partition);
+
+                if (existingPartition != null) {
+                    partition.setIdentityTypes(existingPartition.getIdentityTypes());
+                    partition.setCredentials(existingPartition.getCredentials());
+                    partition.setPermissions(existingPartition.getPermissions());
+                } else {
+                    initPartition(partitionId);
+                }
+            }
+        } else if (RELATIONSHIPS_FILE_NAME.equals(type)) {
+            replay(getEntries(this.relationships, record.getKey(0)), record.getKey(1), value);
+        } else if (ATTRIBUTES_FILE_NAME.equals(type)) {
+            replay(this.attributes, record.getKey(0), value);
+        } else if (ATTRIBUTED_TYPES__FILE_NAME.equals(type)) {
+            replay(this.attributedTypes, record.getKey(0), value);
+        } else {
+            FilePartition partition = this.partitions.get(record.getKey(0));
 
-        this.attributes = attributes;
+            if (partition == null) {
+                return;
+            }
 
-        Map<String, FileAttributedType> attrubtedTypes =
-                readObject(createFileIfNotExists(getWorkingDirFile(ATTRIBUTED_TYPES__FILE_NAME)));
+            if (IDENTITY_TYPES__FILE_NAME.equals(type)) {
+                replay(getEntries(partition.getIdentityTypes(), record.getKey(1)), record.getKey(2), value);
+            } else if (CREDENTIALS_FILE_NAME.equals(type)) {
+                replay(partition.getCredentials(), record.getKey(1), value);
+            } else if (PERMISSIONS_FILE_NAME.equals(type)) {
+                replay(partition.getPermissions(), record.getKey(1), value);
+            }
+        }
+    }
 
-        if (attrubtedTypes == null) {
-            attrubtedTypes = new ConcurrentHashMap<String, FileAttributedType>();
+    @SuppressWarnings("unchecked")
+    private <V> void replay(Map<String, V> entries, String key, Object value) {
+        if (value == null) {
+            entries.remove(key);
+        } else {
+            entries.put(key, (V) value);
         }
+    }
 
-        this.attributedTypes = attrubtedTypes;
+    private <V> Map<String, V> getEntries(Map<String, Map<String, V>> entriesByType, String type) {
+        Map<String, V> entries = entriesByType.get(type);
 
-        if (this.configuration.isAsyncWrite()) {
-            FILE_STORE_LOGGER.fileAsyncWriteEnabled(this.configuration.getAsyncThreadPool());
-            this.executorService = Executors.newFixedThreadPool(this.configuration.getAsyncThreadPool());
+        if (entries == null) {
+            entries = new ConcurrentHashMap<String, V>();
+            entriesByType.put(type, entries);
         }
+
+        return entries;
     }
 
-    private void loadPartitions(File partitionsFile) {
-        this.partitions = readObject(partitionsFile);
+    /**
+     * <p>
+     * Loads the snapshot files. Once the partitions are known, the files of each partition and the files shared by all
+     * partitions are loaded in parallel.
+     * </p>
+     */
+    private void loadSnapshot() {
+        this.partitions = readSnapshot(PARTITIONS_FILE_NAME);
+
+        if (isDebugEnabled()) {
+            FILE_STORE_LOGGER.debugf("Loading [%s] Partition(s) from %s", this.partitions.size(), getWorkingDirFile(PARTITIONS_FILE_NAME).getPath());
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for (final String partitionId : this.partitions.keySet()) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    initPartition(partitionId);
+                    return null;
+                }
+            });
+        }
 
-        if (this.partitions == null) {
-            if (isDebugEnabled()) {
-                FILE_STORE_LOGGER.debugf("No partitions to load from %s", partitionsFile.getPath());
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                relationships = readTypedSnapshot(RELATIONSHIPS_FILE_NAME);
+                return null;
             }
-            this.partitions = new ConcurrentHashMap<String, FilePartition>();
-        } else {
-            if (isDebugEnabled()) {
-                FILE_STORE_LOGGER.debugf("Loading [%s] Partition(s) from %s", this.partitions.size(), partitionsFile.getPath());
+        });
+
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                attributes = readSnapshot(ATTRIBUTES_FILE_NAME);
+                return null;
+            }
+        });
+
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                attributedTypes = readSnapshot(ATTRIBUTED_TYPES__FILE_NAME);
+                return null;
             }
+        });
 
-            Set<Entry<String, FilePartition>> entrySet = this.partitions.entrySet();
+        int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService loader = Executors.newFixedThreadPool(threads);
 
-            for (Entry<String, FilePartition> entry : entrySet) {
-                initPartition(entry.getKey());
+        try {
+            for (Future<Void> result : loader.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            if (IdentityManagementException.class.isInstance(e.getCause())) {
+                throw (IdentityManagementException) e.getCause();
             }
+
+            throw new IdentityManagementException("Error loading data from file system.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdentityManagementException("Interrupted while loading data from file system.", e);
+        } finally {
+            loader.shutdown();
         }
     }
 
@@ -255,47 +499,92 @@ public class FileDataSource {
             FILE_STORE_LOGGER.debugf("Initializing Partition [%s] with id [%s].", filePartition.getEntry().getName(), partitionId);
         }
 
-        File agentsFile = createFileIfNotExists(getWorkingDirFile(partitionId + File.separator + IDENTITY_TYPES__FILE_NAME));
+        filePartition.setIdentityTypes(this.<FileIdentityType>readTypedSnapshot(partitionId + File.separator + IDENTITY_TYPES__FILE_NAME));
 
-        Map<String, Map<String, FileIdentityType>> identityTypes = readObject(agentsFile);
-
-        if (identityTypes == null) {
-            identityTypes = new ConcurrentHashMap<String, Map<String, FileIdentityType>>();
+        if (isDebugEnabled()) {
+            FILE_STORE_LOGGER.debugf("Loaded Identity Types [%s] for Partition [%s].", filePartition.getIdentityTypes().size(), filePartition.getId());
         }
 
-        filePartition.setIdentityTypes(identityTypes);
+        filePartition.setCredentials(this.<Map<String, List<FileCredentialStorage>>>readSnapshot(partitionId + File.separator + CREDENTIALS_FILE_NAME));
 
         if (isDebugEnabled()) {
-            FILE_STORE_LOGGER.debugf("Loaded Identity Types [%s] for Partition [%s].", filePartition.getIdentityTypes().size(), filePartition.getId());
+            FILE_STORE_LOGGER.debugf("Loaded Credentials [%s] for Partition [%s].", filePartition.getCredentials().size(), filePartition.getId());
         }
 
-        File credentialsFile = createFileIfNotExists(getWorkingDirFile(partitionId + File.separator + CREDENTIALS_FILE_NAME));
+        filePartition.setPermissions(this.<List<FilePermission>>readSnapshot(partitionId + File.separator + PERMISSIONS_FILE_NAME));
+
+        if (isDebugEnabled()) {
+            FILE_STORE_LOGGER.debugf("Loaded Permissions [%s] for Partition [%s].", filePartition.getPermissions().size(), filePartition.getId());
+        }
+    }
 
-        Map<String, Map<String, List<FileCredentialStorage>>> credentials = readObject(credentialsFile);
+    /**
+     * <p>
+     * Reads a snapshot file holding entries identified by a single key.
+     * </p>
+     *
+     * @param fileName
+     * @return
+     */
+    private <V> Map<String, V> readSnapshot(String fileName) {
+        File file = createFileIfNotExists(getWorkingDirFile(fileName));
 
-        if (credentials == null) {
-            credentials = new ConcurrentHashMap<String, Map<String, List<FileCredentialStorage>>>();
+        if (!FileBinaryFormat.isBinary(file)) {
+            return readLegacySnapshot(file);
         }
 
-        filePartition.setCredentials(credentials);
+        Map<String, V> entries = new ConcurrentHashMap<String, V>();
+        FileBinaryFormat.Reader reader = new FileBinaryFormat.Reader(file);
 
-        if (isDebugEnabled()) {
-            FILE_STORE_LOGGER.debugf("Loaded Credentials [%s] for Partition [%s].", filePartition.getCredentials().size(), filePartition.getId());
+        for (FileJournal.Record record = reader.read(); record != null; record = reader.read()) {
+            replay(entries, record.getKey(0), record.getValue());
         }
 
-        File permissionsFile = createFileIfNotExists(getWorkingDirFile(partitionId + File.separator + PERMISSIONS_FILE_NAME));
+        return entries;
+    }
 
-        Map<String, List<FilePermission>> permissions = readObject(permissionsFile);
+    /**
+     * <p>
+     * Reads a snapshot file holding entries identified by their type and a key.
+     * </p>
+     *
+     * @param fileName
+     * @return
+     */
+    private <V> Map<String, Map<String, V>> readTypedSnapshot(String fileName) {
+        File file = createFileIfNotExists(getWorkingDirFile(fileName));
 
-        if (permissions == null) {
-            permissions = new ConcurrentHashMap<String, List<FilePermission>>();
+        if (!FileBinaryFormat.isBinary(file)) {
+            return readLegacySnapshot(file);
         }
 
-        filePartition.setPermissions(permissions);
+        Map<String, Map<String, V>> entries = new ConcurrentHashMap<String, Map<String, V>>();
+        FileBinaryFormat.Reader reader = new FileBinaryFormat.Reader(file);
 
-        if (isDebugEnabled()) {
-            FILE_STORE_LOGGER.debugf("Loaded Permissions [%s] for Partition [%s].", filePartition.getPermissions().size(), filePartition.getId());
+        for (FileJournal.Record record = reader.read(); record != null; record = reader.read()) {
+            replay(this.<V>getEntries(entries, record.getKey(0)), record.getKey(1), record.getValue());
         }
+
+        return entries;
+    }
+
+    /**
+     * <p>
+     * Reads a snapshot file written by previous versions using Java serialization. It is rewritten using the
+     * {@link FileBinaryFormat} on the next snapshot.
+     * </p>
+     *
+     * @param file
+     * @return
+     */
+    private <V> Map<String, V> readLegacySnapshot(File file) {
+        Map<String, V> entries = readObject(file);
+
+        if (entries == null) {
+            entries = new ConcurrentHashMap<String, V>();
+        }
+
+        return entries;
     }
 
     private String getWorkingDir() {
@@ -308,66 +597,281 @@ public class FileDataSource {
         return workingDir;
     }
 
-    private void flush(final FilePartition partition, final String fileName, final Object object) {
-        flush(partition.getId() + File.separator + fileName, object);
+    /**
+     * <p>Starts a batch for the current thread. Records appended to the journal during the batch are only forced to disk
+     * once, when the batch ends.</p>
+     */
+    void beginBatch() {
+        this.currentBatch.set(new long[] {0});
+    }
+
+    /**
+     * <p>Ends the batch started by the current thread, forcing all the records appended during the batch to disk.</p>
+     */
+    void endBatch() {
+        long[] batch = this.currentBatch.get();
+
+        this.currentBatch.remove();
+
+        if (batch != null && batch[0] > 0) {
+            sync(batch[0], this.journal.getRecordCount() >= this.configuration.getJournalCompactionThreshold());
+        }
     }
 
-    private void flush(final String fileName, final Object object) {
+    /**
+     * <p>Appends the current state of an entry to the journal. The entry is read while holding the lock used to append
+     * records, so records for the same entry are always appended in the same order they were changed.</p>
+     *
+     * @param type The type of the entry.
+     * @param keys The keys identifying the entry.
+     * @param entries The entries holding the changed one, or null if there is none.
+     * @param key The key of the changed entry.
+     */
+    private void flush(String type, String[] keys, Map<String, ?> entries, String key) {
+        final long position;
+        boolean compact;
+
+        synchronized (this) {
+            Object value = null;
+
+            if (entries != null) {
+                value = entries.get(key);
+            }
+
+            position = this.journal.append(type, keys, value);
+            compact = this.journal.getRecordCount() >= this.configuration.getJournalCompactionThreshold();
+        }
+
+        long[] batch = this.currentBatch.get();
+
+        if (batch != null) {
+            // synced when the batch ends
+            batch[0] = position;
+            return;
+        }
+
+        sync(position, compact);
+    }
+
+    private void sync(final long position, boolean compact) {
         if (this.configuration.isAsyncWrite()) {
-            this.executorService.execute(new Runnable() {
+            scheduleSync(position);
+
+            if (compact && this.compactionScheduled.compareAndSet(false, true)) {
+                this.executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            takeSnapshot();
+                        } finally {
+                            compactionScheduled.set(false);
+                        }
+                    }
+                });
+            }
+        } else {
+            this.journal.sync(position);
 
+            if (compact) {
+                takeSnapshot();
+            }
+        }
+    }
+
+    /**
+     * <p>Requests the journal to be synced up to the given position in the background. Only one task is pending at a
+     * time, syncing up to the highest position requested when it runs.</p>
+     *
+     * @param position
+     */
+    private void scheduleSync(long position) {
+        long pending = this.pendingSyncPosition.get();
+
+        while (position > pending && !this.pendingSyncPosition.compareAndSet(pending, position)) {
+            pending = this.pendingSyncPosition.get();
+        }
+
+        if (this.syncScheduled.compareAndSet(false, true)) {
+            this.executorService.execute(new Runnable() {
                 @Override
                 public void run() {
-                    performFlush(fileName, object);
+                    // cleared before reading the position, so positions requested from now on schedule another task
+                    syncScheduled.set(false);
+                    journal.sync(pendingSyncPosition.get());
                 }
             });
-        } else {
-            performFlush(fileName, object);
         }
     }
 
-    private synchronized void performFlush(final String fileName, final Object object) {
-        ObjectOutputStream oos = null;
-        ByteArrayOutputStream bos = null;
-        RandomAccessFile randomAccessFile = null;
+    /**
+     * <p>Writes all data to the snapshot files. The entries are copied while holding the lock used to append records
+     * and the journal is rotated at the same time, so the copy holds all the changes from the rotated journal. Only
+     * references are copied under the lock, the entries are encoded and the files are written from that copy without
+     * blocking any change, and the rotated journal is only discarded once all of them were written. Changes being made
+     * while the copy is encoded may also be appended to the new journal, which is fine given that records hold the whole
+     * state of an entry and are replayed on top of the snapshot.</p>
+     */
+    private void takeSnapshot() {
+        synchronized (this.snapshotLock) {
+            Map<String, List<SnapshotEntry>> snapshot;
 
-        try {
-            randomAccessFile = new RandomAccessFile(getWorkingDir() + File.separator + fileName, "rw");
+            synchronized (this) {
+                if (this.journal.getRecordCount() == 0) {
+                    return;
+                }
 
-            FileChannel channel = randomAccessFile.getChannel();
+                snapshot = copySnapshot();
 
-            bos = new ByteArrayOutputStream(FLUSH_BYTE_BUFFER);
+                this.journal.rotate();
+            }
 
-            oos = new ObjectOutputStream(bos);
+            Set<File> directories = new HashSet<File>();
 
-            oos.writeObject(object);
+            for (Entry<String, List<SnapshotEntry>> entry : snapshot.entrySet()) {
+                String fileName = entry.getKey();
 
-            channel.write(ByteBuffer.wrap(bos.toByteArray()));
-        } catch (Exception e) {
-            throw new IdentityManagementException("Error flushing changes to file system.", e);
-        } finally {
+                directories.add(writeSnapshot(fileName, encodeSnapshot(fileName, entry.getValue())).getParentFile());
+            }
+
+            for (File directory : directories) {
+                FileUtils.syncDirectory(directory);
+            }
+
+            this.journal.discardPrevious();
+        }
+    }
+
+    /**
+     * <p>Copies the entries to write to each snapshot file. Entries may be changed by other threads while they are
+     * copied, in which case the copy is taken again.</p>
+     *
+     * @return
+     */
+    private Map<String, List<SnapshotEntry>> copySnapshot() {
+        for (int attempt = 1; ; attempt++) {
             try {
-                if (randomAccessFile != null) {
-                    randomAccessFile.close();
+                Map<String, List<SnapshotEntry>> snapshot = new LinkedHashMap<String, List<SnapshotEntry>>();
+
+                copySnapshot(snapshot, PARTITIONS_FILE_NAME, getPartitions(), false);
+
+                for (FilePartition partition : getPartitions().values()) {
+                    copySnapshot(snapshot, partition.getId() + File.separator + IDENTITY_TYPES__FILE_NAME, partition.getIdentityTypes(), true);
+                    copySnapshot(snapshot, partition.getId() + File.separator + CREDENTIALS_FILE_NAME, partition.getCredentials(), false);
+                    copySnapshot(snapshot, partition.getId() + File.separator + PERMISSIONS_FILE_NAME, partition.getPermissions(), false);
                 }
-            } catch (IOException e) {
 
+                copySnapshot(snapshot, RELATIONSHIPS_FILE_NAME, getRelationships(), true);
+                copySnapshot(snapshot, ATTRIBUTES_FILE_NAME, getAttributes(), false);
+                copySnapshot(snapshot, ATTRIBUTED_TYPES__FILE_NAME, getAttributedTypes(), false);
+
+                return snapshot;
+            } catch (ConcurrentModificationException e) {
+                if (attempt >= MAX_SNAPSHOT_COPY_ATTEMPTS) {
+                    throw new IdentityManagementException("Could not copy data while taking snapshot.", e);
+                }
             }
-            try {
-                if (oos != null) {
-                    oos.close();
+        }
+    }
+
+    /**
+     * <p>Copies the entries of a snapshot file, one for each record. Only the references to the entries are copied.</p>
+     *
+     * @param snapshot The entries of each snapshot file.
+     * @param fileName The name of the file.
+     * @param entries The entries to copy.
+     * @param typed If the entries are grouped by type, in which case each record is identified by the type and the key
+     * of the entry.
+     */
+    @SuppressWarnings("unchecked")
+    private void copySnapshot(Map<String, List<SnapshotEntry>> snapshot, String fileName, Map<String, ?> entries, boolean typed) {
+        List<SnapshotEntry> records = new ArrayList<SnapshotEntry>(entries.size());
+
+        for (Entry<String, ?> entry : entries.entrySet()) {
+            if (typed) {
+                for (Entry<String, ?> typedEntry : ((Map<String, ?>) entry.getValue()).entrySet()) {
+                    records.add(new SnapshotEntry(new String[] {entry.getKey(), typedEntry.getKey()}, typedEntry.getValue()));
+                }
+            } else {
+                records.add(new SnapshotEntry(new String[] {entry.getKey()}, entry.getValue()));
+            }
+        }
+
+        snapshot.put(fileName, records);
+    }
+
+    /**
+     * <p>Encodes the entries of a snapshot file using the {@link FileBinaryFormat}, one record for each entry. An entry
+     * changed by another thread while it is encoded is encoded again.</p>
+     *
+     * @param fileName The name of the file.
+     * @param entries The entries to encode.
+     *
+     * @return The encoded records.
+     */
+    private List<byte[]> encodeSnapshot(String fileName, List<SnapshotEntry> entries) {
+        List<byte[]> records = new ArrayList<byte[]>(entries.size());
+
+        for (SnapshotEntry entry : entries) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    records.add(FileBinaryFormat.encode(fileName, entry.keys, entry.value));
+                    break;
+                } catch (ConcurrentModificationException e) {
+                    if (attempt >= MAX_SNAPSHOT_COPY_ATTEMPTS) {
+                        throw new IdentityManagementException("Could not encode data while taking snapshot.", e);
+                    }
                 }
-            } catch (Exception e) {
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * <p>Writes a snapshot file using the {@link FileBinaryFormat}.</p>
+     *
+     * @param fileName The name of the file.
+     * @param records The encoded records to write.
+     *
+     * @return The snapshot file.
+     */
+    private File writeSnapshot(String fileName, List<byte[]> records) {
+        File file = getWorkingDirFile(fileName);
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = null;
+
+        try {
+            fos = new FileOutputStream(tempFile);
 
+            BufferedOutputStream bos = new BufferedOutputStream(fos, FLUSH_BYTE_BUFFER);
+            FileBinaryFormat.Writer writer = new FileBinaryFormat.Writer(bos);
+
+            for (byte[] record : records) {
+                writer.write(record);
+            }
+
+            writer.flush();
+            fos.getFD().sync();
+            bos.close();
+            fos = null;
+
+            // the previous snapshot is only replaced once the new one is completely written
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw new IOException("Could not replace file [" + file.getPath() + "].");
             }
+        } catch (Exception e) {
+            throw new IdentityManagementException("Error flushing changes to file system.", e);
+        } finally {
             try {
-                if (bos != null) {
-                    bos.close();
+                if (fos != null) {
+                    fos.close();
                 }
-            } catch (Exception e) {
+            } catch (IOException e) {
 
             }
         }
+
+        return file;
     }
 
     private File getWorkingDirFile(String name) {
@@ -378,4 +882,18 @@ public class FileDataSource {
         return FILE_STORE_LOGGER.isDebugEnabled();
     }
 
+    /**
+     * <p>An entry to write to a snapshot file, taken while holding the lock used to append records.</p>
+     */
+    private static class SnapshotEntry {
+
+        private final String[] keys;
+        private final Object value;
+
+        SnapshotEntry(String[] keys, Object value) {
+            this.keys = keys;
+            this.value = value;
+        }
+    }
+
 }
\ No newline at end of file
@@ -56,11 +56,15 @@ import org.picketlink.idm.query.RelationshipQueryParameter;
 import org.picketlink.idm.query.internal.BetweenCondition;
 import org.picketlink.idm.query.internal.EqualCondition;
 import org.picketlink.idm.query.internal.GreaterThanCondition;
+import org.picketlink.idm.query.internal.IdentityTypeSortingComparator;
 import org.picketlink.idm.query.internal.InCondition;
 import org.picketlink.idm.query.internal.LessThanCondition;
 import org.picketlink.idm.query.internal.LikeCondition;
 import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BulkIdentityStore;
+import org.picketlink.idm.spi.ConcurrentQueryStore;
 import org.picketlink.idm.spi.CredentialStore;
+import org.picketlink.idm.spi.ExistenceQueryStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.PartitionStore;
 
@@ -75,6 +79,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static java.util.Map.Entry;
 import static org.picketlink.common.properties.query.TypedPropertyCriteria.MatchOption;
@@ -99,7 +104,9 @@ import static org.picketlink.idm.internal.util.PermissionUtil.hasAttributes;
 public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreConfiguration>
     implements PartitionStore<FileIdentityStoreConfiguration>,
     CredentialStore<FileIdentityStoreConfiguration>,
-    AttributeStore<FileIdentityStoreConfiguration>, PermissionStore {
+    AttributeStore<FileIdentityStoreConfiguration>, BulkIdentityStore<FileIdentityStoreConfiguration>,
+    ConcurrentQueryStore<FileIdentityStoreConfiguration>, ExistenceQueryStore<FileIdentityStoreConfiguration>,
+    PermissionStore {
 
     private FileDataSource fileDataSource;
 
@@ -110,18 +117,33 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
         this.fileDataSource = new FileDataSource(configuration);
     }
 
+    @Override
+    public void addAll(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        // the journal is forced to disk only once for the whole batch
+        this.fileDataSource.beginBatch();
+
+        try {
+            for (AttributedType attributedType : attributedTypes) {
+                add(context, attributedType);
+            }
+        } finally {
+            this.fileDataSource.endBatch();
+        }
+    }
+
     @Override
     protected void removeFromRelationships(IdentityContext context, IdentityType identityType) {
         Map<String, Map<String, FileRelationship>> relationships = this.fileDataSource.getRelationships();
-        for (Map<String, FileRelationship> relationshipsType : relationships.values()) {
-            for (FileRelationship fileRelationship : new HashMap<String, FileRelationship>(relationshipsType).values()) {
-                if (fileRelationship.hasIdentityType(identityType)) {
-                    relationshipsType.remove(fileRelationship.getId());
+        FileIndex relationshipIndex = this.fileDataSource.getRelationshipIndex();
+
+        for (String relationshipId : relationshipIndex.getIds(IdentityTypeUtil.formatId(identityType))) {
+            for (Entry<String, Map<String, FileRelationship>> relationshipsType : relationships.entrySet()) {
+                if (relationshipsType.getValue().remove(relationshipId) != null) {
+                    relationshipIndex.remove(relationshipId);
+                    this.fileDataSource.flushRelationship(relationshipsType.getKey(), relationshipId);
                 }
             }
         }
-
-        this.fileDataSource.flushRelationships();
     }
 
     @Override
@@ -133,7 +155,7 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
 
         credentials.remove(account.getId());
 
-        this.fileDataSource.flushCredentials(filePartition);
+        this.fileDataSource.flushCredentials(filePartition, account.getId());
     }
 
     @Override
@@ -146,6 +168,7 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
             storeRelationshipType((Relationship) clonedAttributedType);
         } else {
             this.fileDataSource.getAttributedTypes().put(attributedType.getId(), new FileAttributedType(attributedType));
+            this.fileDataSource.flushAttributedType(attributedType.getId());
         }
     }
 
@@ -174,7 +197,11 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
                 identityTypes.remove(identityType.getId());
             }
 
-            this.fileDataSource.flushAttributedTypes(filePartition);
+            for (FileIndex index : filePartition.getIndexes(attributedType.getClass().getName()).values()) {
+                index.remove(identityType.getId());
+            }
+
+            this.fileDataSource.flushIdentityType(filePartition, attributedType.getClass().getName(), identityType.getId());
         } else if (Relationship.class.isInstance(attributedType)) {
             Map<String, FileRelationship> fileRelationships = this.fileDataSource.getRelationships()
                 .get(attributedType.getClass().getName());
@@ -185,10 +212,11 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
                 }
             }
 
-            this.fileDataSource.flushRelationships();
+            this.fileDataSource.getRelationshipIndex().remove(attributedType.getId());
+            this.fileDataSource.flushRelationship(attributedType.getClass().getName(), attributedType.getId());
         } else {
             this.fileDataSource.getAttributedTypes().remove(attributedType.getId());
-            this.fileDataSource.flushAttributedTypes();
+            this.fileDataSource.flushAttributedType(attributedType.getId());
         }
     }
 
@@ -247,18 +275,22 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
 
         FilePartition filePartition = new FilePartition(cloneAttributedType(identityContext, partition), configurationName);
 
-        this.fileDataSource.getPartitions().put(filePartition.getId(), filePartition);
-
-        this.fileDataSource.flushPartitions(filePartition);
+        this.fileDataSource.addPartition(filePartition);
     }
 
     @Override
     public void update(IdentityContext identityContext, Partition partition) {
         FilePartition filePartition = resolve(partition.getClass(), partition.getName());
+        FilePartition updatedPartition = new FilePartition(cloneAttributedType(identityContext, partition),
+            filePartition.getConfigurationName());
+
+        // the data stored for the partition is not part of its state, we need to keep it
+        updatedPartition.setIdentityTypes(filePartition.getIdentityTypes());
+        updatedPartition.setCredentials(filePartition.getCredentials());
+        updatedPartition.setPermissions(filePartition.getPermissions());
 
-        this.fileDataSource.getPartitions().put(partition.getId(),
-            new FilePartition(cloneAttributedType(identityContext, partition), filePartition.getConfigurationName()));
-        this.fileDataSource.flushPartitions();
+        this.fileDataSource.getPartitions().put(partition.getId(), updatedPartition);
+        this.fileDataSource.flushPartition(partition.getId());
     }
 
     @Override
@@ -266,7 +298,7 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
         FilePartition filePartition = resolve(partition.getClass(), partition.getName());
 
         this.fileDataSource.getPartitions().remove(filePartition.getId());
-        this.fileDataSource.flushPartitions();
+        this.fileDataSource.flushPartition(filePartition.getId());
     }
 
     @Override
@@ -275,7 +307,7 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
 
         credentials.add(new FileCredentialStorage(storage));
 
-        flushCredentials(context.getPartition());
+        flushCredentials(account);
     }
 
     @Override
@@ -311,11 +343,51 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
             credentials.clear();
         }
 
-        flushCredentials(context.getPartition());
+        flushCredentials(account);
     }
 
     @Override
     public <V extends IdentityType> List<V> fetchQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+        List<V> storedEntries = findMatchingEntries(context, identityQuery, 0);
+
+        // Apply sorting
+        Collections.sort(storedEntries, new IdentityTypeSortingComparator<V>(identityQuery));
+
+        // Apply pagination
+        if (identityQuery.getLimit() > 0) {
+            int offset = Math.min(identityQuery.getOffset(), storedEntries.size());
+            int numberOfItems = Math.min(identityQuery.getLimit(), storedEntries.size() - offset);
+            storedEntries = storedEntries.subList(offset, offset + numberOfItems);
+        }
+
+        // only the entries being returned are cloned
+        List<V> result = new ArrayList<V>(storedEntries.size());
+
+        for (V storedEntry : storedEntries) {
+            result.add(cloneAttributedType(context, storedEntry));
+        }
+
+        return result;
+    }
+
+    @Override
+    public <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+        return findMatchingEntries(context, identityQuery, 0).size();
+    }
+
+    @Override
+    public <V extends IdentityType> boolean existsQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+        return !findMatchingEntries(context, identityQuery, 1).isEmpty();
+    }
+
+    /**
+     * <p>Returns the stored entries matching the given query. The returned instances must not be exposed to callers
+     * without being cloned first.</p>
+     *
+     * @param maxResults The search stops once this number of entries is found. If zero, all matching entries are returned.
+     */
+    private <V extends IdentityType> List<V> findMatchingEntries(IdentityContext context, IdentityQuery<V> identityQuery,
+                                                                int maxResults) {
         Partition partition = null;
 
         for (Condition condition : identityQuery.getConditions()) {
@@ -353,32 +425,33 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
             return result;
         }
 
-        for (FileIdentityType storedIdentityType : typedIdentityTypes.values()) {
-            IdentityType storedEntry = storedIdentityType.getEntry();
+        for (Condition condition : identityQuery.getConditions()) {
+            if (IdentityType.ID.equals(condition.getParameter())) {
+                if (!EqualCondition.class.isInstance(condition)) {
+                    throw new IdentityManagementException("Only equality conditions are allowed when queryng based on the identifier.");
+                }
 
-            boolean match = identityQuery.getConditions().isEmpty();
+                Object value = ((EqualCondition) condition).getValue();
 
-            for (Condition condition : identityQuery.getConditions()) {
-                QueryParameter queryParameter = condition.getParameter();
+                if (value != null) {
+                    FileIdentityType fileAttributedType = typedIdentityTypes.get(value);
 
-                if (IdentityType.ID.equals(queryParameter)) {
-                    if (!EqualCondition.class.isInstance(condition)) {
-                        throw new IdentityManagementException("Only equality conditions are allowed when queryng based on the identifier.");
+                    if (fileAttributedType != null) {
+                        result.add((V) fileAttributedType.getEntry());
                     }
+                }
 
-                    EqualCondition equalCondition = (EqualCondition) condition;
-                    Object value = equalCondition.getValue();
+                return result;
+            }
+        }
 
-                    if (value != null) {
-                        FileIdentityType fileAttributedType = typedIdentityTypes.get(value);
+        for (FileIdentityType storedIdentityType : selectCandidates(filePartition, identityQuery, typedIdentityTypes)) {
+            IdentityType storedEntry = storedIdentityType.getEntry();
 
-                        if (fileAttributedType != null) {
-                            result.add(cloneAttributedType(context, (V) fileAttributedType.getEntry()));
-                        }
-                    }
+            boolean match = identityQuery.getConditions().isEmpty();
 
-                    return result;
-                }
+            for (Condition condition : identityQuery.getConditions()) {
+                QueryParameter queryParameter = condition.getParameter();
 
                 if (AttributeParameter.class.isInstance(queryParameter)) {
                     AttributeParameter attributeParameter = (AttributeParameter) queryParameter;
@@ -406,20 +479,239 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
             }
 
             if (match) {
-                result.add((V) cloneAttributedType(context, storedEntry));
+                result.add((V) storedEntry);
+
+                if (maxResults > 0 && result.size() >= maxResults) {
+                    break;
+                }
             }
         }
 
-        // Apply sorting
-        Collections.sort(result, new FileSortingComparator<V>(identityQuery));
+        return result;
+    }
 
-        // Apply pagination
-        if (identityQuery.getLimit() > 0) {
-            int numberOfItems = Math.min(identityQuery.getLimit(), result.size() - identityQuery.getOffset());
-            result = result.subList(identityQuery.getOffset(), identityQuery.getOffset() + numberOfItems);
+    /**
+     * <p>Returns the stored entries that may match the given query. If any condition can be answered by an index, only
+     * the entries found in the indexes are returned. Otherwise, all entries are returned. In both cases, callers must
+     * still check if the entries match all conditions.</p>
+     */
+    private <V extends IdentityType> Collection<FileIdentityType> selectCandidates(FilePartition filePartition,
+                                                                                IdentityQuery<V> identityQuery,
+                                                                                Map<String, FileIdentityType> typedIdentityTypes) {
+        Set<String> types;
+
+        if (IdentityType.class.equals(identityQuery.getIdentityType())) {
+            types = filePartition.getIdentityTypes().keySet();
+        } else {
+            types = Collections.singleton(identityQuery.getIdentityType().getName());
         }
 
-        return result;
+        Set<String> candidateIds = null;
+
+        for (Condition condition : identityQuery.getConditions()) {
+            Set<String> ids = lookupIndex(filePartition, types, identityQuery.getIdentityType(), condition);
+
+            if (ids != null) {
+                if (candidateIds == null) {
+                    candidateIds = ids;
+                } else {
+                    candidateIds.retainAll(ids);
+                }
+
+                if (candidateIds.isEmpty()) {
+                    break;
+                }
+            }
+        }
+
+        if (candidateIds == null) {
+            return typedIdentityTypes.values();
+        }
+
+        List<FileIdentityType> candidates = new ArrayList<FileIdentityType>(candidateIds.size());
+
+        for (String id : candidateIds) {
+            FileIdentityType candidate = typedIdentityTypes.get(id);
+
+            if (candidate != null) {
+                candidates.add(candidate);
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * <p>Returns the identifiers of the entries that may match the given condition, or null if the condition can not be
+     * answered by an index.</p>
+     *
+     * <p>Equality and range conditions on properties are answered by the indexes of each identity type. Equality
+     * conditions on ad-hoc attributes are answered by the attribute indexes.</p>
+     */
+    private Set<String> lookupIndex(FilePartition filePartition, Set<String> types,
+                                    Class<? extends IdentityType> identityType, Condition condition) {
+        QueryParameter queryParameter = condition.getParameter();
+
+        if (!AttributeParameter.class.isInstance(queryParameter) || IdentityType.PARTITION.equals(queryParameter)) {
+            return null;
+        }
+
+        String attributeParameterName = ((AttributeParameter) queryParameter).getName();
+        Property<Serializable> property = PropertyQueries.<Serializable>createQuery(identityType)
+            .addCriteria(new NamedPropertyCriteria(attributeParameterName))
+            .getFirstResult();
+
+        if (property == null || !property.getName().equals(attributeParameterName)) {
+            if (EqualCondition.class.isInstance(condition)) {
+                return this.fileDataSource.getAttributeIndex(attributeParameterName)
+                    .getIds(((EqualCondition) condition).getValue());
+            }
+
+            return null;
+        }
+
+        Set<String> ids = new HashSet<String>();
+
+        for (String type : types) {
+            Set<String> typeIds = lookupIndex(getIdentityTypeIndex(filePartition, type, attributeParameterName), condition);
+
+            if (typeIds == null) {
+                return null;
+            }
+
+            ids.addAll(typeIds);
+        }
+
+        return ids;
+    }
+
+    private Set<String> lookupIndex(FileIndex index, Condition condition) {
+        if (EqualCondition.class.isInstance(condition)) {
+            return index.getIds(((EqualCondition) condition).getValue());
+        } else if (GreaterThanCondition.class.isInstance(condition)) {
+            GreaterThanCondition greaterThanCondition = (GreaterThanCondition) condition;
+            return index.getIds(greaterThanCondition.getValue(), greaterThanCondition.isOrEqual(), null, false);
+        } else if (LessThanCondition.class.isInstance(condition)) {
+            LessThanCondition lessThanCondition = (LessThanCondition) condition;
+            return index.getIds(null, false, lessThanCondition.getValue(), lessThanCondition.isOrEqual());
+        } else if (BetweenCondition.class.isInstance(condition)) {
+            BetweenCondition betweenCondition = (BetweenCondition) condition;
+            return index.getIds(betweenCondition.getX(), true, betweenCondition.getY(), true);
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>Returns the index for the given property of the identity types of the given type, building it if necessary.</p>
+     */
+    private FileIndex getIdentityTypeIndex(FilePartition filePartition, String type, String propertyName) {
+        ConcurrentMap<String, FileIndex> typeIndexes = filePartition.getIndexes(type);
+        FileIndex index = typeIndexes.get(propertyName);
+
+        if (index == null) {
+            FileIndex newIndex = new FileIndex();
+
+            // lookups and updates wait until the index is built
+            synchronized (newIndex) {
+                index = typeIndexes.putIfAbsent(propertyName, newIndex);
+
+                if (index == null) {
+                    index = newIndex;
+
+                    Map<String, FileIdentityType> identityTypes = filePartition.getIdentityTypes().get(type);
+
+                    if (identityTypes != null) {
+                        for (FileIdentityType fileIdentityType : identityTypes.values()) {
+                            IdentityType identityType = fileIdentityType.getEntry();
+                            index.put(identityType.getId(), getIndexedValues(identityType, propertyName));
+                        }
+                    }
+                }
+            }
+        }
+
+        return index;
+    }
+
+    private List<Serializable> getIndexedValues(IdentityType identityType, String propertyName) {
+        Property<Serializable> property = PropertyQueries.<Serializable>createQuery(identityType.getClass())
+            .addCriteria(new NamedPropertyCriteria(propertyName))
+            .getFirstResult();
+
+        if (property == null) {
+            return Collections.emptyList();
+        }
+
+        return Collections.singletonList(property.getValue(identityType));
+    }
+
+    /**
+     * <p>Returns the identifiers of the relationships that may match the given query, or null if none of its parameters
+     * can be answered by the relationship index.</p>
+     */
+    private Set<String> lookupRelationshipIndex(RelationshipQuery<?> query) {
+        Set<String> candidateIds = null;
+
+        for (Entry<QueryParameter, Object[]> entry : query.getParameters().entrySet()) {
+            QueryParameter queryParameter = entry.getKey();
+            Object[] values = entry.getValue();
+
+            if (values == null || values.length == 0) {
+                continue;
+            }
+
+            Set<String> ids = null;
+
+            if (Relationship.IDENTITY.equals(queryParameter)) {
+                // relationships must reference all the given identity types
+                for (Object value : values) {
+                    Set<String> valueIds = lookupRelationshipIndex(value);
+
+                    if (valueIds == null) {
+                        ids = null;
+                        break;
+                    }
+
+                    if (ids == null) {
+                        ids = valueIds;
+                    } else {
+                        ids.retainAll(valueIds);
+                    }
+                }
+            } else if (RelationshipQueryParameter.class.isInstance(queryParameter)) {
+                ids = new HashSet<String>();
+
+                for (Object value : values) {
+                    Set<String> valueIds = lookupRelationshipIndex(value);
+
+                    if (valueIds == null) {
+                        ids = null;
+                        break;
+                    }
+
+                    ids.addAll(valueIds);
+                }
+            }
+
+            if (ids != null) {
+                if (candidateIds == null) {
+                    candidateIds = ids;
+                } else {
+                    candidateIds.retainAll(ids);
+                }
+            }
+        }
+
+        return candidateIds;
+    }
+
+    private Set<String> lookupRelationshipIndex(Object identityType) {
+        if (!IdentityType.class.isInstance(identityType)) {
+            return null;
+        }
+
+        return this.fileDataSource.getRelationshipIndex().getIds(IdentityTypeUtil.formatId((IdentityType) identityType));
     }
 
     private <V extends IdentityType> boolean matches(Condition condition, Serializable storedValue) {
@@ -515,8 +807,19 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
             }
         } else {
             List<FileRelationship> relationships = new ArrayList<FileRelationship>();
+            Set<String> candidateIds = lookupRelationshipIndex(query);
+
+            if (candidateIds != null) {
+                for (String candidateId : candidateIds) {
+                    for (Map<String, FileRelationship> partitionRelationships : this.fileDataSource.getRelationships().values()) {
+                        FileRelationship candidate = partitionRelationships.get(candidateId);
 
-            if (Relationship.class.equals(typeToSearch)) {
+                        if (candidate != null) {
+                            relationships.add(candidate);
+                        }
+                    }
+                }
+            } else if (Relationship.class.equals(typeToSearch)) {
                 for (Map<String, FileRelationship> partitionRelationships : this.fileDataSource.getRelationships().values()) {
                     relationships.addAll(partitionRelationships.values());
                 }
@@ -619,7 +922,8 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
         fileAttribute.getEntry().add(attribute);
 
         this.fileDataSource.getAttributes().put(type.getId(), fileAttribute);
-        this.fileDataSource.flushAttributes();
+        this.fileDataSource.indexAttributes(type.getId());
+        this.fileDataSource.flushAttributes(type.getId());
     }
 
     @Override
@@ -635,7 +939,8 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
             }
         }
 
-        this.fileDataSource.flushAttributes();
+        this.fileDataSource.indexAttributes(type.getId());
+        this.fileDataSource.flushAttributes(type.getId());
     }
 
     @Override
@@ -746,9 +1051,12 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
             this.fileDataSource.getRelationships().put(type, storedRelationships);
         }
 
-        storedRelationships.put(relationship.getId(), new FileRelationship(relationship));
+        FileRelationship fileRelationship = new FileRelationship(relationship);
+
+        storedRelationships.put(relationship.getId(), fileRelationship);
+        this.fileDataSource.getRelationshipIndex().put(relationship.getId(), fileRelationship.getIdentityTypeIds());
 
-        this.fileDataSource.flushRelationships();
+        this.fileDataSource.flushRelationship(type, relationship.getId());
     }
 
     private void storeIdentityType(IdentityContext context, IdentityType identityType) {
@@ -763,7 +1071,11 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
 
         identityTypes.put(identityType.getId(), new FileIdentityType(identityType));
 
-        this.fileDataSource.flushAttributedTypes(filePartition);
+        for (Entry<String, FileIndex> entry : filePartition.getIndexes(identityType.getClass().getName()).entrySet()) {
+            entry.getValue().put(identityType.getId(), getIndexedValues(identityType, entry.getKey()));
+        }
+
+        this.fileDataSource.flushIdentityType(filePartition, identityType.getClass().getName(), identityType.getId());
     }
 
     private boolean matchAttribute(AttributedType attributedType, String parameterName, Object[] valuesToCompare) {
@@ -799,8 +1111,9 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
         return false;
     }
 
-    private void flushCredentials(Partition partition) {
-        this.fileDataSource.flushCredentials(resolve(partition.getClass(), partition.getName()));
+    private void flushCredentials(Account account) {
+        Partition partition = account.getPartition();
+        this.fileDataSource.flushCredentials(resolve(partition.getClass(), partition.getName()), account.getId());
     }
 
     @Override
@@ -866,7 +1179,7 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
             grantPermission(context, assignee, resource, newOperations);
         }
 
-        this.fileDataSource.flushPermissions(filePartition);
+        this.fileDataSource.flushPermissions(filePartition, assignee.getId());
 
         return true;
     }
@@ -892,6 +1205,8 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
                     }
                 }
             }
+
+            this.fileDataSource.flushPermissions(filePartition, assignee.getId());
         }
 
         return false;
@@ -901,22 +1216,27 @@ public class FileIdentityStore extends AbstractAttributeStore<FileIdentityStoreC
     public void revokeAllPermissions(IdentityContext context, Object resource) {
         Partition partition = context.getPartition();
         FilePartition filePartition = resolve(partition.getClass(), partition.getName());
-        Collection<List<FilePermission>> allPermissions = filePartition.getPermissions().values();
+        Map<String, List<FilePermission>> allPermissions = filePartition.getPermissions();
         Class resourceClass = context.getPermissionHandlerPolicy().getResourceClass(resource);
         Serializable resourceIdentifier = context.getPermissionHandlerPolicy().getIdentifier(resource);
 
         if (allPermissions != null) {
-            for (List<FilePermission> permissions : allPermissions) {
-                for (FilePermission filePermission : new ArrayList<FilePermission>(permissions)) {
+            for (Entry<String, List<FilePermission>> permissions : allPermissions.entrySet()) {
+                boolean changed = false;
+
+                for (FilePermission filePermission : new ArrayList<FilePermission>(permissions.getValue())) {
                     Permission permission = filePermission.getEntry();
 
                     if (hasAttributes(permission, resourceClass, resourceIdentifier, null)) {
-                        permissions.remove(filePermission);
+                        permissions.getValue().remove(filePermission);
+                        changed = true;
                     }
                 }
-            }
 
-            this.fileDataSource.flushPermissions(filePartition);
+                if (changed) {
+                    this.fileDataSource.flushPermissions(filePartition, permissions.getKey());
+                }
+            }
         }
     }
 
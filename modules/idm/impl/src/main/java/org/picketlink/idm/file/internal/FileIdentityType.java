@@ -31,6 +31,10 @@ public class FileIdentityType extends AbstractFileAttributedType<IdentityType> {
 
     private static final String VERSION = "1";
 
+    FileIdentityType() {
+
+    }
+
     protected FileIdentityType(IdentityType object) {
         super(VERSION, object);
     }
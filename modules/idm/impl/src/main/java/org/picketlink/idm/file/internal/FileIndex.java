@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.picketlink.idm.file.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>In-memory index mapping values to the identifiers of the entries holding them.</p>
+ *
+ * <p>Each entry may hold any number of values. Values are looked up by equality using a hash index. A sorted index,
+ * used to look up ranges of values, is only built the first time it is needed and is not available if the values are
+ * not mutually comparable.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author agent
+ */
+class FileIndex {
+
+    private final Map<String, Collection<Object>> valuesById = new HashMap<String, Collection<Object>>();
+    private final Map<Object, Set<String>> idsByValue = new HashMap<Object, Set<String>>();
+    private NavigableMap<Object, Set<String>> sortedIds;
+    private boolean sortable = true;
+
+    /**
+     * <p>Replaces the values held by the given entry.</p>
+     *
+     * @param id
+     * @param values
+     */
+    synchronized void put(String id, Collection<?> values) {
+        remove(id);
+
+        Collection<Object> indexedValues = new HashSet<Object>();
+
+        for (Object value : values) {
+            if (value != null) {
+                indexedValues.add(value);
+            }
+        }
+
+        if (indexedValues.isEmpty()) {
+            return;
+        }
+
+        this.valuesById.put(id, indexedValues);
+
+        for (Object value : indexedValues) {
+            addId(this.idsByValue, value, id);
+
+            if (this.sortedIds != null) {
+                addSortedId(value, id);
+            }
+        }
+    }
+
+    synchronized void remove(String id) {
+        Collection<Object> values = this.valuesById.remove(id);
+
+        if (values != null) {
+            for (Object value : values) {
+                removeId(this.idsByValue, value, id);
+
+                if (this.sortedIds != null) {
+                    removeId(this.sortedIds, value, id);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Returns the identifiers of the entries holding the given value.</p>
+     *
+     * @param value
+     * @return
+     */
+    synchronized Set<String> getIds(Object value) {
+        Set<String> ids = this.idsByValue.get(value);
+
+        if (ids == null) {
+            return new HashSet<String>();
+        }
+
+        return new HashSet<String>(ids);
+    }
+
+    /**
+     * <p>Returns the identifiers of the entries holding a value within the given range, or null if values can not be
+     * sorted.</p>
+     *
+     * @param from The lower bound, or null if there is none.
+     * @param fromInclusive
+     * @param to The upper bound, or null if there is none.
+     * @param toInclusive
+     * @return
+     */
+    synchronized Set<String> getIds(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        if (this.sortedIds == null && this.sortable) {
+            this.sortedIds = new TreeMap<Object, Set<String>>();
+
+            for (Map.Entry<String, Collection<Object>> entry : this.valuesById.entrySet()) {
+                for (Object value : entry.getValue()) {
+                    addSortedId(value, entry.getKey());
+                }
+            }
+        }
+
+        if (!this.sortable) {
+            return null;
+        }
+
+        NavigableMap<Object, Set<String>> range = this.sortedIds;
+
+        try {
+            if (from != null && to != null) {
+                range = range.subMap(from, fromInclusive, to, toInclusive);
+            } else if (from != null) {
+                range = range.tailMap(from, fromInclusive);
+            } else if (to != null) {
+                range = range.headMap(to, toInclusive);
+            }
+        } catch (ClassCastException cce) {
+            // bounds can not be compared with the indexed values
+            return null;
+        } catch (IllegalArgumentException iae) {
+            // the lower bound is greater than the upper bound
+            return new HashSet<String>();
+        }
+
+        Set<String> ids = new HashSet<String>();
+
+        for (Set<String> rangeIds : range.values()) {
+            ids.addAll(rangeIds);
+        }
+
+        return ids;
+    }
+
+    private void addSortedId(Object value, String id) {
+        if (!this.sortable) {
+            return;
+        }
+
+        try {
+            addId(this.sortedIds, value, id);
+        } catch (ClassCastException cce) {
+            // values can not be compared, range lookups are not supported by this index anymore
+            this.sortable = false;
+            this.sortedIds = null;
+        }
+    }
+
+    private static void addId(Map<Object, Set<String>> ids, Object value, String id) {
+        Set<String> valueIds = ids.get(value);
+
+        if (valueIds == null) {
+            valueIds = new HashSet<String>();
+            ids.put(value, valueIds);
+        }
+
+        valueIds.add(id);
+    }
+
+    private static void removeId(Map<Object, Set<String>> ids, Object value, String id) {
+        Set<String> valueIds = ids.get(value);
+
+        if (valueIds != null) {
+            valueIds.remove(id);
+
+            if (valueIds.isEmpty()) {
+                ids.remove(value);
+            }
+        }
+    }
+}
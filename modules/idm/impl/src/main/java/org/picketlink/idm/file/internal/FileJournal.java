@@ -0,0 +1,311 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.picketlink.idm.file.internal;
+
+import org.picketlink.idm.IdentityManagementException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Append-only journal holding the changes made to a {@link FileDataSource} since its last snapshot.</p>
+ *
+ * <p>Each record holds the state of a single entry of the store, or its removal, so the cost of writing a change
+ * depends only on the size of the change. Records are framed by their length and checksum, a record only partially
+ * written because of a crash is detected and discarded when the journal is read. Records are encoded using the
+ * {@link FileBinaryFormat}.</p>
+ *
+ * <p>Records are forced to disk using group commit: a thread forcing the journal also covers all records appended by
+ * other threads before it, so they don't need to force it again.</p>
+ *
+ * <p>When a snapshot is taken, the journal is rotated: the current records are moved to a previous journal file, which is
+ * only discarded once the snapshot is completely written. Until then, both files are read when the store is loaded,
+ * the previous one first.</p>
+ *
+ * <p>Appending records and rotating the journal must be serialized by the caller.</p>
+ *
+ * @author agent
+ */
+class FileJournal {
+
+    private static final int HEADER_LENGTH = 8;
+
+    private final File file;
+    private final File previousFile;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private final Object syncLock = new Object();
+
+    // positions are the total number of bytes ever appended, they are not reset when the journal is truncated
+    private volatile long appendedPosition;
+    private volatile long syncedPosition;
+    private int recordCount;
+
+    FileJournal(File file) {
+        this.file = file;
+        this.previousFile = new File(file.getPath() + ".previous");
+
+        try {
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.channel = this.randomAccessFile.getChannel();
+        } catch (IOException e) {
+            throw new IdentityManagementException("Could not open journal [" + file.getPath() + "].", e);
+        }
+    }
+
+    /**
+     * <p>Reads all valid records from the journal, starting with the ones from a previous journal not yet discarded. If a
+     * record is incomplete or corrupted, it and all subsequent records in the same file are discarded and the file is
+     * truncated at that point.</p>
+     *
+     * @return
+     */
+    List<Record> read() {
+        List<Record> records = new ArrayList<Record>();
+
+        try {
+            if (this.previousFile.exists()) {
+                RandomAccessFile previous = new RandomAccessFile(this.previousFile, "rw");
+
+                try {
+                    read(previous.getChannel(), records);
+                } finally {
+                    previous.close();
+                }
+            }
+
+            this.channel.position(read(this.channel, records));
+            this.recordCount = records.size();
+        } catch (IOException e) {
+            throw new IdentityManagementException("Could not read journal [" + this.file.getPath() + "].", e);
+        }
+
+        return records;
+    }
+
+    private long read(FileChannel channel, List<Record> records) throws IOException {
+        long position = 0;
+        long length = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+        while (length - position >= HEADER_LENGTH) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+
+            int recordLength = header.getInt();
+            int checksum = header.getInt();
+
+            if (recordLength <= 0 || recordLength > length - position - HEADER_LENGTH) {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(recordLength);
+
+            channel.read(payload, position + HEADER_LENGTH);
+
+            if (checksum(payload.array()) != checksum) {
+                break;
+            }
+
+            records.add(FileBinaryFormat.decode(payload.array()));
+            position = position + HEADER_LENGTH + recordLength;
+        }
+
+        if (position < length) {
+            channel.truncate(position);
+        }
+
+        return position;
+    }
+
+    /**
+     * <p>Appends a record to the journal.</p>
+     *
+     * @param type The type of the entry.
+     * @param keys The keys identifying the entry.
+     * @param value The state of the entry, or null if it was removed.
+     *
+     * @return The position of the journal after appending the record, to be used when calling {@link #sync(long)}.
+     */
+    long append(String type, String[] keys, Object value) {
+        byte[] payload = FileBinaryFormat.encode(type, keys, value);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+
+        buffer.putInt(payload.length);
+        buffer.putInt(checksum(payload));
+        buffer.put(payload);
+        buffer.flip();
+
+        try {
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new IdentityManagementException("Could not write to journal [" + this.file.getPath() + "].", e);
+        }
+
+        this.recordCount++;
+        this.appendedPosition = this.appendedPosition + buffer.limit();
+
+        return this.appendedPosition;
+    }
+
+    /**
+     * <p>Makes sure all records up to the given position are forced to disk.</p>
+     *
+     * @param position
+     */
+    void sync(long position) {
+        if (this.syncedPosition >= position) {
+            return;
+        }
+
+        synchronized (this.syncLock) {
+            if (this.syncedPosition >= position) {
+                return;
+            }
+
+            long target = this.appendedPosition;
+
+            try {
+                this.channel.force(false);
+            } catch (IOException e) {
+                throw new IdentityManagementException("Could not sync journal [" + this.file.getPath() + "].", e);
+            }
+
+            this.syncedPosition = target;
+        }
+    }
+
+    /**
+     * <p>Moves all records to the previous journal, usually before a snapshot is taken. Records appended from now on
+     * are written to an empty journal. If the previous journal was not discarded yet, because the last snapshot
+     * failed, the records are appended to it instead.</p>
+     */
+    void rotate() {
+        synchronized (this.syncLock) {
+            try {
+                this.channel.force(false);
+
+                if (this.previousFile.exists()) {
+                    RandomAccessFile previous = new RandomAccessFile(this.previousFile, "rw");
+
+                    try {
+                        FileChannel previousChannel = previous.getChannel();
+                        long position = 0;
+                        long length = this.channel.size();
+
+                        previousChannel.position(previousChannel.size());
+
+                        while (position < length) {
+                            position = position + this.channel.transferTo(position, length - position, previousChannel);
+                        }
+
+                        previousChannel.force(false);
+                    } finally {
+                        previous.close();
+                    }
+
+                    this.channel.truncate(0);
+                    this.channel.position(0);
+                    this.channel.force(false);
+                } else {
+                    this.randomAccessFile.close();
+
+                    if (!this.file.renameTo(this.previousFile)) {
+                        throw new IOException("Could not rename journal to [" + this.previousFile.getPath() + "].");
+                    }
+
+                    this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+                    this.channel = this.randomAccessFile.getChannel();
+
+                    FileUtils.syncDirectory(this.file.getParentFile());
+                }
+            } catch (IOException e) {
+                throw new IdentityManagementException("Could not rotate journal [" + this.file.getPath() + "].", e);
+            }
+
+            this.recordCount = 0;
+            this.syncedPosition = this.appendedPosition;
+        }
+    }
+
+    /**
+     * <p>Discards the records moved to the previous journal, once the snapshot holding them was written.</p>
+     */
+    void discardPrevious() {
+        if (this.previousFile.exists() && !this.previousFile.delete()) {
+            throw new IdentityManagementException("Could not delete journal [" + this.previousFile.getPath() + "].");
+        }
+
+        FileUtils.syncDirectory(this.file.getParentFile());
+    }
+
+    int getRecordCount() {
+        return this.recordCount;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+
+        crc.update(payload);
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * <p>A change to a single entry of the store.</p>
+     */
+    static class Record {
+
+        private final String type;
+        private final String[] keys;
+        private final Object value;
+
+        Record(String type, String[] keys, Object value) {
+            this.type = type;
+            this.keys = keys;
+            this.value = value;
+        }
+
+        String getType() {
+            return this.type;
+        }
+
+        String getKey(int index) {
+            return this.keys[index];
+        }
+
+        /**
+         * <p>The state of the entry, or null if it was removed.</p>
+         *
+         * @return
+         */
+        Object getValue() {
+            return this.value;
+        }
+    }
+}
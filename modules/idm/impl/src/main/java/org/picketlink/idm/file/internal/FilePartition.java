@@ -19,12 +19,13 @@ package org.picketlink.idm.file.internal;
 
 import org.picketlink.idm.model.Partition;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author pedroigor
@@ -39,6 +40,11 @@ public class FilePartition extends AbstractFileAttributedType<Partition> {
             Map<String,FileIdentityType>>();
     private transient Map<String, Map<String, List<FileCredentialStorage>>> credentials = new ConcurrentHashMap<String, Map<String, List<FileCredentialStorage>>>();
     private Map<String, List<FilePermission>> permissions;
+    private transient ConcurrentMap<String, ConcurrentMap<String, FileIndex>> indexes;
+
+    FilePartition() {
+
+    }
 
     protected FilePartition(Partition object, String configurationName) {
         super(VERSION, object);
@@ -46,14 +52,14 @@ public class FilePartition extends AbstractFileAttributedType<Partition> {
     }
 
     @Override
-    protected void doReadObject(ObjectInputStream s) throws Exception {
+    protected void doReadObject(ObjectInput s) throws Exception {
         super.doReadObject(s);
 
         this.configurationName = s.readObject().toString();
     }
 
     @Override
-    protected void doWriteObject(ObjectOutputStream s) throws Exception {
+    protected void doWriteObject(ObjectOutput s) throws Exception {
         super.doWriteObject(s);
 
         s.writeObject(configurationName);
@@ -108,4 +114,29 @@ public class FilePartition extends AbstractFileAttributedType<Partition> {
     public Map<String, List<FilePermission>> getPermissions() {
         return this.permissions;
     }
+
+    /**
+     * <p>Returns the indexes built for the identity types of the given type, keyed by property name.</p>
+     *
+     * @param identityType
+     * @return
+     */
+    ConcurrentMap<String, FileIndex> getIndexes(String identityType) {
+        ConcurrentMap<String, FileIndex> typeIndexes;
+
+        synchronized (this) {
+            if (this.indexes == null) {
+                this.indexes = new ConcurrentHashMap<String, ConcurrentMap<String, FileIndex>>();
+            }
+
+            typeIndexes = this.indexes.get(identityType);
+
+            if (typeIndexes == null) {
+                typeIndexes = new ConcurrentHashMap<String, FileIndex>();
+                this.indexes.put(identityType, typeIndexes);
+            }
+        }
+
+        return typeIndexes;
+    }
 }
@@ -22,8 +22,8 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.permission.IdentityPermission;
 import org.picketlink.idm.permission.Permission;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.Map;
 
@@ -35,6 +35,10 @@ public class FilePermission extends AbstractFileType<Permission> {
     private static final String VERSION = "1";
     private String identityTypeId;
 
+    FilePermission() {
+
+    }
+
     protected FilePermission(IdentityType identityType, Permission permission) {
         super(VERSION, permission);
         this.identityTypeId = identityType.getId();
@@ -64,13 +68,13 @@ public class FilePermission extends AbstractFileType<Permission> {
     }
 
     @Override
-    protected void doWriteObject(final ObjectOutputStream s) throws Exception {
+    protected void doWriteObject(final ObjectOutput s) throws Exception {
         super.doWriteObject(s);
         s.writeObject(this.identityTypeId);
     }
 
     @Override
-    protected void doReadObject(final ObjectInputStream s) throws Exception {
+    protected void doReadObject(final ObjectInput s) throws Exception {
         super.doReadObject(s);
         this.identityTypeId = s.readObject().toString();
     }
@@ -26,8 +26,8 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Relationship;
 import org.picketlink.idm.model.annotation.AttributeProperty;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.List;
@@ -48,35 +48,29 @@ public class FileRelationship extends AbstractFileAttributedType<Relationship> {
 
     private Map<String, String> identityTypeIds = new HashMap<String, String>();
 
+    FileRelationship() {
+
+    }
+
     protected FileRelationship(Relationship object) {
         super(FILE_RELATIONSHIP_VERSION, object);
+        populateIdentityTypeIds();
     }
 
     @Override
     protected void doPopulateProperties(Map<String, Serializable> properties) throws Exception {
         super.doPopulateProperties(properties);
-
-        List<Property<IdentityType>> relationshipIdentityTypes = PropertyQueries
-                .<IdentityType> createQuery(getEntry().getClass())
-                .addCriteria(new TypedPropertyCriteria(IdentityType.class, MatchOption.SUB_TYPE)).getResultList();
-
-        for (Property<IdentityType> annotatedProperty : relationshipIdentityTypes) {
-            IdentityType identityType = annotatedProperty.getValue(getEntry());
-
-            if (identityType != null) {
-                this.identityTypeIds.put(IdentityTypeUtil.formatId(identityType), annotatedProperty.getName());
-            }
-        }
+        populateIdentityTypeIds();
     }
 
     @Override
-    protected void doWriteObject(ObjectOutputStream s) throws Exception {
+    protected void doWriteObject(ObjectOutput s) throws Exception {
         s.writeObject(this.identityTypeIds);
     }
 
     @SuppressWarnings("unchecked")
     @Override
-    protected void doReadObject(ObjectInputStream s) throws Exception {
+    protected void doReadObject(ObjectInput s) throws Exception {
         this.identityTypeIds = (Map<String, String>) s.readObject();
     }
 
@@ -111,4 +105,31 @@ public class FileRelationship extends AbstractFileAttributedType<Relationship> {
         return this.identityTypeIds.containsKey(IdentityTypeUtil.formatId(identityType));
     }
 
+    /**
+     * <p>Returns the formatted identifiers of all identity types referenced by this relationship.</p>
+     *
+     * @return
+     */
+    Set<String> getIdentityTypeIds() {
+        return this.identityTypeIds.keySet();
+    }
+
+    private void populateIdentityTypeIds() {
+        Map<String, String> identityTypeIds = new HashMap<String, String>();
+
+        List<Property<IdentityType>> relationshipIdentityTypes = PropertyQueries
+                .<IdentityType> createQuery(getEntry().getClass())
+                .addCriteria(new TypedPropertyCriteria(IdentityType.class, MatchOption.SUB_TYPE)).getResultList();
+
+        for (Property<IdentityType> annotatedProperty : relationshipIdentityTypes) {
+            IdentityType identityType = annotatedProperty.getValue(getEntry());
+
+            if (identityType != null) {
+                identityTypeIds.put(IdentityTypeUtil.formatId(identityType), annotatedProperty.getName());
+            }
+        }
+
+        this.identityTypeIds = identityTypeIds;
+    }
+
 }
@@ -22,8 +22,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.lang.reflect.Array;
+import java.nio.channels.FileChannel;
 import org.picketlink.idm.IdentityManagementException;
 
+import static org.picketlink.idm.IDMInternalLog.FILE_STORE_LOGGER;
+
 /**
  * @author Pedro Silva
  *
@@ -116,4 +120,43 @@ public final class FileUtils {
         }
     }
 
+    /**
+     * <p>
+     * Forces the entries of the specified directory to disk, so files created or renamed in it survive a crash. Opening
+     * a directory is only possible using the NIO.2 API, so this method does nothing when running on Java 6 or on
+     * platforms that do not allow directories to be opened.
+     * </p>
+     *
+     * @param directory
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void syncDirectory(File directory) {
+        FileChannel channel = null;
+
+        try {
+            Class<?> pathType = Class.forName("java.nio.file.Path");
+            Class<?> openOptionType = Class.forName("java.nio.file.OpenOption");
+            Class standardOpenOptionType = Class.forName("java.nio.file.StandardOpenOption");
+            Object options = Array.newInstance(openOptionType, 1);
+
+            Array.set(options, 0, Enum.valueOf(standardOpenOptionType, "READ"));
+
+            Object path = File.class.getMethod("toPath").invoke(directory);
+
+            channel = (FileChannel) FileChannel.class.getMethod("open", pathType, options.getClass()).invoke(null, path, options);
+            channel.force(true);
+        } catch (ClassNotFoundException ignore) {
+            // running on Java 6
+        } catch (Exception e) {
+            FILE_STORE_LOGGER.debugf(e, "Could not sync directory [%s].", directory.getPath());
+        } finally {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+            }
+        }
+    }
+
 }
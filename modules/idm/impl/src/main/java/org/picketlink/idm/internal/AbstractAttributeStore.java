@@ -29,7 +29,10 @@ import org.picketlink.idm.spi.IdentityContext;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.picketlink.idm.IDMLog.IDENTITY_STORE_LOGGER;
 
@@ -46,8 +49,29 @@ public abstract class AbstractAttributeStore<C extends IdentityStoreConfiguratio
 
     @Override
     public void loadAttributes(IdentityContext identityContext, AttributedType attributedType) {
-        Collection<Attribute<? extends Serializable>> attributes = getAttributes(identityContext, attributedType);
+        loadAttributes(attributedType, getAttributes(identityContext, attributedType));
+    }
+
+    @Override
+    public void loadAttributes(IdentityContext identityContext, Collection<? extends AttributedType> attributedTypes) {
+        if (attributedTypes.isEmpty()) {
+            return;
+        }
+
+        Map<AttributedType, Collection<Attribute<? extends Serializable>>> attributes = getAttributes(identityContext, attributedTypes);
+
+        for (AttributedType attributedType : attributedTypes) {
+            Collection<Attribute<? extends Serializable>> typeAttributes = attributes.get(attributedType);
+
+            if (typeAttributes == null) {
+                typeAttributes = Collections.emptyList();
+            }
 
+            loadAttributes(attributedType, typeAttributes);
+        }
+    }
+
+    private void loadAttributes(AttributedType attributedType, Collection<Attribute<? extends Serializable>> attributes) {
         for (Attribute attribute : attributes) {
             attributedType.setAttribute(attribute);
 
@@ -73,6 +97,28 @@ public abstract class AbstractAttributeStore<C extends IdentityStoreConfiguratio
 
     protected abstract Collection<Attribute<? extends Serializable>> getAttributes(IdentityContext context, AttributedType attributedType);
 
+    /**
+     * <p>Returns the attributes for each of the given types. Subclasses should override this method when they are able to
+     * fetch the attributes of many types at once. By default, attributes are loaded individually for each type.</p>
+     *
+     * <p>The returned map is keyed by identity, types without attributes can be omitted.</p>
+     *
+     * @param context
+     * @param attributedTypes
+     * @return
+     */
+    protected Map<AttributedType, Collection<Attribute<? extends Serializable>>> getAttributes(IdentityContext context,
+                                                                                             Collection<? extends AttributedType> attributedTypes) {
+        Map<AttributedType, Collection<Attribute<? extends Serializable>>> attributes =
+            new IdentityHashMap<AttributedType, Collection<Attribute<? extends Serializable>>>();
+
+        for (AttributedType attributedType : attributedTypes) {
+            attributes.put(attributedType, getAttributes(context, attributedType));
+        }
+
+        return attributes;
+    }
+
     private void loadManagedAttributes(AttributedType attributedType) {
         for (Attribute attribute : attributedType.getAttributes()) {
             List<Property<Object>> properties = PropertyQueries.createQuery(attributedType.getClass())
@@ -28,6 +28,7 @@ import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.model.annotation.AttributeProperty;
+import org.picketlink.idm.query.internal.StoreQueryExecutor;
 import org.picketlink.idm.spi.AttributeStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.StoreSelector;
@@ -219,6 +220,10 @@ public abstract class AbstractAttributedTypeManager<T extends AttributedType> im
         return this.configuration.getStoreSelector();
     }
 
+    public StoreQueryExecutor getStoreQueryExecutor() {
+        return this.configuration.getStoreQueryExecutor();
+    }
+
     public  IdentityContext getIdentityContext() {
         return this.identityContext;
     }
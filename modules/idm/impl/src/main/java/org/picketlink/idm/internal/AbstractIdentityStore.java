@@ -145,36 +145,52 @@ public abstract class AbstractIdentityStore<C extends IdentityStoreConfiguration
         this.credentialHandlers.get(credentialHandler).update(context, account, credential, this, effectiveDate, expiryDate);
     }
 
+    /**
+     * <p>Counts the results by fetching them from this store only. Subclasses should override this method when they are
+     * able to count the results without loading them.</p>
+     */
     @Override
     public <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
         int limit = identityQuery.getLimit();
         int offset = identityQuery.getOffset();
 
-        identityQuery.setLimit(0);
-        identityQuery.setOffset(0);
-
-        int resultCount = identityQuery.getResultList().size();
+        if (limit == 0 && offset == 0) {
+            return fetchQueryResults(context, identityQuery).size();
+        }
 
-        identityQuery.setLimit(limit);
-        identityQuery.setOffset(offset);
+        try {
+            identityQuery.setLimit(0);
+            identityQuery.setOffset(0);
 
-        return resultCount;
+            return fetchQueryResults(context, identityQuery).size();
+        } finally {
+            identityQuery.setLimit(limit);
+            identityQuery.setOffset(offset);
+        }
     }
 
+    /**
+     * <p>Counts the results by fetching them from this store only. Subclasses should override this method when they are
+     * able to count the results without loading them.</p>
+     */
     @Override
-    public <V extends Relationship> int countQueryResults(final IdentityContext context, final RelationshipQuery<V> query) {
+    public <V extends Relationship> int countQueryResults(IdentityContext context, RelationshipQuery<V> query) {
         int limit = query.getLimit();
         int offset = query.getOffset();
 
-        query.setLimit(0);
-        query.setOffset(0);
-
-        int resultCount = query.getResultList().size();
+        if (limit == 0 && offset == 0) {
+            return fetchQueryResults(context, query).size();
+        }
 
-        query.setLimit(limit);
-        query.setOffset(offset);
+        try {
+            query.setLimit(0);
+            query.setOffset(0);
 
-        return resultCount;
+            return fetchQueryResults(context, query).size();
+        } finally {
+            query.setLimit(limit);
+            query.setOffset(offset);
+        }
     }
 
     protected void addAttributedType(IdentityContext context, AttributedType attributedType) {
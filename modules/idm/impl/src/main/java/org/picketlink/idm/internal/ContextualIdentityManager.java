@@ -21,6 +21,8 @@ import org.picketlink.common.properties.Property;
 import org.picketlink.common.properties.query.AnnotatedPropertyCriteria;
 import org.picketlink.common.properties.query.PropertyQueries;
 import org.picketlink.common.properties.query.PropertyQuery;
+import org.picketlink.idm.AsyncIdentityManager;
+import org.picketlink.idm.BulkIdentityManager;
 import org.picketlink.idm.IdGenerator;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.IdentityManager;
@@ -28,12 +30,15 @@ import org.picketlink.idm.PermissionManager;
 import org.picketlink.idm.RelationshipManager;
 import org.picketlink.idm.config.IdentityStoreConfiguration.IdentityOperation;
 import org.picketlink.idm.credential.Credentials;
+import org.picketlink.idm.credential.UsernamePasswordCredentials;
 import org.picketlink.idm.credential.storage.CredentialStorage;
+import org.picketlink.idm.event.CredentialRemovedEvent;
 import org.picketlink.idm.event.CredentialUpdatedEvent;
 import org.picketlink.idm.event.EventBridge;
 import org.picketlink.idm.event.IdentityTypeCreatedEvent;
 import org.picketlink.idm.event.IdentityTypeDeletedEvent;
 import org.picketlink.idm.event.IdentityTypeUpdatedEvent;
+import org.picketlink.idm.event.IdentityTypesCreatedEvent;
 import org.picketlink.idm.model.Account;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.IdentityType;
@@ -43,17 +48,27 @@ import org.picketlink.idm.model.annotation.Unique;
 import org.picketlink.idm.permission.Permission;
 import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.IdentityQueryBuilder;
+import org.picketlink.idm.query.QueryParameter;
 import org.picketlink.idm.query.RelationshipQuery;
 import org.picketlink.idm.query.internal.DefaultIdentityQuery;
 import org.picketlink.idm.query.internal.DefaultQueryBuilder;
+import org.picketlink.idm.spi.BulkIdentityStore;
 import org.picketlink.idm.spi.CredentialStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.IdentityStore;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
 import static org.picketlink.idm.util.IDMUtil.configureDefaultPartition;
@@ -67,7 +82,13 @@ import static org.picketlink.idm.util.IDMUtil.configureDefaultPartition;
  * @author Shane Bryzak
  * @author anil saldhana
  */
-public class ContextualIdentityManager extends AbstractAttributedTypeManager<IdentityType> implements IdentityManager {
+public class ContextualIdentityManager extends AbstractAttributedTypeManager<IdentityType> implements BulkIdentityManager,
+    AsyncIdentityManager {
+
+    /**
+     * The maximum number of values used in a single query when checking the uniqueness of many types at once
+     */
+    private static final int MAX_UNIQUENESS_CHECK_VALUES = 1000;
 
     private final DefaultPartitionManager partitionManager;
     private final RelationshipManager relationshipManager;
@@ -101,6 +122,83 @@ public class ContextualIdentityManager extends AbstractAttributedTypeManager<Ide
         configureDefaultPartition(identityContext, attributedType, identityStore, this.partitionManager);
     }
 
+    @Override
+    public void addAll(Collection<? extends IdentityType> identityTypes) throws IdentityManagementException {
+        addAll(identityTypes, DEFAULT_BATCH_SIZE);
+    }
+
+    @Override
+    public void addAll(Collection<? extends IdentityType> identityTypes, int batchSize) throws IdentityManagementException {
+        if (identityTypes == null) {
+            throw MESSAGES.nullArgument("IdentityType collection");
+        }
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than zero.");
+        }
+
+        List<IdentityType> types = new ArrayList<IdentityType>(identityTypes);
+
+        for (IdentityType identityType : types) {
+            if (identityType == null) {
+                throw MESSAGES.nullArgument("IdentityType");
+            }
+        }
+
+        checkUniqueness(types);
+
+        IdentityContext identityContext = getIdentityContext();
+
+        for (int batchStart = 0; batchStart < types.size(); batchStart += batchSize) {
+            List<IdentityType> batch = types.subList(batchStart, Math.min(batchStart + batchSize, types.size()));
+
+            try {
+                doAddAll(batch);
+
+                for (IdentityType identityType : batch) {
+                    addAttributes(identityContext, identityType);
+                }
+
+                fireEvent(new IdentityTypesCreatedEvent(new ArrayList<IdentityType>(batch), this.partitionManager));
+            } catch (Exception e) {
+                throw MESSAGES.identityTypeBatchAddFailed(batchStart, e);
+            }
+        }
+    }
+
+    private void doAddAll(List<IdentityType> identityTypes) {
+        IdentityContext identityContext = getIdentityContext();
+        Map<IdentityStore<?>, List<IdentityType>> typesByStore = new LinkedHashMap<IdentityStore<?>, List<IdentityType>>();
+
+        for (IdentityType identityType : identityTypes) {
+            IdentityStore<?> identityStore = getStoreSelector().getStoreForIdentityOperation(identityContext, IdentityStore.class, identityType.getClass(), IdentityOperation.create);
+            List<IdentityType> storeTypes = typesByStore.get(identityStore);
+
+            if (storeTypes == null) {
+                storeTypes = new ArrayList<IdentityType>();
+                typesByStore.put(identityStore, storeTypes);
+            }
+
+            storeTypes.add(identityType);
+        }
+
+        for (Map.Entry<IdentityStore<?>, List<IdentityType>> entry : typesByStore.entrySet()) {
+            IdentityStore<?> identityStore = entry.getKey();
+
+            if (BulkIdentityStore.class.isInstance(identityStore)) {
+                ((BulkIdentityStore<?>) identityStore).addAll(identityContext, entry.getValue());
+            } else {
+                for (IdentityType identityType : entry.getValue()) {
+                    identityStore.add(identityContext, identityType);
+                }
+            }
+
+            for (IdentityType identityType : entry.getValue()) {
+                configureDefaultPartition(identityContext, identityType, identityStore, this.partitionManager);
+            }
+        }
+    }
+
     @Override
     protected void fireAttributedTypeAddedEvent(IdentityType attributedType) {
         fireEvent(new IdentityTypeCreatedEvent(attributedType, this.partitionManager));
@@ -194,7 +292,7 @@ public class ContextualIdentityManager extends AbstractAttributedTypeManager<Ide
             throw MESSAGES.nullArgument("IdentityType class");
         }
 
-        return new DefaultIdentityQuery(getQueryBuilder(), getIdentityContext(), identityType, this.partitionManager, getStoreSelector());
+        return new DefaultIdentityQuery(getQueryBuilder(), getIdentityContext(), identityType, this.partitionManager, getStoreSelector(), getConfiguration().getIdentityCache(), getStoreQueryExecutor());
     }
 
     @Override
@@ -203,6 +301,38 @@ public class ContextualIdentityManager extends AbstractAttributedTypeManager<Ide
             throw MESSAGES.nullArgument("Credentials");
         }
 
+        VerifiedCredentialCache credentialCache = getConfiguration().getVerifiedCredentialCache();
+
+        if (credentialCache != null && isCacheable(credentials)) {
+            validateCredentials((UsernamePasswordCredentials) credentials, credentialCache);
+            return;
+        }
+
+        doValidateCredentials(credentials);
+    }
+
+    private void validateCredentials(UsernamePasswordCredentials credentials, VerifiedCredentialCache credentialCache) {
+        Partition partition = getIdentityContext().getPartition();
+        String username = credentials.getUsername();
+        char[] password = credentials.getPassword().getValue();
+        Account account = credentialCache.lookup(partition, username, password);
+
+        if (account != null) {
+            credentials.setStatus(Credentials.Status.VALID);
+            credentials.setValidatedAccount(account);
+            return;
+        }
+
+        long version = credentialCache.getVersion();
+
+        doValidateCredentials(credentials);
+
+        if (Credentials.Status.VALID.equals(credentials.getStatus())) {
+            credentialCache.put(partition, username, password, credentials.getValidatedAccount(), version);
+        }
+    }
+
+    private void doValidateCredentials(Credentials credentials) {
         try {
             IdentityContext identityContext = getIdentityContext();
 
@@ -212,6 +342,40 @@ public class ContextualIdentityManager extends AbstractAttributedTypeManager<Ide
         }
     }
 
+    private boolean isCacheable(Credentials credentials) {
+        if (!UsernamePasswordCredentials.class.isInstance(credentials)) {
+            return false;
+        }
+
+        UsernamePasswordCredentials usernamePassword = (UsernamePasswordCredentials) credentials;
+
+        return usernamePassword.getUsername() != null && usernamePassword.getPassword() != null
+            && usernamePassword.getPassword().getValue() != null;
+    }
+
+    @Override
+    public Future<Credentials> validateCredentialsAsync(final Credentials credentials, Executor executor) {
+        if (credentials == null) {
+            throw MESSAGES.nullArgument("Credentials");
+        }
+
+        if (executor == null) {
+            throw MESSAGES.nullArgument("Executor");
+        }
+
+        FutureTask<Credentials> task = new FutureTask<Credentials>(new Callable<Credentials>() {
+            @Override
+            public Credentials call() throws Exception {
+                validateCredentials(credentials);
+                return credentials;
+            }
+        });
+
+        executor.execute(task);
+
+        return task;
+    }
+
     @Override
     public void updateCredential(Account account, Object credential) {
         updateCredential(account, credential, null, null);
@@ -298,6 +462,8 @@ public class ContextualIdentityManager extends AbstractAttributedTypeManager<Ide
             for (CredentialStore credentialStore : getStoreSelector().getStoresForCredentialStorage(identityContext, storageClass)) {
                 credentialStore.removeCredential(identityContext, account, storageClass);
             }
+
+            fireEvent(new CredentialRemovedEvent(account, storageClass, this.partitionManager));
         } catch (Exception e) {
             throw MESSAGES.credentialRetrievalFailed(account, storageClass, e);
         }
@@ -305,7 +471,7 @@ public class ContextualIdentityManager extends AbstractAttributedTypeManager<Ide
 
     @Override
     public IdentityQueryBuilder getQueryBuilder() {
-        return new DefaultQueryBuilder(getIdentityContext(), this.partitionManager, getStoreSelector());
+        return new DefaultQueryBuilder(getIdentityContext(), this.partitionManager, getStoreSelector(), getConfiguration().getIdentityCache(), getStoreQueryExecutor());
     }
 
     @Override
@@ -361,4 +527,75 @@ public class ContextualIdentityManager extends AbstractAttributedTypeManager<Ide
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>Checks the uniqueness of many types at once. Types with a single unique property are checked using a single
+     * query for all types of the same class, which also detects duplicates between the given types. Types with
+     * composite unique properties are checked one by one.</p>
+     *
+     * @param identityTypes
+     */
+    private void checkUniqueness(List<IdentityType> identityTypes) {
+        Map<Class<? extends IdentityType>, List<IdentityType>> typesByClass = new LinkedHashMap<Class<? extends IdentityType>, List<IdentityType>>();
+
+        for (IdentityType identityType : identityTypes) {
+            List<IdentityType> types = typesByClass.get(identityType.getClass());
+
+            if (types == null) {
+                types = new ArrayList<IdentityType>();
+                typesByClass.put(identityType.getClass(), types);
+            }
+
+            types.add(identityType);
+        }
+
+        for (Map.Entry<Class<? extends IdentityType>, List<IdentityType>> entry : typesByClass.entrySet()) {
+            List<Property<Serializable>> uniqueProperties = PropertyQueries.<Serializable>createQuery(entry.getKey())
+                .addCriteria(new AnnotatedPropertyCriteria(Unique.class))
+                .getResultList();
+
+            if (uniqueProperties.isEmpty()) {
+                continue;
+            }
+
+            if (uniqueProperties.size() > 1) {
+                for (IdentityType identityType : entry.getValue()) {
+                    checkUniqueness(identityType);
+                }
+
+                continue;
+            }
+
+            Property<Serializable> uniqueProperty = uniqueProperties.get(0);
+            Map<Object, IdentityType> typesByValue = new HashMap<Object, IdentityType>();
+
+            for (IdentityType identityType : entry.getValue()) {
+                Object value = uniqueProperty.getValue(identityType);
+
+                if (value != null && typesByValue.put(value, identityType) != null) {
+                    throw MESSAGES.identityTypeAlreadyExists(identityType.getClass(), identityType.getId(), identityType.getPartition());
+                }
+            }
+
+            IdentityQueryBuilder queryBuilder = getQueryBuilder();
+            QueryParameter queryParameter = AttributedType.QUERY_ATTRIBUTE.byName(uniqueProperty.getName());
+            List<Object> values = new ArrayList<Object>(typesByValue.keySet());
+
+            for (int start = 0; start < values.size(); start += MAX_UNIQUENESS_CHECK_VALUES) {
+                List<Object> chunk = values.subList(start, Math.min(start + MAX_UNIQUENESS_CHECK_VALUES, values.size()));
+                IdentityQuery<? extends IdentityType> identityQuery = queryBuilder.createIdentityQuery(entry.getKey());
+
+                identityQuery.where(queryBuilder.in(queryParameter, chunk.toArray()));
+
+                // values are checked again because some properties are not stored and are calculated. Eg.: Group.path
+                for (IdentityType storedType : identityQuery.getResultList()) {
+                    IdentityType identityType = typesByValue.get(uniqueProperty.getValue(storedType));
+
+                    if (identityType != null) {
+                        throw MESSAGES.identityTypeAlreadyExists(identityType.getClass(), identityType.getId(), identityType.getPartition());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,8 @@
 package org.picketlink.idm.internal;
 
 import org.picketlink.idm.IdentityCache;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.VersionedIdentityCache;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.model.basic.Agent;
@@ -27,40 +29,90 @@ import org.picketlink.idm.model.basic.Realm;
 import org.picketlink.idm.model.basic.Role;
 import org.picketlink.idm.model.basic.User;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.picketlink.idm.IDMLog.ROOT_LOGGER;
+import static org.picketlink.idm.util.IDMUtil.copy;
 
 /**
  * <p>Default {@link IdentityCache} implementation.</p>
  *
+ * <p>Entries are kept per partition and each partition is bounded by a maximum number of entries. When this limit is
+ * reached, the least recently used entries are evicted. Each partition cache is split into a fixed number of segments,
+ * each one guarded by its own lock, in order to reduce contention when the cache is shared by concurrent threads.</p>
+ *
+ * <p>Entries may also expire after a given lifespan, in milliseconds. A lifespan lower or equal than zero means that
+ * entries never expire and are only removed when evicted or invalidated.</p>
+ *
+ * <p>The cache keeps and returns copies of the cached types, so changes made by callers to the returned instances are
+ * never seen by other callers. Types that were loaded before an invalidation are discarded, as described by
+ * {@link VersionedIdentityCache}.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  *
  */
-public class DefaultIdentityCache implements IdentityCache {
+public class DefaultIdentityCache implements VersionedIdentityCache {
 
-    private Map<Partition, Map<String, Agent>> agentsCache = new HashMap<Partition, Map<String, Agent>>();
-    private Map<Partition, Map<String, Role>> rolesCache = new HashMap<Partition, Map<String, Role>>();
-    private Map<Partition, Map<String, Group>> groupsCache = new HashMap<Partition, Map<String, Group>>();
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_LIFESPAN = 5 * 60 * 1000;
 
-    @Override
-    public User lookupUser(Realm realm, String loginName) {
-        Agent agent = lookupAgent(realm, loginName);
+    private static final int SEGMENT_COUNT = 16;
+
+    private static final String AGENT_KEY_PREFIX = "agent:";
+    private static final String ROLE_KEY_PREFIX = "role:";
+    private static final String GROUP_KEY_PREFIX = "group:";
 
-        if (User.class.isInstance(agent)) {
-            return (User) agent;
+    private final ConcurrentMap<String, PartitionCache> partitionCaches = new ConcurrentHashMap<String, PartitionCache>();
+    private final int maxEntries;
+    private final long lifespan;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+
+    public DefaultIdentityCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_LIFESPAN);
+    }
+
+    /**
+     * @param maxEntries The maximum number of entries per partition.
+     * @param lifespan The time in milliseconds an entry is considered valid. Values lower or equal than zero disable expiration.
+     */
+    public DefaultIdentityCache(int maxEntries, long lifespan) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be greater than zero.");
         }
 
-        return null;
+        this.maxEntries = maxEntries;
+        this.lifespan = lifespan;
+    }
+
+    @Override
+    public User lookupUser(Realm realm, String loginName) {
+        return lookup(realm, AGENT_KEY_PREFIX + loginName, User.class);
     }
 
     @Override
     public Group lookupGroup(Partition partition, String groupPath) {
-        return getGroups(partition).get(groupPath);
+        return lookup(partition, GROUP_KEY_PREFIX + groupPath, Group.class);
     }
 
     @Override
     public Role lookupRole(Partition partition, String name) {
-        return getRoles(partition).get(name);
+        return lookup(partition, ROLE_KEY_PREFIX + name, Role.class);
+    }
+
+    @Override
+    public Agent lookupAgent(Realm realm, String loginName) {
+        return lookup(realm, AGENT_KEY_PREFIX + loginName, Agent.class);
     }
 
     @Override
@@ -70,70 +122,339 @@ public class DefaultIdentityCache implements IdentityCache {
 
     @Override
     public void putGroup(Partition partition, Group group) {
-        getGroups(partition).get(group.getPath());
+        put(partition, group, getVersion());
     }
 
     @Override
     public void putRole(Partition partition, Role role) {
-        getRoles(partition).put(role.getName(), role);
+        put(partition, role, getVersion());
     }
 
     @Override
-    public Agent lookupAgent(Realm realm, String loginName) {
-        return getAgents(realm).get(loginName);
+    public void putAgent(Realm realm, Agent agent) {
+        put(realm, agent, getVersion());
     }
 
     @Override
-    public void putAgent(Realm realm, Agent agent) {
-        getAgents(realm).get(agent.getLoginName());
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * <p>Only {@link Agent}, {@link Role} and {@link Group} types are cached.</p>
+     */
+    @Override
+    public void put(Partition partition, IdentityType identityType, long version) {
+        String key = getKey(identityType);
+
+        if (key == null) {
+            return;
+        }
+
+        PartitionCache partitionCache = getPartitionCache(partition, true);
+
+        if (partitionCache == null) {
+            return;
+        }
+
+        IdentityType cachedType;
+
+        try {
+            cachedType = copy(identityType);
+        } catch (IdentityManagementException ime) {
+            ROOT_LOGGER.debugf(ime, "Type [%s] can not be cached.", identityType);
+            return;
+        }
+
+        partitionCache.put(key, cachedType, version);
     }
 
     @Override
     public void invalidate(Partition partition, IdentityType identityType) {
+        // must change before removing entries, so puts of types loaded before this invalidation are discarded
+        this.version.incrementAndGet();
+
+        PartitionCache partitionCache = getPartitionCache(partition, false);
+
+        if (partitionCache == null || identityType == null) {
+            return;
+        }
+
+        if (identityType.getId() != null) {
+            String previousKey = partitionCache.keysById.remove(identityType.getId());
+
+            if (previousKey != null) {
+                partitionCache.remove(previousKey);
+            }
+        }
+
         if (Agent.class.isInstance(identityType)) {
-            Agent agent = (Agent) identityType;
-            getAgents((Realm) partition).remove(agent.getLoginName());
+            partitionCache.remove(AGENT_KEY_PREFIX + ((Agent) identityType).getLoginName());
         } else if (Role.class.isInstance(identityType)) {
-            Role role = (Role) identityType;
-            getRoles(partition).remove(role.getName());
+            partitionCache.remove(ROLE_KEY_PREFIX + ((Role) identityType).getName());
         } else if (Group.class.isInstance(identityType)) {
-            Group group = (Group) identityType;
-            getGroups(partition).remove(group.getPath());
+            // the path of child groups is calculated from their parents, we need to drop all of them
+            partitionCache.removeAll(GROUP_KEY_PREFIX);
+        }
+    }
+
+    @Override
+    public void invalidate(Partition partition) {
+        this.version.incrementAndGet();
+
+        if (partition != null && partition.getId() != null) {
+            this.partitionCaches.remove(partition.getId());
         }
     }
 
-    private Map<String, Agent> getAgents(Realm realm) {
-        Map<String, Agent> agents = this.agentsCache.get(realm);
+    /**
+     * <p>Returns the number of lookups that returned a cached entry.</p>
+     *
+     * @return
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * <p>Returns the number of lookups that did not find a valid entry.</p>
+     *
+     * @return
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * <p>Returns the number of entries removed because the partition cache reached its maximum size or because they
+     * expired.</p>
+     *
+     * @return
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * <p>Returns the number of entries currently cached for the given partition.</p>
+     *
+     * @param partition
+     * @return
+     */
+    public int getSize(Partition partition) {
+        PartitionCache partitionCache = getPartitionCache(partition, false);
+
+        if (partitionCache == null) {
+            return 0;
+        }
+
+        return partitionCache.size();
+    }
+
+    private <T extends IdentityType> T lookup(Partition partition, String key, Class<T> expectedType) {
+        PartitionCache partitionCache = getPartitionCache(partition, false);
+        IdentityType identityType = null;
+
+        if (partitionCache != null) {
+            identityType = partitionCache.get(key);
+        }
 
-        if (agents == null) {
-            agents = new HashMap<String, Agent>();
-            this.agentsCache.put(realm, agents);
+        if (!expectedType.isInstance(identityType)) {
+            this.missCount.incrementAndGet();
+            return null;
         }
 
-        return agents;
+        this.hitCount.incrementAndGet();
+
+        return expectedType.cast(copy(identityType));
     }
 
-    private Map<String, Role> getRoles(Partition partition) {
-        Map<String, Role> roles = this.rolesCache.get(partition);
+    private String getKey(IdentityType identityType) {
+        if (Agent.class.isInstance(identityType)) {
+            return AGENT_KEY_PREFIX + ((Agent) identityType).getLoginName();
+        } else if (Role.class.isInstance(identityType)) {
+            return ROLE_KEY_PREFIX + ((Role) identityType).getName();
+        } else if (Group.class.isInstance(identityType)) {
+            return GROUP_KEY_PREFIX + ((Group) identityType).getPath();
+        }
 
-        if (roles == null) {
-            roles = new HashMap<String, Role>();
-            this.rolesCache.put(partition, roles);
+        return null;
+    }
+
+    private PartitionCache getPartitionCache(Partition partition, boolean create) {
+        if (partition == null || partition.getId() == null) {
+            return null;
         }
 
-        return roles;
+        PartitionCache partitionCache = this.partitionCaches.get(partition.getId());
+
+        if (partitionCache == null && create) {
+            partitionCache = new PartitionCache();
+
+            PartitionCache existing = this.partitionCaches.putIfAbsent(partition.getId(), partitionCache);
+
+            if (existing != null) {
+                partitionCache = existing;
+            }
+        }
+
+        return partitionCache;
     }
 
-    private Map<String, Group> getGroups(Partition partition) {
-        Map<String, Group> groups = this.groupsCache.get(partition);
+    private static class CacheEntry {
+
+        private final IdentityType identityType;
+        private final long expiration;
 
-        if (groups == null) {
-            groups = new HashMap<String, Group>();
-            this.groupsCache.put(partition, groups);
+        CacheEntry(IdentityType identityType, long expiration) {
+            this.identityType = identityType;
+            this.expiration = expiration;
         }
 
-        return groups;
+        boolean isExpired(long now) {
+            return this.expiration > 0 && now >= this.expiration;
+        }
     }
 
+    /**
+     * <p>A bounded, LRU ordered, cache for a single partition.</p>
+     */
+    private class PartitionCache {
+
+        private final Segment[] segments = new Segment[SEGMENT_COUNT];
+        private final ConcurrentMap<String, String> keysById = new ConcurrentHashMap<String, String>();
+
+        PartitionCache() {
+            int segmentSize = Math.max(1, (maxEntries + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+
+            for (int i = 0; i < this.segments.length; i++) {
+                this.segments[i] = new Segment(segmentSize);
+            }
+        }
+
+        IdentityType get(String key) {
+            Segment segment = segmentFor(key);
+
+            synchronized (segment) {
+                CacheEntry entry = segment.get(key);
+
+                if (entry == null) {
+                    return null;
+                }
+
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    segment.remove(key);
+                    this.keysById.remove(entry.identityType.getId(), key);
+                    evictionCount.incrementAndGet();
+                    return null;
+                }
+
+                return entry.identityType;
+            }
+        }
+
+        void put(String key, IdentityType identityType, long expectedVersion) {
+            long expiration = 0;
+
+            if (lifespan > 0) {
+                expiration = System.currentTimeMillis() + lifespan;
+            }
+
+            Segment segment = segmentFor(key);
+
+            synchronized (segment) {
+                // checked while holding the lock, so a concurrent invalidation either discards this put or removes the entry
+                if (expectedVersion != version.get()) {
+                    return;
+                }
 
-}
\ No newline at end of file
+                segment.put(key, new CacheEntry(identityType, expiration));
+
+                if (identityType.getId() != null) {
+                    this.keysById.put(identityType.getId(), key);
+                }
+            }
+        }
+
+        void remove(String key) {
+            Segment segment = segmentFor(key);
+
+            synchronized (segment) {
+                CacheEntry entry = segment.remove(key);
+
+                if (entry != null && entry.identityType.getId() != null) {
+                    this.keysById.remove(entry.identityType.getId(), key);
+                }
+            }
+        }
+
+        void removeAll(String keyPrefix) {
+            for (Segment segment : this.segments) {
+                synchronized (segment) {
+                    Iterator<Map.Entry<String, CacheEntry>> iterator = segment.entrySet().iterator();
+
+                    while (iterator.hasNext()) {
+                        Map.Entry<String, CacheEntry> entry = iterator.next();
+
+                        if (entry.getKey().startsWith(keyPrefix)) {
+                            iterator.remove();
+
+                            if (entry.getValue().identityType.getId() != null) {
+                                this.keysById.remove(entry.getValue().identityType.getId(), entry.getKey());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        int size() {
+            int size = 0;
+
+            for (Segment segment : this.segments) {
+                synchronized (segment) {
+                    size = size + segment.size();
+                }
+            }
+
+            return size;
+        }
+
+        private Segment segmentFor(String key) {
+            int hash = key.hashCode();
+
+            hash ^= (hash >>> 16);
+
+            return this.segments[hash & (SEGMENT_COUNT - 1)];
+        }
+
+        private class Segment extends LinkedHashMap<String, CacheEntry> {
+
+            private static final long serialVersionUID = 1L;
+
+            private final int maxSize;
+
+            Segment(int maxSize) {
+                super(16, 0.75f, true);
+                this.maxSize = maxSize;
+            }
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > this.maxSize) {
+                    String id = eldest.getValue().identityType.getId();
+
+                    if (id != null) {
+                        keysById.remove(id, eldest.getKey());
+                    }
+
+                    evictionCount.incrementAndGet();
+
+                    return true;
+                }
+
+                return false;
+            }
+        }
+    }
+}
@@ -359,4 +359,12 @@ public class DefaultPartitionManager extends AbstractAttributedTypeManager<Parti
     public IdentityContext getIdentityContext() {
         return createIdentityContext(null, getConfiguration().getEventBridge(), getConfiguration().getIdGenerator());
     }
+
+    /**
+     * <p>Releases the resources held by the identity stores, such as pooled connections or background threads. This
+     * instance must not be used after it is closed.</p>
+     */
+    public void close() {
+        getConfiguration().getStoreSelector().close();
+    }
 }
\ No newline at end of file
@@ -48,6 +48,8 @@ import org.picketlink.idm.spi.PartitionStore;
 import org.picketlink.idm.spi.StoreSelector;
 import org.picketlink.idm.token.internal.TokenIdentityStore;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -57,6 +59,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
+import static org.picketlink.idm.IDMLog.ROOT_LOGGER;
 import static org.picketlink.idm.config.IdentityStoreConfiguration.IdentityOperation.create;
 import static org.picketlink.idm.config.IdentityStoreConfiguration.IdentityOperation.read;
 import static org.picketlink.idm.util.IDMUtil.isTypeSupported;
@@ -452,6 +455,24 @@ public class DefaultStoreSelector implements StoreSelector {
         }
     }
 
+    /**
+     * <p>Releases the resources held by all the identity stores that implement {@link Closeable}, such as connections or
+     * background threads.</p>
+     */
+    void close() {
+        for (Map<IdentityStoreConfiguration, IdentityStore<?>> configStores : this.stores.values()) {
+            for (IdentityStore<?> store : configStores.values()) {
+                if (Closeable.class.isInstance(store)) {
+                    try {
+                        ((Closeable) store).close();
+                    } catch (IOException e) {
+                        ROOT_LOGGER.debugf(e, "Could not close identity store [%s].", store);
+                    }
+                }
+            }
+        }
+    }
+
     public <T extends IdentityStore<?>> T lookupStore(IdentityContext context, IdentityConfiguration configuration,
                                                       Class<? extends AttributedType> type, IdentityOperation operation) {
         for (IdentityStoreConfiguration storeConfig : configuration.getStoreConfiguration()) {
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.internal;
+
+import org.picketlink.idm.IdentityCache;
+import org.picketlink.idm.VersionedIdentityCache;
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.IdentityTypeCreatedEvent;
+import org.picketlink.idm.event.IdentityTypeDeletedEvent;
+import org.picketlink.idm.event.IdentityTypeUpdatedEvent;
+import org.picketlink.idm.event.IdentityTypesCreatedEvent;
+import org.picketlink.idm.event.PartitionDeletedEvent;
+import org.picketlink.idm.event.PartitionUpdatedEvent;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+
+/**
+ * <p>{@link EventBridge} that invalidates the entries of a {@link IdentityCache} whenever an identity type or partition
+ * is changed, before delegating the event to the application provided {@link EventBridge}.</p>
+ *
+ * @author agent
+ */
+class IdentityCacheEventBridge implements EventBridge {
+
+    private final IdentityCache identityCache;
+    private final EventBridge delegate;
+
+    IdentityCacheEventBridge(IdentityCache identityCache, EventBridge delegate) {
+        this.identityCache = identityCache;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void raiseEvent(Object event) {
+        if (IdentityTypeCreatedEvent.class.isInstance(event)) {
+            invalidate(((IdentityTypeCreatedEvent) event).getIdentityType());
+        } else if (IdentityTypesCreatedEvent.class.isInstance(event)) {
+            for (IdentityType identityType : ((IdentityTypesCreatedEvent) event).getIdentityTypes()) {
+                invalidate(identityType);
+            }
+        } else if (IdentityTypeUpdatedEvent.class.isInstance(event)) {
+            invalidate(((IdentityTypeUpdatedEvent) event).getIdentityType());
+        } else if (IdentityTypeDeletedEvent.class.isInstance(event)) {
+            invalidate(((IdentityTypeDeletedEvent) event).getIdentityType());
+        } else if (PartitionUpdatedEvent.class.isInstance(event)) {
+            invalidate(((PartitionUpdatedEvent) event).getPartition());
+        } else if (PartitionDeletedEvent.class.isInstance(event)) {
+            invalidate(((PartitionDeletedEvent) event).getPartition());
+        }
+
+        this.delegate.raiseEvent(event);
+    }
+
+    private void invalidate(IdentityType identityType) {
+        this.identityCache.invalidate(identityType.getPartition(), identityType);
+    }
+
+    private void invalidate(Partition partition) {
+        // other implementations only support invalidating single types
+        if (VersionedIdentityCache.class.isInstance(this.identityCache)) {
+            ((VersionedIdentityCache) this.identityCache).invalidate(partition);
+        }
+    }
+}
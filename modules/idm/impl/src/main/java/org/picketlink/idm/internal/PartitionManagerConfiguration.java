@@ -19,6 +19,7 @@ package org.picketlink.idm.internal;
 
 import org.picketlink.idm.DefaultIdGenerator;
 import org.picketlink.idm.IdGenerator;
+import org.picketlink.idm.IdentityCache;
 import org.picketlink.idm.config.IdentityConfiguration;
 import org.picketlink.idm.config.IdentityStoreConfiguration;
 import org.picketlink.idm.event.EventBridge;
@@ -26,11 +27,13 @@ import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.Relationship;
 import org.picketlink.idm.permission.acl.spi.PermissionHandler;
 import org.picketlink.idm.permission.acl.spi.PermissionHandlerPolicy;
+import org.picketlink.idm.query.internal.StoreQueryExecutor;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
 import static org.picketlink.idm.IDMLog.ROOT_LOGGER;
@@ -61,10 +64,27 @@ class PartitionManagerConfiguration {
     private final IdGenerator idGenerator;
     private final DefaultStoreSelector storeSelector;
 
+    /**
+     * The cache used to resolve users, agents, roles and groups by their unique names. It is possible for this value to be
+     * null, in which case lookups always hit the identity stores.
+     */
+    private final IdentityCache identityCache;
+
+    /**
+     * Executes the queries spanning multiple identity stores.
+     */
+    private final StoreQueryExecutor storeQueryExecutor;
+
+    /**
+     * The cache of successful username and password validations. It is possible for this value to be null, in which case
+     * credentials are always validated by the identity stores.
+     */
+    private final VerifiedCredentialCache verifiedCredentialCache;
+
     /**
      * Used for querying chained privileges
      */
-    private PrivilegeChainQuery privilegeChainQuery = new PrivilegeChainQuery();
+    private final PrivilegeChainQuery privilegeChainQuery;
 
     /**
      * Permission handler policy
@@ -105,6 +125,38 @@ class PartitionManagerConfiguration {
 
         this.permissionHandlerPolicy = new PermissionHandlerPolicy(null);
 
+        IdentityCache identityCache = null;
+        Executor queryExecutor = null;
+        VerifiedCredentialCache verifiedCredentialCache = null;
+        PrivilegeChainQuery privilegeChainQuery = null;
+
+        // these options are shared by all configurations, the first configuration providing them wins
+        for (IdentityConfiguration config : configurations) {
+            if (identityCache == null) {
+                identityCache = config.getIdentityCache();
+            }
+
+            if (queryExecutor == null) {
+                queryExecutor = config.getQueryExecutor();
+            }
+
+            if (verifiedCredentialCache == null && config.getCredentialCacheMaxEntries() > 0) {
+                verifiedCredentialCache = new VerifiedCredentialCache(config.getCredentialCacheMaxEntries(),
+                    config.getCredentialCacheLifespan());
+            }
+
+            if (privilegeChainQuery == null && config.getPrivilegeGraphLifespan() > 0) {
+                privilegeChainQuery = new PrivilegeChainQuery(config.getPrivilegeGraphLifespan(),
+                    config.getPrivilegeGraphMaxEntries());
+            }
+        }
+
+        if (privilegeChainQuery == null) {
+            privilegeChainQuery = new PrivilegeChainQuery();
+        }
+
+        this.privilegeChainQuery = privilegeChainQuery;
+
         if (permissionHandlers != null) {
             for (PermissionHandler handler : permissionHandlers) {
                 this.permissionHandlerPolicy.registerHandler(handler);
@@ -123,9 +175,28 @@ class PartitionManagerConfiguration {
         }
 
         if (eventBridge == null) {
-            this.eventBridge = new EventBridge() {
+            eventBridge = new EventBridge() {
                 public void raiseEvent(Object event) { /* no-op */}
             };
+        }
+
+        if (this.privilegeChainQuery.isGraphEnabled()) {
+            // the privilege graph must be updated before the event reaches any application observer
+            eventBridge = new PrivilegeChainEventBridge(this.privilegeChainQuery, eventBridge);
+        }
+
+        this.verifiedCredentialCache = verifiedCredentialCache;
+
+        if (this.verifiedCredentialCache != null) {
+            // validations must be invalidated before the event reaches any application observer
+            eventBridge = new VerifiedCredentialCacheEventBridge(this.verifiedCredentialCache, eventBridge);
+        }
+
+        this.identityCache = identityCache;
+
+        if (this.identityCache != null) {
+            // cached entries must be invalidated before the event reaches any application observer
+            this.eventBridge = new IdentityCacheEventBridge(this.identityCache, eventBridge);
         } else {
             this.eventBridge = eventBridge;
         }
@@ -136,6 +207,8 @@ class PartitionManagerConfiguration {
             this.idGenerator = idGenerator;
         }
 
+        this.storeQueryExecutor = new StoreQueryExecutor(queryExecutor);
+
         logConfiguration(this.configurations);
 
         this.storeSelector = new DefaultStoreSelector(this);
@@ -214,6 +287,18 @@ class PartitionManagerConfiguration {
         return this.eventBridge;
     }
 
+    public IdentityCache getIdentityCache() {
+        return this.identityCache;
+    }
+
+    public VerifiedCredentialCache getVerifiedCredentialCache() {
+        return this.verifiedCredentialCache;
+    }
+
+    public StoreQueryExecutor getStoreQueryExecutor() {
+        return this.storeQueryExecutor;
+    }
+
     public IdGenerator getIdGenerator() {
         return this.idGenerator;
     }
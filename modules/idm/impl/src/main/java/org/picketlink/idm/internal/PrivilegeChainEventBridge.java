@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.internal;
+
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.IdentityTypeDeletedEvent;
+import org.picketlink.idm.event.IdentityTypeUpdatedEvent;
+import org.picketlink.idm.event.PartitionDeletedEvent;
+import org.picketlink.idm.event.RelationshipCreatedEvent;
+import org.picketlink.idm.event.RelationshipDeletedEvent;
+import org.picketlink.idm.event.RelationshipUpdatedEvent;
+
+/**
+ * <p>{@link EventBridge} that keeps the privilege graph of a {@link PrivilegeChainQuery} in sync with the relationships
+ * and identity types, before delegating the event to the application provided {@link EventBridge}.</p>
+ *
+ * @author agent
+ */
+class PrivilegeChainEventBridge implements EventBridge {
+
+    private final PrivilegeChainQuery privilegeChainQuery;
+    private final EventBridge delegate;
+
+    PrivilegeChainEventBridge(PrivilegeChainQuery privilegeChainQuery, EventBridge delegate) {
+        this.privilegeChainQuery = privilegeChainQuery;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void raiseEvent(Object event) {
+        if (RelationshipCreatedEvent.class.isInstance(event)) {
+            this.privilegeChainQuery.onRelationshipChanged(((RelationshipCreatedEvent) event).getRelationship(), true);
+        } else if (RelationshipUpdatedEvent.class.isInstance(event)) {
+            // the previous participants of the relationship are unknown
+            this.privilegeChainQuery.invalidateAll();
+        } else if (RelationshipDeletedEvent.class.isInstance(event)) {
+            this.privilegeChainQuery.onRelationshipChanged(((RelationshipDeletedEvent) event).getRelationship(), false);
+        } else if (IdentityTypeUpdatedEvent.class.isInstance(event)) {
+            this.privilegeChainQuery.onIdentityTypeChanged(((IdentityTypeUpdatedEvent) event).getIdentityType());
+        } else if (IdentityTypeDeletedEvent.class.isInstance(event)) {
+            this.privilegeChainQuery.onIdentityTypeChanged(((IdentityTypeDeletedEvent) event).getIdentityType());
+        } else if (PartitionDeletedEvent.class.isInstance(event)) {
+            this.privilegeChainQuery.invalidateAll();
+        }
+
+        this.delegate.raiseEvent(event);
+    }
+}
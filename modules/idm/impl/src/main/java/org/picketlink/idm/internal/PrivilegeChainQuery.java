@@ -12,10 +12,18 @@ import org.picketlink.idm.model.Relationship;
 import org.picketlink.idm.model.annotation.InheritsPrivileges;
 import org.picketlink.idm.query.RelationshipQuery;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
 
@@ -33,6 +41,115 @@ public class PrivilegeChainQuery {
     private final Map<Class<? extends Relationship>,Map<Property<IdentityType>,Property<IdentityType>>> privilegeChains =
             new HashMap<Class<? extends Relationship>, Map<Property<IdentityType>,Property<IdentityType>>>();
 
+    /**
+     * The default time in milliseconds the privilege graph entries are considered valid, when the graph is enabled.
+     * Changes performed through the partition manager are applied immediately, this only bounds how long changes
+     * performed elsewhere are not seen.
+     */
+    public static final long DEFAULT_LIFESPAN = 60 * 1000;
+
+    /**
+     * The default maximum number of identities for which privilege edges or inherited privileges are kept in memory.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final long lifespan;
+    private final int maxEntries;
+
+    /**
+     * The identities from which a given identity directly inherits privileges, keyed by their identifiers.
+     */
+    private final GraphCache<Map<String, IdentityType>> privilegeEdges = new GraphCache<Map<String, IdentityType>>();
+
+    /**
+     * The transitive closure of the privilege edges of a given identity.
+     */
+    private final GraphCache<Set<String>> inheritedPrivileges = new GraphCache<Set<String>>() {
+        @Override
+        void onRemoved(GraphEntry<Set<String>> entry) {
+            for (String inheritedFrom : entry.value) {
+                Set<String> dependents = dependentClosures.get(inheritedFrom);
+
+                if (dependents != null) {
+                    dependents.remove(entry.identifier);
+
+                    if (dependents.isEmpty()) {
+                        dependentClosures.remove(inheritedFrom);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * The identifiers of the identities whose memoized inherited privileges include a given identity. Used to find the
+     * entries affected by a change without going through the whole graph.
+     */
+    private final Map<String, Set<String>> dependentClosures = new HashMap<String, Set<String>>();
+
+    /**
+     * Guards all changes to the privilege graph. Lookups do not need to acquire it.
+     */
+    private final Object graphLock = new Object();
+
+    /**
+     * Incremented whenever the graph changes, so results computed concurrently with a change are not memoized.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    private final ConcurrentMap<Class<?>, List<Property<IdentityType>>> participantProperties =
+            new ConcurrentHashMap<Class<?>, List<Property<IdentityType>>>();
+    private final ConcurrentMap<Class<?>, List<Property<IdentityType>>> parentProperties =
+            new ConcurrentHashMap<Class<?>, List<Property<IdentityType>>>();
+
+    /**
+     * <p>Creates an instance without a privilege graph. Privileges are always resolved from the stores.</p>
+     */
+    public PrivilegeChainQuery() {
+        this(0, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param lifespan The time in milliseconds the privilege graph entries are considered valid. Values lower or equal
+     * than zero disable the privilege graph and privileges are always resolved from the stores.
+     */
+    public PrivilegeChainQuery(long lifespan) {
+        this(lifespan, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param lifespan The time in milliseconds the privilege graph entries are considered valid. Values lower or equal
+     * than zero disable the privilege graph and privileges are always resolved from the stores.
+     * @param maxEntries The maximum number of identities for which privilege edges or inherited privileges are kept in
+     * memory. Once reached, the oldest entries are evicted.
+     */
+    public PrivilegeChainQuery(long lifespan, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be greater than zero.");
+        }
+
+        this.lifespan = lifespan;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * <p>Indicates if privilege inheritance is resolved from a memoized privilege graph.</p>
+     *
+     * @return
+     */
+    public boolean isGraphEnabled() {
+        return this.lifespan > 0;
+    }
+
+    /**
+     * <p>Returns the number of identities for which inherited privileges are memoized.</p>
+     *
+     * @return
+     */
+    public int getGraphSize() {
+        return this.inheritedPrivileges.entries.size();
+    }
+
     public void registerRelationshipType(Class<? extends Relationship> relationshipType) {
         if (!privilegeChains.containsKey(relationshipType)) {
             List<Property<IdentityType>> properties = PropertyQueries.<IdentityType>createQuery(relationshipType)
@@ -68,6 +185,16 @@ public class PrivilegeChainQuery {
     /**
      * <p>Checks if the given <code>identity</code> inherits the privileges assigned to the given <code>assignee</code>.</p>
      *
+     * <p>Privilege inheritance is resolved from a graph where each identity points to the identities it inherits privileges
+     * from. If the privilege graph is enabled, the edges of a given identity are loaded from the stores only once, the
+     * first time they are needed, and the transitive closure of each identity is memoized. Both are kept in sync with the
+     * relationships and identity types managed by the partition manager. See
+     * {@link #onRelationshipChanged(org.picketlink.idm.model.Relationship, boolean)} and
+     * {@link #onIdentityTypeChanged(org.picketlink.idm.model.IdentityType)}.</p>
+     *
+     * <p>Otherwise, the graph is searched depth-first from the given <code>identity</code> and the search stops as soon as
+     * the <code>assignee</code> is found, so only the edges needed to answer the check are loaded from the stores.</p>
+     *
      * @param relationshipManager
      * @param identity
      * @param assignee
@@ -83,55 +210,388 @@ public class PrivilegeChainQuery {
             throw MESSAGES.nullArgument("assignee");
         }
 
+        if (identity.getId() == null || assignee.getId() == null) {
+            return false;
+        }
+
+        if (!isGraphEnabled()) {
+            return searchPrivileges(relationshipManager, identity, assignee.getId());
+        }
+
+        return getInheritedPrivileges(relationshipManager, identity).contains(assignee.getId());
+    }
+
+    /**
+     * <p>Updates the privilege graph when a relationship is created, updated or removed.</p>
+     *
+     * @param relationship The relationship that changed.
+     * @param created True if the relationship was created. Otherwise, it was updated or removed.
+     */
+    public void onRelationshipChanged(Relationship relationship, boolean created) {
+        Map<Property<IdentityType>, Property<IdentityType>> propertyPropertyMap = this.privilegeChains.get(relationship.getClass());
+
+        if (propertyPropertyMap == null || propertyPropertyMap.isEmpty()) {
+            return;
+        }
+
+        List<IdentityType> participants = getParticipants(relationship);
+
+        for (IdentityType participant : participants) {
+            if (participant == null || participant.getId() == null) {
+                // we can not tell which identities are affected by this change
+                invalidateAll();
+                return;
+            }
+        }
+
+        synchronized (this.graphLock) {
+            this.version.incrementAndGet();
+
+            for (IdentityType participant : participants) {
+                if (created) {
+                    // new edges are added to the ones already loaded for the participants
+                    GraphEntry<Map<String, IdentityType>> edges = this.privilegeEdges.entries.get(participant.getId());
+
+                    if (edges != null) {
+                        edges.value.putAll(getPrivilegeEdges(participant, relationship));
+                    }
+                } else {
+                    // other relationships may define the same edges, the participant must be reloaded
+                    this.privilegeEdges.remove(participant.getId());
+                }
+
+                invalidateInheritedPrivileges(participant.getId());
+            }
+        }
+    }
+
+    /**
+     * <p>Updates the privilege graph when an identity type is updated or removed. Eg.: the parent of a group changes.</p>
+     *
+     * @param identityType The identity type that changed.
+     */
+    public void onIdentityTypeChanged(IdentityType identityType) {
+        if (identityType.getId() == null) {
+            invalidateAll();
+            return;
+        }
+
+        synchronized (this.graphLock) {
+            this.version.incrementAndGet();
+            this.privilegeEdges.remove(identityType.getId());
+            invalidateInheritedPrivileges(identityType.getId());
+        }
+    }
+
+    /**
+     * <p>Discards the whole privilege graph. Eg.: when a partition is removed.</p>
+     */
+    public void invalidateAll() {
+        synchronized (this.graphLock) {
+            this.version.incrementAndGet();
+            this.privilegeEdges.clear();
+            this.inheritedPrivileges.clear();
+            this.dependentClosures.clear();
+        }
+    }
+
+    private boolean searchPrivileges(RelationshipManager relationshipManager, IdentityType identity, String assigneeId) {
+        long now = System.currentTimeMillis();
+        LinkedList<IdentityType> pending = new LinkedList<IdentityType>();
+        Set<String> visited = new HashSet<String>();
+
+        pending.add(identity);
+        visited.add(identity.getId());
+
+        while (!pending.isEmpty()) {
+            IdentityType current = pending.removeFirst();
+            Map<String, IdentityType> edges = getPrivilegeEdges(relationshipManager, current, now).value;
+
+            if (edges.containsKey(assigneeId)) {
+                return true;
+            }
+
+            for (IdentityType inheritedFrom : edges.values()) {
+                if (visited.add(inheritedFrom.getId())) {
+                    pending.addFirst(inheritedFrom);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>Returns the transitive closure of the given <code>identity</code>, which is memoized. Only used when the
+     * privilege graph is enabled.</p>
+     */
+    private Set<String> getInheritedPrivileges(RelationshipManager relationshipManager, IdentityType identity) {
+        long now = System.currentTimeMillis();
+        GraphEntry<Set<String>> entry = this.inheritedPrivileges.get(identity.getId(), now);
+
+        if (entry != null) {
+            return entry.value;
+        }
+
+        long currentVersion = this.version.get();
+        long expiration = now + this.lifespan;
+
+        Set<String> inherited = new HashSet<String>();
+
+        LinkedList<IdentityType> pending = new LinkedList<IdentityType>();
+        Set<String> visited = new HashSet<String>();
+
+        pending.add(identity);
+        visited.add(identity.getId());
+
+        while (!pending.isEmpty()) {
+            IdentityType current = pending.removeFirst();
+
+            GraphEntry<Map<String, IdentityType>> edges = getPrivilegeEdges(relationshipManager, current, now);
+
+            // the closure is only valid while all the edges used to build it are valid
+            expiration = Math.min(expiration, edges.expiration);
+
+            for (IdentityType inheritedFrom : edges.value.values()) {
+                inherited.add(inheritedFrom.getId());
+
+                if (visited.add(inheritedFrom.getId())) {
+                    pending.add(inheritedFrom);
+                }
+            }
+        }
+
+        inherited = Collections.unmodifiableSet(inherited);
+
+        synchronized (this.graphLock) {
+            if (this.version.get() == currentVersion) {
+                this.inheritedPrivileges.put(new GraphEntry<Set<String>>(identity.getId(), inherited, expiration), now);
+
+                for (String inheritedFrom : inherited) {
+                    Set<String> dependents = this.dependentClosures.get(inheritedFrom);
+
+                    if (dependents == null) {
+                        dependents = new HashSet<String>();
+                        this.dependentClosures.put(inheritedFrom, dependents);
+                    }
+
+                    dependents.add(identity.getId());
+                }
+            }
+        }
+
+        return inherited;
+    }
+
+    /**
+     * <p>Returns the identities from which the given <code>identity</code> directly inherits privileges, keyed by their
+     * identifiers.</p>
+     */
+    private GraphEntry<Map<String, IdentityType>> getPrivilegeEdges(RelationshipManager relationshipManager, IdentityType identity, long now) {
+        if (isGraphEnabled()) {
+            GraphEntry<Map<String, IdentityType>> entry = this.privilegeEdges.get(identity.getId(), now);
+
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        long currentVersion = this.version.get();
+        Map<String, IdentityType> edges = new ConcurrentHashMap<String, IdentityType>();
+
         // Find all of the relationships that the identity participates in, that have one or
         // more declared privilege assignments
         RelationshipQuery query = relationshipManager.createRelationshipQuery(Relationship.class);
 
         query.setParameter(Relationship.IDENTITY, identity);
 
-        boolean hasPrivileges = false;
-
         for (Relationship relationship : new ArrayList<Relationship>(query.getResultList())) {
-            Map<Property<IdentityType>, Property<IdentityType>> propertyPropertyMap = this.privilegeChains.get(relationship.getClass());
-
-            if (propertyPropertyMap != null) {
-                for (Property<IdentityType> identityProperty : propertyPropertyMap.keySet()) {
-                    Property<IdentityType> assigneeProperty = propertyPropertyMap.get(identityProperty);
-
-                    // only do the check if the relationship is the same type of the declaring class of the assignee property
-                    if (assigneeProperty.getDeclaringClass().equals(relationship.getClass())) {
-                        IdentityType relationshipAssignee = assigneeProperty.getValue(relationship);
-
-                        // if the relationship assignee is the same as the given target assignee, we have a match.
-                        if (relationshipAssignee.equals(assignee)) {
-                            hasPrivileges = true;
-                        } else if (!identity.equals(relationshipAssignee)) {
-                            // we continue the inheritance lookup if the identity is not the same as the relationship assignee
-                            hasPrivileges = inheritsPrivileges(relationshipManager, relationshipAssignee, assignee);
-                        }
-
-                        if (hasPrivileges) {
-                            return true;
-                        }
+            edges.putAll(getPrivilegeEdges(identity, relationship));
+        }
+
+        // let's check if there is a parent-child relationship for the identity, so we can check inheritance from parent
+        Property<IdentityType> parentProperty = getParentProperty(identity.getClass());
+
+        if (parentProperty != null) {
+            IdentityType parentIdentity = parentProperty.getValue(identity);
+
+            if (parentIdentity != null && parentIdentity.getId() != null) {
+                edges.put(parentIdentity.getId(), parentIdentity);
+            }
+        }
+
+        GraphEntry<Map<String, IdentityType>> entry = new GraphEntry<Map<String, IdentityType>>(identity.getId(), edges,
+            now + this.lifespan);
+
+        if (isGraphEnabled()) {
+            synchronized (this.graphLock) {
+                if (this.version.get() == currentVersion) {
+                    this.privilegeEdges.put(entry, now);
+                }
+            }
+        }
+
+        return entry;
+    }
+
+    private Map<String, IdentityType> getPrivilegeEdges(IdentityType identity, Relationship relationship) {
+        Map<String, IdentityType> edges = new HashMap<String, IdentityType>();
+        Map<Property<IdentityType>, Property<IdentityType>> propertyPropertyMap = this.privilegeChains.get(relationship.getClass());
+
+        if (propertyPropertyMap != null) {
+            for (Property<IdentityType> assigneeProperty : propertyPropertyMap.values()) {
+                // only do the check if the relationship is the same type of the declaring class of the assignee property
+                if (assigneeProperty.getDeclaringClass().equals(relationship.getClass())) {
+                    IdentityType relationshipAssignee = assigneeProperty.getValue(relationship);
+
+                    // the identity inherits from the relationship assignee, unless it is the assignee itself
+                    if (relationshipAssignee != null && relationshipAssignee.getId() != null
+                        && !relationshipAssignee.getId().equals(identity.getId())) {
+                        edges.put(relationshipAssignee.getId(), relationshipAssignee);
                     }
                 }
             }
         }
 
-        // otherwise, let's check if there is a parent-child relationship for the identity, so we can check inheritance from parent
-        Property<IdentityType> parentProperty = PropertyQueries
-            .<IdentityType>createQuery(identity.getClass())
-                .addCriteria(new TypedPropertyCriteria(identity.getClass(), TypedPropertyCriteria.MatchOption.SUB_TYPE))
-                .getFirstResult();
+        return edges;
+    }
 
-        if (parentProperty != null) {
-            IdentityType parentIdentity = parentProperty.getValue(identity);
+    /**
+     * <p>Removes the inherited privileges of the given identity and of all identities inheriting privileges from it. Must
+     * be called while holding the graph lock.</p>
+     */
+    private void invalidateInheritedPrivileges(String identifier) {
+        this.inheritedPrivileges.remove(identifier);
+
+        Set<String> dependents = this.dependentClosures.remove(identifier);
 
-            if (parentIdentity != null) {
-                return inheritsPrivileges(relationshipManager, parentIdentity, assignee);
+        if (dependents != null) {
+            for (String dependent : dependents) {
+                this.inheritedPrivileges.remove(dependent);
             }
         }
+    }
 
-        return false;
+    private List<IdentityType> getParticipants(Relationship relationship) {
+        List<Property<IdentityType>> properties = this.participantProperties.get(relationship.getClass());
+
+        if (properties == null) {
+            properties = PropertyQueries.<IdentityType>createQuery(relationship.getClass())
+                .addCriteria(new TypedPropertyCriteria(IdentityType.class, TypedPropertyCriteria.MatchOption.ALL))
+                .getResultList();
+
+            this.participantProperties.put(relationship.getClass(), properties);
+        }
+
+        List<IdentityType> participants = new ArrayList<IdentityType>();
+
+        for (Property<IdentityType> property : properties) {
+            participants.add(property.getValue(relationship));
+        }
+
+        return participants;
+    }
+
+    private Property<IdentityType> getParentProperty(Class<? extends IdentityType> identityClass) {
+        List<Property<IdentityType>> parentProperty = this.parentProperties.get(identityClass);
+
+        if (parentProperty == null) {
+            // an empty list means that the type does not define a parent property
+            parentProperty = PropertyQueries
+                .<IdentityType>createQuery(identityClass)
+                    .addCriteria(new TypedPropertyCriteria(identityClass, TypedPropertyCriteria.MatchOption.SUB_TYPE))
+                    .getResultList();
+
+            if (parentProperty.size() > 1) {
+                parentProperty = parentProperty.subList(0, 1);
+            }
+
+            this.parentProperties.put(identityClass, parentProperty);
+        }
+
+        if (parentProperty.isEmpty()) {
+            return null;
+        }
+
+        return parentProperty.get(0);
+    }
+
+    private static class GraphEntry<V> {
+
+        private final String identifier;
+        private final V value;
+        private final long expiration;
+
+        GraphEntry(String identifier, V value, long expiration) {
+            this.identifier = identifier;
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+        boolean isExpired(long now) {
+            return now >= this.expiration;
+        }
+    }
+
+    /**
+     * <p>Bounded map of graph entries. Entries are evicted in the order they were added, which is also the order they
+     * expire, a few at a time whenever a new entry is added. Lookups are lock free, changes must be made while holding the
+     * graph lock.</p>
+     */
+    private class GraphCache<V> {
+
+        private final ConcurrentMap<String, GraphEntry<V>> entries = new ConcurrentHashMap<String, GraphEntry<V>>();
+
+        /**
+         * May also hold entries already replaced or removed, which are skipped when polled.
+         */
+        private final ArrayDeque<GraphEntry<V>> insertionOrder = new ArrayDeque<GraphEntry<V>>();
+
+        GraphEntry<V> get(String identifier, long now) {
+            GraphEntry<V> entry = this.entries.get(identifier);
+
+            if (entry == null || entry.isExpired(now)) {
+                return null;
+            }
+
+            return entry;
+        }
+
+        void put(GraphEntry<V> entry, long now) {
+            GraphEntry<V> previous = this.entries.put(entry.identifier, entry);
+
+            if (previous != null) {
+                onRemoved(previous);
+            }
+
+            this.insertionOrder.addLast(entry);
+
+            GraphEntry<V> oldest;
+
+            while ((oldest = this.insertionOrder.peekFirst()) != null && (oldest.isExpired(now)
+                || this.entries.size() > maxEntries || this.insertionOrder.size() > maxEntries * 2)) {
+                this.insertionOrder.removeFirst();
+
+                if (this.entries.remove(oldest.identifier, oldest)) {
+                    onRemoved(oldest);
+                }
+            }
+        }
+
+        void remove(String identifier) {
+            GraphEntry<V> entry = this.entries.remove(identifier);
+
+            if (entry != null) {
+                onRemoved(entry);
+            }
+        }
+
+        void clear() {
+            this.entries.clear();
+            this.insertionOrder.clear();
+        }
+
+        void onRemoved(GraphEntry<V> entry) {
+        }
     }
 }
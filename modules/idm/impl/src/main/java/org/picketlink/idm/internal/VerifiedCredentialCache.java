@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.internal;
+
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.Partition;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.picketlink.idm.util.IDMUtil.copy;
+
+/**
+ * <p>Short-lived cache of successful username and password validations, so that clients sending their credentials on
+ * every request, like stateless REST clients using HTTP BASIC authentication, do not pay the cost of looking up the
+ * account and verifying the password on each one of them.</p>
+ *
+ * <p>Entries are keyed by a HMAC of the partition, username and password, computed with a random key generated when
+ * the cache is created. Neither the password nor a plain hash of it is kept in memory, and entries can not be
+ * correlated with the stored credentials.</p>
+ *
+ * <p>Entries expire after a given lifespan, in milliseconds, and are invalidated whenever the credentials of the account
+ * are updated or removed, or the account itself is updated or removed, through the partition manager using the cache.
+ * Credentials expiring while cached are still considered valid until the entry expires, hence the lifespan should be
+ * kept short. When the maximum number of entries is reached, new validations are not cached until some entries
+ * expire.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author agent
+ */
+public class VerifiedCredentialCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_LIFESPAN = 60 * 1000;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final SecretKeySpec key;
+    private final int maxEntries;
+    private final long lifespan;
+
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public VerifiedCredentialCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_LIFESPAN);
+    }
+
+    /**
+     * @param maxEntries The maximum number of entries.
+     * @param lifespan The time in milliseconds a successful validation is cached.
+     */
+    public VerifiedCredentialCache(int maxEntries, long lifespan) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be greater than zero.");
+        }
+
+        if (lifespan <= 0) {
+            throw new IllegalArgumentException("Lifespan must be greater than zero.");
+        }
+
+        byte[] secret = new byte[32];
+
+        new SecureRandom().nextBytes(secret);
+
+        this.key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.maxEntries = maxEntries;
+        this.lifespan = lifespan;
+    }
+
+    /**
+     * <p>Returns a copy of the account previously validated using the given credentials, or null if there is no valid
+     * entry.</p>
+     *
+     * @param partition
+     * @param username
+     * @param password
+     * @return
+     */
+    public Account lookup(Partition partition, String username, char[] password) {
+        String cacheKey = createKey(partition, username, password);
+        Entry entry = this.entries.get(cacheKey);
+
+        if (entry != null) {
+            if (entry.expiration > System.currentTimeMillis()) {
+                this.hitCount.incrementAndGet();
+                return copy(entry.account);
+            }
+
+            this.entries.remove(cacheKey, entry);
+        }
+
+        this.missCount.incrementAndGet();
+
+        return null;
+    }
+
+    /**
+     * <p>Returns the current version of the cache, which changes whenever entries are invalidated. It must be obtained
+     * before validating the credentials to be cached.</p>
+     *
+     * @return
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * <p>Caches a successful validation of the given credentials. The validation is not cached if entries were
+     * invalidated since it started, given that the credentials or the account may have changed meanwhile.</p>
+     *
+     * @param partition
+     * @param username
+     * @param password
+     * @param account The validated account.
+     * @param version The version of the cache before the validation started.
+     */
+    public void put(Partition partition, String username, char[] password, Account account, long version) {
+        if (account == null || account.getId() == null || version != this.version.get()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (this.entries.size() >= this.maxEntries) {
+            removeExpired(now);
+
+            if (this.entries.size() >= this.maxEntries) {
+                return;
+            }
+        }
+
+        String cacheKey = createKey(partition, username, password);
+
+        this.entries.put(cacheKey, new Entry(copy(account), now + this.lifespan));
+
+        if (version != this.version.get()) {
+            // invalidated while being added
+            this.entries.remove(cacheKey);
+        }
+    }
+
+    /**
+     * <p>Invalidates all validations of the given account.</p>
+     *
+     * @param account
+     */
+    public void invalidate(Account account) {
+        if (account == null || account.getId() == null) {
+            return;
+        }
+
+        this.version.incrementAndGet();
+
+        Iterator<Entry> iterator = this.entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (account.getId().equals(iterator.next().account.getId())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * <p>Invalidates all validations.</p>
+     */
+    public void invalidateAll() {
+        this.version.incrementAndGet();
+        this.entries.clear();
+    }
+
+    public int getSize() {
+        return this.entries.size();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    private void removeExpired(long now) {
+        Iterator<Entry> iterator = this.entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().expiration <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private String createKey(Partition partition, String username, char[] password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+
+            mac.init(this.key);
+
+            update(mac, partition.getId().getBytes(UTF_8));
+            update(mac, username.getBytes(UTF_8));
+
+            byte[] passwordBytes = toBytes(password);
+
+            try {
+                update(mac, passwordBytes);
+            } finally {
+                Arrays.fill(passwordBytes, (byte) 0);
+            }
+
+            return new BigInteger(1, mac.doFinal()).toString(16);
+        } catch (Exception e) {
+            throw new IdentityManagementException("Could not create verified credential cache key.", e);
+        }
+    }
+
+    private void update(Mac mac, byte[] value) {
+        // each value is prefixed with its length, so that different values can not produce the same input
+        mac.update(new byte[] {(byte) (value.length >>> 24), (byte) (value.length >>> 16), (byte) (value.length >>> 8),
+            (byte) value.length});
+        mac.update(value);
+    }
+
+    private byte[] toBytes(char[] value) {
+        ByteBuffer buffer = UTF_8.encode(CharBuffer.wrap(value));
+        byte[] bytes = new byte[buffer.remaining()];
+
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    private static class Entry {
+
+        private final Account account;
+        private final long expiration;
+
+        Entry(Account account, long expiration) {
+            this.account = account;
+            this.expiration = expiration;
+        }
+    }
+}
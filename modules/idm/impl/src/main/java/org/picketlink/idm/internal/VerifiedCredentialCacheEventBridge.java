@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.internal;
+
+import org.picketlink.idm.event.CredentialRemovedEvent;
+import org.picketlink.idm.event.CredentialUpdatedEvent;
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.IdentityTypeDeletedEvent;
+import org.picketlink.idm.event.IdentityTypeUpdatedEvent;
+import org.picketlink.idm.event.PartitionDeletedEvent;
+import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.IdentityType;
+
+/**
+ * <p>{@link EventBridge} that invalidates the entries of a {@link VerifiedCredentialCache} whenever the credentials of an
+ * account are changed, or the account itself is changed, before delegating the event to the application provided
+ * {@link EventBridge}.</p>
+ *
+ * @author agent
+ */
+class VerifiedCredentialCacheEventBridge implements EventBridge {
+
+    private final VerifiedCredentialCache credentialCache;
+    private final EventBridge delegate;
+
+    VerifiedCredentialCacheEventBridge(VerifiedCredentialCache credentialCache, EventBridge delegate) {
+        this.credentialCache = credentialCache;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void raiseEvent(Object event) {
+        if (CredentialUpdatedEvent.class.isInstance(event)) {
+            this.credentialCache.invalidate(((CredentialUpdatedEvent) event).getAccount());
+        } else if (CredentialRemovedEvent.class.isInstance(event)) {
+            this.credentialCache.invalidate(((CredentialRemovedEvent) event).getAccount());
+        } else if (IdentityTypeUpdatedEvent.class.isInstance(event)) {
+            invalidate(((IdentityTypeUpdatedEvent) event).getIdentityType());
+        } else if (IdentityTypeDeletedEvent.class.isInstance(event)) {
+            invalidate(((IdentityTypeDeletedEvent) event).getIdentityType());
+        } else if (PartitionDeletedEvent.class.isInstance(event)) {
+            this.credentialCache.invalidateAll();
+        }
+
+        this.delegate.raiseEvent(event);
+    }
+
+    private void invalidate(IdentityType identityType) {
+        // accounts may be disabled, expired or have their login name changed
+        if (Account.class.isInstance(identityType)) {
+            this.credentialCache.invalidate((Account) identityType);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.picketlink.idm.jdbc.internal.mappers.JdbcMapper;
 import org.picketlink.idm.jdbc.internal.model.AbstractJdbcType;
 import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
 import org.picketlink.idm.jdbc.internal.model.RelationshipJdbcType;
+import org.picketlink.idm.jdbc.internal.model.db.AttributeStorageUtil;
 import org.picketlink.idm.model.Account;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
@@ -36,15 +37,16 @@ import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 import org.picketlink.idm.query.RelationshipQuery;
 import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BulkIdentityStore;
 import org.picketlink.idm.spi.CredentialStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.PartitionStore;
 
-import javax.sql.DataSource;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -52,21 +54,25 @@ import java.util.Set;
 import static org.picketlink.idm.IDMMessages.MESSAGES;
 
 /**
- * Implementation of {@link IdentityStore} using JDBC
+ * Implementation of {@link IdentityStore} using JDBC.
+ *
+ * <p>Each operation is executed as a single unit of work, sharing the same connection and transaction between all the
+ * statements it issues. See {@link UnitOfWorkDataSource}.</p>
+ *
  * @author Anil Saldhana
  * @since September 25, 2013
  */
 public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreConfiguration> implements
         CredentialStore<JDBCIdentityStoreConfiguration>, PartitionStore<JDBCIdentityStoreConfiguration>,
-        AttributeStore<JDBCIdentityStoreConfiguration> {
+        AttributeStore<JDBCIdentityStoreConfiguration>, BulkIdentityStore<JDBCIdentityStoreConfiguration> {
 
-    private DataSource dataSource = null;
+    private UnitOfWorkDataSource dataSource = null;
     private JdbcMapper mapper = new JdbcMapper();
 
     @Override
     public void setup(JDBCIdentityStoreConfiguration config) {
         super.setup(config);
-        this.dataSource = config.getDataSource();
+        this.dataSource = new UnitOfWorkDataSource(config.getDataSource());
         Map<String,Class<?>> customClassMapping = config.getCustomClassMapping();
         if(customClassMapping != null){
             Set<String> keyset = customClassMapping.keySet();
@@ -76,6 +82,58 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
         }
     }
 
+    @Override
+    public void add(IdentityContext context, AttributedType attributedType) {
+        this.dataSource.begin();
+        boolean success = false;
+        try {
+            super.add(context, attributedType);
+            success = true;
+        } finally {
+            this.dataSource.end(success);
+        }
+    }
+
+    @Override
+    public void addAll(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        // all types share the same connection, transaction and prepared statements
+        this.dataSource.begin();
+        boolean success = false;
+        try {
+            for (AttributedType attributedType : attributedTypes) {
+                super.add(context, attributedType);
+            }
+            success = true;
+        } finally {
+            this.dataSource.end(success);
+        }
+    }
+
+    @Override
+    public void update(IdentityContext context, AttributedType attributedType) {
+        this.dataSource.begin();
+        boolean success = false;
+        try {
+            super.update(context, attributedType);
+            success = true;
+        } finally {
+            this.dataSource.end(success);
+        }
+    }
+
+    @Override
+    public void remove(IdentityContext context, AttributedType attributedType) {
+        this.dataSource.begin();
+        boolean success = false;
+        try {
+            // relationships are removed in the same transaction
+            super.remove(context, attributedType);
+            success = true;
+        } finally {
+            this.dataSource.end(success);
+        }
+    }
+
     @Override
     protected void removeFromRelationships(IdentityContext context, IdentityType identityType) {
         AbstractJdbcType att = mapper.getInstance(identityType.getClass());
@@ -132,84 +190,113 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
 
     @Override
     public <V extends IdentityType> List<V> fetchQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
-        List<V> result = new ArrayList<V>();
-        AttributedType attributedType = null;
-
-        if (identityQuery.getParameter(IdentityType.ID) != null) {
-            Object[] parameter = identityQuery.getParameter(IdentityType.ID);
-
-            if (parameter.length > 0) {
-                Object id = parameter[0];
-                // ADD to result
+        this.dataSource.beginReadOnly();
+        boolean success = false;
+        try {
+            List<V> result = new ArrayList<V>();
+            AttributedType attributedType = null;
+
+            if (identityQuery.getParameter(IdentityType.ID) != null) {
+                Object[] parameter = identityQuery.getParameter(IdentityType.ID);
+
+                if (parameter.length > 0) {
+                    Object id = parameter[0];
+                    // ADD to result
+                    AbstractJdbcType ajt = mapper.getInstance(identityQuery.getIdentityType());
+                    ajt.setDataSource(dataSource);
+                    attributedType = ajt.load((String) id, identityQuery.getIdentityType());
+                    if (attributedType != null && (identityQuery.getLimit() == 0 || identityQuery.getOffset() == 0)) {
+                        result.add((V) attributedType);
+                    }
+                } else {
+                    throw new RuntimeException();
+                }
+            } else {
+                // filtering, sorting and pagination are done by the database
                 AbstractJdbcType ajt = mapper.getInstance(identityQuery.getIdentityType());
                 ajt.setDataSource(dataSource);
-                attributedType = ajt.load((String) id, identityQuery.getIdentityType());
-                if (attributedType != null) {
-                    result.add((V) attributedType);
+                List<? extends AttributedType> list = ajt.load(identityQuery, getConfig().isKeysetPagination(),
+                        getConfig().getPaginationDialect());
+                if (!list.isEmpty()) {
+                    result.addAll((Collection<? extends V>) list);
                 }
-            } else {
-                throw new RuntimeException();
-            }
-        } else {
-            AbstractJdbcType ajt = mapper.getInstance(identityQuery.getIdentityType());
-            ajt.setDataSource(dataSource);
-            List<? extends AttributedType> list = ajt.load(identityQuery.getParameters(), identityQuery.getIdentityType());
-            if (!list.isEmpty()) {
-                result.addAll((Collection<? extends V>) list);
             }
-        }
-        return result;
-    }
 
-    @Override
-    public <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
-        throw MESSAGES.notImplemented();
+            success = true;
+            return result;
+        } finally {
+            this.dataSource.end(success);
+        }
     }
 
     @Override
     public <V extends Relationship> List<V> fetchQueryResults(IdentityContext context, RelationshipQuery<V> query) {
-        RelationshipJdbcType relationshipJdbcType = new RelationshipJdbcType();
-        relationshipJdbcType.setDataSource(dataSource);
-
-        List<V> result = new ArrayList<V>();
-        List<? extends AttributedType> list = relationshipJdbcType.load(query.getParameters(), query.getRelationshipClass());
-        if (list.isEmpty() == false) {
-            result.addAll((Collection<? extends V>) list);
+        this.dataSource.beginReadOnly();
+        boolean success = false;
+        try {
+            RelationshipJdbcType relationshipJdbcType = new RelationshipJdbcType();
+            relationshipJdbcType.setDataSource(dataSource);
+
+            List<V> result = new ArrayList<V>();
+            List<? extends AttributedType> list = relationshipJdbcType.load(query.getParameters(), query.getRelationshipClass());
+            if (list.isEmpty() == false) {
+                result.addAll((Collection<? extends V>) list);
+            }
+            success = true;
+            return result;
+        } finally {
+            this.dataSource.end(success);
         }
-        return result;
-    }
-
-    @Override
-    public <V extends Relationship> int countQueryResults(IdentityContext context, RelationshipQuery<V> query) {
-        throw MESSAGES.notImplemented();
     }
 
     @Override
     public void setAttribute(IdentityContext context, AttributedType attributedType, Attribute<? extends Serializable> attribute) {
-        AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-        ajt.setId(attributedType.getId());
-        ajt.setDataSource(dataSource);
-        ajt.setType(attributedType);
-        ajt.setAttribute(attribute);
+        this.dataSource.begin();
+        boolean success = false;
+        try {
+            AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
+            ajt.setId(attributedType.getId());
+            ajt.setDataSource(dataSource);
+            ajt.setType(attributedType);
+            ajt.setAttribute(attribute);
+            success = true;
+        } finally {
+            this.dataSource.end(success);
+        }
     }
 
     @Override
     public <V extends Serializable> Attribute<V> getAttribute(IdentityContext context, AttributedType attributedType,
             String attributeName) {
-        AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-        ajt.setId(attributedType.getId());
-        ajt.setDataSource(dataSource);
-        ajt.setType(attributedType);
-        return ajt.getAttribute(attributeName);
+        this.dataSource.beginReadOnly();
+        boolean success = false;
+        try {
+            AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
+            ajt.setId(attributedType.getId());
+            ajt.setDataSource(dataSource);
+            ajt.setType(attributedType);
+            Attribute<V> result = ajt.getAttribute(attributeName);
+            success = true;
+            return result;
+        } finally {
+            this.dataSource.end(success);
+        }
     }
 
     @Override
     public void removeAttribute(IdentityContext context, AttributedType attributedType, String attributeName) {
-        AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-        ajt.setId(attributedType.getId());
-        ajt.setDataSource(dataSource);
-        ajt.setType(attributedType);
-        ajt.removeAttribute(attributeName);
+        this.dataSource.begin();
+        boolean success = false;
+        try {
+            AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
+            ajt.setId(attributedType.getId());
+            ajt.setDataSource(dataSource);
+            ajt.setType(attributedType);
+            ajt.removeAttribute(attributeName);
+            success = true;
+        } finally {
+            this.dataSource.end(success);
+        }
     }
 
     @Override
@@ -229,6 +316,45 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
         }
     }
 
+    @Override
+    public void loadAttributes(IdentityContext context, Collection<? extends AttributedType> attributedTypes) {
+        this.dataSource.beginReadOnly();
+        boolean success = false;
+        try {
+            // Identity types have their attributes loaded with them, only relationships need to be populated
+            Map<String, List<AttributedType>> relationships = new LinkedHashMap<String, List<AttributedType>>();
+
+            for (AttributedType attributedType : attributedTypes) {
+                if (mapper.getInstance(attributedType.getClass()) instanceof RelationshipJdbcType) {
+                    List<AttributedType> types = relationships.get(attributedType.getId());
+                    if (types == null) {
+                        types = new ArrayList<AttributedType>();
+                        relationships.put(attributedType.getId(), types);
+                    }
+                    types.add(attributedType);
+                } else {
+                    loadAttributes(context, attributedType);
+                }
+            }
+
+            if (!relationships.isEmpty()) {
+                AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
+                Map<String, List<Attribute>> attributes = attributeStorageUtil.getAttributes(dataSource, relationships.keySet());
+
+                for (Map.Entry<String, List<Attribute>> entry : attributes.entrySet()) {
+                    for (AttributedType attributedType : relationships.get(entry.getKey())) {
+                        for (Attribute attribute : entry.getValue()) {
+                            attributedType.setAttribute(attribute);
+                        }
+                    }
+                }
+            }
+            success = true;
+        } finally {
+            this.dataSource.end(success);
+        }
+    }
+
     @Override
     public String getConfigurationName(IdentityContext identityContext, Partition partition) {
         // TODO: get the config name
@@ -237,11 +363,19 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
 
     @Override
     public <P extends Partition> P get(IdentityContext identityContext, Class<P> partitionClass, String name) {
-        PartitionJdbcType pjt = new PartitionJdbcType(name);
-        pjt.setDataSource(dataSource);
-        Map<QueryParameter, Object[]> map = new HashMap<QueryParameter, Object[]>();
-        map.put(new AttributeParameter("name"), new Object[] { name });
-        return (P) pjt.load(map, Partition.class).get(0);
+        this.dataSource.beginReadOnly();
+        boolean success = false;
+        try {
+            PartitionJdbcType pjt = new PartitionJdbcType(name);
+            pjt.setDataSource(dataSource);
+            Map<QueryParameter, Object[]> map = new HashMap<QueryParameter, Object[]>();
+            map.put(new AttributeParameter("name"), new Object[] { name });
+            P result = (P) pjt.load(map, Partition.class).get(0);
+            success = true;
+            return result;
+        } finally {
+            this.dataSource.end(success);
+        }
     }
 
     @Override
@@ -256,17 +390,24 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
 
     @Override
     public void add(IdentityContext identityContext, Partition partition, String configurationName) {
-        PartitionJdbcType partitionJdbcType = new PartitionJdbcType(partition.getName());
-        partitionJdbcType.setDataSource(dataSource);
-        if (partition.getId() == null) {
-            if (partition instanceof Realm) {
-                partitionJdbcType.setId(Realm.DEFAULT_REALM);
-            } else {
-                partitionJdbcType.setId(identityContext.getIdGenerator().generate());
+        this.dataSource.begin();
+        boolean success = false;
+        try {
+            PartitionJdbcType partitionJdbcType = new PartitionJdbcType(partition.getName());
+            partitionJdbcType.setDataSource(dataSource);
+            if (partition.getId() == null) {
+                if (partition instanceof Realm) {
+                    partitionJdbcType.setId(Realm.DEFAULT_REALM);
+                } else {
+                    partitionJdbcType.setId(identityContext.getIdGenerator().generate());
+                }
             }
+            partitionJdbcType.setConfigurationName(configurationName).setTypeName(partition.getClass().getName());
+            partitionJdbcType.persist(partitionJdbcType);
+            success = true;
+        } finally {
+            this.dataSource.end(success);
         }
-        partitionJdbcType.setConfigurationName(configurationName).setTypeName(partition.getClass().getName());
-        partitionJdbcType.persist(partitionJdbcType);
     }
 
     @Override
@@ -0,0 +1,378 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.jdbc.internal;
+
+import org.picketlink.idm.IdentityManagementException;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.picketlink.idm.IDMInternalLog.JDBC_STORE_LOGGER;
+
+/**
+ * <p>{@link DataSource} that binds a single {@link Connection} to the current thread while a unit of work is in progress,
+ * so that all the statements issued by an operation share the same connection. The connection is only obtained when the
+ * first statement is issued.</p>
+ *
+ * <p>While a unit of work is in progress, the connections returned by this data source ignore calls to
+ * {@link Connection#close()} and cache the statements prepared through them by their SQL, so that statements issued many
+ * times during the same operation are prepared only once. The connection is released when the outermost unit of work
+ * ends. Units of work started while another one is in progress just join it.</p>
+ *
+ * <p>If the connection is in auto-commit mode, all the statements issued during a unit of work started using
+ * {@link #begin()} are executed in a single transaction, which is committed if the unit of work succeeds and rolled back
+ * otherwise. If any nested unit of work failed, the transaction is rolled back even if the outermost one succeeded, and
+ * an exception is thrown. Units of work started using {@link #beginReadOnly()} only share the connection and the
+ * statements, the connection is left in auto-commit mode unless a unit of work that writes joins them. Connections
+ * already participating in a transaction, for instance, when managed by a JTA transaction manager, are left
+ * untouched.</p>
+ *
+ * <p>Outside a unit of work, connections are obtained directly from the underlying data source.</p>
+ *
+ * @author agent
+ */
+class UnitOfWorkDataSource implements DataSource {
+
+    private final DataSource delegate;
+    private final ThreadLocal<UnitOfWork> currentUnitOfWork = new ThreadLocal<UnitOfWork>();
+
+    UnitOfWorkDataSource(DataSource delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * <p>Starts a unit of work for the current thread, or joins the one in progress. The statements issued during the
+     * unit of work are executed in a single transaction. Every call to this method must be followed by a call to
+     * {@link #end(boolean)}.</p>
+     */
+    void begin() {
+        begin(true);
+    }
+
+    /**
+     * <p>Starts a unit of work for the current thread that only reads data, or joins the one in progress. No transaction
+     * is started for it. Every call to this method must be followed by a call to {@link #end(boolean)}.</p>
+     */
+    void beginReadOnly() {
+        begin(false);
+    }
+
+    private void begin(boolean transactional) {
+        UnitOfWork unitOfWork = this.currentUnitOfWork.get();
+
+        if (unitOfWork == null) {
+            unitOfWork = new UnitOfWork(this.delegate);
+            this.currentUnitOfWork.set(unitOfWork);
+        }
+
+        unitOfWork.depth++;
+
+        if (transactional) {
+            try {
+                unitOfWork.startTransaction();
+            } catch (SQLException e) {
+                end(false);
+                throw new RuntimeException("Could not start transaction.", e);
+            }
+        }
+    }
+
+    /**
+     * <p>Ends the unit of work started by the last call to {@link #begin()} or {@link #beginReadOnly()}. When the outermost
+     * unit of work ends, its transaction is committed, or rolled back if any of the nested units of work failed, and the
+     * connection is released.</p>
+     *
+     * @param success Indicates if the operation executed during the unit of work succeeded.
+     *
+     * @throws IdentityManagementException If the outermost unit of work succeeded but its transaction was rolled back
+     * because a nested unit of work failed.
+     */
+    void end(boolean success) {
+        UnitOfWork unitOfWork = this.currentUnitOfWork.get();
+
+        if (unitOfWork == null) {
+            throw new IllegalStateException("No unit of work in progress.");
+        }
+
+        if (!success) {
+            unitOfWork.rollbackOnly = true;
+        }
+
+        if (--unitOfWork.depth == 0) {
+            this.currentUnitOfWork.remove();
+
+            boolean rolledBack = unitOfWork.release(success);
+
+            if (success && rolledBack) {
+                throw new IdentityManagementException("Transaction rolled back because a nested operation failed.");
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        UnitOfWork unitOfWork = this.currentUnitOfWork.get();
+
+        if (unitOfWork != null) {
+            return unitOfWork.getConnection();
+        }
+
+        return this.delegate.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return this.delegate.getConnection(username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        this.delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.delegate.getLoginTimeout();
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this.delegate)) {
+            return iface.cast(this.delegate);
+        }
+
+        return this.delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this.delegate) || this.delegate.isWrapperFor(iface);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            JDBC_STORE_LOGGER.debugf(e, "Could not close statement.");
+        }
+    }
+
+    private static class UnitOfWork {
+
+        private final DataSource dataSource;
+        private final Map<String, CachedStatement> statements = new HashMap<String, CachedStatement>();
+        private Connection connection;
+        private Connection connectionProxy;
+        private boolean transactional;
+        private boolean manageTransaction;
+        private int depth;
+        private boolean rollbackOnly;
+
+        UnitOfWork(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        Connection getConnection() throws SQLException {
+            if (this.connection == null) {
+                Connection connection = this.dataSource.getConnection();
+
+                this.connection = connection;
+
+                try {
+                    if (this.transactional) {
+                        beginTransaction();
+                    }
+                } catch (SQLException e) {
+                    this.connection = null;
+                    connection.close();
+                    throw e;
+                }
+
+                this.connectionProxy = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {Connection.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            String methodName = method.getName();
+
+                            if ("close".equals(methodName)) {
+                                // released when the unit of work ends
+                                return null;
+                            }
+
+                            if ("prepareStatement".equals(methodName) && args.length == 1) {
+                                return prepareStatement((String) args[0]);
+                            }
+
+                            return UnitOfWorkDataSource.invoke(UnitOfWork.this.connection, method, args);
+                        }
+                    });
+            }
+
+            return this.connectionProxy;
+        }
+
+        /**
+         * <p>Groups the statements issued from now on in a single transaction. If the connection was already obtained by a
+         * unit of work that only reads data, the transaction starts right away.</p>
+         */
+        void startTransaction() throws SQLException {
+            if (this.transactional) {
+                return;
+            }
+
+            this.transactional = true;
+
+            if (this.connection != null) {
+                beginTransaction();
+            }
+        }
+
+        private void beginTransaction() throws SQLException {
+            // connections in auto-commit mode are not enlisted in any transaction, so we can group the statements
+            this.manageTransaction = this.connection.getAutoCommit();
+
+            if (this.manageTransaction) {
+                this.connection.setAutoCommit(false);
+            }
+        }
+
+        private PreparedStatement prepareStatement(String sql) throws SQLException {
+            CachedStatement cachedStatement = this.statements.get(sql);
+
+            if (cachedStatement == null) {
+                cachedStatement = new CachedStatement(this.connection.prepareStatement(sql));
+                this.statements.put(sql, cachedStatement);
+            } else if (cachedStatement.inUse) {
+                // the same statement is being used by an enclosing call, do not share its parameters and results
+                return this.connection.prepareStatement(sql);
+            }
+
+            cachedStatement.inUse = true;
+
+            return cachedStatement.proxy;
+        }
+
+        /**
+         * <p>Commits or rolls back the transaction, if any, and releases the connection.</p>
+         *
+         * @return True if the transaction was rolled back.
+         */
+        boolean release(boolean success) {
+            if (this.connection == null) {
+                return false;
+            }
+
+            boolean rolledBack = false;
+
+            for (CachedStatement cachedStatement : this.statements.values()) {
+                close(cachedStatement.statement);
+            }
+
+            this.statements.clear();
+
+            try {
+                if (this.manageTransaction) {
+                    try {
+                        if (this.rollbackOnly) {
+                            this.connection.rollback();
+                            rolledBack = true;
+                        } else {
+                            this.connection.commit();
+                        }
+                    } finally {
+                        this.connection.setAutoCommit(true);
+                    }
+                }
+            } catch (SQLException e) {
+                // do not hide the exception that caused the operation to fail
+                if (success) {
+                    throw new RuntimeException(e);
+                }
+
+                JDBC_STORE_LOGGER.debugf(e, "Could not rollback unit of work.");
+            } finally {
+                try {
+                    this.connection.close();
+                } catch (SQLException e) {
+                    JDBC_STORE_LOGGER.debugf(e, "Could not close connection.");
+                }
+            }
+
+            return rolledBack;
+        }
+    }
+
+    private static class CachedStatement {
+
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private boolean inUse;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("close".equals(method.getName())) {
+                            // keep the statement prepared for the next call, but do not leak its state to it
+                            CachedStatement.this.statement.clearParameters();
+                            CachedStatement.this.statement.clearBatch();
+                            CachedStatement.this.inUse = false;
+                            return null;
+                        }
+
+                        return UnitOfWorkDataSource.invoke(CachedStatement.this.statement, method, args);
+                    }
+                });
+        }
+    }
+}
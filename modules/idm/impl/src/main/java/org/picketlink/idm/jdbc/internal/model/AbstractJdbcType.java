@@ -18,14 +18,17 @@
 package org.picketlink.idm.jdbc.internal.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.sql.DataSource;
 
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.query.AttributeParameter;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -120,6 +123,30 @@ public abstract class AbstractJdbcType implements AttributedType, Serializable {
     public abstract List<? extends AttributedType> load(Map<QueryParameter, Object[]> params,
             Class<? extends AttributedType> attributedType);
 
+    /**
+     * Load the page of {@link AttributedType} selected by the limit and offset of a query, sorted by its sort
+     * parameters. By default, all the types matching the parameters of the query are loaded and paginated in memory,
+     * types stored in tables should override this method to delegate sorting and pagination to the database.
+     * @param identityQuery
+     * @param keysetPagination Indicates if pages are selected using the pagination context of the query instead of
+     * its offset
+     * @param paginationDialect The SQL used to select a page of rows, or null to detect it from the database
+     * @return
+     */
+    public List<? extends AttributedType> load(IdentityQuery<?> identityQuery, boolean keysetPagination,
+            PaginationDialect paginationDialect) {
+        List<AttributedType> result = new ArrayList<AttributedType>(load(identityQuery.getParameters(),
+                identityQuery.getIdentityType()));
+
+        if (identityQuery.getLimit() > 0) {
+            int offset = Math.min(identityQuery.getOffset(), result.size());
+            int numberOfItems = Math.min(identityQuery.getLimit(), result.size() - offset);
+            result = result.subList(offset, offset + numberOfItems);
+        }
+
+        return result;
+    }
+
     /**
      * Store the {@link AttributedType} in the database
      * @param attributedType
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.picketlink.idm.IDMMessages;
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
 import org.picketlink.idm.jdbc.internal.model.db.AttributeStorageUtil;
 import org.picketlink.idm.jdbc.internal.model.db.GroupStorageUtil;
 import org.picketlink.idm.jdbc.internal.model.db.RelationshipStorageUtil;
@@ -39,6 +40,7 @@ import org.picketlink.idm.model.basic.Group;
 import org.picketlink.idm.model.basic.GroupMembership;
 import org.picketlink.idm.model.basic.Role;
 import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -130,50 +132,35 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
     @Override
     public void deleteRelationships(AttributedType attributedType) {
         RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
+        List<Grant> grants = null;
+        List<GroupMembership> groupMemberships = null;
         if(attributedType instanceof User){
-            List<Grant> grants = relationshipStorageUtil.loadGrantsForUser(dataSource, (User) attributedType);
-            if(grants != null){
-                for(Grant grant: grants){
-                    relationshipStorageUtil.deleteGrant(dataSource,grant.getId());
-                }
-            }
-            List<GroupMembership> groupMemberships =
-                    relationshipStorageUtil.loadGroupMembershipsForUser(dataSource, (User) attributedType);
-            if(groupMemberships != null){
-                for(GroupMembership groupMembership: groupMemberships){
-                    relationshipStorageUtil.deleteGroupMembership(dataSource,groupMembership.getId());
-                }
-            }
+            grants = relationshipStorageUtil.loadGrantsForUser(dataSource, (User) attributedType);
+            groupMemberships = relationshipStorageUtil.loadGroupMembershipsForUser(dataSource, (User) attributedType);
         } else if(attributedType instanceof Role){
-            List<Grant> grants = relationshipStorageUtil.loadGrantsForRole(dataSource, (Role) attributedType);
-            if(grants != null){
-                for(Grant grant: grants){
-                    relationshipStorageUtil.deleteGrant(dataSource,grant.getId());
-                }
-            }
+            grants = relationshipStorageUtil.loadGrantsForRole(dataSource, (Role) attributedType);
         } else if(attributedType instanceof Group){
-            List<GroupMembership> groupMemberships = relationshipStorageUtil.loadGroupMembershipForGroup(dataSource, (Group) attributedType);
-            if(groupMemberships != null){
-                for(GroupMembership groupMembership: groupMemberships){
-                    relationshipStorageUtil.deleteGroupMembership(dataSource,groupMembership.getId());
-                }
-            }
+            groupMemberships = relationshipStorageUtil.loadGroupMembershipForGroup(dataSource, (Group) attributedType);
         } else if(attributedType instanceof Agent){
-            List<Grant> grants = relationshipStorageUtil.loadGrantsForAgent(dataSource, (Agent) attributedType);
-            if(grants != null){
-                for(Grant grant: grants){
-                    relationshipStorageUtil.deleteGrant(dataSource,grant.getId());
-                }
-            }
-            List<GroupMembership> groupMemberships = relationshipStorageUtil.loadGroupMembershipsForAgent(dataSource, (Agent) attributedType);
-            if(groupMemberships != null){
-                for(GroupMembership groupMembership: groupMemberships){
-                    relationshipStorageUtil.deleteGroupMembership(dataSource,groupMembership.getId());
-                }
-            }
+            grants = relationshipStorageUtil.loadGrantsForAgent(dataSource, (Agent) attributedType);
+            groupMemberships = relationshipStorageUtil.loadGroupMembershipsForAgent(dataSource, (Agent) attributedType);
         } else {
             throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
         }
+        if(grants != null){
+            List<String> grantIds = new ArrayList<String>();
+            for(Grant grant: grants){
+                grantIds.add(grant.getId());
+            }
+            relationshipStorageUtil.deleteGrants(dataSource, grantIds);
+        }
+        if(groupMemberships != null){
+            List<String> groupMembershipIds = new ArrayList<String>();
+            for(GroupMembership groupMembership: groupMemberships){
+                groupMembershipIds.add(groupMembership.getId());
+            }
+            relationshipStorageUtil.deleteGroupMemberships(dataSource, groupMembershipIds);
+        }
     }
 
     @Override
@@ -282,6 +269,24 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
         return result;
     }
 
+    @Override
+    public List<? extends AttributedType> load(IdentityQuery<?> identityQuery, boolean keysetPagination,
+            PaginationDialect paginationDialect) {
+        Class<?> attributedType = identityQuery.getIdentityType();
+
+        if (attributedType == User.class || attributedType == Agent.class) {
+            UserStorageUtil userStorageUtil = new UserStorageUtil();
+            return userStorageUtil.loadUsers(dataSource, identityQuery, keysetPagination, paginationDialect);
+        } else if (attributedType == Role.class) {
+            RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
+            return roleStorageUtil.loadRoles(dataSource, identityQuery, keysetPagination, paginationDialect);
+        } else if (attributedType == Group.class) {
+            GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
+            return groupStorageUtil.loadGroups(dataSource, identityQuery, keysetPagination, paginationDialect);
+        }
+        throw IDMMessages.MESSAGES.unexpectedType(attributedType);
+    }
+
     @Override
     public void update(AttributedType attributedType) {
         UserStorageUtil userStorageUtil = new UserStorageUtil();
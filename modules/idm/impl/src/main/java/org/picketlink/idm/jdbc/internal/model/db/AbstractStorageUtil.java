@@ -17,20 +17,38 @@
  */
 package org.picketlink.idm.jdbc.internal.model.db;
 
+import java.io.Serializable;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
 import javax.sql.DataSource;
 
+import org.picketlink.common.util.Base64;
+import org.picketlink.idm.IDMMessages;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
 import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.query.AttributeParameter;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
+import org.picketlink.idm.query.Sort;
 
 /**
  * @author Anil Saldhana
@@ -38,6 +56,30 @@ import org.picketlink.idm.query.QueryParameter;
  */
 public abstract class AbstractStorageUtil {
 
+    private static final String ID_COLUMN = "id";
+
+    /**
+     * Columns shared by all identity type tables, by the name of the attribute they store
+     */
+    private static final Map<String, String> IDENTITY_TYPE_COLUMNS;
+
+    static {
+        Map<String, String> columns = new HashMap<String, String>();
+        columns.put("id", ID_COLUMN);
+        columns.put("partition", "partitionID");
+        columns.put("enabled", "enabled");
+        columns.put("createdDate", "createdDate");
+        columns.put("expirationDate", "expirationDate");
+        IDENTITY_TYPE_COLUMNS = Collections.unmodifiableMap(columns);
+    }
+
+    /**
+     * Maps the current row of a {@link ResultSet} to a type
+     */
+    protected interface RowMapper<T extends AttributedType> {
+        T map(DataSource dataSource, ResultSet resultSet) throws SQLException;
+    }
+
     protected Object[] getValuesFromParamMap(Map<QueryParameter, Object[]> params,AttributeParameter attributeParameter){
         Set<QueryParameter> keys = params.keySet();
         if(keys != null){
@@ -53,6 +95,309 @@ public abstract class AbstractStorageUtil {
         return null;
     }
 
+    /**
+     * Load a page of identity types matching the parameters of an {@link IdentityQuery}. Filtering, sorting and
+     * pagination are all done by the database.
+     *
+     * Rows are always sorted by their id after the sort parameters of the query, so that the order is stable between
+     * pages. When keyset pagination is enabled, the offset of the query is ignored. Instead, the rows that follow the
+     * {@link KeysetPaginationContext} of the query are loaded, and the context is updated with the last row of the page.
+     * This allows the database to seek the page using an index on the sort columns, instead of scanning and skipping
+     * all the rows before it. The sort columns should not hold null values when keyset pagination is used.
+     *
+     * Parameters that are not stored in a column of the table, such as the ones created using
+     * {@link AttributedType.QUERY_ATTRIBUTE#byName(String)}, are matched against the attributes of the identity types.
+     * Like in the other stores, an identity type matches if its attribute holds all the values of the parameter. Sorting
+     * is only supported by the columns of the table.
+     *
+     * Pages are selected using the SQL of the given {@link PaginationDialect}. If no dialect is given, it is detected
+     * from the name of the database. When the database is unknown, the number of rows fetched is limited by the JDBC
+     * driver and the rows before the offset are skipped.
+     *
+     * @param dataSource
+     * @param table The table holding the identity types
+     * @param columns The columns to select, which must include the sort columns
+     * @param typeColumns The columns of the table that can be queried, by the name of the attribute they store. The
+     * columns shared by all identity types do not need to be included
+     * @param identityQuery
+     * @param keysetPagination
+     * @param paginationDialect
+     * @param rowMapper
+     * @return
+     */
+    protected <T extends AttributedType> List<T> loadPage(DataSource dataSource, String table, String columns,
+            Map<String, String> typeColumns, IdentityQuery<?> identityQuery, boolean keysetPagination,
+            PaginationDialect paginationDialect, RowMapper<T> rowMapper) {
+        if (dataSource == null) {
+            throw IDMMessages.MESSAGES.nullArgument("datasource");
+        }
+        Map<String, String> queryColumns = new HashMap<String, String>(IDENTITY_TYPE_COLUMNS);
+        queryColumns.putAll(typeColumns);
+
+        List<String> conditions = new ArrayList<String>();
+        List<Object> values = new ArrayList<Object>();
+
+        for (Map.Entry<QueryParameter, Object[]> parameter : identityQuery.getParameters().entrySet()) {
+            addCondition(conditions, values, table, queryColumns, parameter.getKey(), parameter.getValue());
+        }
+
+        List<String> sortColumns = new ArrayList<String>();
+        List<Boolean> sortAscending = new ArrayList<Boolean>();
+
+        if (identityQuery.getSorting() != null) {
+            for (Sort sort : identityQuery.getSorting()) {
+                sortColumns.add(getColumn(queryColumns, sort.getParameter(), "sort by"));
+                sortAscending.add(sort.isAscending());
+            }
+        }
+
+        if (!sortColumns.contains(ID_COLUMN)) {
+            sortColumns.add(ID_COLUMN);
+            sortAscending.add(Boolean.TRUE);
+        }
+
+        boolean seek = keysetPagination && identityQuery.getLimit() > 0;
+
+        String paginationKey = getPaginationKey(table, sortColumns, sortAscending);
+
+        if (seek && identityQuery.getPaginationContext() != null) {
+            Object paginationContext = identityQuery.getPaginationContext();
+
+            // a context created for another table or sorting would silently skip or repeat rows
+            if (!KeysetPaginationContext.class.isInstance(paginationContext)
+                    || !paginationKey.equals(((KeysetPaginationContext) paginationContext).getKey())) {
+                throw new IdentityManagementException("Pagination context does not match the sorting of the query.");
+            }
+
+            Object[] lastValues = ((KeysetPaginationContext) paginationContext).getValues();
+
+            // (c1 > ?) or (c1 = ? and c2 > ?) or ...
+            StringBuilder condition = new StringBuilder("(");
+            for (int i = 0; i < sortColumns.size(); i++) {
+                if (i > 0) {
+                    condition.append(" or ");
+                }
+                condition.append("(");
+                for (int j = 0; j < i; j++) {
+                    condition.append(sortColumns.get(j)).append(" = ? and ");
+                    values.add(lastValues[j]);
+                }
+                condition.append(sortColumns.get(i)).append(sortAscending.get(i) ? " > ?" : " < ?");
+                values.add(lastValues[i]);
+                condition.append(")");
+            }
+            condition.append(")");
+            conditions.add(condition.toString());
+        }
+
+        StringBuilder sql = new StringBuilder("select ").append(columns).append(" from ").append(table);
+
+        for (int i = 0; i < conditions.size(); i++) {
+            sql.append(i == 0 ? " where " : " and ").append(conditions.get(i));
+        }
+
+        for (int i = 0; i < sortColumns.size(); i++) {
+            sql.append(i == 0 ? " order by " : ",").append(sortColumns.get(i))
+                .append(sortAscending.get(i) ? " asc" : " desc");
+        }
+
+        int limit = identityQuery.getLimit();
+        int offset = seek || limit <= 0 ? 0 : Math.max(identityQuery.getOffset(), 0);
+
+        List<T> result = new ArrayList<T>();
+        Object[] lastValues = null;
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = dataSource.getConnection();
+            PaginationDialect dialect = paginationDialect;
+            if (limit > 0 && dialect == null) {
+                dialect = detectPaginationDialect(connection.getMetaData());
+            }
+            if (limit > 0 && dialect == PaginationDialect.LIMIT_OFFSET) {
+                sql.append(" limit ?");
+                values.add(limit);
+                if (offset > 0) {
+                    sql.append(" offset ?");
+                    values.add(offset);
+                }
+                offset = 0;
+            } else if (limit > 0 && dialect == PaginationDialect.OFFSET_FETCH) {
+                sql.append(" offset ? rows fetch next ? rows only");
+                values.add(offset);
+                values.add(limit);
+                offset = 0;
+            }
+            preparedStatement = connection.prepareStatement(sql.toString());
+            for (int i = 0; i < values.size(); i++) {
+                preparedStatement.setObject(i + 1, values.get(i));
+            }
+            if (limit > 0 && dialect == PaginationDialect.NONE) {
+                // the driver fetches the rows up to the end of the page, the ones before the offset are skipped below
+                long maxRows = (long) offset + limit;
+                preparedStatement.setMaxRows(maxRows > Integer.MAX_VALUE ? 0 : (int) maxRows);
+            }
+            resultSet = preparedStatement.executeQuery();
+            // the offset is only left when the database does not paginate
+            int skipped = 0;
+            while (skipped < offset && resultSet.next()) {
+                skipped++;
+            }
+            while ((limit <= 0 || result.size() < limit) && resultSet.next()) {
+                result.add(rowMapper.map(dataSource, resultSet));
+                if (seek) {
+                    lastValues = new Object[sortColumns.size()];
+                    for (int i = 0; i < sortColumns.size(); i++) {
+                        lastValues[i] = resultSet.getObject(sortColumns.get(i));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            safeClose(resultSet);
+            safeClose(preparedStatement);
+            safeClose(connection);
+        }
+
+        // an empty page leaves the context untouched, so that it can be used again once new rows are added
+        if (lastValues != null) {
+            identityQuery.setPaginationContext(new KeysetPaginationContext(paginationKey, lastValues));
+        }
+
+        loadAttributes(dataSource, result);
+
+        return result;
+    }
+
+    private void loadAttributes(DataSource dataSource, List<? extends AttributedType> attributedTypes) {
+        if (attributedTypes.isEmpty()) {
+            return;
+        }
+
+        Map<String, AttributedType> types = new HashMap<String, AttributedType>();
+
+        for (AttributedType attributedType : attributedTypes) {
+            types.put(attributedType.getId(), attributedType);
+        }
+
+        AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
+        Map<String, List<Attribute>> attributes = attributeStorageUtil.getAttributes(dataSource, types.keySet());
+
+        for (Map.Entry<String, List<Attribute>> entry : attributes.entrySet()) {
+            for (Attribute attribute : entry.getValue()) {
+                types.get(entry.getKey()).setAttribute(attribute);
+            }
+        }
+    }
+
+    /**
+     * Detect the SQL used to select a page of rows from the name of the database
+     * @param metaData
+     * @return The dialect, or {@link PaginationDialect#NONE} if the database is unknown
+     * @throws SQLException
+     */
+    private PaginationDialect detectPaginationDialect(DatabaseMetaData metaData) throws SQLException {
+        String productName = metaData.getDatabaseProductName();
+
+        if (productName == null) {
+            return PaginationDialect.NONE;
+        }
+
+        productName = productName.toLowerCase(Locale.ENGLISH);
+
+        if (productName.startsWith("h2") || productName.startsWith("hsql") || productName.startsWith("postgresql")
+                || productName.startsWith("mysql") || productName.startsWith("mariadb")
+                || productName.startsWith("sqlite")) {
+            return PaginationDialect.LIMIT_OFFSET;
+        }
+
+        if (productName.startsWith("apache derby")) {
+            return PaginationDialect.OFFSET_FETCH;
+        }
+
+        return PaginationDialect.NONE;
+    }
+
+    private String getPaginationKey(String table, List<String> sortColumns, List<Boolean> sortAscending) {
+        StringBuilder key = new StringBuilder(table);
+
+        for (int i = 0; i < sortColumns.size(); i++) {
+            key.append(",").append(sortColumns.get(i)).append(sortAscending.get(i) ? " asc" : " desc");
+        }
+
+        return key.toString();
+    }
+
+    private void addCondition(List<String> conditions, List<Object> values, String table,
+            Map<String, String> queryColumns, QueryParameter parameter, Object[] parameterValues) {
+        if (parameterValues == null || parameterValues.length == 0) {
+            return;
+        }
+
+        if (parameter instanceof AttributeParameter
+                && !queryColumns.containsKey(((AttributeParameter) parameter).getName())) {
+            // attributes hold one row for each value, all of them must be present
+            String attributeName = ((AttributeParameter) parameter).getName();
+            for (Object parameterValue : parameterValues) {
+                conditions.add("exists (select 1 from Attributes where Attributes.owner = " + table + "." + ID_COLUMN
+                        + " and Attributes.name = ? and Attributes.value = ?)");
+                values.add(attributeName);
+                values.add(Base64.encodeObject((Serializable) parameterValue));
+            }
+            return;
+        }
+
+        String column = getColumn(queryColumns, parameter, "query by");
+
+        if (IdentityType.CREATED_AFTER == parameter || IdentityType.EXPIRY_AFTER == parameter) {
+            conditions.add(column + " >= ?");
+            values.add(toColumnValue(parameterValues[0]));
+        } else if (IdentityType.CREATED_BEFORE == parameter || IdentityType.EXPIRY_BEFORE == parameter) {
+            conditions.add(column + " <= ?");
+            values.add(toColumnValue(parameterValues[0]));
+        } else if (parameterValues.length == 1) {
+            conditions.add(column + " = ?");
+            values.add(toColumnValue(parameterValues[0]));
+        } else {
+            StringBuilder condition = new StringBuilder(column).append(" in (");
+            for (int i = 0; i < parameterValues.length; i++) {
+                condition.append(i == 0 ? "?" : ",?");
+                values.add(toColumnValue(parameterValues[i]));
+            }
+            conditions.add(condition.append(")").toString());
+        }
+    }
+
+    private String getColumn(Map<String, String> queryColumns, QueryParameter parameter, String operation) {
+        String column = null;
+
+        if (parameter instanceof AttributeParameter) {
+            column = queryColumns.get(((AttributeParameter) parameter).getName());
+        }
+
+        if (column == null) {
+            throw new IdentityManagementException("JDBC Identity Store can not " + operation + " parameter [" + parameter + "].");
+        }
+
+        return column;
+    }
+
+    private Object toColumnValue(Object value) {
+        if (value instanceof AttributedType) {
+            // partitions and identity types are referenced by their id
+            return ((AttributedType) value).getId();
+        }
+        if (value instanceof Date) {
+            return new Timestamp(((Date) value).getTime());
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? "y" : "n";
+        }
+        return value;
+    }
+
     protected Partition loadPartition(DataSource dataSource, String id) {
         if (dataSource == null) {
             throw new RuntimeException("Null datasource");
@@ -23,7 +23,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
@@ -38,6 +43,12 @@ import org.picketlink.idm.model.Attribute;
  * @since October 25, 2013
  */
 public class AttributeStorageUtil extends AbstractStorageUtil {
+
+    /**
+     * The maximum number of owners used in the IN clause of a single statement
+     */
+    public static final int MAX_OWNERS_PER_STATEMENT = 500;
+
     /**
      * Get the {@link Attribute} given its name and an id
      *
@@ -102,37 +113,88 @@ public class AttributeStorageUtil extends AbstractStorageUtil {
      * @return
      */
     public List<Attribute> getAttributes(DataSource dataSource, String ownerId) {
+        List<Attribute> attributes = getAttributes(dataSource, Collections.singletonList(ownerId)).get(ownerId);
+
+        if (attributes == null) {
+            return new ArrayList<Attribute>();
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Get the {@link Attribute} of many identity types at once. Attributes are loaded using a single statement for each
+     * batch of {@link #MAX_OWNERS_PER_STATEMENT} owners.
+     *
+     * @param dataSource
+     * @param ownerIds
+     * @return A map containing the attributes for each owner that has at least one attribute
+     */
+    public Map<String, List<Attribute>> getAttributes(DataSource dataSource, Collection<String> ownerIds) {
         if (dataSource == null) {
             throw IDMMessages.MESSAGES.nullArgument("datasource");
         }
-        List<Attribute> attributes = new ArrayList<Attribute>();
+        Map<String, List<Attribute>> attributes = new HashMap<String, List<Attribute>>();
+        List<String> owners = new ArrayList<String>(ownerIds);
 
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-        GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
+        for (int batchStart = 0; batchStart < owners.size(); batchStart += MAX_OWNERS_PER_STATEMENT) {
+            List<String> batch = owners.subList(batchStart, Math.min(owners.size(), batchStart + MAX_OWNERS_PER_STATEMENT));
+            // values grouped by owner and attribute name, in the order they are returned
+            Map<String, Map<String, List<Serializable>>> values = new LinkedHashMap<String, Map<String, List<Serializable>>>();
+            Map<String, String> attributeTypes = new HashMap<String, String>();
 
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select name,value from Attributes where owner =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, ownerId);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                String storedName = resultSet.getString(1);
+            Connection connection = null;
+            PreparedStatement preparedStatement = null;
+            ResultSet resultSet = null;
+            try {
+                connection = dataSource.getConnection();
+                StringBuilder sql = new StringBuilder("select owner,name,value,attributeType from Attributes where owner in (");
+                for (int i = 0; i < batch.size(); i++) {
+                    if (i > 0) {
+                        sql.append(",");
+                    }
+                    sql.append("?");
+                }
+                sql.append(")");
+                preparedStatement = connection.prepareStatement(sql.toString());
+                for (int i = 0; i < batch.size(); i++) {
+                    preparedStatement.setString(i + 1, batch.get(i));
+                }
+                resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    String owner = resultSet.getString(1);
+                    String name = resultSet.getString(2);
+                    Map<String, List<Serializable>> ownerValues = values.get(owner);
+                    if (ownerValues == null) {
+                        ownerValues = new LinkedHashMap<String, List<Serializable>>();
+                        values.put(owner, ownerValues);
+                    }
+                    List<Serializable> attributeValues = ownerValues.get(name);
+                    if (attributeValues == null) {
+                        attributeValues = new ArrayList<Serializable>();
+                        ownerValues.put(name, attributeValues);
+                        attributeTypes.put(owner + "/" + name, resultSet.getString(4));
+                    }
+                    attributeValues.add((Serializable) Base64.decodeToObject(resultSet.getString(3)));
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            } finally {
+                safeClose(resultSet);
+                safeClose(preparedStatement);
+                safeClose(connection);
+            }
 
-                Attribute attribute = getAttribute(dataSource, ownerId, storedName);
-                attributes.add(attribute);
+            for (Map.Entry<String, Map<String, List<Serializable>>> ownerEntry : values.entrySet()) {
+                List<Attribute> ownerAttributes = new ArrayList<Attribute>();
+                for (Map.Entry<String, List<Serializable>> valueEntry : ownerEntry.getValue().entrySet()) {
+                    String attributeType = attributeTypes.get(ownerEntry.getKey() + "/" + valueEntry.getKey());
+                    ownerAttributes.add(createAttribute(valueEntry.getKey(), attributeType, valueEntry.getValue()));
+                }
+                attributes.put(ownerEntry.getKey(), ownerAttributes);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
+
         return attributes;
     }
 
@@ -159,33 +221,31 @@ public class AttributeStorageUtil extends AbstractStorageUtil {
             values = new Serializable[] { serializedValues };
         }
 
-        for (Serializable attributeValue : (Serializable[]) values) {
-            UserStorageUtil userStorageUtil = new UserStorageUtil();
-            RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-            GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-
-            Connection connection = null;
-            PreparedStatement preparedStatement = null;
-            ResultSet resultSet = null;
-            try {
-                connection = dataSource.getConnection();
-                String sql = "insert into Attributes set owner =?, name=?, value=?,attributeType=?";
-                preparedStatement = connection.prepareStatement(sql);
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = dataSource.getConnection();
+            String sql = "insert into Attributes set owner =?, name=?, value=?,attributeType=?";
+            preparedStatement = connection.prepareStatement(sql);
+            // all values are sent in a single round-trip
+            for (Serializable attributeValue : (Serializable[]) values) {
                 preparedStatement.setString(1, ownerId);
                 preparedStatement.setString(2, attribute.getName());
                 preparedStatement.setString(3, Base64.encodeObject(attributeValue));
                 preparedStatement.setString(4, attributeValue.getClass().getName());
-                int result = preparedStatement.executeUpdate();
+                preparedStatement.addBatch();
+            }
+            int[] results = preparedStatement.executeBatch();
+            for (int result : results) {
                 if (result == 0) {
                     throw new RuntimeException("Update failed");
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            } finally {
-                safeClose(resultSet);
-                safeClose(preparedStatement);
-                safeClose(connection);
             }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            safeClose(preparedStatement);
+            safeClose(connection);
         }
     }
 
@@ -256,6 +316,22 @@ public class AttributeStorageUtil extends AbstractStorageUtil {
         return list;
     }
 
+    private Attribute createAttribute(String attributeName, String attributeType, List<Serializable> valList) {
+        Attribute attribute;
+        if (valList.size() > 1) {
+            attribute = new Attribute(attributeName, "dummy");
+            if (isPrimitiveNativeType(attributeType)) {
+                handlePrimitiveAttributeType(attribute, attributeType, valList);
+            } else {
+                // Multi valued attribute
+                attribute.setValue(valList.toArray(new Serializable[valList.size()]));
+            }
+        } else {
+            attribute = new Attribute(attributeName, valList.get(0));
+        }
+        return attribute;
+    }
+
     private boolean isPrimitiveNativeType(String attributeType) {
         if (String.class.getName().equals(attributeType) || Integer.class.getName().equals(attributeType)) {
             return true;
@@ -23,6 +23,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,10 +31,12 @@ import java.util.Set;
 import javax.sql.DataSource;
 
 import org.picketlink.idm.IDMMessages;
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
 import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.basic.Group;
 import org.picketlink.idm.query.AttributeParameter;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -43,6 +46,17 @@ import org.picketlink.idm.query.QueryParameter;
  * @since October 24, 2013
  */
 public class GroupStorageUtil extends AbstractStorageUtil {
+
+    private static final String GROUP_COLUMNS = "id,name,partitionID,parentGroup,path,enabled,createdDate,expirationDate";
+
+    private static final Map<String, String> GROUP_QUERY_COLUMNS = new HashMap<String, String>();
+
+    static {
+        GROUP_QUERY_COLUMNS.put("name", "name");
+        GROUP_QUERY_COLUMNS.put("path", "path");
+        GROUP_QUERY_COLUMNS.put("parentGroup", "parentGroup");
+    }
+
     /**
      * Delete {@link Group}
      *
@@ -129,6 +143,42 @@ public class GroupStorageUtil extends AbstractStorageUtil {
         return null;
     }
 
+    /**
+     * Load a page of {@link Group} matching a query, sorted and paginated by the database
+     *
+     * @param dataSource
+     * @param identityQuery
+     * @param keysetPagination
+     * @param paginationDialect
+     * @return
+     * @see AbstractStorageUtil#loadPage(DataSource, String, String, Map, IdentityQuery, boolean, PaginationDialect, RowMapper)
+     */
+    public List<Group> loadGroups(DataSource dataSource, IdentityQuery<?> identityQuery, boolean keysetPagination,
+            PaginationDialect paginationDialect) {
+        return loadPage(dataSource, "Groups", GROUP_COLUMNS, GROUP_QUERY_COLUMNS, identityQuery, keysetPagination, paginationDialect,
+                new RowMapper<Group>() {
+                    @Override
+                    public Group map(DataSource dataSource, ResultSet resultSet) throws SQLException {
+                        Group group = new Group();
+                        group.setId(resultSet.getString(1));
+                        group.setName(resultSet.getString(2));
+                        group.setPartition(loadPartition(dataSource, resultSet.getString(3)));
+                        group.setParentGroup(loadGroup(dataSource, resultSet.getString(4)));
+                        group.setPath(resultSet.getString(5));
+                        group.setEnabled("y".equalsIgnoreCase(resultSet.getString(6)));
+                        Timestamp creationDate = resultSet.getTimestamp(7);
+                        if (creationDate != null) {
+                            group.setCreatedDate(new Date(creationDate.getTime()));
+                        }
+                        Timestamp expirationDate = resultSet.getTimestamp(8);
+                        if (expirationDate != null) {
+                            group.setExpirationDate(new Date(expirationDate.getTime()));
+                        }
+                        return group;
+                    }
+                });
+    }
+
     /**
      * Load a {@link Group} given parameters
      *
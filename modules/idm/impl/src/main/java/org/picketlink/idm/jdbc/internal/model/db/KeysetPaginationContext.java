@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.jdbc.internal.model.db;
+
+import java.io.Serializable;
+
+/**
+ * Pagination context used by the JDBC store when keyset pagination is enabled. It holds the values of the sort columns
+ * of the last row of a page, and is sent back with the query to fetch the rows that follow it. The context also
+ * identifies the table and sorting it was created for, so that it is not used with a different query.
+ *
+ * @author agent
+ */
+public final class KeysetPaginationContext implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private final String key;
+    private final Object[] values;
+
+    KeysetPaginationContext(String key, Object[] values) {
+        this.key = key;
+        this.values = values;
+    }
+
+    String getKey() {
+        return this.key;
+    }
+
+    Object[] getValues() {
+        return this.values;
+    }
+}
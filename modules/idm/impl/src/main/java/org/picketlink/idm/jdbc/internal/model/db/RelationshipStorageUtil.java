@@ -31,6 +31,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -108,6 +109,26 @@ public class RelationshipStorageUtil extends AbstractStorageUtil {
         }
     }
 
+    /**
+     * Delete many {@link Grant} at once, using a single batch of statements
+     *
+     * @param dataSource
+     * @param ids
+     */
+    public void deleteGrants(DataSource dataSource, Collection<String> ids) {
+        deleteRelationships(dataSource, ids, Grant.class.getName(), "Delete Grant failed");
+    }
+
+    /**
+     * Delete many {@link GroupMembership} at once, using a single batch of statements
+     *
+     * @param dataSource
+     * @param ids
+     */
+    public void deleteGroupMemberships(DataSource dataSource, Collection<String> ids) {
+        deleteRelationships(dataSource, ids, GroupMembership.class.getName(), "Delete Group Membership failed");
+    }
+
     /**
      * Load {@link Grant} given its id
      *
@@ -531,4 +552,40 @@ public class RelationshipStorageUtil extends AbstractStorageUtil {
             safeClose(connection);
         }
     }
-}
\ No newline at end of file
+
+    private void deleteRelationships(DataSource dataSource, Collection<String> ids, String type, String failureMessage) {
+        if (dataSource == null) {
+            throw IDMMessages.MESSAGES.nullArgument("datasource");
+        }
+        if (ids == null) {
+            throw IDMMessages.MESSAGES.nullArgument("ids");
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = dataSource.getConnection();
+            String sql = "delete from Relationship where id=? and type=?";
+            preparedStatement = connection.prepareStatement(sql);
+            for (String id : ids) {
+                preparedStatement.setString(1, id);
+                preparedStatement.setString(2, type);
+                preparedStatement.addBatch();
+            }
+            int[] results = preparedStatement.executeBatch();
+            for (int result : results) {
+                if (result == 0) {
+                    throw new RuntimeException(failureMessage);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            safeClose(preparedStatement);
+            safeClose(connection);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,10 +31,12 @@ import java.util.Set;
 import javax.sql.DataSource;
 
 import org.picketlink.idm.IDMMessages;
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
 import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.basic.Role;
 import org.picketlink.idm.query.AttributeParameter;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -42,6 +45,15 @@ import org.picketlink.idm.query.QueryParameter;
  * @since October 24, 2013
  */
 public class RoleStorageUtil extends AbstractStorageUtil {
+
+    private static final String ROLE_COLUMNS = "id,name,partitionID,enabled,createdDate,expirationDate";
+
+    private static final Map<String, String> ROLE_QUERY_COLUMNS = new HashMap<String, String>();
+
+    static {
+        ROLE_QUERY_COLUMNS.put("name", "name");
+    }
+
     /**
      * Delete {@link Role}
      * @param dataSource
@@ -123,6 +135,39 @@ public class RoleStorageUtil extends AbstractStorageUtil {
         return null;
     }
 
+    /**
+     * Load a page of {@link Role} matching a query, sorted and paginated by the database
+     * @param dataSource
+     * @param identityQuery
+     * @param keysetPagination
+     * @param paginationDialect
+     * @return
+     * @see AbstractStorageUtil#loadPage(DataSource, String, String, Map, IdentityQuery, boolean, PaginationDialect, RowMapper)
+     */
+    public List<Role> loadRoles(DataSource dataSource, IdentityQuery<?> identityQuery, boolean keysetPagination,
+            PaginationDialect paginationDialect) {
+        return loadPage(dataSource, "Role", ROLE_COLUMNS, ROLE_QUERY_COLUMNS, identityQuery, keysetPagination, paginationDialect,
+                new RowMapper<Role>() {
+                    @Override
+                    public Role map(DataSource dataSource, ResultSet resultSet) throws SQLException {
+                        Role role = new Role();
+                        role.setId(resultSet.getString(1));
+                        role.setName(resultSet.getString(2));
+                        role.setPartition(loadPartition(dataSource, resultSet.getString(3)));
+                        role.setEnabled("y".equalsIgnoreCase(resultSet.getString(4)));
+                        Timestamp creationDate = resultSet.getTimestamp(5);
+                        if (creationDate != null) {
+                            role.setCreatedDate(new Date(creationDate.getTime()));
+                        }
+                        Timestamp expirationDate = resultSet.getTimestamp(6);
+                        if (expirationDate != null) {
+                            role.setExpirationDate(new Date(expirationDate.getTime()));
+                        }
+                        return role;
+                    }
+                });
+    }
+
     /**
      * Load {@link Role} given parameters
      * @param dataSource
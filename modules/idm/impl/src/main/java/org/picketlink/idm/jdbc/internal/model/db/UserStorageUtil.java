@@ -23,6 +23,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,11 +31,13 @@ import java.util.Set;
 import javax.sql.DataSource;
 
 import org.picketlink.idm.IDMMessages;
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
 import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.basic.Agent;
 import org.picketlink.idm.model.basic.User;
 import org.picketlink.idm.query.AttributeParameter;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -44,6 +47,19 @@ import org.picketlink.idm.query.QueryParameter;
  * @since October 24, 2013
  */
 public class UserStorageUtil extends AbstractStorageUtil {
+
+    private static final String USER_COLUMNS = "id,firstName,lastName,email,loginName,partitionID,enabled,createdDate,"
+            + "expirationDate";
+
+    private static final Map<String, String> USER_QUERY_COLUMNS = new HashMap<String, String>();
+
+    static {
+        USER_QUERY_COLUMNS.put("loginName", "loginName");
+        USER_QUERY_COLUMNS.put("firstName", "firstName");
+        USER_QUERY_COLUMNS.put("lastName", "lastName");
+        USER_QUERY_COLUMNS.put("email", "email");
+    }
+
     /**
      * Count the number of {@link User} with an id
      *
@@ -162,6 +178,43 @@ public class UserStorageUtil extends AbstractStorageUtil {
         throw new RuntimeException();
     }
 
+    /**
+     * Load a page of {@link User} matching a query, sorted and paginated by the database
+     *
+     * @param dataSource
+     * @param identityQuery
+     * @param keysetPagination
+     * @param paginationDialect
+     * @return
+     * @see AbstractStorageUtil#loadPage(DataSource, String, String, Map, IdentityQuery, boolean, PaginationDialect, RowMapper)
+     */
+    public List<User> loadUsers(DataSource dataSource, IdentityQuery<?> identityQuery, boolean keysetPagination,
+            PaginationDialect paginationDialect) {
+        return loadPage(dataSource, "User", USER_COLUMNS, USER_QUERY_COLUMNS, identityQuery, keysetPagination, paginationDialect,
+                new RowMapper<User>() {
+                    @Override
+                    public User map(DataSource dataSource, ResultSet resultSet) throws SQLException {
+                        User user = new User();
+                        user.setId(resultSet.getString(1));
+                        user.setFirstName(resultSet.getString(2));
+                        user.setLastName(resultSet.getString(3));
+                        user.setEmail(resultSet.getString(4));
+                        user.setLoginName(resultSet.getString(5));
+                        user.setPartition(loadPartition(dataSource, resultSet.getString(6)));
+                        user.setEnabled("y".equalsIgnoreCase(resultSet.getString(7)));
+                        Timestamp creationDate = resultSet.getTimestamp(8);
+                        if (creationDate != null) {
+                            user.setCreatedDate(new Date(creationDate.getTime()));
+                        }
+                        Timestamp expirationDate = resultSet.getTimestamp(9);
+                        if (expirationDate != null) {
+                            user.setExpirationDate(new Date(expirationDate.getTime()));
+                        }
+                        return user;
+                    }
+                });
+    }
+
     /**
      * Load {@link User} given its id
      *
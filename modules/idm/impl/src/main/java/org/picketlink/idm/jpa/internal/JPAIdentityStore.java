@@ -60,6 +60,12 @@ import org.picketlink.idm.jpa.annotations.entity.ConfigurationName;
 import org.picketlink.idm.jpa.annotations.entity.IdentityManaged;
 import org.picketlink.idm.jpa.annotations.entity.ManagedCredential;
 import org.picketlink.idm.jpa.annotations.entity.PermissionManaged;
+import org.picketlink.idm.jpa.internal.JPQLQueryPlan.ConditionBinding;
+import org.picketlink.idm.jpa.internal.JPQLQueryPlan.ConstantBinding;
+import org.picketlink.idm.jpa.internal.JPQLQueryPlan.ParameterBinding;
+import org.picketlink.idm.jpa.internal.JPQLQueryPlan.PartitionBinding;
+import org.picketlink.idm.jpa.internal.JPQLQueryPlan.RelationshipMemberBinding;
+import org.picketlink.idm.jpa.internal.JPQLQueryPlan.ValueCountBinding;
 import org.picketlink.idm.jpa.internal.mappers.EntityMapper;
 import org.picketlink.idm.jpa.internal.mappers.EntityMapping;
 import org.picketlink.idm.model.Account;
@@ -87,24 +93,29 @@ import org.picketlink.idm.query.internal.InCondition;
 import org.picketlink.idm.query.internal.LessThanCondition;
 import org.picketlink.idm.query.internal.LikeCondition;
 import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BulkIdentityStore;
 import org.picketlink.idm.spi.CredentialStore;
+import org.picketlink.idm.spi.ExistenceQueryStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.PartitionStore;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.PersistenceUnitUtil;
 import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Join;
-import javax.persistence.criteria.Order;
-import javax.persistence.criteria.Path;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
-import javax.persistence.criteria.Subquery;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -112,6 +123,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -123,6 +136,7 @@ import static org.picketlink.common.util.StringUtil.isNullOrEmpty;
 import static org.picketlink.idm.IDMInternalLog.JPA_STORE_LOGGER;
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
 import static org.picketlink.idm.internal.util.PermissionUtil.asOperationList;
+import static org.picketlink.idm.jpa.internal.JPQLQueryPlan.getEntityName;
 
 /**
  * Implementation of IdentityStore that stores its state in a relational database.
@@ -139,11 +153,29 @@ import static org.picketlink.idm.internal.util.PermissionUtil.asOperationList;
 public class JPAIdentityStore
         extends AbstractAttributeStore<JPAIdentityStoreConfiguration>
         implements CredentialStore<JPAIdentityStoreConfiguration>, PartitionStore<JPAIdentityStoreConfiguration>,
-        AttributeStore<JPAIdentityStoreConfiguration>, PermissionStore {
+        AttributeStore<JPAIdentityStoreConfiguration>, BulkIdentityStore<JPAIdentityStoreConfiguration>,
+        ExistenceQueryStore<JPAIdentityStoreConfiguration>, PermissionStore {
 
     // Invocation context parameters
     public static final String INVOCATION_CTX_ENTITY_MANAGER = "CTX_ENTITY_MANAGER";
 
+    // the maximum number of owners used in the IN clause when loading attributes or relationship members in bulk
+    private static final int MAX_OWNERS_PER_QUERY = 500;
+
+    // the maximum number of compiled query plans kept by the store
+    private static final int MAX_QUERY_PLANS = 1000;
+
+    // compiled query plans, the least recently used ones are discarded once the limit is reached
+    private final Map<String, JPQLQueryPlan> queryPlans = new LinkedHashMap<String, JPQLQueryPlan>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JPQLQueryPlan> eldest) {
+            return size() > MAX_QUERY_PLANS;
+        }
+    };
+
     private final List<EntityMapper> entityMappers = new ArrayList<EntityMapper>();
 
     @Override
@@ -178,6 +210,59 @@ public class JPAIdentityStore
         }
     }
 
+    /**
+     * <p>Adds all types and flushes them at once. The entities persisted by the batch are detached afterwards, so that the
+     * persistence context does not grow with the number of types being imported. Any other entity managed by the
+     * {@link EntityManager} is left untouched.</p>
+     *
+     * @param context
+     * @param attributedTypes
+     */
+    @Override
+    public void addAll(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        EntityManager entityManager = getEntityManager(context);
+        List<Object> persistedEntities = new ArrayList<Object>();
+
+        context.setParameter(INVOCATION_CTX_ENTITY_MANAGER, createTrackingEntityManager(entityManager, persistedEntities));
+
+        try {
+            for (AttributedType attributedType : attributedTypes) {
+                add(context, attributedType);
+            }
+        } finally {
+            context.setParameter(INVOCATION_CTX_ENTITY_MANAGER, entityManager);
+        }
+
+        entityManager.flush();
+
+        for (Object entity : persistedEntities) {
+            entityManager.detach(entity);
+        }
+    }
+
+    /**
+     * <p>Returns an {@link EntityManager} that delegates to the given one, keeping track of all the entities persisted
+     * through it.</p>
+     */
+    private EntityManager createTrackingEntityManager(final EntityManager entityManager,
+                                                      final List<Object> persistedEntities) {
+        return (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {EntityManager.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("persist".equals(method.getName())) {
+                        persistedEntities.add(args[0]);
+                    }
+
+                    try {
+                        return method.invoke(entityManager, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            });
+    }
+
     @Override
     public void updateAttributedType(IdentityContext context, AttributedType attributedType) {
         EntityManager entityManager = getEntityManager(context);
@@ -409,38 +494,140 @@ public class JPAIdentityStore
         Map<String, Attribute<? extends Serializable>> attributes = new HashMap<String, Attribute<? extends Serializable>>();
 
         for (Object attributeEntity : entityManager.createQuery(cq).getResultList()) {
-            String storedName = attributeNameProperty.getValue(attributeEntity).toString();
-            Serializable storedValue = (Serializable) Base64.decodeToObject(attributeValueProperty.getValue(attributeEntity).toString());
+            addAttributeValue(attributes, attributeEntity, attributeNameProperty, attributeValueProperty);
+        }
+
+        return attributes.values();
+    }
 
-            Attribute attribute = attributes.get(storedName);
+    @Override
+    protected Map<AttributedType, Collection<Attribute<? extends Serializable>>> getAttributes(IdentityContext identityContext,
+                                                                                             Collection<? extends AttributedType> attributedTypes) {
+        Map<AttributedType, Collection<Attribute<? extends Serializable>>> attributes =
+            new IdentityHashMap<AttributedType, Collection<Attribute<? extends Serializable>>>();
+        Map<EntityMapper, List<AttributedType>> typesByMapper = new LinkedHashMap<EntityMapper, List<AttributedType>>();
 
-            if (attribute == null) {
-                attribute = new Attribute<Serializable>(storedName, storedValue);
-            } else {
-                // if it is a multi-valued attribute
-                if (attribute != null) {
-                    Serializable[] values = null;
+        for (AttributedType attributedType : attributedTypes) {
+            EntityMapper attributeMapper = getAttributeMapper(attributedType.getClass());
+            List<AttributedType> types = typesByMapper.get(attributeMapper);
 
-                    if (attribute.getValue().getClass().isArray()) {
-                        values = (Serializable[]) attribute.getValue();
-                    } else {
-                        values = (Serializable[]) Array.newInstance(attribute.getValue().getClass(), 1);
-                        values[0] = attribute.getValue();
+            if (types == null) {
+                types = new ArrayList<AttributedType>();
+                typesByMapper.put(attributeMapper, types);
+            }
+
+            types.add(attributedType);
+        }
+
+        EntityManager entityManager = getEntityManager(identityContext);
+        PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+
+        for (Entry<EntityMapper, List<AttributedType>> entry : typesByMapper.entrySet()) {
+            EntityMapper attributeMapper = entry.getKey();
+            Property ownerProperty = attributeMapper.getProperty(Attribute.class, OwnerReference.class).getValue();
+            boolean idReference = String.class.equals(ownerProperty.getJavaClass());
+            // owners are keyed by the type identifier or by the identifier of their owner entity
+            Map<Object, AttributedType> typesByOwner = new LinkedHashMap<Object, AttributedType>();
+            List<Object> owners = new ArrayList<Object>();
+
+            for (AttributedType attributedType : entry.getValue()) {
+                if (idReference && !typesByOwner.containsKey(attributedType.getId())) {
+                    typesByOwner.put(attributedType.getId(), attributedType);
+                    owners.add(attributedType.getId());
+                } else if (!idReference && getConfig().supportsType(attributedType.getClass(), IdentityOperation.create)) {
+                    Object ownerEntity = getOwnerEntity(attributedType, ownerProperty, entityManager);
+
+                    if (ownerEntity != null && !typesByOwner.containsKey(persistenceUnitUtil.getIdentifier(ownerEntity))) {
+                        typesByOwner.put(persistenceUnitUtil.getIdentifier(ownerEntity), attributedType);
+                        owners.add(ownerEntity);
+                    } else if (ownerEntity != null) {
+                        attributes.put(attributedType, getAttributes(identityContext, attributedType));
                     }
+                } else {
+                    // the same type was given more than once or is not referenced by an owner entity
+                    attributes.put(attributedType, getAttributes(identityContext, attributedType));
+                }
+            }
+
+            loadAttributes(entityManager, attributeMapper, ownerProperty, idReference, owners, typesByOwner, attributes);
+        }
+
+        return attributes;
+    }
+
+    private void loadAttributes(EntityManager entityManager, EntityMapper attributeMapper, Property ownerProperty,
+                                boolean idReference, List<Object> owners, Map<Object, AttributedType> typesByOwner,
+                                Map<AttributedType, Collection<Attribute<? extends Serializable>>> attributes) {
+        Class<?> attributeEntityClass = attributeMapper.getEntityType();
+        Property attributeNameProperty = attributeMapper.getProperty(Attribute.class, AttributeName.class).getValue();
+        Property attributeValueProperty = attributeMapper.getProperty(Attribute.class, AttributeValue.class).getValue();
+        PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        Map<AttributedType, Map<String, Attribute<? extends Serializable>>> attributesByType =
+            new IdentityHashMap<AttributedType, Map<String, Attribute<? extends Serializable>>>();
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
 
-                    Serializable[] newValues = Arrays.copyOf(values, values.length + 1);
+        for (int start = 0; start < owners.size(); start += MAX_OWNERS_PER_QUERY) {
+            List<Object> batch = owners.subList(start, Math.min(owners.size(), start + MAX_OWNERS_PER_QUERY));
+            CriteriaQuery<?> cq = cb.createQuery(attributeEntityClass);
+            Root<?> from = cq.from(attributeEntityClass);
 
-                    newValues[newValues.length - 1] = storedValue;
+            cq.where(from.get(ownerProperty.getName()).in(batch));
 
-                    attribute.setValue(newValues);
+            for (Object attributeEntity : entityManager.createQuery(cq).getResultList()) {
+                Object owner = ownerProperty.getValue(attributeEntity);
 
+                if (!idReference) {
+                    owner = persistenceUnitUtil.getIdentifier(owner);
+                }
+
+                AttributedType attributedType = typesByOwner.get(owner);
+
+                if (attributedType != null) {
+                    Map<String, Attribute<? extends Serializable>> typeAttributes = attributesByType.get(attributedType);
+
+                    if (typeAttributes == null) {
+                        typeAttributes = new LinkedHashMap<String, Attribute<? extends Serializable>>();
+                        attributesByType.put(attributedType, typeAttributes);
+                    }
+
+                    addAttributeValue(typeAttributes, attributeEntity, attributeNameProperty, attributeValueProperty);
                 }
             }
+        }
 
-            attributes.put(attribute.getName(), attribute);
+        for (Entry<AttributedType, Map<String, Attribute<? extends Serializable>>> entry : attributesByType.entrySet()) {
+            attributes.put(entry.getKey(), entry.getValue().values());
         }
+    }
 
-        return attributes.values();
+    private void addAttributeValue(Map<String, Attribute<? extends Serializable>> attributes, Object attributeEntity,
+                                   Property attributeNameProperty, Property attributeValueProperty) {
+        String storedName = attributeNameProperty.getValue(attributeEntity).toString();
+        Serializable storedValue = (Serializable) Base64.decodeToObject(attributeValueProperty.getValue(attributeEntity).toString());
+
+        Attribute attribute = attributes.get(storedName);
+
+        if (attribute == null) {
+            attribute = new Attribute<Serializable>(storedName, storedValue);
+        } else {
+            // if it is a multi-valued attribute
+            Serializable[] values = null;
+
+            if (attribute.getValue().getClass().isArray()) {
+                values = (Serializable[]) attribute.getValue();
+            } else {
+                values = (Serializable[]) Array.newInstance(attribute.getValue().getClass(), 1);
+                values[0] = attribute.getValue();
+            }
+
+            Serializable[] newValues = Arrays.copyOf(values, values.length + 1);
+
+            newValues[newValues.length - 1] = storedValue;
+
+            attribute.setValue(newValues);
+        }
+
+        attributes.put(attribute.getName(), attribute);
     }
 
     @Override
@@ -500,40 +687,134 @@ public class JPAIdentityStore
 
         EntityMapper rootMapper = getRootMapper(type);
         EntityManager entityManager = getEntityManager(context);
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-        CriteriaQuery cq = cb.createQuery(rootMapper.getEntityType());
-        List<Predicate> predicates = new ArrayList<Predicate>();
-        Root<?> rootEntity = cq.from(rootMapper.getEntityType());
-        Partition partition = context.getPartition();
+        Query query = getIdentityQueryPlan(identityQuery, false)
+            .createQuery(entityManager, context, new ArrayList<Condition>(identityQuery.getConditions()));
+
+        if (identityQuery.getLimit() > 0) {
+            query.setMaxResults(identityQuery.getLimit());
+
+            if (identityQuery.getOffset() > 0) {
+                query.setFirstResult(identityQuery.getOffset());
+            }
+        }
+
+        for (Object entity : query.getResultList()) {
+            result.add(rootMapper.<V>createType(entity, entityManager));
+        }
+
+        return result;
+    }
+
+    @Override
+    public <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+        Class<V> type = identityQuery.getIdentityType();
 
         for (Condition condition : identityQuery.getConditions()) {
-            if (IdentityType.PARTITION.equals(condition.getParameter())) {
+            if (IdentityType.ID.equals(condition.getParameter())) {
                 if (!EqualCondition.class.isInstance(condition)) {
-                    throw new IdentityManagementException("Only equality conditions are allowed when queryng based on a partition.");
+                    throw new IdentityManagementException("Only equality conditions are allowed when queryng based on the identifier.");
                 }
 
-                EqualCondition equalCondition = (EqualCondition) condition;
-                Object value = equalCondition.getValue();
+                Object value = ((EqualCondition) condition).getValue();
 
-                if (value != null) {
-                    partition = (Partition) value;
+                if (value != null && lookupIdentityTypeById(context, type, value.toString()) != null) {
+                    return 1;
                 }
+
+                return 0;
             }
         }
 
+        Query query = getIdentityQueryPlan(identityQuery, true)
+            .createQuery(getEntityManager(context), context, new ArrayList<Condition>(identityQuery.getConditions()));
+
+        return ((Number) query.getSingleResult()).intValue();
+    }
+
+    @Override
+    public <V extends IdentityType> boolean existsQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+        Class<V> type = identityQuery.getIdentityType();
+
+        for (Condition condition : identityQuery.getConditions()) {
+            if (IdentityType.ID.equals(condition.getParameter())) {
+                if (!EqualCondition.class.isInstance(condition)) {
+                    throw new IdentityManagementException("Only equality conditions are allowed when queryng based on the identifier.");
+                }
+
+                Object value = ((EqualCondition) condition).getValue();
+
+                return value != null && lookupIdentityTypeById(context, type, value.toString()) != null;
+            }
+        }
+
+        // a single entity is enough and it is not mapped to the identity type
+        Query query = getIdentityQueryPlan(identityQuery, false)
+            .createQuery(getEntityManager(context), context, new ArrayList<Condition>(identityQuery.getConditions()));
+
+        query.setMaxResults(1);
+
+        return !query.getResultList().isEmpty();
+    }
+
+    private JPQLQueryPlan getIdentityQueryPlan(IdentityQuery<?> identityQuery, boolean count) {
+        StringBuilder key = new StringBuilder(count ? "count:" : "fetch:").append(identityQuery.getIdentityType().getName());
+
+        for (Condition condition : identityQuery.getConditions()) {
+            key.append('|').append(getQueryPlanKey(condition.getParameter())).append(':').append(condition.getClass().getSimpleName());
+
+            if (GreaterThanCondition.class.isInstance(condition)) {
+                key.append(((GreaterThanCondition) condition).isOrEqual());
+            } else if (LessThanCondition.class.isInstance(condition)) {
+                key.append(((LessThanCondition) condition).isOrEqual());
+            }
+        }
+
+        if (!count) {
+            for (Sort sort : identityQuery.getSorting()) {
+                key.append("|sort:").append(getQueryPlanKey(sort.getParameter())).append(':').append(sort.isAscending());
+            }
+
+            if (identityQuery.getLimit() > 0) {
+                key.append("|paged");
+            }
+        }
+
+        JPQLQueryPlan queryPlan = lookupQueryPlan(key.toString());
+
+        if (queryPlan == null) {
+            queryPlan = compileIdentityQuery(identityQuery, count);
+            cacheQueryPlan(key.toString(), queryPlan);
+        }
+
+        return queryPlan;
+    }
+
+    private JPQLQueryPlan compileIdentityQuery(IdentityQuery<?> identityQuery, boolean count) {
+        Class<? extends IdentityType> type = identityQuery.getIdentityType();
+        EntityMapper rootMapper = getRootMapper(type);
+        String idPropertyName = rootMapper.getProperty(Identifier.class).getValue().getName();
+        JPQLQueryPlan.Builder queryPlan = new JPQLQueryPlan.Builder();
+        List<String> entities = new ArrayList<String>();
+        List<String> predicates = new ArrayList<String>();
+
+        entities.add(getEntityName(rootMapper.getEntityType()) + " e");
+
         Entry<Property, Property> partitionProperty = rootMapper.getProperty(OwnerReference.class);
 
         if (partitionProperty != null && getConfig().supportsPartition()) {
-            Join<Object, Object> join = rootEntity.join(partitionProperty.getValue().getName());
-            predicates.add(cb.equal(join, entityManager.find(partitionProperty.getValue().getJavaClass(), partition.getId())));
+            Property property = partitionProperty.getValue();
+            predicates.add("e." + property.getName() + " = " + queryPlan.parameter(new PartitionBinding(property.getJavaClass())));
         }
 
         if (!IdentityType.class.equals(type)) {
             Property typeProperty = rootMapper.getProperty(type, IdentityClass.class).getValue();
-            predicates.add(cb.equal(rootEntity.get(typeProperty.getName()), type.getName()));
+            predicates.add("e." + typeProperty.getName() + " = " + queryPlan.parameter(new ConstantBinding(type.getName())));
         }
 
-        for (Condition condition : identityQuery.getConditions()) {
+        List<Condition> conditions = new ArrayList<Condition>(identityQuery.getConditions());
+
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition condition = conditions.get(i);
             QueryParameter queryParameter = condition.getParameter();
 
             if (IdentityType.PARTITION.equals(queryParameter)) {
@@ -542,311 +823,368 @@ public class JPAIdentityStore
 
             if (AttributeParameter.class.isInstance(queryParameter)) {
                 AttributeParameter attributeParameter = (AttributeParameter) queryParameter;
-                EntityMapper parameterEntityMapper =
-                        getEntityMapperForProperty(type, attributeParameter.getName());
+                EntityMapper parameterEntityMapper = getEntityMapperForProperty(type, attributeParameter.getName());
 
                 if (parameterEntityMapper != null) {
                     Property attributeProperty = (Property) parameterEntityMapper.getProperty(type, attributeParameter.getName()).getValue();
-                    Root<?> attributeOwnerEntity = rootEntity;
+                    String alias = "e";
 
                     if (!parameterEntityMapper.getEntityType().equals(rootMapper.getEntityType())) {
-                        attributeOwnerEntity = cq.from(parameterEntityMapper.getEntityType());
+                        alias = "a" + i;
+                        entities.add(getEntityName(parameterEntityMapper.getEntityType()) + " " + alias);
 
-                        Property ownerProperty = parameterEntityMapper.getProperty(OwnerReference.class).getValue();
+                        Entry<Property, Property> ownerProperty = parameterEntityMapper.getProperty(OwnerReference.class);
 
                         if (ownerProperty != null) {
-                            if (ownerProperty.getAnnotatedElement().isAnnotationPresent(Identifier.class)) {
-                                predicates.add(cb.and(cb.equal(attributeOwnerEntity, rootEntity)));
+                            if (ownerProperty.getValue().getAnnotatedElement().isAnnotationPresent(Identifier.class)) {
+                                predicates.add(alias + " = e");
                             } else {
-                                predicates.add(cb.and(cb.equal(attributeOwnerEntity.get(ownerProperty.getName()), rootEntity)));
+                                predicates.add(alias + "." + ownerProperty.getValue().getName() + " = e");
                             }
                         }
                     }
 
-                    addCondition(entityManager, cb, predicates, condition, attributeProperty, attributeOwnerEntity, false);
+                    Class<?> mappedEntityType = null;
+
+                    if (EqualCondition.class.isInstance(condition) && isMappedType(attributeProperty.getJavaClass())) {
+                        mappedEntityType = attributeProperty.getJavaClass();
+                    }
+
+                    predicates.add(createConditionPredicate(queryPlan, alias + "." + attributeProperty.getName(), condition, i,
+                        false, mappedEntityType));
                 } else if (getConfig().supportsAttribute()) {
-                    addAttributeQueryPredicates(type, entityManager, cb, cq, rootEntity, predicates, attributeParameter, condition, null);
+                    predicates.add(createAttributeQueryPredicate(queryPlan, type, "e", attributeParameter, condition, i));
                 }
             }
         }
 
-        Property idProperty = rootMapper.getProperty(Identifier.class).getValue();
+        List<String> orderBy = new ArrayList<String>();
 
-        cq.select(rootEntity.get(idProperty.getName()));
+        if (!count) {
+            List<Sort> sorting = new ArrayList<Sort>(identityQuery.getSorting());
 
-        cq.where(predicates.toArray(new Predicate[predicates.size()]));
-
-        if (!identityQuery.getSorting().isEmpty()) {
-            List<Order> orders = new ArrayList<Order>();
-
-            for (Sort sort : identityQuery.getSorting()) {
+            for (int i = 0; i < sorting.size(); i++) {
+                Sort sort = sorting.get(i);
                 QueryParameter queryParameter = sort.getParameter();
 
                 if (!AttributeParameter.class.isInstance(queryParameter)) {
                     throw new IdentityManagementException("Sorting parameter is not a [" + AttributeParameter.class + "].");
                 }
 
-                AttributeParameter attributeParameter = (AttributeParameter) queryParameter;
-
-                if (sort.isAscending()) {
-                    orders.add(cb.asc(rootEntity.get(attributeParameter.getName())));
-                } else {
-                    orders.add(cb.desc(rootEntity.get(attributeParameter.getName())));
-                }
+                orderBy.add(getSortExpression(type, rootMapper, (AttributeParameter) queryParameter, i, entities, predicates)
+                    + (sort.isAscending() ? " asc" : " desc"));
             }
+        }
 
-            cq.orderBy(orders);
+        if (count) {
+            queryPlan.append("select count(distinct e.").append(idPropertyName).append(")");
+        } else {
+            queryPlan.append("select e");
         }
 
-        Query query = entityManager.createQuery(cq);
+        appendFromAndWhere(queryPlan, entities, predicates);
 
-        if (identityQuery.getLimit() > 0) {
-            query.setMaxResults(identityQuery.getLimit());
+        if (!count) {
+            String separator = " order by ";
 
-            if (identityQuery.getOffset() > 0) {
-                query.setFirstResult(identityQuery.getOffset());
+            for (String expression : orderBy) {
+                queryPlan.append(separator).append(expression);
+                separator = ", ";
             }
-        }
 
-        for (Object entity : query.getResultList()) {
-            result.add(rootMapper.<V>createType(entityManager.find(rootMapper.getEntityType(), entity), entityManager));
+            if (identityQuery.getLimit() > 0) {
+                // pages are only stable if the order is total, so ties are broken by the identifier
+                queryPlan.append(separator).append("e.").append(idPropertyName).append(" asc");
+            }
         }
 
-        return result;
+        return queryPlan.build();
     }
 
-    private void addCondition(EntityManager entityManager,
-        CriteriaBuilder cb,
-        List<Predicate> predicates,
-        Condition condition,
-        Property attributeProperty,
-        Root<?> attributeOwnerEntity,
-        boolean convertValueToBase64) {
-        if (EqualCondition.class.isInstance(condition)) {
-            EqualCondition equalCondition = (EqualCondition) condition;
-            Object parameterValue = equalCondition.getValue();
+    /**
+     * <p>Resolves the expression used to sort the results by the given parameter. Only properties of the root entity, or
+     * mapped for the given type by an entity in the same hierarchy, are allowed. Properties mapped by a subclass of the
+     * root entity are not visible from the root alias, so the subclass entity is joined to the query. Parameter names are
+     * never written to a query as they are given.</p>
+     */
+    private String getSortExpression(Class<? extends IdentityType> type, EntityMapper rootMapper, AttributeParameter parameter,
+                                     int index, List<String> entities, List<String> predicates) {
+        Class<?> rootEntityType = rootMapper.getEntityType();
+        Property<Object> entityProperty = PropertyQueries.createQuery(rootEntityType)
+            .addCriteria(new NamedPropertyCriteria(parameter.getName()))
+            .getFirstResult();
 
-            if (convertValueToBase64) {
-                parameterValue = Base64.encodeObject((Serializable) parameterValue);
-            }
+        if (entityProperty != null) {
+            return "e." + entityProperty.getName();
+        }
 
-            if (isMappedType(attributeProperty.getJavaClass())) {
-                AttributedType ownerType = (AttributedType) parameterValue;
+        EntityMapper parameterEntityMapper = getEntityMapperForProperty(type, parameter.getName());
 
-                if (ownerType != null) {
-                    parameterValue = entityManager.find(attributeProperty.getJavaClass(), ownerType.getId());
-                }
+        if (parameterEntityMapper != null) {
+            Class<?> parameterEntityType = parameterEntityMapper.getEntityType();
+            String propertyName = ((Property) parameterEntityMapper.getProperty(type, parameter.getName()).getValue()).getName();
+
+            if (parameterEntityType.isAssignableFrom(rootEntityType)) {
+                return "e." + propertyName;
             }
 
-            predicates.add(cb.equal(attributeOwnerEntity.get(attributeProperty.getName()), parameterValue));
-        } else if (LikeCondition.class.isInstance(condition)) {
-            LikeCondition likeCondition = (LikeCondition) condition;
-            String parameterValue = (String) likeCondition.getValue();
+            if (rootEntityType.isAssignableFrom(parameterEntityType)) {
+                String alias = "s" + index;
+
+                entities.add(getEntityName(parameterEntityType) + " " + alias);
+                predicates.add(alias + " = e");
 
-            if (convertValueToBase64) {
-                parameterValue = Base64.encodeObject((Serializable) parameterValue);
+                return alias + "." + propertyName;
             }
+        }
 
-            predicates.add(cb.like(attributeOwnerEntity.<String>get(attributeProperty.getName()), parameterValue));
-        } else if (GreaterThanCondition.class.isInstance(condition)) {
-            GreaterThanCondition greaterThanCondition = (GreaterThanCondition) condition;
-            Comparable parameterValue = (Comparable) greaterThanCondition.getValue();
+        throw new IdentityManagementException("Sorting parameter [" + parameter.getName() + "] is not a property mapped for type ["
+            + type.getName() + "].");
+    }
 
-            if (convertValueToBase64) {
-                parameterValue = Base64.encodeObject((Serializable) parameterValue);
-            }
+    private JPQLQueryPlan getRelationshipQueryPlan(RelationshipQuery<?> query) {
+        StringBuilder key = new StringBuilder("relationship:").append(query.getRelationshipClass().getName());
+        Object[] idParameterValues = query.getParameter(Relationship.ID);
+
+        if (idParameterValues != null && idParameterValues.length > 0) {
+            key.append("|id");
+        }
 
-            if (greaterThanCondition.isOrEqual()) {
-                predicates.add(cb
-                    .greaterThanOrEqualTo(attributeOwnerEntity.<Comparable>get(attributeProperty.getName()), parameterValue));
+        for (QueryParameter queryParameter : query.getParameters().keySet()) {
+            if (queryParameter instanceof RelationshipQueryParameter) {
+                key.append("|member:").append(((RelationshipQueryParameter) queryParameter).getName());
             } else {
-                predicates.add(cb
-                    .greaterThan(attributeOwnerEntity.<Comparable>get(attributeProperty.getName()), parameterValue));
+                key.append('|').append(getQueryPlanKey(queryParameter));
             }
-        } else if (LessThanCondition.class.isInstance(condition)) {
-            LessThanCondition lessThanCondition = (LessThanCondition) condition;
-            Comparable parameterValue = (Comparable) lessThanCondition.getValue();
+        }
 
-            if (convertValueToBase64) {
-                parameterValue = Base64.encodeObject((Serializable) parameterValue);
-            }
+        JPQLQueryPlan queryPlan = lookupQueryPlan(key.toString());
 
-            if (lessThanCondition.isOrEqual()) {
-                predicates.add(cb
-                    .lessThanOrEqualTo(attributeOwnerEntity
-                        .<Comparable>get(attributeProperty.getName()), parameterValue));
-            } else {
-                predicates.add(cb
-                    .lessThan(attributeOwnerEntity.<Comparable>get(attributeProperty.getName()), parameterValue));
-            }
-        } else if (BetweenCondition.class.isInstance(condition)) {
-            BetweenCondition betweenCondition = (BetweenCondition) condition;
-            Comparable x = betweenCondition.getX();
-            Comparable y = betweenCondition.getY();
+        if (queryPlan == null) {
+            queryPlan = compileRelationshipQuery(query);
+            cacheQueryPlan(key.toString(), queryPlan);
+        }
 
-            if (convertValueToBase64) {
-                x = Base64.encodeObject((Serializable) x);
-                y = Base64.encodeObject((Serializable) y);
-            }
+        return queryPlan;
+    }
 
-            predicates.add(cb.between(attributeOwnerEntity.<Comparable>get(attributeProperty.getName()), x, y));
-        } else if (InCondition.class.isInstance(condition)) {
-            InCondition inCondition = (InCondition) condition;
-            Object[] valuesToSearch = new String[inCondition.getValue().length];
+    private JPQLQueryPlan compileRelationshipQuery(RelationshipQuery<?> query) {
+        Class<? extends Relationship> relationshipType = query.getRelationshipClass();
+        EntityMapper entityMapper = getRootMapper(relationshipType);
+        String idPropertyName = entityMapper.getProperty(Identifier.class).getValue().getName();
+        JPQLQueryPlan.Builder queryPlan = new JPQLQueryPlan.Builder();
+        List<String> entities = new ArrayList<String>();
+        List<String> predicates = new ArrayList<String>();
 
-            for (int i = 0; i < inCondition.getValue().length; i++) {
-                if (convertValueToBase64) {
-                    valuesToSearch[i] = Base64.encodeObject((Serializable) inCondition.getValue()[i]);
-                } else {
-                    valuesToSearch[i] = inCondition.getValue()[i];
-                }
-            }
+        entities.add(getEntityName(entityMapper.getEntityType()) + " r");
 
-            predicates.add(attributeOwnerEntity.get(attributeProperty.getName()).in(valuesToSearch));
-        } else {
-            throw new IdentityManagementException("Unsupported query condition [" + condition + "].");
+        if (!Relationship.class.equals(relationshipType)) {
+            Property typeProperty = entityMapper.getProperty(RelationshipClass.class).getValue();
+            predicates.add("r." + typeProperty.getName() + " = " + queryPlan.parameter(new ConstantBinding(relationshipType.getName())));
         }
-    }
 
-    @Override
-    public <V extends Relationship> List<V> fetchQueryResults(IdentityContext
-                                                                      context, RelationshipQuery<V> query) {
-        EntityManager entityManager = getEntityManager(context);
-        List entities = new ArrayList();
-
-        Object[] identityParameterValues = query.getParameter(Relationship.IDENTITY);
+        List<QueryParameter> parameters = new ArrayList<QueryParameter>(query.getParameters().keySet());
+        Object[] idParameterValues = query.getParameter(Relationship.ID);
 
-        if (identityParameterValues != null) {
-            for (Object parameterValue : identityParameterValues) {
-                if (IdentityType.class.isInstance(parameterValue)) {
-                    entities = findIdentityTypeRelationships(context, query.getRelationshipClass(), (IdentityType) parameterValue);
-                } else {
-                    throw MESSAGES.queryUnsupportedParameterValue("Relationship.IDENTITY", parameterValue);
-                }
-            }
+        if (idParameterValues != null && idParameterValues.length > 0) {
+            predicates.add("r." + idPropertyName + " = "
+                + queryPlan.parameter(new ParameterBinding(parameters.indexOf(Relationship.ID), false, false, null)));
         } else {
-            Class<V> relationshipType = query.getRelationshipClass();
-            EntityMapper entityMapper = getRootMapper(relationshipType);
-            CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-            CriteriaQuery<?> cq = cb.createQuery(entityMapper.getEntityType());
-            Root root = cq.from(entityMapper.getEntityType());
-            List<Predicate> predicates = new ArrayList<Predicate>();
-            Property typeProperty = entityMapper.getProperty(RelationshipClass.class).getValue();
+            for (int i = 0; i < parameters.size(); i++) {
+                QueryParameter queryParameter = parameters.get(i);
+
+                if (queryParameter instanceof RelationshipQueryParameter) {
+                    RelationshipQueryParameter identityTypeParameter = (RelationshipQueryParameter) queryParameter;
+                    EntityMapper relationshipMemberMapper = getEntityMapperForProperty(relationshipType, RelationshipMember.class);
+                    Property<Object> identityProperty = relationshipMemberMapper.getProperty(RelationshipMember.class).getValue();
+                    Property<Object> ownerProperty = relationshipMemberMapper.getProperty(OwnerReference.class).getValue();
+                    Property<String> descriptorProperty = relationshipMemberMapper.getProperty(RelationshipDescriptor.class).getValue();
+                    boolean formatted = identityProperty.getJavaClass().equals(String.class);
+                    String alias = "m" + i;
+                    String member = alias + "." + identityProperty.getName();
+
+                    if (!formatted) {
+                        EntityMapper identityTypeMapper = getMapperForEntity(identityProperty.getJavaClass());
+                        member = member + "." + identityTypeMapper.getProperty(Identifier.class).getValue().getName();
+                    }
+
+                    predicates.add("r." + idPropertyName + " in (select " + alias + "." + ownerProperty.getName() + "." + idPropertyName
+                        + " from " + getEntityName(relationshipMemberMapper.getEntityType()) + " " + alias
+                        + " where " + alias + "." + descriptorProperty.getName() + " = "
+                        + queryPlan.parameter(new ConstantBinding(identityTypeParameter.getName()))
+                        + " and " + member + " in (" + queryPlan.parameter(new RelationshipMemberBinding(i, formatted)) + "))");
+                } else if (AttributeParameter.class.equals(queryParameter.getClass())) {
+                    AttributeParameter attributeParameter = (AttributeParameter) queryParameter;
+                    EntityMapper parameterEntityMapper = getEntityMapperForProperty(relationshipType, attributeParameter.getName());
+
+                    if (parameterEntityMapper != null) {
+                        String alias = "r";
+                        Property ownerProperty = parameterEntityMapper.getProperty(relationshipType, OwnerReference.class).getValue();
+
+                        if (ownerProperty.getJavaClass().equals(entityMapper.getEntityType())) {
+                            alias = "a" + i;
+                            entities.add(getEntityName(parameterEntityMapper.getEntityType()) + " " + alias);
+                            predicates.add(alias + "." + ownerProperty.getName() + " = r");
+                        }
+
+                        Property mappedProperty = parameterEntityMapper.getProperty(relationshipType, attributeParameter.getName()).getValue();
+                        Class<?> mappedEntityType = null;
+
+                        if (isMappedType(mappedProperty.getJavaClass())) {
+                            mappedEntityType = mappedProperty.getJavaClass();
+                        }
 
-            if (!Relationship.class.equals(relationshipType)) {
-                predicates.add(cb.equal(root.get(typeProperty.getName()), relationshipType.getName()));
+                        predicates.add(alias + "." + mappedProperty.getName() + " = "
+                            + queryPlan.parameter(new ParameterBinding(i, false, false, mappedEntityType)));
+                    } else {
+                        predicates.add(createAttributeQueryPredicate(queryPlan, relationshipType, "r", attributeParameter, null, i));
+                    }
+                }
             }
+        }
 
-            Object[] idParameterValues = query.getParameter(Relationship.ID);
-            Property idProperty = entityMapper.getProperty(Identifier.class).getValue();
+        queryPlan.append("select r");
 
-            if (idParameterValues != null && idParameterValues.length > 0) {
-                predicates.add(cb.equal(root.get(idProperty.getName()), idParameterValues[0]));
-            } else {
-                for (Entry<QueryParameter, Object[]> entry : query.getParameters().entrySet()) {
-                    QueryParameter queryParameter = entry.getKey();
-                    Object[] values = entry.getValue();
+        appendFromAndWhere(queryPlan, entities, predicates);
 
-                    if (queryParameter instanceof RelationshipQueryParameter) {
-                        RelationshipQueryParameter identityTypeParameter = (RelationshipQueryParameter) entry.getKey();
-                        List<String> identityTypeIdentifiers = new ArrayList<String>();
-                        EntityMapper relationshipMemberMapper = getEntityMapperForProperty(relationshipType, RelationshipMember.class);
+        return queryPlan.build();
+    }
 
-                        for (Object object : values) {
-                            IdentityType identityType = (IdentityType) object;
+    private String getQueryPlanKey(QueryParameter queryParameter) {
+        if (AttributeParameter.class.isInstance(queryParameter)) {
+            return queryParameter.getClass().getSimpleName() + ":" + ((AttributeParameter) queryParameter).getName();
+        }
 
-                            if (identityType == null) {
-                                return Collections.emptyList();
-                            }
+        // parameters other than attributes are not part of the compiled queries
+        return "?";
+    }
 
-                            Property<Object> identityTypeProperty = relationshipMemberMapper.getProperty(RelationshipMember.class).getValue();
+    private JPQLQueryPlan lookupQueryPlan(String key) {
+        synchronized (this.queryPlans) {
+            return this.queryPlans.get(key);
+        }
+    }
 
-                            if (identityTypeProperty.getJavaClass().equals(String.class)) {
-                                identityTypeIdentifiers.add(IdentityTypeUtil.formatId(identityType));
-                            } else {
-                                identityTypeIdentifiers.add(identityType.getId());
-                            }
-                        }
+    private void cacheQueryPlan(String key, JPQLQueryPlan queryPlan) {
+        synchronized (this.queryPlans) {
+            this.queryPlans.put(key, queryPlan);
+        }
+    }
 
-                        Property<Object> relationshipProperty = relationshipMemberMapper.getProperty(OwnerReference.class).getValue();
-                        Subquery<?> subQuery = cq.subquery(relationshipMemberMapper.getEntityType());
-                        Root fromRelationshipIdentityType = subQuery.from(relationshipMemberMapper.getEntityType());
+    private void appendFromAndWhere(JPQLQueryPlan.Builder queryPlan, List<String> entities, List<String> predicates) {
+        String separator = " from ";
 
-                        subQuery.select(fromRelationshipIdentityType.get(relationshipProperty.getName()).get(idProperty.getName()));
+        for (String entity : entities) {
+            queryPlan.append(separator).append(entity);
+            separator = ", ";
+        }
 
-                        List<Predicate> subQueryPredicates = new ArrayList<Predicate>();
-                        Property<String> descriptorProperty = relationshipMemberMapper.getProperty(RelationshipDescriptor.class).getValue();
+        separator = " where ";
 
-                        subQueryPredicates.add(
-                                cb.equal(fromRelationshipIdentityType.get(descriptorProperty.getName()),
-                                        identityTypeParameter.getName()));
+        for (String predicate : predicates) {
+            queryPlan.append(separator).append(predicate);
+            separator = " and ";
+        }
+    }
 
-                        Property<Object> identityProperty = relationshipMemberMapper.getProperty(RelationshipMember.class).getValue();
+    private String createConditionPredicate(JPQLQueryPlan.Builder queryPlan, String path, Condition condition, int index,
+                                            boolean encoded, Class<?> mappedEntityType) {
+        if (EqualCondition.class.isInstance(condition)) {
+            return path + " = " + queryPlan.parameter(new ConditionBinding(index, false, encoded, mappedEntityType));
+        } else if (LikeCondition.class.isInstance(condition)) {
+            return path + " like " + queryPlan.parameter(new ConditionBinding(index, false, encoded, null));
+        } else if (GreaterThanCondition.class.isInstance(condition)) {
+            String operator = ((GreaterThanCondition) condition).isOrEqual() ? " >= " : " > ";
+            return path + operator + queryPlan.parameter(new ConditionBinding(index, false, encoded, null));
+        } else if (LessThanCondition.class.isInstance(condition)) {
+            String operator = ((LessThanCondition) condition).isOrEqual() ? " <= " : " < ";
+            return path + operator + queryPlan.parameter(new ConditionBinding(index, false, encoded, null));
+        } else if (BetweenCondition.class.isInstance(condition)) {
+            return path + " between " + queryPlan.parameter(new ConditionBinding(index, false, encoded, null))
+                + " and " + queryPlan.parameter(new ConditionBinding(index, true, encoded, null));
+        } else if (InCondition.class.isInstance(condition)) {
+            return path + " in (" + queryPlan.parameter(new ConditionBinding(index, false, encoded, null)) + ")";
+        }
 
-                        if (identityProperty.getJavaClass().equals(String.class)) {
-                            subQueryPredicates.add(fromRelationshipIdentityType.get(identityProperty.getName()).in(identityTypeIdentifiers));
-                        } else {
-                            Join join = fromRelationshipIdentityType.join(identityProperty.getName());
-                            EntityMapper identityTypeMapper = getMapperForEntity(identityProperty.getJavaClass());
-                            Property identifierProperty = identityTypeMapper.getProperty(Identifier.class).getValue();
+        throw new IdentityManagementException("Unsupported query condition [" + condition + "].");
+    }
 
-                            subQueryPredicates.add(join.get(identifierProperty.getName()).in(identityTypeIdentifiers));
-                        }
+    /**
+     * <p>Creates a predicate matching the owners of ad-hoc attributes with the given name and values. If no condition is
+     * given, values are read from the parameter at the given index of a relationship query.</p>
+     */
+    private String createAttributeQueryPredicate(JPQLQueryPlan.Builder queryPlan, Class<? extends AttributedType> attributedType,
+                                                 String ownerAlias, AttributeParameter attributeParameter, Condition condition,
+                                                 int index) {
+        EntityMapper attributeMapper = getAttributeMapper(attributedType);
+        Property ownerProperty = attributeMapper.getProperty(Attribute.class, OwnerReference.class).getValue();
+        Property attributeNameProperty = attributeMapper.getProperty(Attribute.class, AttributeName.class).getValue();
+        Property attributeValueProperty = attributeMapper.getProperty(Attribute.class, AttributeValue.class).getValue();
+        String ownerIdentifierPropertyName = getRootMapper(attributedType).getProperty(Identifier.class).getValue().getName();
+        String alias = "s" + index;
+        String selection = alias + "." + ownerProperty.getName();
 
-                        subQuery.where(subQueryPredicates.toArray(new Predicate[subQueryPredicates.size()]));
+        if (!String.class.equals(ownerProperty.getJavaClass())) {
+            selection = selection + "." + ownerIdentifierPropertyName;
+        }
 
-                        predicates.add(cb.in(root.get(idProperty.getName())).value(subQuery));
-                    } else if (AttributeParameter.class.equals(entry.getKey().getClass())) {
-                        AttributeParameter attributeParameter = (AttributeParameter) entry.getKey();
-                        Object[] parameterValues = entry.getValue();
-                        EntityMapper parameterEntityMapper =
-                                getEntityMapperForProperty(relationshipType, attributeParameter.getName());
+        String valuePredicate;
 
-                        if (parameterEntityMapper != null) {
-                            Root<?> propertyEntityJoin = root;
+        if (condition == null) {
+            valuePredicate = alias + "." + attributeValueProperty.getName() + " in ("
+                + queryPlan.parameter(new ParameterBinding(index, true, true, null)) + ")";
+        } else {
+            valuePredicate = createConditionPredicate(queryPlan, alias + "." + attributeValueProperty.getName(), condition,
+                index, true, null);
+        }
 
-                            Property ownerProperty = parameterEntityMapper.getProperty(relationshipType, OwnerReference.class).getValue();
+        String valueCount = queryPlan.parameter(new ValueCountBinding(index));
 
-                            if (ownerProperty.getJavaClass().equals(entityMapper.getEntityType())) {
-                                propertyEntityJoin = cq.from(parameterEntityMapper.getEntityType());
-                                predicates.add(cb.and(cb.equal(propertyEntityJoin.get(ownerProperty.getName()), root)));
-                            }
+        return ownerAlias + "." + ownerIdentifierPropertyName + " in (select " + selection
+            + " from " + getEntityName(attributeMapper.getEntityType()) + " " + alias
+            + " where " + alias + "." + attributeNameProperty.getName() + " = "
+            + queryPlan.parameter(new ConstantBinding(attributeParameter.getName()))
+            + " and " + valuePredicate
+            + " group by " + selection + " having count(" + selection + ") = " + valueCount + ")";
+    }
 
-                            Object parameterValue = parameterValues[0];
+    @Override
+    public <V extends Relationship> List<V> fetchQueryResults(IdentityContext
+                                                                      context, RelationshipQuery<V> query) {
+        EntityManager entityManager = getEntityManager(context);
+        List entities = new ArrayList();
 
-                            Property mappedProperty = parameterEntityMapper.getProperty(relationshipType, attributeParameter.getName()).getValue();
+        Object[] identityParameterValues = query.getParameter(Relationship.IDENTITY);
 
-                            if (isMappedType(mappedProperty.getJavaClass())) {
-                                AttributedType ownerType = (AttributedType) parameterValue;
+        if (identityParameterValues != null) {
+            for (Object parameterValue : identityParameterValues) {
+                if (IdentityType.class.isInstance(parameterValue)) {
+                    entities = findIdentityTypeRelationships(context, query.getRelationshipClass(), (IdentityType) parameterValue);
+                } else {
+                    throw MESSAGES.queryUnsupportedParameterValue("Relationship.IDENTITY", parameterValue);
+                }
+            }
+        } else {
+            Object[] idParameterValues = query.getParameter(Relationship.ID);
 
-                                if (ownerType != null) {
-                                    parameterValue = entityManager.find(mappedProperty.getJavaClass(), ownerType.getId());
-                                }
+            if (idParameterValues == null || idParameterValues.length == 0) {
+                for (Entry<QueryParameter, Object[]> entry : query.getParameters().entrySet()) {
+                    if (entry.getKey() instanceof RelationshipQueryParameter) {
+                        for (Object value : entry.getValue()) {
+                            if (value == null) {
+                                return Collections.emptyList();
                             }
-
-                            predicates.add(cb.equal(propertyEntityJoin.get(mappedProperty.getName()), parameterValue));
-                        } else {
-                            addAttributeQueryPredicates(relationshipType, entityManager, cb, cq, root, predicates,
-                                    attributeParameter, null, parameterValues);
                         }
                     }
                 }
             }
 
-            cq.select(root);
-
-            cq.where(predicates.toArray(new Predicate[predicates.size()]));
-
-            entities = entityManager.createQuery(cq).getResultList();
-        }
-
-        List<V> result = new ArrayList<V>();
-
-        for (Object relationshipObject : entities) {
-            result.add(this.<V>convertToRelationshipType(context, relationshipObject));
+            entities = getRelationshipQueryPlan(query)
+                .createQuery(entityManager, context, new ArrayList<Object[]>(query.getParameters().values()))
+                .getResultList();
         }
 
-        return result;
+        return convertToRelationshipTypes(context, entities);
     }
 
     @Override
@@ -1134,19 +1472,100 @@ public class JPAIdentityStore
 
     }
 
+    private <T extends Relationship> List<T> convertToRelationshipTypes(IdentityContext context, List<?> relationshipObjects) {
+        EntityManager entityManager = getEntityManager(context);
+        PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        Map<EntityMapper, List<Object>> relationshipsByMemberMapper = new LinkedHashMap<EntityMapper, List<Object>>();
+
+        for (Object relationshipObject : relationshipObjects) {
+            EntityMapper relationshipMemberMapper =
+                getEntityMapperForProperty(getRelationshipType(relationshipObject), RelationshipMember.class);
+            List<Object> relationships = relationshipsByMemberMapper.get(relationshipMemberMapper);
+
+            if (relationships == null) {
+                relationships = new ArrayList<Object>();
+                relationshipsByMemberMapper.put(relationshipMemberMapper, relationships);
+            }
+
+            relationships.add(relationshipObject);
+        }
+
+        // members are keyed by the identifier of their owner relationship entity
+        Map<Object, List<Object>> membersByRelationship = new HashMap<Object, List<Object>>();
+
+        for (Entry<EntityMapper, List<Object>> entry : relationshipsByMemberMapper.entrySet()) {
+            EntityMapper relationshipMemberMapper = entry.getKey();
+            Property ownerProperty = relationshipMemberMapper.getProperty(OwnerReference.class).getValue();
+            Property identityProperty = relationshipMemberMapper.getProperty(RelationshipMember.class).getValue();
+            boolean isReference = !String.class.equals(identityProperty.getJavaClass());
+            List<Object> relationships = entry.getValue();
+            CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+
+            for (int start = 0; start < relationships.size(); start += MAX_OWNERS_PER_QUERY) {
+                List<Object> batch = relationships.subList(start, Math.min(relationships.size(), start + MAX_OWNERS_PER_QUERY));
+                CriteriaQuery<?> cq = cb.createQuery(relationshipMemberMapper.getEntityType());
+                Root<?> from = cq.from(relationshipMemberMapper.getEntityType());
+
+                if (isReference) {
+                    // the identity types are fetched along with the members instead of being loaded one by one
+                    from.fetch(identityProperty.getName(), JoinType.LEFT);
+                }
+
+                cq.where(from.get(ownerProperty.getName()).in(batch));
+
+                for (Object member : entityManager.createQuery(cq).getResultList()) {
+                    Object relationshipId = persistenceUnitUtil.getIdentifier(ownerProperty.getValue(member));
+                    List<Object> members = membersByRelationship.get(relationshipId);
+
+                    if (members == null) {
+                        members = new ArrayList<Object>();
+                        membersByRelationship.put(relationshipId, members);
+                    }
+
+                    members.add(member);
+                }
+            }
+        }
+
+        List<T> result = new ArrayList<T>();
+
+        for (Object relationshipObject : relationshipObjects) {
+            List<?> members = membersByRelationship.get(persistenceUnitUtil.getIdentifier(relationshipObject));
+
+            if (members == null) {
+                members = Collections.emptyList();
+            }
+
+            result.add(this.<T>convertToRelationshipType(context, relationshipObject, members));
+        }
+
+        return result;
+    }
+
     private <T extends Relationship> T convertToRelationshipType(IdentityContext context, Object
             relationshipObject) {
+        return convertToRelationshipType(context, relationshipObject, null);
+    }
+
+    private Class<? extends AttributedType> getRelationshipType(Object relationshipObject) {
         EntityMapper relationshipTypeMapper = getMapperForEntity(relationshipObject.getClass());
         Property typeProperty = relationshipTypeMapper.getTypeProperty();
         Object relationshipTypeName = typeProperty.getValue(relationshipObject);
-        Class<? extends AttributedType> relationshipType;
 
         try {
-            relationshipType = classForName(relationshipTypeName.toString());
+            return classForName(relationshipTypeName.toString());
         } catch (ClassNotFoundException e) {
             throw new IdentityManagementException("Could not get type name from entity [" + relationshipObject + "].", e);
         }
+    }
 
+    /**
+     * <p>Creates a {@link Relationship} from the given entity. If <code>members</code> is null, the relationship members
+     * are queried from the database.</p>
+     */
+    private <T extends Relationship> T convertToRelationshipType(IdentityContext context, Object relationshipObject,
+                                                                  List<?> members) {
+        Class<? extends AttributedType> relationshipType = getRelationshipType(relationshipObject);
         EntityMapper relationshipMemberMapper = getEntityMapperForProperty(relationshipType, RelationshipMember.class);
         Property<Object> identityProperty = relationshipMemberMapper.getProperty(relationshipType, RelationshipMember.class).getValue();
         Property<String> descriptorProperty = relationshipMemberMapper.getProperty(relationshipType, RelationshipDescriptor.class).getValue();
@@ -1163,7 +1582,11 @@ public class JPAIdentityStore
             reference = new RelationshipReference(relationshipInstance);
         }
 
-        for (Object object : findChildRelationships(context, relationshipInstance)) {
+        if (members == null) {
+            members = findChildRelationships(context, relationshipInstance);
+        }
+
+        for (Object object : members) {
             String descriptor = descriptorProperty.getValue(object).toString();
 
             Property<Object> identityTypeProperty = PropertyQueries.createQuery(relationshipInstance.getClass())
@@ -1317,67 +1740,6 @@ public class JPAIdentityStore
         return getMapperFor(aClass).get(0);
     }
 
-    private void addAttributeQueryPredicates(Class<? extends AttributedType> attributedType,
-        EntityManager entityManager,
-        final CriteriaBuilder cb,
-        final CriteriaQuery<?> cq,
-        final Root from,
-        final List<Predicate> predicates,
-        final AttributeParameter attributeParameter,
-        final Condition condition,
-        final Object[] parameterValues) {
-        int valuesLength = 1;
-
-        if (condition != null) {
-            if (InCondition.class.isInstance(condition)) {
-                InCondition inCondition = (InCondition) condition;
-                valuesLength = inCondition.getValue().length;
-            }
-        } else {
-            valuesLength = parameterValues.length;
-        }
-
-        EntityMapper attributeMapper = getAttributeMapper(attributedType);
-        Subquery<?> subQueryOwnerAttributesByValue = cq.subquery(attributeMapper.getEntityType());
-        Root fromAttributeType = subQueryOwnerAttributesByValue.from(attributeMapper.getEntityType());
-        Property ownerProperty = attributeMapper.getProperty(Attribute.class, OwnerReference.class).getValue();
-        String ownerIdentifierPropertyName = getRootMapper(attributedType).getProperty(Identifier.class).getValue().getName();
-        Path selection;
-
-        if (String.class.equals(ownerProperty.getJavaClass())) {
-            selection = fromAttributeType.get(ownerProperty.getName());
-        } else {
-            selection = fromAttributeType.get(ownerProperty.getName()).get(ownerIdentifierPropertyName);
-        }
-
-        subQueryOwnerAttributesByValue.select(selection);
-
-        List<Predicate> conjunction = new ArrayList<Predicate>();
-
-        Property attributeNameProperty = attributeMapper.getProperty(Attribute.class, AttributeName.class).getValue();
-
-        conjunction.add(cb.equal(fromAttributeType.get(attributeNameProperty.getName()), attributeParameter.getName()));
-
-        Property attributeValueProperty = attributeMapper.getProperty(Attribute.class, AttributeValue.class).getValue();
-
-        if (condition == null) {
-            Object[] valuesToSearch = new String[parameterValues.length];
-
-            for (int i = 0; i < parameterValues.length; i++) {
-                valuesToSearch[i] = Base64.encodeObject((Serializable) parameterValues[i]);
-            }
-
-            conjunction.add(fromAttributeType.get(attributeValueProperty.getName()).in((Object[]) valuesToSearch));
-        } else {
-            addCondition(entityManager, cb, conjunction, condition, attributeValueProperty, fromAttributeType, true);
-        }
-
-        subQueryOwnerAttributesByValue.where(conjunction.toArray(new Predicate[conjunction.size()]));
-        subQueryOwnerAttributesByValue.groupBy(selection).having(cb.equal(cb.count(selection), valuesLength));
-
-        predicates.add(cb.in(from.get(ownerIdentifierPropertyName)).value(subQueryOwnerAttributesByValue));
-    }
-
     private EntityMapper getAttributeMapper(Class<? extends AttributedType> attributedType) {
         List<EntityMapper> attributeMappers = getAttributeMappers();
 
@@ -0,0 +1,363 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.jpa.internal;
+
+import org.picketlink.common.util.Base64;
+import org.picketlink.idm.internal.util.IdentityTypeUtil;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.query.Condition;
+import org.picketlink.idm.query.internal.BetweenCondition;
+import org.picketlink.idm.query.internal.EqualCondition;
+import org.picketlink.idm.query.internal.GreaterThanCondition;
+import org.picketlink.idm.query.internal.InCondition;
+import org.picketlink.idm.query.internal.LessThanCondition;
+import org.picketlink.idm.query.internal.LikeCondition;
+import org.picketlink.idm.spi.IdentityContext;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A JPQL query compiled from the shape of a {@link org.picketlink.idm.query.IdentityQuery} or
+ * {@link org.picketlink.idm.query.RelationshipQuery}: the types, parameters, conditions and sorting being used.</p>
+ *
+ * <p>Plans do not hold any value from the query they were compiled from. Values are bound to the named parameters of
+ * the query string each time a plan is executed, by reading them from the arguments of the executing query: the
+ * conditions of an identity query or the parameter values of a relationship query, in their iteration order.
+ * Given that the query string is always the same for a given shape, the query plan cache of the JPA provider is also
+ * able to reuse its own parsed queries.</p>
+ *
+ * <p>Instances are immutable and can be shared by concurrent threads.</p>
+ *
+ * @author agent
+ */
+class JPQLQueryPlan {
+
+    private final String queryString;
+    private final List<Binding> bindings;
+
+    private JPQLQueryPlan(String queryString, List<Binding> bindings) {
+        this.queryString = queryString;
+        this.bindings = Collections.unmodifiableList(new ArrayList<Binding>(bindings));
+    }
+
+    String getQueryString() {
+        return this.queryString;
+    }
+
+    /**
+     * <p>Creates a {@link Query} from this plan and binds the values read from the given arguments.</p>
+     *
+     * @param entityManager
+     * @param context
+     * @param arguments The conditions of an identity query or the parameter values of a relationship query.
+     * @return
+     */
+    Query createQuery(EntityManager entityManager, IdentityContext context, List<?> arguments) {
+        Query query = entityManager.createQuery(this.queryString);
+
+        for (int i = 0; i < this.bindings.size(); i++) {
+            query.setParameter(parameterName(i), this.bindings.get(i).getValue(entityManager, context, arguments));
+        }
+
+        return query;
+    }
+
+    static String getEntityName(Class<?> entityType) {
+        Entity entity = entityType.getAnnotation(Entity.class);
+
+        if (entity != null && !"".equals(entity.name())) {
+            return entity.name();
+        }
+
+        return entityType.getSimpleName();
+    }
+
+    private static String parameterName(int index) {
+        return "p" + index;
+    }
+
+    /**
+     * <p>Builds the query string of a plan, collecting the bindings for each parameter.</p>
+     */
+    static class Builder {
+
+        private final StringBuilder queryString = new StringBuilder();
+        private final List<Binding> bindings = new ArrayList<Binding>();
+
+        Builder append(Object fragment) {
+            this.queryString.append(fragment);
+            return this;
+        }
+
+        /**
+         * <p>Registers the given binding and returns the parameter to be used in the query string.</p>
+         *
+         * @param binding
+         * @return
+         */
+        String parameter(Binding binding) {
+            this.bindings.add(binding);
+            return ":" + parameterName(this.bindings.size() - 1);
+        }
+
+        JPQLQueryPlan build() {
+            return new JPQLQueryPlan(this.queryString.toString(), this.bindings);
+        }
+    }
+
+    /**
+     * <p>Resolves the value of a query parameter.</p>
+     */
+    interface Binding {
+        Object getValue(EntityManager entityManager, IdentityContext context, List<?> arguments);
+    }
+
+    /**
+     * <p>Binds a value that is part of the shape of the query, like a type name.</p>
+     */
+    static class ConstantBinding implements Binding {
+
+        private final Object value;
+
+        ConstantBinding(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object getValue(EntityManager entityManager, IdentityContext context, List<?> arguments) {
+            return this.value;
+        }
+    }
+
+    /**
+     * <p>Binds the partition entity from the {@link IdentityType#PARTITION} condition, if any, or from the context.</p>
+     */
+    static class PartitionBinding implements Binding {
+
+        private final Class<?> partitionEntityType;
+
+        PartitionBinding(Class<?> partitionEntityType) {
+            this.partitionEntityType = partitionEntityType;
+        }
+
+        @Override
+        public Object getValue(EntityManager entityManager, IdentityContext context, List<?> arguments) {
+            Partition partition = context.getPartition();
+
+            for (Object argument : arguments) {
+                Condition condition = (Condition) argument;
+
+                if (IdentityType.PARTITION.equals(condition.getParameter())) {
+                    Object value = ((EqualCondition) condition).getValue();
+
+                    if (value != null) {
+                        partition = (Partition) value;
+                    }
+                }
+            }
+
+            return entityManager.find(this.partitionEntityType, partition.getId());
+        }
+    }
+
+    /**
+     * <p>Binds the value of an identity query condition.</p>
+     */
+    static class ConditionBinding implements Binding {
+
+        private final int index;
+        private final boolean upperBound;
+        private final boolean encoded;
+        private final Class<?> mappedEntityType;
+
+        /**
+         * @param index The position of the condition.
+         * @param upperBound If the upper bound of a {@link BetweenCondition} should be bound, instead of the lower bound.
+         * @param encoded If the values should be converted to Base64, as they are stored for ad-hoc attributes.
+         * @param mappedEntityType If not null, values are types to be bound as their entity of the given type.
+         */
+        ConditionBinding(int index, boolean upperBound, boolean encoded, Class<?> mappedEntityType) {
+            this.index = index;
+            this.upperBound = upperBound;
+            this.encoded = encoded;
+            this.mappedEntityType = mappedEntityType;
+        }
+
+        @Override
+        public Object getValue(EntityManager entityManager, IdentityContext context, List<?> arguments) {
+            Condition condition = (Condition) arguments.get(this.index);
+
+            if (InCondition.class.isInstance(condition)) {
+                List<Object> values = new ArrayList<Object>();
+
+                for (Object value : ((InCondition) condition).getValue()) {
+                    values.add(convert(entityManager, value));
+                }
+
+                return values;
+            }
+
+            Object value;
+
+            if (EqualCondition.class.isInstance(condition)) {
+                value = ((EqualCondition) condition).getValue();
+            } else if (LikeCondition.class.isInstance(condition)) {
+                value = ((LikeCondition) condition).getValue();
+            } else if (GreaterThanCondition.class.isInstance(condition)) {
+                value = ((GreaterThanCondition) condition).getValue();
+            } else if (LessThanCondition.class.isInstance(condition)) {
+                value = ((LessThanCondition) condition).getValue();
+            } else if (this.upperBound) {
+                value = ((BetweenCondition) condition).getY();
+            } else {
+                value = ((BetweenCondition) condition).getX();
+            }
+
+            return convert(entityManager, value);
+        }
+
+        private Object convert(EntityManager entityManager, Object value) {
+            if (this.encoded) {
+                return Base64.encodeObject((Serializable) value);
+            }
+
+            if (this.mappedEntityType != null && value != null) {
+                return entityManager.find(this.mappedEntityType, ((AttributedType) value).getId());
+            }
+
+            return value;
+        }
+    }
+
+    /**
+     * <p>Binds the number of values of an identity query condition, or of a relationship query parameter.</p>
+     */
+    static class ValueCountBinding implements Binding {
+
+        private final int index;
+
+        ValueCountBinding(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Object getValue(EntityManager entityManager, IdentityContext context, List<?> arguments) {
+            Object argument = arguments.get(this.index);
+
+            if (InCondition.class.isInstance(argument)) {
+                return Long.valueOf(((InCondition) argument).getValue().length);
+            }
+
+            if (Object[].class.isInstance(argument)) {
+                return Long.valueOf(((Object[]) argument).length);
+            }
+
+            return Long.valueOf(1);
+        }
+    }
+
+    /**
+     * <p>Binds the values of a relationship query parameter.</p>
+     */
+    static class ParameterBinding implements Binding {
+
+        private final int index;
+        private final boolean allValues;
+        private final boolean encoded;
+        private final Class<?> mappedEntityType;
+
+        /**
+         * @param index The position of the parameter.
+         * @param allValues If all values should be bound as a list, instead of only the first one.
+         * @param encoded If the values should be converted to Base64, as they are stored for ad-hoc attributes.
+         * @param mappedEntityType If not null, the value is a type to be bound as its entity of the given type.
+         */
+        ParameterBinding(int index, boolean allValues, boolean encoded, Class<?> mappedEntityType) {
+            this.index = index;
+            this.allValues = allValues;
+            this.encoded = encoded;
+            this.mappedEntityType = mappedEntityType;
+        }
+
+        @Override
+        public Object getValue(EntityManager entityManager, IdentityContext context, List<?> arguments) {
+            Object[] values = (Object[]) arguments.get(this.index);
+
+            if (this.allValues) {
+                List<Object> result = new ArrayList<Object>();
+
+                for (Object value : values) {
+                    result.add(this.encoded ? Base64.encodeObject((Serializable) value) : value);
+                }
+
+                return result;
+            }
+
+            Object value = values[0];
+
+            if (this.mappedEntityType != null && value != null) {
+                return entityManager.find(this.mappedEntityType, ((AttributedType) value).getId());
+            }
+
+            return value;
+        }
+    }
+
+    /**
+     * <p>Binds the identifiers of the identity types used as values of a relationship query parameter.</p>
+     */
+    static class RelationshipMemberBinding implements Binding {
+
+        private final int index;
+        private final boolean formatted;
+
+        /**
+         * @param index The position of the parameter.
+         * @param formatted If identity types are referenced by their formatted identifier, instead of their entities.
+         */
+        RelationshipMemberBinding(int index, boolean formatted) {
+            this.index = index;
+            this.formatted = formatted;
+        }
+
+        @Override
+        public Object getValue(EntityManager entityManager, IdentityContext context, List<?> arguments) {
+            List<String> identifiers = new ArrayList<String>();
+
+            for (Object value : (Object[]) arguments.get(this.index)) {
+                IdentityType identityType = (IdentityType) value;
+
+                if (this.formatted) {
+                    identifiers.add(IdentityTypeUtil.formatId(identityType));
+                } else {
+                    identifiers.add(identityType.getId());
+                }
+            }
+
+            return identifiers;
+        }
+    }
+}
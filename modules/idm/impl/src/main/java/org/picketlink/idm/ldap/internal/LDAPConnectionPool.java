@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.ldap.internal;
+
+import org.picketlink.common.constants.LDAPConstants;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.picketlink.idm.IDMInternalLog.LDAP_STORE_LOGGER;
+
+/**
+ * <p>Pool of {@link LdapContext} instances bound to the same server using the same credentials.</p>
+ *
+ * <p>Connections are borrowed exclusively by a single operation and returned to the pool once it finishes. The most
+ * recently returned connection is reused first, so that idle connections above the minimum size may expire and be
+ * closed. Connections idle for longer than the health check interval are checked before being reused. Connections that
+ * failed because of communication errors are discarded instead of being returned.</p>
+ *
+ * <p>A pool with a maximum size of zero does not pool connections: a new connection is opened for each operation and
+ * closed after it.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author agent
+ */
+class LDAPConnectionPool {
+
+    private final Hashtable<Object, Object> environment;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeout;
+    private final long borrowTimeout;
+    private final long healthCheckInterval;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<PooledConnection>();
+
+    LDAPConnectionPool(Map<String, Object> environment, int minSize, int maxSize, long idleTimeout, long borrowTimeout,
+                       long healthCheckInterval) {
+        this.environment = new Hashtable<Object, Object>(environment);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.borrowTimeout = borrowTimeout;
+        this.healthCheckInterval = healthCheckInterval;
+        this.permits = new Semaphore(Math.max(maxSize, 1), true);
+    }
+
+    /**
+     * <p>Borrows a connection from the pool, opening a new one if there is no idle connection. If all connections are in
+     * use, waits until one is returned or the borrow timeout expires.</p>
+     *
+     * @return
+     * @throws NamingException If a new connection could not be opened or if the borrow timeout expired.
+     */
+    LdapContext borrow() throws NamingException {
+        if (!isPooled()) {
+            return createContext();
+        }
+
+        try {
+            if (!this.permits.tryAcquire(this.borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new ServiceUnavailableException("Timeout waiting for a LDAP connection, all [" + this.maxSize
+                    + "] connections are in use.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for a LDAP connection.");
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+
+            evictIdleConnections(now);
+
+            PooledConnection connection;
+
+            while ((connection = this.idleConnections.pollFirst()) != null) {
+                if (now - connection.lastUsed < this.healthCheckInterval || isHealthy(connection.context)) {
+                    return connection.context;
+                }
+
+                close(connection.context);
+            }
+
+            return createContext();
+        } catch (NamingException e) {
+            this.permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Returns a connection to the pool.</p>
+     *
+     * @param context The borrowed connection.
+     * @param failure The exception thrown by the operation using the connection, or null if it succeeded. Connections
+     * that failed because of communication errors are discarded.
+     */
+    void release(LdapContext context, Exception failure) {
+        if (!isPooled()) {
+            close(context);
+            return;
+        }
+
+        try {
+            if (CommunicationException.class.isInstance(failure) || ServiceUnavailableException.class.isInstance(failure)) {
+                close(context);
+            } else {
+                try {
+                    // controls set by the operation must not leak to the next one
+                    context.setRequestControls(null);
+                    this.idleConnections.offerFirst(new PooledConnection(context, System.currentTimeMillis()));
+                } catch (NamingException e) {
+                    close(context);
+                }
+            }
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * <p>Closes a borrowed connection instead of returning it to the pool.</p>
+     *
+     * @param context The borrowed connection.
+     */
+    void invalidate(LdapContext context) {
+        close(context);
+
+        if (isPooled()) {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * <p>Closes all idle connections.</p>
+     */
+    void close() {
+        PooledConnection connection;
+
+        while ((connection = this.idleConnections.pollFirst()) != null) {
+            close(connection.context);
+        }
+    }
+
+    int getIdleCount() {
+        return this.idleConnections.size();
+    }
+
+    private boolean isPooled() {
+        return this.maxSize > 0;
+    }
+
+    private void evictIdleConnections(long now) {
+        if (this.idleTimeout <= 0) {
+            return;
+        }
+
+        // the least recently used connections are at the end of the deque
+        Iterator<PooledConnection> iterator = this.idleConnections.descendingIterator();
+
+        while (iterator.hasNext() && this.idleConnections.size() > this.minSize) {
+            PooledConnection connection = iterator.next();
+
+            if (now - connection.lastUsed < this.idleTimeout) {
+                break;
+            }
+
+            if (this.idleConnections.removeLastOccurrence(connection)) {
+                close(connection.context);
+            }
+        }
+    }
+
+    private boolean isHealthy(LdapContext context) {
+        try {
+            // reads the root DSE, which is always available and cheap to read
+            context.getAttributes("", new String[] {LDAPConstants.OBJECT_CLASS});
+            return true;
+        } catch (NamingException e) {
+            if (LDAP_STORE_LOGGER.isDebugEnabled()) {
+                LDAP_STORE_LOGGER.debugf(e, "Discarding pooled LDAP connection that failed the health check.");
+            }
+
+            return false;
+        }
+    }
+
+    private LdapContext createContext() throws NamingException {
+        return new InitialLdapContext(new Hashtable<Object, Object>(this.environment), null);
+    }
+
+    private void close(LdapContext context) {
+        try {
+            context.close();
+        } catch (NamingException e) {
+            LDAP_STORE_LOGGER.debugf(e, "Could not close LDAP connection.");
+        }
+    }
+
+    private static class PooledConnection {
+
+        private final LdapContext context;
+        private final long lastUsed;
+
+        PooledConnection(LdapContext context, long lastUsed) {
+            this.context = context;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.ldap.internal;
+
+import org.picketlink.idm.model.AttributedType;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.picketlink.common.constants.LDAPConstants.MODIFY_TIMESTAMP;
+import static org.picketlink.idm.IDMInternalLog.LDAP_STORE_LOGGER;
+import static org.picketlink.idm.ldap.internal.LDAPUtil.formatDate;
+import static org.picketlink.idm.ldap.internal.LDAPUtil.parseDate;
+import static org.picketlink.idm.util.IDMUtil.copy;
+
+/**
+ * <p>Bounded, LRU ordered, cache of the entries read from a LDAP server, together with the types populated from them.
+ * Entries can be retrieved by their DN or by their identifier.</p>
+ *
+ * <p>Types are copied when cached and when returned, so changes made to them by callers never reach the cache.</p>
+ *
+ * <p>The cache has a version, which changes whenever entries are invalidated. Callers obtain it before reading entries
+ * from the server and pass it when caching them, so entries read before a concurrent change are not cached.</p>
+ *
+ * <p>Entries expire after a given lifespan. Optionally, the server can be periodically checked for entries changed by
+ * other clients, which are then evicted. Changes are detected using the <code>modifyTimestamp</code> operational
+ * attribute, so entries removed by other clients are only evicted when they expire.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author agent
+ */
+class LDAPEntryCache {
+
+    /**
+     * <p>The time, in milliseconds, to wait for a check in progress when the cache is closed.</p>
+     */
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    private final long lifespan;
+    private final Map<LdapName, CachedEntry> entries;
+    private final Map<String, LdapName> namesById = new HashMap<String, LdapName>();
+
+    private ScheduledExecutorService changeDetectionExecutor;
+    private long version;
+    private Date lastModification = new Date();
+
+    LDAPEntryCache(final int maxEntries, long lifespan) {
+        this.lifespan = lifespan;
+        this.entries = new LinkedHashMap<LdapName, CachedEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LdapName, CachedEntry> eldest) {
+                if (size() > maxEntries) {
+                    removeId(eldest.getValue(), eldest.getKey());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * <p>Returns the cached entry with the given DN, if any.</p>
+     *
+     * @param dn
+     * @return
+     */
+    synchronized CachedEntry getByDN(String dn) {
+        LdapName name = toLdapName(dn);
+
+        if (name == null) {
+            return null;
+        }
+
+        return get(name);
+    }
+
+    /**
+     * <p>Returns the cached entry with the given identifier, if any.</p>
+     *
+     * @param id
+     * @return
+     */
+    synchronized CachedEntry getById(String id) {
+        LdapName name = this.namesById.get(id);
+
+        if (name == null) {
+            return null;
+        }
+
+        return get(name);
+    }
+
+    /**
+     * <p>Returns the current version of the cache. It must be obtained before reading the entries from the server that
+     * are going to be cached.</p>
+     *
+     * @return
+     */
+    synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * <p>Caches the given entry and the type populated from it, unless any entry was invalidated since the given version
+     * was obtained. In this case, the entry may have been read before a change and is not cached.</p>
+     *
+     * @param entry
+     * @param attributedType
+     * @param version The version of the cache before the entry was read.
+     */
+    synchronized void put(SearchResult entry, AttributedType attributedType, long version) {
+        if (version != this.version) {
+            return;
+        }
+
+        LdapName name = toLdapName(entry.getNameInNamespace());
+
+        if (name == null) {
+            return;
+        }
+
+        CachedEntry cachedEntry = new CachedEntry(entry, copy(attributedType), System.currentTimeMillis() + this.lifespan);
+
+        remove(name);
+
+        this.entries.put(name, cachedEntry);
+
+        if (attributedType.getId() != null) {
+            this.namesById.put(attributedType.getId(), name);
+        }
+    }
+
+    synchronized void invalidateById(String id) {
+        this.version++;
+
+        LdapName name = this.namesById.get(id);
+
+        if (name != null) {
+            remove(name);
+        }
+    }
+
+    synchronized void invalidateByDN(String dn) {
+        this.version++;
+
+        LdapName name = toLdapName(dn);
+
+        if (name != null) {
+            remove(name);
+        }
+    }
+
+    synchronized void invalidateAll() {
+        this.version++;
+        this.entries.clear();
+        this.namesById.clear();
+    }
+
+    synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * <p>Starts checking the server for changed entries in the given interval, using a background thread.</p>
+     *
+     * @param operationManager
+     * @param baseDN The DN under which changes are checked.
+     * @param pollInterval
+     */
+    synchronized void startChangeDetection(final LDAPOperationManager operationManager, final String baseDN, long pollInterval) {
+        if (this.changeDetectionExecutor != null) {
+            return;
+        }
+
+        // changes made just before the cache was created may not be visible yet
+        this.lastModification = new Date(System.currentTimeMillis() - pollInterval);
+        this.changeDetectionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "picketlink-ldap-change-detection");
+
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        this.changeDetectionExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictChangedEntries(operationManager, baseDN);
+                } catch (Exception e) {
+                    LDAP_STORE_LOGGER.debugf(e, "Could not check LDAP server for changed entries.");
+                }
+            }
+        }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Evicts all entries changed since the last check. The time of the most recent change is used as the starting
+     * point of the next check, so the clocks of the server and this host do not need to be synchronized.</p>
+     *
+     * @param operationManager
+     * @param baseDN
+     * @throws NamingException
+     */
+    void evictChangedEntries(LDAPOperationManager operationManager, String baseDN) throws NamingException {
+        Date since;
+
+        synchronized (this) {
+            since = this.lastModification;
+        }
+
+        Date mostRecentModification = since;
+
+        for (SearchResult changedEntry : operationManager.searchModifiedEntries(baseDN, formatDate(since))) {
+            if (LDAP_STORE_LOGGER.isTraceEnabled()) {
+                LDAP_STORE_LOGGER.tracef("Evicting changed entry [%s] from cache.", changedEntry.getNameInNamespace());
+            }
+
+            invalidateByDN(changedEntry.getNameInNamespace());
+
+            Attribute modifyTimestamp = changedEntry.getAttributes().get(MODIFY_TIMESTAMP);
+
+            if (modifyTimestamp != null && modifyTimestamp.get() != null) {
+                Date modification = parseDate(modifyTimestamp.get().toString());
+
+                if (modification.after(mostRecentModification)) {
+                    mostRecentModification = modification;
+                }
+            }
+        }
+
+        synchronized (this) {
+            this.lastModification = mostRecentModification;
+        }
+    }
+
+    /**
+     * <p>Stops checking the server for changed entries, if started, waiting for a check in progress to finish.</p>
+     */
+    void close() {
+        ScheduledExecutorService executor;
+
+        synchronized (this) {
+            executor = this.changeDetectionExecutor;
+            this.changeDetectionExecutor = null;
+        }
+
+        if (executor != null) {
+            executor.shutdownNow();
+
+            try {
+                if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    LDAP_STORE_LOGGER.debugf("Change detection did not stop within [%s] milliseconds.", CLOSE_TIMEOUT);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private CachedEntry get(LdapName name) {
+        CachedEntry cachedEntry = this.entries.get(name);
+
+        if (cachedEntry != null && cachedEntry.expiration <= System.currentTimeMillis()) {
+            remove(name);
+            return null;
+        }
+
+        return cachedEntry;
+    }
+
+    private void remove(LdapName name) {
+        CachedEntry cachedEntry = this.entries.remove(name);
+
+        if (cachedEntry != null) {
+            removeId(cachedEntry, name);
+        }
+    }
+
+    private void removeId(CachedEntry cachedEntry, LdapName name) {
+        String id = cachedEntry.attributedType.getId();
+
+        if (id != null && name.equals(this.namesById.get(id))) {
+            this.namesById.remove(id);
+        }
+    }
+
+    private static LdapName toLdapName(String dn) {
+        try {
+            return new LdapName(dn);
+        } catch (InvalidNameException ine) {
+            return null;
+        }
+    }
+
+    static class CachedEntry {
+
+        private final SearchResult entry;
+        private final AttributedType attributedType;
+        private final long expiration;
+
+        CachedEntry(SearchResult entry, AttributedType attributedType, long expiration) {
+            this.entry = entry;
+            this.attributedType = attributedType;
+            this.expiration = expiration;
+        }
+
+        SearchResult getEntry() {
+            return this.entry;
+        }
+
+        /**
+         * <p>Returns a copy of the cached type.</p>
+         *
+         * @return
+         */
+        AttributedType getAttributedType() {
+            return copy(this.attributedType);
+        }
+    }
+}
@@ -39,15 +39,19 @@ import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 import org.picketlink.idm.query.RelationshipQuery;
 import org.picketlink.idm.query.RelationshipQueryParameter;
+import org.picketlink.idm.query.Sort;
 import org.picketlink.idm.query.internal.BetweenCondition;
 import org.picketlink.idm.query.internal.EqualCondition;
 import org.picketlink.idm.query.internal.GreaterThanCondition;
 import org.picketlink.idm.query.internal.InCondition;
 import org.picketlink.idm.query.internal.LessThanCondition;
 import org.picketlink.idm.query.internal.LikeCondition;
+import org.picketlink.idm.spi.ConcurrentQueryStore;
 import org.picketlink.idm.spi.CredentialStore;
+import org.picketlink.idm.spi.ExistenceQueryStore;
 import org.picketlink.idm.spi.IdentityContext;
 
+import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
@@ -55,12 +59,22 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.SortKey;
+import java.io.Closeable;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import static java.util.Map.Entry;
 import static org.picketlink.common.constants.LDAPConstants.COMMA;
@@ -87,12 +101,19 @@ import static org.picketlink.idm.ldap.internal.LDAPUtil.parseDate;
  */
 @CredentialHandlers({LDAPPlainTextPasswordCredentialHandler.class})
 public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreConfiguration>
-        implements CredentialStore<LDAPIdentityStoreConfiguration> {
+        implements CredentialStore<LDAPIdentityStoreConfiguration>, ConcurrentQueryStore<LDAPIdentityStoreConfiguration>,
+        ExistenceQueryStore<LDAPIdentityStoreConfiguration>, Closeable {
 
     public static final String EMPTY_ATTRIBUTE_VALUE = " ";
     public static final String ENTRY_DN_ATTRIBUTE_NAME = "org.picketlink.idm.ldap.entry.dn";
 
+    /**
+     * <p>The maximum number of entries fetched by a single search when resolving parents and related entries.</p>
+     */
+    private static final int RESOLUTION_BATCH_SIZE = 100;
+
     private LDAPOperationManager operationManager;
+    private LDAPEntryCache entryCache;
 
     @Override
     public void setup(LDAPIdentityStoreConfiguration config) {
@@ -107,6 +128,42 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
         } catch (NamingException e) {
             throw MESSAGES.storeLdapCouldNotCreateContext(e);
         }
+
+        if (config.getEntryCacheLifespan() > 0) {
+            this.entryCache = new LDAPEntryCache(config.getEntryCacheMaxEntries(), config.getEntryCacheLifespan());
+
+            if (config.getEntryCacheChangePollInterval() > 0) {
+                this.entryCache.startChangeDetection(this.operationManager, config.getBaseDN(), config.getEntryCacheChangePollInterval());
+            }
+        }
+    }
+
+    /**
+     * <p>Stops the detection of changes made by other clients, if enabled, and closes all pooled connections.</p>
+     */
+    @Override
+    public void close() {
+        if (this.entryCache != null) {
+            this.entryCache.close();
+        }
+
+        if (this.operationManager != null) {
+            this.operationManager.close();
+        }
+    }
+
+    /**
+     * <p>Checks the server for entries changed by other clients since the last check and evicts them from the entry
+     * cache right away, without waiting for the next scheduled check. Does nothing if the entry cache is disabled.</p>
+     */
+    public void evictChangedEntries() {
+        if (this.entryCache != null) {
+            try {
+                this.entryCache.evictChangedEntries(this.operationManager, getConfig().getBaseDN());
+            } catch (NamingException ne) {
+                throw new IdentityManagementException("Could not check LDAP server for changed entries.", ne);
+            }
+        }
     }
 
     @Override
@@ -116,6 +173,7 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
 
         if (Relationship.class.isInstance(attributedType)) {
             addRelationship((Relationship) attributedType);
+            invalidateCachedEntries((Relationship) attributedType);
         } else {
             this.operationManager.createSubContext(getBindingDN(attributedType, true), extractAttributes(attributedType, true));
 
@@ -135,6 +193,8 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
             NamingEnumeration<Attribute> attributes = updatedAttributes.getAll();
 
             this.operationManager.modifyAttributes(getBindingDN(attributedType, true), attributes);
+
+            invalidateCachedEntries(attributedType);
         }
     }
 
@@ -142,10 +202,13 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
     public void removeAttributedType(IdentityContext context, AttributedType attributedType) {
         if (Relationship.class.isInstance(attributedType)) {
             removeRelationship((Relationship) attributedType);
+            invalidateCachedEntries((Relationship) attributedType);
         } else {
             LDAPMappingConfiguration mappingConfig = getMappingConfig(attributedType.getClass());
 
             this.operationManager.removeEntryById(getBaseDN(attributedType), attributedType.getId(), mappingConfig);
+
+            invalidateCachedEntries(attributedType);
         }
     }
 
@@ -160,7 +223,7 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
                 filter.append("(&(").append(attributeName).append(EQUAL).append("").append(bindingDN).append("))");
 
                 try {
-                    List<SearchResult> search = this.operationManager.search(getMappingConfig(relationshipConfig.getRelatedAttributedType()).getBaseDN(), filter.toString(), getMappingConfig(relationshipConfig.getRelatedAttributedType()));
+                    List<SearchResult> search = this.operationManager.searchFromPrimary(getMappingConfig(relationshipConfig.getRelatedAttributedType()).getBaseDN(), filter.toString(), getMappingConfig(relationshipConfig.getRelatedAttributedType()));
 
                     for (SearchResult result : search) {
                         Attributes attributes = result.getAttributes();
@@ -188,7 +251,8 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
         List<V> results = new ArrayList<V>();
 
         try {
-            if (identityQuery.getSorting() != null && !identityQuery.getSorting().isEmpty()) {
+            if (identityQuery.getSorting() != null && !identityQuery.getSorting().isEmpty()
+                && !this.operationManager.isSortSupported()) {
                 throw new IdentityManagementException("LDAP Identity Store does not support sorted queries.");
             }
 
@@ -201,11 +265,19 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
                 if (IdentityType.ID.equals(condition.getParameter())) {
                     if (EqualCondition.class.isInstance(condition)) {
                         EqualCondition equalCondition = (EqualCondition) condition;
+                        LDAPEntryCache.CachedEntry cachedEntry = getCachedEntryById(equalCondition.getValue().toString());
+
+                        if (cachedEntry != null) {
+                            results.add((V) cachedEntry.getAttributedType());
+                            return results;
+                        }
+
+                        EntryResolutionContext resolutionContext = createResolutionContext();
                         SearchResult search = this.operationManager
                             .lookupById(getConfig().getBaseDN(), equalCondition.getValue().toString(), null);
 
                         if (search != null) {
-                            results.add((V) populateAttributedType(search, null));
+                            results.add((V) populateAttributedType(search, resolutionContext));
                         }
                     }
 
@@ -218,19 +290,41 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
                 LDAPMappingConfiguration ldapEntryConfig = getMappingConfig(identityQuery.getIdentityType());
                 StringBuilder filter = createIdentityTypeSearchFilter(identityQuery, ldapEntryConfig);
                 String baseDN = getBaseDN(ldapEntryConfig);
+                SortKey[] sortKeys = getSortKeys(identityQuery, ldapEntryConfig);
+                EntryResolutionContext resolutionContext = createResolutionContext();
                 List<SearchResult> search;
 
                 if (getConfig().isPagination() && identityQuery.getLimit() > 0) {
-                    search = this.operationManager.searchPaginated(baseDN, filter.toString(), ldapEntryConfig, identityQuery);
+                    // only then the connection used by the paged search is kept aside for the next pages
+                    boolean resumable = Boolean.TRUE.equals(context.getParameter(IdentityContext.PAGINATION_RESUMABLE));
+
+                    search = this.operationManager.searchPaginated(baseDN, filter.toString(), ldapEntryConfig, identityQuery, sortKeys, resumable);
+                } else if (identityQuery.getLimit() > 0) {
+                    // the base DN may be returned as well, an additional entry is requested to account for it
+                    long countLimit = identityQuery.getOffset() + identityQuery.getLimit() + 1;
+                    search = this.operationManager.search(baseDN, filter.toString(), ldapEntryConfig, countLimit, sortKeys);
                 } else {
-                    search = this.operationManager.search(baseDN, filter.toString(), ldapEntryConfig);
+                    search = this.operationManager.search(baseDN, filter.toString(), ldapEntryConfig, 0, sortKeys);
                 }
 
+                List<SearchResult> entries = new ArrayList<SearchResult>();
+
                 for (SearchResult result : search) {
                     if (!result.getNameInNamespace().equals(baseDN)) {
-                        results.add((V) populateAttributedType(result, null));
+                        entries.add(result);
                     }
                 }
+
+                // paged results are disabled, apply pagination to the entries returned by the server
+                if (!getConfig().isPagination() && identityQuery.getLimit() > 0) {
+                    int offset = Math.min(identityQuery.getOffset(), entries.size());
+                    int numberOfItems = Math.min(identityQuery.getLimit(), entries.size() - offset);
+                    entries = entries.subList(offset, offset + numberOfItems);
+                }
+
+                for (AttributedType attributedType : populateAttributedTypes(entries, resolutionContext)) {
+                    results.add((V) attributedType);
+                }
             }
         } catch (Exception e) {
             throw MESSAGES.queryIdentityTypeFailed(identityQuery, e);
@@ -239,6 +333,86 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
         return results;
     }
 
+    @Override
+    public <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+        try {
+            for (Condition condition : identityQuery.getConditions()) {
+                if (identityQuery.getConditions().size() == 1 && IdentityType.PARTITION.equals(condition.getParameter())) {
+                    // we don't query the ldap tree using only the partition as a parameter due to the cost of doing so.
+                    return 0;
+                }
+
+                if (IdentityType.ID.equals(condition.getParameter())) {
+                    if (EqualCondition.class.isInstance(condition)) {
+                        EqualCondition equalCondition = (EqualCondition) condition;
+
+                        if (getCachedEntryById(equalCondition.getValue().toString()) != null
+                            || this.operationManager.lookupById(getConfig().getBaseDN(), equalCondition.getValue().toString(), null) != null) {
+                            return 1;
+                        }
+                    }
+
+                    return 0;
+                }
+            }
+
+            if (IdentityType.class.equals(identityQuery.getIdentityType())) {
+                // the ldap store does not support queries based on root types. Except if based on the identifier.
+                return 0;
+            }
+
+            LDAPMappingConfiguration ldapEntryConfig = getMappingConfig(identityQuery.getIdentityType());
+            StringBuilder filter = createIdentityTypeSearchFilter(identityQuery, ldapEntryConfig);
+
+            return this.operationManager.count(getBaseDN(ldapEntryConfig), filter.toString());
+        } catch (Exception e) {
+            throw MESSAGES.queryIdentityTypeFailed(identityQuery, e);
+        }
+    }
+
+    @Override
+    public <V extends IdentityType> boolean existsQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+        try {
+            for (Condition condition : identityQuery.getConditions()) {
+                if (identityQuery.getConditions().size() == 1 && IdentityType.PARTITION.equals(condition.getParameter())) {
+                    // we don't query the ldap tree using only the partition as a parameter due to the cost of doing so.
+                    return false;
+                }
+
+                if (IdentityType.ID.equals(condition.getParameter())) {
+                    if (EqualCondition.class.isInstance(condition)) {
+                        EqualCondition equalCondition = (EqualCondition) condition;
+
+                        return getCachedEntryById(equalCondition.getValue().toString()) != null
+                            || this.operationManager.lookupById(getConfig().getBaseDN(), equalCondition.getValue().toString(), null) != null;
+                    }
+
+                    return false;
+                }
+            }
+
+            if (IdentityType.class.equals(identityQuery.getIdentityType())) {
+                // the ldap store does not support queries based on root types. Except if based on the identifier.
+                return false;
+            }
+
+            LDAPMappingConfiguration ldapEntryConfig = getMappingConfig(identityQuery.getIdentityType());
+            StringBuilder filter = createIdentityTypeSearchFilter(identityQuery, ldapEntryConfig);
+            String baseDN = getBaseDN(ldapEntryConfig);
+
+            // the base DN may be returned as well, an additional entry is requested to account for it
+            for (SearchResult result : this.operationManager.search(baseDN, filter.toString(), ldapEntryConfig, 2)) {
+                if (!result.getNameInNamespace().equals(baseDN)) {
+                    return true;
+                }
+            }
+
+            return false;
+        } catch (Exception e) {
+            throw MESSAGES.queryIdentityTypeFailed(identityQuery, e);
+        }
+    }
+
     @Override
     public <V extends Relationship> List<V> fetchQueryResults(IdentityContext context, RelationshipQuery<V> query) {
         List<V> results = new ArrayList<V>();
@@ -301,7 +475,14 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
                 }
 
                 String bindingDN = null;
-                SearchResult result = this.operationManager.lookupById(getBaseDN(attributedType), attributedType.getId(), getMappingConfig(attributedType.getClass()));
+                LDAPEntryCache.CachedEntry cachedEntry = getCachedEntryById(attributedType.getId());
+                SearchResult result;
+
+                if (cachedEntry != null) {
+                    result = cachedEntry.getEntry();
+                } else {
+                    result = this.operationManager.lookupById(getBaseDN(attributedType), attributedType.getId(), getMappingConfig(attributedType.getClass()));
+                }
 
                 if (result != null) {
                     bindingDN = result.getNameInNamespace();
@@ -342,15 +523,20 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
                     LDAP_STORE_LOGGER.tracef("Search relationships for type [%s] using filter [%s] and baseDN [%s]", relationshipClass, filter.toString(), baseDN);
                 }
 
+                EntryResolutionContext resolutionContext = createResolutionContext();
                 List<SearchResult> search = this.operationManager.search(baseDN, filter.toString(), relatedTypeConfig);
+                List<AttributedType> ownerTypes = populateAttributedTypes(search, resolutionContext);
+                Map<LdapName, AttributedType> associatedTypes = resolveAssociatedTypes(search, mappingConfig, entriesToFilter, resolutionContext);
+
+                for (int i = 0; i < search.size(); i++) {
+                    SearchResult entry = search.get(i);
 
-                for (SearchResult entry : search) {
                     if (LDAP_STORE_LOGGER.isTraceEnabled()) {
                         LDAP_STORE_LOGGER.tracef("Found entry [%s] for relationship type [%s].", entry.getNameInNamespace(), relationshipClass);
                     }
 
                     Attributes ownerAttributes = entry.getAttributes();
-                    AttributedType ownerType = populateAttributedType(entry, null);
+                    AttributedType ownerType = ownerTypes.get(i);
 
                     for (Entry<String, String> memberAttribute : mappingConfig.getMappedProperties().entrySet()) {
                         String attributeName = memberAttribute.getValue();
@@ -377,12 +563,9 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
                                         .addCriteria(new NamedPropertyCriteria(memberAttribute.getKey()))
                                         .getSingleResult();
 
-                                    String memberBaseDN = attributeValue.substring(attributeValue.indexOf(",") + 1);
-                                    String dn = attributeValue.substring(0, attributeValue.indexOf(","));
-
-                                    List<SearchResult> result = this.operationManager.search(memberBaseDN, dn, null);
+                                    AttributedType relType = associatedTypes.get(toLdapName(attributeValue));
 
-                                    if (result.isEmpty()) {
+                                    if (relType == null) {
                                         throw new IdentityManagementException("Associated entry does not exists [" + attributeValue + "].");
                                     }
 
@@ -396,10 +579,6 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
 
                                         property.setValue(relationship, ownerType);
 
-                                        SearchResult member = result.get(0);
-
-                                        AttributedType relType = populateAttributedType(member, null);
-
                                         if (associatedProperty.getJavaClass().isAssignableFrom(relType.getClass())) {
                                             associatedProperty.setValue(relationship, relType);
 
@@ -454,6 +633,39 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
         // not supported
     }
 
+    /**
+     * <p>Creates the keys used by the server to sort the results of the given query, if any.</p>
+     *
+     * @param identityQuery
+     * @param ldapEntryConfig
+     * @return The sort keys, or null if the query is not sorted.
+     */
+    private <V extends IdentityType> SortKey[] getSortKeys(final IdentityQuery<V> identityQuery, final LDAPMappingConfiguration ldapEntryConfig) {
+        if (identityQuery.getSorting() == null || identityQuery.getSorting().isEmpty()) {
+            return null;
+        }
+
+        List<SortKey> sortKeys = new ArrayList<SortKey>();
+
+        for (Sort sort : identityQuery.getSorting()) {
+            String attributeName = null;
+
+            if (IdentityType.CREATED_DATE.equals(sort.getParameter())) {
+                attributeName = CREATE_TIMESTAMP;
+            } else if (AttributeParameter.class.isInstance(sort.getParameter())) {
+                attributeName = ldapEntryConfig.getMappedProperties().get(((AttributeParameter) sort.getParameter()).getName());
+            }
+
+            if (attributeName == null) {
+                throw new IdentityManagementException("LDAP Identity Store can not sort by parameter [" + sort.getParameter() + "].");
+            }
+
+            sortKeys.add(new SortKey(attributeName, sort.isAscending(), null));
+        }
+
+        return sortKeys.toArray(new SortKey[sortKeys.size()]);
+    }
+
     private String getBaseDN(final LDAPMappingConfiguration ldapEntryConfig) {
         String baseDN = getConfig().getBaseDN();
 
@@ -678,27 +890,138 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
         }
     }
 
-    private AttributedType populateAttributedType(SearchResult searchResult, AttributedType attributedType) {
-        return populateAttributedType(searchResult, attributedType, 0);
+    /**
+     * <p>Fetches and populates all entries referenced by the relationship attributes of the given entries.</p>
+     *
+     * @param entries
+     * @param mappingConfig The relationship mapping.
+     * @param entriesToFilter If not empty, only these entries are resolved.
+     * @param resolutionContext
+     * @return The populated types, by DN.
+     * @throws NamingException
+     */
+    private Map<LdapName, AttributedType> resolveAssociatedTypes(List<SearchResult> entries, LDAPMappingConfiguration mappingConfig,
+                                                                 List<String> entriesToFilter, EntryResolutionContext resolutionContext) throws NamingException {
+        Set<String> dns = new LinkedHashSet<String>();
+
+        for (SearchResult entry : entries) {
+            for (String attributeName : mappingConfig.getMappedProperties().values()) {
+                Attribute attribute = entry.getAttributes().get(attributeName);
+
+                if (attribute != null) {
+                    NamingEnumeration<?> attributeValues = attribute.getAll();
+
+                    while (attributeValues.hasMore()) {
+                        String attributeValue = attributeValues.next().toString();
+
+                        if (!entriesToFilter.isEmpty() && !entriesToFilter.contains(attributeValue)) {
+                            continue;
+                        }
+
+                        if (!isNullOrEmpty(attributeValue.trim())) {
+                            dns.add(attributeValue);
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<LdapName, AttributedType> associatedTypes = new HashMap<LdapName, AttributedType>();
+        Iterator<String> dnIterator = dns.iterator();
+
+        while (dnIterator.hasNext()) {
+            String dn = dnIterator.next();
+            ResolvedEntry cachedEntry = getCachedEntry(dn);
+
+            if (cachedEntry != null) {
+                associatedTypes.put(toLdapName(dn), cachedEntry.attributedType);
+                dnIterator.remove();
+            }
+        }
+
+        Map<LdapName, SearchResult> associatedEntries = lookupEntries(dns);
+        List<LdapName> names = new ArrayList<LdapName>(associatedEntries.keySet());
+        List<SearchResult> searchResults = new ArrayList<SearchResult>();
+
+        for (LdapName name : names) {
+            searchResults.add(associatedEntries.get(name));
+        }
+
+        List<AttributedType> attributedTypes = populateAttributedTypes(searchResults, resolutionContext);
+
+        for (int i = 0; i < names.size(); i++) {
+            associatedTypes.put(names.get(i), attributedTypes.get(i));
+        }
+
+        return associatedTypes;
+    }
+
+    private AttributedType populateAttributedType(SearchResult searchResult, EntryResolutionContext resolutionContext) {
+        return populateAttributedTypes(Collections.singletonList(searchResult), resolutionContext).get(0);
+    }
+
+    /**
+     * <p>Populates the types for the given entries, in the same order. Parent entries are resolved level by level, all
+     * the parents of a level are fetched with a few batched searches instead of one search for each entry.</p>
+     *
+     * @param searchResults
+     * @param resolutionContext The context holding the entries already populated during the current query.
+     * @return
+     */
+    private List<AttributedType> populateAttributedTypes(List<SearchResult> searchResults, EntryResolutionContext resolutionContext) {
+        List<AttributedType> attributedTypes = new ArrayList<AttributedType>();
+        List<ResolvedEntry> populated = new ArrayList<ResolvedEntry>();
+
+        for (SearchResult searchResult : searchResults) {
+            ResolvedEntry resolvedEntry = resolutionContext.get(searchResult.getNameInNamespace(), 0);
+
+            if (resolvedEntry == null) {
+                resolvedEntry = getCachedEntry(searchResult.getNameInNamespace());
+
+                if (resolvedEntry == null) {
+                    resolvedEntry = new ResolvedEntry(searchResult, populateProperties(searchResult), 0);
+                    populated.add(resolvedEntry);
+                }
+
+                resolutionContext.put(resolvedEntry);
+            }
+
+            attributedTypes.add(resolvedEntry.attributedType);
+        }
+
+        try {
+            List<ResolvedEntry> unresolved = populated;
+
+            while (!unresolved.isEmpty()) {
+                unresolved = resolveParents(unresolved, resolutionContext);
+            }
+        } catch (Exception e) {
+            throw new IdentityManagementException("Could not resolve parent entries.", e);
+        }
+
+        if (this.entryCache != null) {
+            // only entries populated at the top of the hierarchy have all their parents resolved
+            for (ResolvedEntry resolvedEntry : populated) {
+                this.entryCache.put(resolvedEntry.entry, resolvedEntry.attributedType, resolutionContext.cacheVersion);
+            }
+        }
+
+        return attributedTypes;
     }
 
-    private AttributedType populateAttributedType(SearchResult searchResult, AttributedType attributedType, int hierarchyDepthCount) {
+    private AttributedType populateProperties(SearchResult searchResult) {
+        AttributedType attributedType = null;
+
         try {
             String entryDN = searchResult.getNameInNamespace();
             Attributes attributes = searchResult.getAttributes();
 
-            if (attributedType == null) {
-                attributedType = newInstance(getConfig().getSupportedTypeByBaseDN(entryDN, getEntryObjectClasses(attributes)));
-            }
+            attributedType = newInstance(getConfig().getSupportedTypeByBaseDN(entryDN, getEntryObjectClasses(attributes)));
 
             attributedType.setAttribute(new org.picketlink.idm.model.Attribute<String>(ENTRY_DN_ATTRIBUTE_NAME, entryDN));
 
             LDAPMappingConfiguration mappingConfig = getMappingConfig(attributedType.getClass());
 
-            if (hierarchyDepthCount > mappingConfig.getHierarchySearchDepth()) {
-                return null;
-            }
-
             if (LDAP_STORE_LOGGER.isTraceEnabled()) {
                 LDAP_STORE_LOGGER.tracef("Populating attributed type [%s] from DN [%s]", attributedType, entryDN);
             }
@@ -756,66 +1079,290 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
 
                 identityType.setCreatedDate(parseDate(createdTimestamp));
             }
+        } catch (Exception e) {
+            throw new IdentityManagementException("Could not populate attribute type " + attributedType + ".", e);
+        }
+
+        return attributedType;
+    }
+
+    /**
+     * <p>Resolves the parents of the given entries. Entries are grouped by type and their parents are fetched using a
+     * single search for each batch of {@link #RESOLUTION_BATCH_SIZE} entries. Parents already populated during the
+     * current query are reused.</p>
+     *
+     * @param children
+     * @param resolutionContext
+     * @return The parents populated by this method, which must be resolved as well.
+     * @throws NamingException
+     */
+    private List<ResolvedEntry> resolveParents(List<ResolvedEntry> children, EntryResolutionContext resolutionContext) throws NamingException {
+        Map<LDAPMappingConfiguration, Map<LdapName, List<ResolvedEntry>>> childrenByType =
+            new LinkedHashMap<LDAPMappingConfiguration, Map<LdapName, List<ResolvedEntry>>>();
+        Map<LdapName, String> memberDNs = new HashMap<LdapName, String>();
+
+        for (ResolvedEntry child : children) {
+            LDAPMappingConfiguration mappingConfig = getMappingConfig(child.attributedType.getClass());
+
+            if (mappingConfig.getParentMembershipAttributeName() == null
+                || child.depth + 1 > mappingConfig.getHierarchySearchDepth()) {
+                continue;
+            }
+
+            String entryDN = child.entry.getNameInNamespace();
+            String memberDN = getBindingDN(child.attributedType, false) + COMMA + entryDN.substring(entryDN.indexOf(COMMA) + 1);
+            LdapName memberName = toLdapName(memberDN);
+
+            if (memberName == null) {
+                continue;
+            }
 
-            LDAPMappingConfiguration entryConfig = getMappingConfig(attributedType.getClass());
+            Map<LdapName, List<ResolvedEntry>> members = childrenByType.get(mappingConfig);
 
-            if (mappingConfig.getParentMembershipAttributeName() != null) {
+            if (members == null) {
+                members = new LinkedHashMap<LdapName, List<ResolvedEntry>>();
+                childrenByType.put(mappingConfig, members);
+            }
+
+            List<ResolvedEntry> entries = members.get(memberName);
+
+            if (entries == null) {
+                entries = new ArrayList<ResolvedEntry>();
+                members.put(memberName, entries);
+                memberDNs.put(memberName, memberDN);
+            }
+
+            entries.add(child);
+        }
+
+        List<ResolvedEntry> parents = new ArrayList<ResolvedEntry>();
+
+        for (Entry<LDAPMappingConfiguration, Map<LdapName, List<ResolvedEntry>>> typeEntry : childrenByType.entrySet()) {
+            LDAPMappingConfiguration entryConfig = typeEntry.getKey();
+            Map<LdapName, List<ResolvedEntry>> members = typeEntry.getValue();
+            String membershipAttributeName = entryConfig.getParentMembershipAttributeName();
+            List<LdapName> memberNames = new ArrayList<LdapName>(members.keySet());
+
+            for (int i = 0; i < memberNames.size(); i = i + RESOLUTION_BATCH_SIZE) {
                 StringBuilder filter = new StringBuilder("(&");
-                String entryBaseDN = entryDN.substring(entryDN.indexOf(COMMA) + 1);
-
-                filter
-                    .append("(")
-                        .append(getObjectClassesFilter(entryConfig))
-                    .append(")")
-                    .append("(")
-                        .append(mappingConfig.getParentMembershipAttributeName())
-                        .append(EQUAL).append("")
-                        .append(getBindingDN(attributedType, false))
-                        .append(COMMA)
-                    .append(entryBaseDN)
-                    .append(")");
 
-                filter.append(")");
+                filter.append("(").append(getObjectClassesFilter(entryConfig)).append(")").append("(|");
+
+                for (LdapName memberName : memberNames.subList(i, Math.min(i + RESOLUTION_BATCH_SIZE, memberNames.size()))) {
+                    filter.append("(").append(membershipAttributeName).append(EQUAL).append(memberDNs.get(memberName)).append(")");
+                }
+
+                filter.append("))");
 
                 if (LDAP_STORE_LOGGER.isTraceEnabled()) {
-                    LDAP_STORE_LOGGER.tracef("Searching parent entry for DN [%s] using filter [%s].", entryBaseDN, filter.toString());
+                    LDAP_STORE_LOGGER.tracef("Searching parent entries using filter [%s].", filter.toString());
                 }
 
                 List<SearchResult> search = this.operationManager.search(getConfig().getBaseDN(), filter.toString(), entryConfig);
 
-                if (!search.isEmpty()) {
-                    SearchResult next = search.get(0);
+                for (SearchResult parentEntry : search) {
+                    Attribute membershipAttribute = parentEntry.getAttributes().get(membershipAttributeName);
 
-                    Property<AttributedType> parentProperty = PropertyQueries
-                            .<AttributedType>createQuery(attributedType.getClass())
-                            .addCriteria(new TypedPropertyCriteria(attributedType.getClass())).getFirstResult();
+                    if (membershipAttribute == null) {
+                        continue;
+                    }
 
-                    if (parentProperty != null) {
-                        String parentDN = next.getNameInNamespace();
-                        String parentBaseDN = parentDN.substring(parentDN.indexOf(",") + 1);
-                        Class<? extends AttributedType> baseDNType = getConfig().getSupportedTypeByBaseDN(parentBaseDN, getEntryObjectClasses(attributes));
+                    NamingEnumeration<?> memberValues = membershipAttribute.getAll();
 
-                        if (parentProperty.getJavaClass().isAssignableFrom(baseDNType)) {
-                            if (LDAP_STORE_LOGGER.isTraceEnabled()) {
-                                LDAP_STORE_LOGGER.tracef("Found parent [%s] for entry for DN [%s].", parentDN, entryDN);
-                            }
+                    while (memberValues.hasMore()) {
+                        LdapName memberName = toLdapName(memberValues.next().toString());
+
+                        // an entry has a single parent, the first one found is used
+                        List<ResolvedEntry> matchedChildren = memberName != null ? members.remove(memberName) : null;
 
-                            int hierarchyDepthCount1 = ++hierarchyDepthCount;
+                        if (matchedChildren != null) {
+                            for (ResolvedEntry child : matchedChildren) {
+                                ResolvedEntry parent = setParent(child, parentEntry, resolutionContext);
 
-                            parentProperty.setValue(attributedType, populateAttributedType(next, null, hierarchyDepthCount1));
+                                if (parent != null) {
+                                    parents.add(parent);
+                                }
+                            }
                         }
                     }
-                } else {
-                    if (LDAP_STORE_LOGGER.isTraceEnabled()) {
-                        LDAP_STORE_LOGGER.tracef("No parent entry found for DN [%s] using filter [%s].", entryDN, filter.toString());
+                }
+            }
+
+            if (LDAP_STORE_LOGGER.isTraceEnabled()) {
+                for (LdapName memberName : members.keySet()) {
+                    LDAP_STORE_LOGGER.tracef("No parent entry found for DN [%s].", memberName);
+                }
+            }
+        }
+
+        return parents;
+    }
+
+    /**
+     * <p>Sets the parent of the given child entry, populating the parent if it was not populated yet.</p>
+     *
+     * @return The parent entry, if it was populated by this method. Otherwise, null.
+     */
+    private ResolvedEntry setParent(ResolvedEntry child, SearchResult parentEntry, EntryResolutionContext resolutionContext) throws NamingException {
+        AttributedType attributedType = child.attributedType;
+        Property<AttributedType> parentProperty = PropertyQueries
+                .<AttributedType>createQuery(attributedType.getClass())
+                .addCriteria(new TypedPropertyCriteria(attributedType.getClass())).getFirstResult();
+
+        if (parentProperty == null) {
+            return null;
+        }
+
+        String parentDN = parentEntry.getNameInNamespace();
+        String parentBaseDN = parentDN.substring(parentDN.indexOf(",") + 1);
+        Class<? extends AttributedType> baseDNType = getConfig().getSupportedTypeByBaseDN(parentBaseDN, getEntryObjectClasses(child.entry.getAttributes()));
+
+        if (!parentProperty.getJavaClass().isAssignableFrom(baseDNType)) {
+            return null;
+        }
+
+        if (LDAP_STORE_LOGGER.isTraceEnabled()) {
+            LDAP_STORE_LOGGER.tracef("Found parent [%s] for entry for DN [%s].", parentDN, child.entry.getNameInNamespace());
+        }
+
+        int parentDepth = child.depth + 1;
+        ResolvedEntry parent = resolutionContext.get(parentDN, parentDepth);
+        boolean populated = false;
+
+        if (parent == null) {
+            parent = getCachedEntry(parentDN);
+
+            if (parent == null) {
+                parent = new ResolvedEntry(parentEntry, populateProperties(parentEntry), parentDepth);
+                populated = true;
+            }
+
+            resolutionContext.put(parent);
+        }
+
+        parentProperty.setValue(attributedType, parent.attributedType);
+
+        return populated ? parent : null;
+    }
+
+    /**
+     * <p>Looks up the entries with the given DNs. Entries sharing the same base DN are fetched using a single search for
+     * each batch of {@link #RESOLUTION_BATCH_SIZE} entries.</p>
+     *
+     * @param dns
+     * @return The entries found, by DN.
+     * @throws NamingException
+     */
+    private Map<LdapName, SearchResult> lookupEntries(Collection<String> dns) throws NamingException {
+        Map<String, List<String>> rdnsByBaseDN = new LinkedHashMap<String, List<String>>();
+
+        for (String dn : dns) {
+            String baseDN = dn.substring(dn.indexOf(COMMA) + 1);
+            List<String> rdns = rdnsByBaseDN.get(baseDN);
+
+            if (rdns == null) {
+                rdns = new ArrayList<String>();
+                rdnsByBaseDN.put(baseDN, rdns);
+            }
+
+            rdns.add(dn.substring(0, dn.indexOf(COMMA)));
+        }
+
+        Map<LdapName, SearchResult> entries = new HashMap<LdapName, SearchResult>();
+
+        for (Entry<String, List<String>> baseDNEntry : rdnsByBaseDN.entrySet()) {
+            List<String> rdns = baseDNEntry.getValue();
+
+            for (int i = 0; i < rdns.size(); i = i + RESOLUTION_BATCH_SIZE) {
+                StringBuilder filter = new StringBuilder("(|");
+
+                for (String rdn : rdns.subList(i, Math.min(i + RESOLUTION_BATCH_SIZE, rdns.size()))) {
+                    filter.append("(").append(rdn).append(")");
+                }
+
+                filter.append(")");
+
+                for (SearchResult entry : this.operationManager.search(baseDNEntry.getKey(), filter.toString(), null)) {
+                    LdapName name = toLdapName(entry.getNameInNamespace());
+
+                    if (name != null && !entries.containsKey(name)) {
+                        entries.put(name, entry);
                     }
                 }
             }
-        } catch (Exception e) {
-            throw new IdentityManagementException("Could not populate attribute type " + attributedType + ".", e);
         }
 
-        return attributedType;
+        return entries;
+    }
+
+    /**
+     * <p>Creates the context for a query, which must be created before reading any entry from the server so entries
+     * invalidated while the query is running are not cached.</p>
+     */
+    private EntryResolutionContext createResolutionContext() {
+        return new EntryResolutionContext(this.entryCache != null ? this.entryCache.getVersion() : 0);
+    }
+
+    private LDAPEntryCache.CachedEntry getCachedEntryById(String id) {
+        if (this.entryCache == null || id == null) {
+            return null;
+        }
+
+        return this.entryCache.getById(id);
+    }
+
+    /**
+     * <p>Returns the cached entry with the given DN as an entry resolved at the top of the hierarchy, if any.</p>
+     */
+    private ResolvedEntry getCachedEntry(String dn) {
+        if (this.entryCache == null) {
+            return null;
+        }
+
+        LDAPEntryCache.CachedEntry cachedEntry = this.entryCache.getByDN(dn);
+
+        if (cachedEntry == null) {
+            return null;
+        }
+
+        return new ResolvedEntry(cachedEntry.getEntry(), cachedEntry.getAttributedType(), 0);
+    }
+
+    private void invalidateCachedEntries(AttributedType attributedType) {
+        if (this.entryCache == null) {
+            return;
+        }
+
+        if (getMappingConfig(attributedType.getClass()).getParentMembershipAttributeName() != null) {
+            // cached entries may reference this entry as their parent
+            this.entryCache.invalidateAll();
+        } else if (attributedType.getId() != null) {
+            this.entryCache.invalidateById(attributedType.getId());
+        }
+    }
+
+    private void invalidateCachedEntries(Relationship relationship) {
+        if (this.entryCache == null) {
+            return;
+        }
+
+        // membership attributes also define the parent of entries
+        for (Property<IdentityType> property : PropertyQueries.<IdentityType>createQuery(relationship.getClass())
+                .addCriteria(new TypedPropertyCriteria(IdentityType.class, MatchOption.SUB_TYPE)).getResultList()) {
+            IdentityType identityType = property.getValue(relationship);
+
+            if (identityType != null && identityType.getId() != null) {
+                this.entryCache.invalidateById(identityType.getId());
+            }
+        }
+    }
+
+    private static LdapName toLdapName(String dn) {
+        try {
+            return new LdapName(dn);
+        } catch (InvalidNameException ine) {
+            return null;
+        }
     }
 
     private String findAttributeName(Map<String, String> attrMapping, String ldapAttributeName) {
@@ -954,7 +1501,14 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
                 baseDN = getConfig().getBaseDN();
             }
 
-            SearchResult searchResult = operationManager.lookupById(baseDN, attributedType.getId(), mappingConfig);
+            LDAPEntryCache.CachedEntry cachedEntry = getCachedEntryById(attributedType.getId());
+
+            if (cachedEntry != null) {
+                return cachedEntry.getEntry().getNameInNamespace();
+            }
+
+            // the DN is used to bind to the primary server, so the entry is looked up there as well
+            SearchResult searchResult = operationManager.lookupByIdFromPrimary(baseDN, attributedType.getId(), mappingConfig);
 
             if (searchResult == null) {
                 throw MESSAGES.storeLdapEntryNotFoundWithId(attributedType.getId(), baseDN);
@@ -1031,8 +1585,9 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
 
     protected String getEntryIdentifier(final AttributedType attributedType) {
         try {
-            // we need this to retrieve the entry's identifier from the ldap server
-            List<SearchResult> search = this.operationManager.search(getBaseDN(attributedType), "(" + getBindingDN(attributedType, false) + ")", getMappingConfig(attributedType.getClass()));
+            // we need this to retrieve the entry's identifier from the ldap server. The entry was just added to the
+            // primary server and may not have reached the read only server yet
+            List<SearchResult> search = this.operationManager.searchFromPrimary(getBaseDN(attributedType), "(" + getBindingDN(attributedType, false) + ")", getMappingConfig(attributedType.getClass()));
             Attribute id = search.get(0).getAttributes().get(getConfig().getUniqueIdentifierAttributeName());
 
             if (id == null) {
@@ -1045,4 +1600,60 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
         }
     }
 
-}
\ No newline at end of file
+
+    /**
+     * <p>Holds the entries populated during a single query, so entries referenced by many others, like a parent group
+     * or a member of many groups, are fetched and populated only once.</p>
+     */
+    private static class EntryResolutionContext {
+
+        private final Map<LdapName, ResolvedEntry> entries = new HashMap<LdapName, ResolvedEntry>();
+        private final long cacheVersion;
+
+        /**
+         * @param cacheVersion The version of the entry cache before the query read any entry from the server.
+         */
+        EntryResolutionContext(long cacheVersion) {
+            this.cacheVersion = cacheVersion;
+        }
+
+        /**
+         * <p>Returns the entry with the given DN if it was populated at the given depth or above, which means its parents
+         * were resolved at least as deep as they would be if populated at the given depth.</p>
+         */
+        ResolvedEntry get(String dn, int depth) {
+            ResolvedEntry entry = this.entries.get(toLdapName(dn));
+
+            if (entry != null && entry.depth <= depth) {
+                return entry;
+            }
+
+            return null;
+        }
+
+        void put(ResolvedEntry entry) {
+            LdapName name = toLdapName(entry.entry.getNameInNamespace());
+
+            if (name != null) {
+                ResolvedEntry current = this.entries.get(name);
+
+                if (current == null || current.depth > entry.depth) {
+                    this.entries.put(name, entry);
+                }
+            }
+        }
+    }
+
+    private static class ResolvedEntry {
+
+        private final SearchResult entry;
+        private final AttributedType attributedType;
+        private final int depth;
+
+        ResolvedEntry(SearchResult entry, AttributedType attributedType, int depth) {
+            this.entry = entry;
+            this.attributedType = attributedType;
+            this.depth = depth;
+        }
+    }
+}
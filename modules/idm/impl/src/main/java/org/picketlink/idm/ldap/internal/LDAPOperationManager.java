@@ -43,7 +43,10 @@ import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.PagedResultsControl;
 import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortKey;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -51,10 +54,13 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static javax.naming.directory.SearchControls.SUBTREE_SCOPE;
 import static org.picketlink.common.constants.LDAPConstants.CREATE_TIMESTAMP;
 import static org.picketlink.common.constants.LDAPConstants.EQUAL;
+import static org.picketlink.common.constants.LDAPConstants.MODIFY_TIMESTAMP;
 import static org.picketlink.common.util.LDAPUtil.convertObjectGUIToByteString;
 import static org.picketlink.idm.IDMInternalLog.LDAP_STORE_LOGGER;
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
@@ -67,12 +73,73 @@ import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
  */
 public class LDAPOperationManager {
 
+    /**
+     * <p>The number of entries requested for each page when searching using the paged results control.</p>
+     */
+    private static final int SEARCH_PAGE_SIZE = 1000;
+
+    /**
+     * <p>The time, in milliseconds, after which a paged search that was not resumed is abandoned.</p>
+     */
+    private static final long PAGED_SEARCH_TIMEOUT = 5 * 60 * 1000;
+
+    /**
+     * <p>The maximum number of paged searches waiting for their next page when connections are not pooled. When they are,
+     * at most half of the connections of the pool are kept for paged searches.</p>
+     */
+    private static final int MAX_PAGED_SEARCHES = 10;
+
+    private static final String SUPPORTED_CONTROL = "supportedControl";
+
     private final LDAPIdentityStoreConfiguration config;
     private final Map<String, Object> connectionProperties;
+    private final LDAPConnectionPool connectionPool;
+    private final LDAPConnectionPool readOnlyConnectionPool;
+    private final ConcurrentMap<ByteBuffer, PagedSearch> pagedSearches = new ConcurrentHashMap<ByteBuffer, PagedSearch>();
+    private final int maxPagedSearches;
+    private volatile Boolean sortSupported;
 
     public LDAPOperationManager(LDAPIdentityStoreConfiguration config) throws NamingException {
         this.config = config;
         this.connectionProperties = Collections.unmodifiableMap(createConnectionProperties());
+        this.connectionPool = createConnectionPool(this.connectionProperties);
+
+        String readOnlyURL = this.config.getReadOnlyLdapURL();
+
+        if (readOnlyURL != null) {
+            Map<String, Object> readOnlyConnectionProperties = new HashMap<String, Object>(this.connectionProperties);
+
+            readOnlyConnectionProperties.put(Context.PROVIDER_URL, readOnlyURL);
+
+            this.readOnlyConnectionPool = createConnectionPool(readOnlyConnectionProperties);
+        } else {
+            this.readOnlyConnectionPool = this.connectionPool;
+        }
+
+        if (this.config.getConnectionPoolMaxSize() > 0) {
+            this.maxPagedSearches = Math.max(1, this.config.getConnectionPoolMaxSize() / 2);
+        } else {
+            this.maxPagedSearches = MAX_PAGED_SEARCHES;
+        }
+    }
+
+    /**
+     * <p>Closes all idle pooled connections.</p>
+     */
+    public void close() {
+        for (ByteBuffer cookie : this.pagedSearches.keySet()) {
+            PagedSearch pagedSearch = this.pagedSearches.remove(cookie);
+
+            if (pagedSearch != null) {
+                pagedSearch.pool.invalidate(pagedSearch.context);
+            }
+        }
+
+        this.connectionPool.close();
+
+        if (this.readOnlyConnectionPool != this.connectionPool) {
+            this.readOnlyConnectionPool.close();
+        }
     }
 
     /**
@@ -152,7 +219,7 @@ public class LDAPOperationManager {
      * @return
      */
     public void removeEntryById(final String baseDN, final String id, final LDAPMappingConfiguration mappingConfiguration) {
-        final String filter = getFilterById(baseDN, id);
+        final String filter = getFilterById(baseDN, id, false);
 
         try {
             final SearchControls cons = new SearchControls();
@@ -200,75 +267,381 @@ public class LDAPOperationManager {
     }
 
     public List<SearchResult> search(final String baseDN, final String filter, LDAPMappingConfiguration mappingConfiguration) throws NamingException {
+        return search(baseDN, filter, mappingConfiguration, 0);
+    }
+
+    /**
+     * <p>Searches the tree using the primary server, even if a read only server was configured. Searches made as part of
+     * a write, or right after one, must use this method given that changes may not have reached the read only server
+     * yet.</p>
+     *
+     * @param baseDN
+     * @param filter
+     * @param mappingConfiguration
+     * @return
+     * @throws NamingException
+     */
+    public List<SearchResult> searchFromPrimary(final String baseDN, final String filter, LDAPMappingConfiguration mappingConfiguration) throws NamingException {
+        return search(baseDN, filter, mappingConfiguration, 0, null, false);
+    }
+
+    /**
+     * <p>Searches the tree returning at most <code>countLimit</code> entries. The server stops searching once the limit
+     * is reached. A limit of zero means no limit.</p>
+     *
+     * @param baseDN
+     * @param filter
+     * @param mappingConfiguration
+     * @param countLimit
+     * @return
+     * @throws NamingException
+     */
+    public List<SearchResult> search(final String baseDN, final String filter, LDAPMappingConfiguration mappingConfiguration,
+                                     long countLimit) throws NamingException {
+        return search(baseDN, filter, mappingConfiguration, countLimit, null);
+    }
+
+    /**
+     * <p>Searches the tree returning at most <code>countLimit</code> entries, sorted by the server using the given keys.
+     * If pagination is enabled, entries are retrieved using the paged results control, one page of
+     * {@link #SEARCH_PAGE_SIZE} entries at a time, so that searches are not limited by the size limit of the server.</p>
+     *
+     * @param baseDN
+     * @param filter
+     * @param mappingConfiguration
+     * @param countLimit
+     * @param sortKeys The keys used to sort the entries, or null if the entries should not be sorted.
+     * @return
+     * @throws NamingException
+     */
+    public List<SearchResult> search(final String baseDN, final String filter, LDAPMappingConfiguration mappingConfiguration,
+                                     final long countLimit, final SortKey[] sortKeys) throws NamingException {
+        return search(baseDN, filter, mappingConfiguration, countLimit, sortKeys, true);
+    }
+
+    private List<SearchResult> search(final String baseDN, final String filter, LDAPMappingConfiguration mappingConfiguration,
+                                      final long countLimit, final SortKey[] sortKeys, boolean readOnly) throws NamingException {
         final List<SearchResult> result = new ArrayList<SearchResult>();
         final SearchControls cons = getSearchControls(mappingConfiguration);
 
+        cons.setCountLimit(countLimit);
+
         try {
             return execute(new LdapOperation<List<SearchResult>>() {
                 @Override
                 public List<SearchResult> execute(LdapContext context) throws NamingException {
+                    byte[] cookie = null;
+
+                    do {
+                        if (config.isPagination()) {
+                            context.setRequestControls(createRequestControls(SEARCH_PAGE_SIZE, cookie, sortKeys));
+                        } else if (sortKeys != null) {
+                            context.setRequestControls(createRequestControls(0, null, sortKeys));
+                        }
+
+                        NamingEnumeration<SearchResult> search = context.search(baseDN, filter, cons);
+
+                        // once the count limit is reached the enumeration just ends, entries returned so far are kept
+                        while (search.hasMoreElements()) {
+                            result.add(search.nextElement());
+                        }
+
+                        search.close();
+
+                        cookie = config.isPagination() ? getResponseCookie(context) : null;
+                    } while (cookie != null && cookie.length > 0 && (countLimit <= 0 || result.size() < countLimit));
+
+                    return result;
+                }
+            }, readOnly);
+        } catch (NamingException e) {
+            LDAP_STORE_LOGGER.errorf(e, "Could not query server using DN [%s] and filter [%s]", baseDN, filter);
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Searches the entries changed since the given time, using their <code>modifyTimestamp</code> attribute. Only
+     * the identifier and the modification time of the entries are returned by the server.</p>
+     *
+     * @param baseDN
+     * @param since The time, in generalized time format.
+     * @return
+     * @throws NamingException
+     */
+    public List<SearchResult> searchModifiedEntries(final String baseDN, String since) throws NamingException {
+        final String filter = "(" + MODIFY_TIMESTAMP + ">=" + since + ")";
+        final SearchControls cons = new SearchControls();
+
+        cons.setSearchScope(SUBTREE_SCOPE);
+        cons.setReturningObjFlag(false);
+        cons.setReturningAttributes(new String[] {getUniqueIdentifierAttributeName(), MODIFY_TIMESTAMP});
+
+        return execute(new LdapOperation<List<SearchResult>>() {
+            @Override
+            public List<SearchResult> execute(LdapContext context) throws NamingException {
+                List<SearchResult> result = new ArrayList<SearchResult>();
+                NamingEnumeration<SearchResult> search = context.search(baseDN, filter, cons);
+
+                while (search.hasMoreElements()) {
+                    result.add(search.nextElement());
+                }
+
+                search.close();
+
+                return result;
+            }
+        }, true);
+    }
+
+    /**
+     * <p>Counts the entries matching the given filter, excluding the base DN itself. No attributes are returned by the
+     * server, only the names of the entries.</p>
+     *
+     * @param baseDN
+     * @param filter
+     * @return
+     * @throws NamingException
+     */
+    public int count(final String baseDN, final String filter) throws NamingException {
+        final SearchControls cons = new SearchControls();
+
+        cons.setSearchScope(SUBTREE_SCOPE);
+        cons.setReturningObjFlag(false);
+        cons.setReturningAttributes(new String[0]);
+
+        try {
+            return execute(new LdapOperation<Integer>() {
+                @Override
+                public Integer execute(LdapContext context) throws NamingException {
                     NamingEnumeration<SearchResult> search = context.search(baseDN, filter, cons);
+                    int count = 0;
 
                     while (search.hasMoreElements()) {
-                        result.add(search.nextElement());
+                        if (!search.nextElement().getNameInNamespace().equals(baseDN)) {
+                            count++;
+                        }
                     }
 
                     search.close();
 
-                    return result;
+                    return count;
                 }
-            });
+            }, true);
         } catch (NamingException e) {
-            LDAP_STORE_LOGGER.errorf(e, "Could not query server using DN [%s] and filter [%s]", baseDN, filter);
+            LDAP_STORE_LOGGER.errorf(e, "Could not count entries using DN [%s] and filter [%s]", baseDN, filter);
             throw e;
         }
     }
 
     public <V extends IdentityType> List<SearchResult> searchPaginated(final String baseDN, final String filter, LDAPMappingConfiguration mappingConfiguration, final IdentityQuery<V> identityQuery) throws NamingException {
-        final List<SearchResult> result = new ArrayList<SearchResult>();
-        final SearchControls cons = getSearchControls(mappingConfiguration);
+        return searchPaginated(baseDN, filter, mappingConfiguration, identityQuery, null, false);
+    }
+
+    /**
+     * <p>Returns a single page of entries using the paged results control. The cookie returned by the server is set as
+     * the pagination context of the given query, so that the next page is returned when the query is executed again. An
+     * empty cookie means there are no more pages.</p>
+     *
+     * <p>Servers usually keep the state of a paged search in the connection where it was started. If the search is going to
+     * be resumed, the connection is kept aside from the pool and used to fetch the next pages, until the last page is
+     * returned. Searches that are not resumed for {@link #PAGED_SEARCH_TIMEOUT} milliseconds are abandoned and their
+     * connections closed. The number of connections kept aside is limited, once the limit is reached the least recently
+     * used search is abandoned.</p>
+     *
+     * @param baseDN
+     * @param filter
+     * @param mappingConfiguration
+     * @param identityQuery
+     * @param sortKeys The keys used to sort the entries, or null if the entries should not be sorted. The same keys must
+     * be provided for all the pages.
+     * @param resumable If the search is going to be resumed using the returned cookie. Otherwise, the connection is
+     * returned to the pool once the page is returned.
+     * @param <V>
+     * @return
+     * @throws NamingException
+     */
+    public <V extends IdentityType> List<SearchResult> searchPaginated(String baseDN, String filter, LDAPMappingConfiguration mappingConfiguration,
+                                                                       IdentityQuery<V> identityQuery, SortKey[] sortKeys,
+                                                                       boolean resumable) throws NamingException {
+        List<SearchResult> result = new ArrayList<SearchResult>();
+        SearchControls cons = getSearchControls(mappingConfiguration);
+        byte[] cookie = (byte[]) identityQuery.getPaginationContext();
+        PagedSearch pagedSearch = null;
+
+        if (cookie != null && cookie.length > 0) {
+            pagedSearch = this.pagedSearches.remove(ByteBuffer.wrap(cookie));
+        }
+
+        LDAPConnectionPool pool = this.readOnlyConnectionPool;
+        LdapContext context;
+
+        if (pagedSearch != null) {
+            pool = pagedSearch.pool;
+            context = pagedSearch.context;
+            resumable = true;
+        } else {
+            context = borrow(pool);
+        }
+
+        Exception failure = null;
+        boolean pinned = false;
 
         try {
-            return execute(new LdapOperation<List<SearchResult>>() {
-                @Override
-                public List<SearchResult> execute(LdapContext context) throws NamingException {
-                    try {
-                        byte[] cookie = (byte[])identityQuery.getPaginationContext();
-                        PagedResultsControl pagedControls = new PagedResultsControl(identityQuery.getLimit(), cookie, Control.CRITICAL);
-                        context.setRequestControls(new Control[] { pagedControls });
+            context.setRequestControls(createRequestControls(identityQuery.getLimit(), cookie, sortKeys));
 
-                        NamingEnumeration<SearchResult> search = context.search(baseDN, filter, cons);
+            NamingEnumeration<SearchResult> search = context.search(baseDN, filter, cons);
 
-                        while (search.hasMoreElements()) {
-                            result.add(search.nextElement());
-                        }
+            while (search.hasMoreElements()) {
+                result.add(search.nextElement());
+            }
 
-                        search.close();
+            search.close();
 
-                        Control[] responseControls = context.getResponseControls();
-                        if (responseControls != null) {
-                            for (Control respControl : responseControls) {
-                                if (respControl instanceof PagedResultsResponseControl) {
-                                    PagedResultsResponseControl prrc = (PagedResultsResponseControl)respControl;
-                                    cookie = prrc.getCookie();
-                                    identityQuery.setPaginationContext(cookie);
-                                }
-                            }
-                        }
+            cookie = getResponseCookie(context);
 
-                        return result;
-                    } catch (IOException ioe) {
-                        LDAP_STORE_LOGGER.errorf(ioe, "Could not query server with paginated query using DN [%s], filter [%s]", baseDN, filter);
-                        throw new NamingException(ioe.getMessage());
-                    }
+            if (cookie != null && cookie.length > 0) {
+                if (resumable) {
+                    pinPagedSearch(cookie, new PagedSearch(pool, context, System.currentTimeMillis()));
+                    pinned = true;
                 }
-            });
+            } else {
+                cookie = new byte[0];
+            }
+
+            identityQuery.setPaginationContext(cookie);
+
+            return result;
         } catch (NamingException e) {
+            failure = e;
             LDAP_STORE_LOGGER.errorf(e, "Could not query server using DN [%s] and filter [%s]", baseDN, filter);
             throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (!pinned) {
+                pool.release(context, failure);
+            }
         }
     }
 
+    /**
+     * <p>Indicates if the server supports sorting entries using the server side sort control. The root DSE is read only
+     * once.</p>
+     *
+     * @return
+     */
+    public boolean isSortSupported() {
+        Boolean sortSupported = this.sortSupported;
+
+        if (sortSupported == null) {
+            try {
+                sortSupported = execute(new LdapOperation<Boolean>() {
+                    @Override
+                    public Boolean execute(LdapContext context) throws NamingException {
+                        Attribute supportedControls = context.getAttributes("", new String[] {SUPPORTED_CONTROL}).get(SUPPORTED_CONTROL);
+
+                        return supportedControls != null && supportedControls.contains(SortControl.OID);
+                    }
+                }, true);
+            } catch (NamingException ne) {
+                LDAP_STORE_LOGGER.debugf(ne, "Could not read supported controls from root DSE.");
+                sortSupported = false;
+            }
+
+            this.sortSupported = sortSupported;
+        }
+
+        return sortSupported;
+    }
+
+    private Control[] createRequestControls(int pageSize, byte[] cookie, SortKey[] sortKeys) throws NamingException {
+        List<Control> controls = new ArrayList<Control>();
+
+        try {
+            if (sortKeys != null && sortKeys.length > 0) {
+                controls.add(new SortControl(sortKeys, Control.CRITICAL));
+            }
+
+            if (pageSize > 0) {
+                controls.add(new PagedResultsControl(pageSize, cookie, Control.CRITICAL));
+            }
+        } catch (IOException ioe) {
+            NamingException namingException = new NamingException(ioe.getMessage());
+
+            namingException.setRootCause(ioe);
+
+            throw namingException;
+        }
+
+        return controls.toArray(new Control[controls.size()]);
+    }
+
+    private byte[] getResponseCookie(LdapContext context) throws NamingException {
+        Control[] responseControls = context.getResponseControls();
+
+        if (responseControls != null) {
+            for (Control responseControl : responseControls) {
+                if (responseControl instanceof PagedResultsResponseControl) {
+                    return ((PagedResultsResponseControl) responseControl).getCookie();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>Keeps the connection of a paged search aside until its next page is requested. If the maximum number of paged
+     * searches is reached, the least recently used one is abandoned.</p>
+     */
+    private void pinPagedSearch(byte[] cookie, PagedSearch pagedSearch) {
+        this.pagedSearches.put(ByteBuffer.wrap(cookie), pagedSearch);
+
+        while (this.pagedSearches.size() > this.maxPagedSearches) {
+            Map.Entry<ByteBuffer, PagedSearch> oldest = null;
+
+            for (Map.Entry<ByteBuffer, PagedSearch> entry : this.pagedSearches.entrySet()) {
+                if (oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed) {
+                    oldest = entry;
+                }
+            }
+
+            if (oldest != null && this.pagedSearches.remove(oldest.getKey(), oldest.getValue())) {
+                LDAP_STORE_LOGGER.debugf("Abandoning paged search, the maximum of [%s] paged searches was reached.", this.maxPagedSearches);
+                oldest.getValue().pool.invalidate(oldest.getValue().context);
+            }
+        }
+    }
+
+    private void expirePagedSearches() {
+        if (this.pagedSearches.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<ByteBuffer, PagedSearch> entry : this.pagedSearches.entrySet()) {
+            PagedSearch pagedSearch = entry.getValue();
+
+            if (now - pagedSearch.lastUsed >= PAGED_SEARCH_TIMEOUT && this.pagedSearches.remove(entry.getKey(), pagedSearch)) {
+                // closing the connection discards the state kept by the server
+                pagedSearch.pool.invalidate(pagedSearch.context);
+            }
+        }
+    }
+
+    /**
+     * <p>Borrows a connection from the given pool, abandoning the paged searches that expired before so that their
+     * connections are available again.</p>
+     */
+    private LdapContext borrow(LDAPConnectionPool pool) throws NamingException {
+        expirePagedSearches();
+
+        return pool.borrow();
+    }
+
     private SearchControls getSearchControls(LDAPMappingConfiguration mappingConfiguration) {
         final SearchControls cons = new SearchControls();
 
@@ -282,6 +655,10 @@ public class LDAPOperationManager {
     }
 
     public String getFilterById(String baseDN, String id) {
+        return getFilterById(baseDN, id, true);
+    }
+
+    private String getFilterById(String baseDN, String id, boolean readOnly) {
         String filter = null;
 
         if (this.config.isActiveDirectory()) {
@@ -293,7 +670,7 @@ public class LDAPOperationManager {
                     public Attributes execute(LdapContext context) throws NamingException {
                         return context.getAttributes(strObjectGUID);
                     }
-                });
+                }, readOnly);
 
                 byte[] objectGUID = (byte[]) attributes.get(LDAPConstants.OBJECT_GUID).get();
 
@@ -311,7 +688,26 @@ public class LDAPOperationManager {
     }
 
     public SearchResult lookupById(final String baseDN, final String id, final LDAPMappingConfiguration mappingConfiguration) {
-        final String filter = getFilterById(baseDN, id);
+        return lookupById(baseDN, id, mappingConfiguration, true);
+    }
+
+    /**
+     * <p>Looks up an entry by its identifier using the primary server, even if a read only server was configured. Lookups
+     * made as part of a write, or right after one, must use this method given that changes may not have reached the read
+     * only server yet.</p>
+     *
+     * @param baseDN
+     * @param id
+     * @param mappingConfiguration
+     * @return
+     */
+    public SearchResult lookupByIdFromPrimary(final String baseDN, final String id, final LDAPMappingConfiguration mappingConfiguration) {
+        return lookupById(baseDN, id, mappingConfiguration, false);
+    }
+
+    private SearchResult lookupById(final String baseDN, final String id, final LDAPMappingConfiguration mappingConfiguration,
+                                    boolean readOnly) {
+        final String filter = getFilterById(baseDN, id, readOnly);
 
         try {
             final SearchControls cons = new SearchControls();
@@ -341,7 +737,7 @@ public class LDAPOperationManager {
 
                     return null;
                 }
-            });
+            }, readOnly);
         } catch (NamingException e) {
             LDAP_STORE_LOGGER.errorf(e, "Could not query server using DN [%s] and filter [%s]", baseDN, filter);
             throw new RuntimeException(e);
@@ -387,6 +783,9 @@ public class LDAPOperationManager {
      * Performs a simple authentication using the ginve DN and password to bind to the authentication context.
      * </p>
      *
+     * <p>The bind is always performed using a dedicated connection, which is never pooled or shared with other
+     * operations, so that the identity of pooled connections is never changed and passwords are never cached.</p>
+     *
      * @param dn
      * @param password
      *
@@ -522,8 +921,17 @@ public class LDAPOperationManager {
         };
     }
 
+    /**
+     * <p>Returns the attributes of the entry with the given identifier. Attributes are always read from the primary
+     * server, given that they are usually read in order to modify the entry.</p>
+     *
+     * @param entryUUID
+     * @param baseDN
+     * @param mappingConfiguration
+     * @return
+     */
     public Attributes getAttributes(final String entryUUID, final String baseDN, LDAPMappingConfiguration mappingConfiguration) {
-        SearchResult search = lookupById(baseDN, entryUUID, mappingConfiguration);
+        SearchResult search = lookupById(baseDN, entryUUID, mappingConfiguration, false);
 
         if (search == null) {
             throw MESSAGES.storeLdapEntryNotFoundWithId(entryUUID, baseDN);
@@ -544,8 +952,10 @@ public class LDAPOperationManager {
         return id;
     }
 
-    private LdapContext createLdapContext() throws NamingException {
-        return new InitialLdapContext(new Hashtable<Object, Object>(this.connectionProperties), null);
+    private LDAPConnectionPool createConnectionPool(Map<String, Object> connectionProperties) {
+        return new LDAPConnectionPool(connectionProperties, this.config.getConnectionPoolMinSize(),
+            this.config.getConnectionPoolMaxSize(), this.config.getConnectionPoolIdleTimeout(),
+            this.config.getConnectionPoolBorrowTimeout(), this.config.getConnectionPoolHealthCheckInterval());
     }
 
     private Map<String, Object> createConnectionProperties() {
@@ -602,21 +1012,37 @@ public class LDAPOperationManager {
     }
 
     private <R> R execute(LdapOperation<R> operation) throws NamingException {
+        return execute(operation, false);
+    }
+
+    /**
+     * <p>Executes the given operation using a pooled connection. Read only operations use the read only server, if one
+     * was configured.</p>
+     *
+     * @param operation
+     * @param readOnly
+     * @param <R>
+     * @return
+     * @throws NamingException
+     */
+    private <R> R execute(LdapOperation<R> operation, boolean readOnly) throws NamingException {
+        LDAPConnectionPool pool = readOnly ? this.readOnlyConnectionPool : this.connectionPool;
         LdapContext context = null;
+        Exception failure = null;
 
         try {
-            context = createLdapContext();
+            context = borrow(pool);
             return operation.execute(context);
         } catch (NamingException ne) {
+            failure = ne;
             IDMLog.IDENTITY_STORE_LOGGER.error("Could not create Ldap context.", ne);
             throw ne;
+        } catch (RuntimeException re) {
+            failure = re;
+            throw re;
         } finally {
             if (context != null) {
-                try {
-                    context.close();
-                } catch (NamingException ne) {
-                    IDMLog.IDENTITY_STORE_LOGGER.error("Could not close Ldap context.", ne);
-                }
+                pool.release(context, failure);
             }
         }
     }
@@ -625,6 +1051,23 @@ public class LDAPOperationManager {
         R execute(LdapContext context) throws NamingException;
     }
 
+    /**
+     * <p>A paged search waiting for its next page to be requested, together with the connection where it was
+     * started.</p>
+     */
+    private static class PagedSearch {
+
+        private final LDAPConnectionPool pool;
+        private final LdapContext context;
+        private final long lastUsed;
+
+        PagedSearch(LDAPConnectionPool pool, LdapContext context, long lastUsed) {
+            this.pool = pool;
+            this.context = context;
+            this.lastUsed = lastUsed;
+        }
+    }
+
     private List<String> getReturningAttributes(final LDAPMappingConfiguration mappingConfiguration) {
         List<String> returningAttributes = new ArrayList<String>();
 
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.query.internal;
+
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.spi.IdentityStore;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Base class for iterators that lazily fetch query results from a set of {@link IdentityStore}, at most a given
+ * number of instances at a time.</p>
+ *
+ * <p>Stores are visited one at a time. Each page is fetched by running the query against the current store with the
+ * limit and offset set to the current page. The limit and offset defined by the query, if any, are respected for each
+ * store, as when the results are retrieved as a list.</p>
+ *
+ * <p>Stores that do not support pagination are also supported: if a store returns more instances than requested, or
+ * returns the same page again, it is considered exhausted.</p>
+ *
+ * @author agent
+ */
+abstract class AbstractQueryResultIterator<T extends AttributedType> implements Iterator<T> {
+
+    private final Iterator<IdentityStore<?>> stores;
+    private final int fetchSize;
+
+    private IdentityStore<?> currentStore;
+    private Iterator<T> currentPage = Collections.<T>emptyList().iterator();
+    private boolean storeExhausted = true;
+    private int storeOffset;
+    private int storeRemaining;
+    private String previousPageFirstId;
+    private T next;
+
+    AbstractQueryResultIterator(Iterator<IdentityStore<?>> stores, int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be greater than zero.");
+        }
+
+        this.stores = stores;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (this.next == null) {
+            if (this.currentPage.hasNext()) {
+                this.next = populate(this.currentStore, this.currentPage.next());
+            } else if (!fetchNextPage()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        T result = this.next;
+
+        this.next = null;
+
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Results can not be removed using this iterator.");
+    }
+
+    /**
+     * <p>The maximum number of results to retrieve from each store, as defined by the query.</p>
+     */
+    protected abstract int getLimit();
+
+    /**
+     * <p>The position of the first result to retrieve from each store, as defined by the query.</p>
+     */
+    protected abstract int getOffset();
+
+    /**
+     * <p>Called when the iteration moves to a new store, before its first page is fetched.</p>
+     *
+     * @param store
+     */
+    protected void onStoreStarted(IdentityStore<?> store) {
+    }
+
+    /**
+     * <p>Fetches a page of results from the given store.</p>
+     *
+     * @param store
+     * @param offset
+     * @param pageSize
+     *
+     * @return
+     */
+    protected abstract List<T> fetchPage(IdentityStore<?> store, int offset, int pageSize);
+
+    /**
+     * <p>Indicates if the current store may have more results after a full page was returned.</p>
+     *
+     * @return
+     */
+    protected boolean hasMorePages() {
+        return true;
+    }
+
+    /**
+     * <p>Indicates if the current store keeps track of the pages itself, like LDAP stores using paged results. In this
+     * case, the store may return pages smaller than requested and only {@link #hasMorePages()} tells if the store is
+     * exhausted.</p>
+     *
+     * @return
+     */
+    protected boolean isPaginatedByStore() {
+        return false;
+    }
+
+    /**
+     * <p>Prepares a result before it is returned by this iterator.</p>
+     *
+     * @param store The store from where the result was fetched.
+     * @param result The result.
+     *
+     * @return
+     */
+    protected abstract T populate(IdentityStore<?> store, T result);
+
+    private boolean fetchNextPage() {
+        if (this.storeExhausted) {
+            if (!this.stores.hasNext()) {
+                return false;
+            }
+
+            this.currentStore = this.stores.next();
+            this.storeExhausted = false;
+            this.storeOffset = getOffset();
+            this.storeRemaining = getLimit();
+            this.previousPageFirstId = null;
+
+            onStoreStarted(this.currentStore);
+        }
+
+        int pageSize = this.fetchSize;
+
+        if (getLimit() > 0) {
+            pageSize = Math.min(pageSize, this.storeRemaining);
+        }
+
+        if (pageSize <= 0) {
+            this.storeExhausted = true;
+            return true;
+        }
+
+        List<T> page = fetchPage(this.currentStore, this.storeOffset, pageSize);
+
+        if (!page.isEmpty()) {
+            String firstId = page.get(0).getId();
+
+            if (firstId != null && firstId.equals(this.previousPageFirstId)) {
+                // the store ignored the offset and returned the same page again
+                this.storeExhausted = true;
+                return true;
+            }
+
+            this.previousPageFirstId = firstId;
+        }
+
+        if (page.size() <= pageSize && isPaginatedByStore()) {
+            this.storeExhausted = !hasMorePages();
+        } else if (page.size() < pageSize) {
+            this.storeExhausted = true;
+        } else if (page.size() > pageSize) {
+            // the store does not support pagination and returned all results at once
+            this.storeExhausted = true;
+
+            if (getLimit() > 0) {
+                page = page.subList(0, Math.min(page.size(), this.storeRemaining));
+            }
+        } else {
+            this.storeExhausted = !hasMorePages();
+        }
+
+        this.storeOffset = this.storeOffset + page.size();
+        this.storeRemaining = this.storeRemaining - page.size();
+        this.currentPage = page.iterator();
+
+        return true;
+    }
+}
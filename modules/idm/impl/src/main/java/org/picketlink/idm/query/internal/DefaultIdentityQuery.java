@@ -18,27 +18,40 @@
 
 package org.picketlink.idm.query.internal;
 
+import org.picketlink.idm.IdentityCache;
+import org.picketlink.idm.VersionedIdentityCache;
 import org.picketlink.idm.PartitionManager;
 import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.model.basic.Agent;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.AttributeParameter;
 import org.picketlink.idm.query.Condition;
 import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.IdentityQueryBuilder;
 import org.picketlink.idm.query.QueryParameter;
 import org.picketlink.idm.query.Sort;
 import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.ExistenceQueryStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.StoreSelector;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static java.util.Collections.unmodifiableSet;
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
@@ -59,20 +72,38 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
     private final PartitionManager partitionManager;
     private final StoreSelector storeSelector;
     private final IdentityQueryBuilder queryBuilder;
+    private final IdentityCache identityCache;
+    private final StoreQueryExecutor storeQueryExecutor;
     private int offset;
     private int limit;
     private Object paginationContext;
     private QueryParameter[] sortParameters;
     private boolean sortAscending = true;
+    private boolean loadAttributes = true;
     private final Set<Condition> conditions = new LinkedHashSet<Condition>();
     private final Set<Sort> ordering = new LinkedHashSet<Sort>();
 
     public DefaultIdentityQuery(IdentityQueryBuilder queryBuilder, IdentityContext context, Class<T> identityType, PartitionManager partitionManager, StoreSelector storeSelector) {
+        this(queryBuilder, context, identityType, partitionManager, storeSelector, null);
+    }
+
+    public DefaultIdentityQuery(IdentityQueryBuilder queryBuilder, IdentityContext context, Class<T> identityType, PartitionManager partitionManager, StoreSelector storeSelector, IdentityCache identityCache) {
+        this(queryBuilder, context, identityType, partitionManager, storeSelector, identityCache, null);
+    }
+
+    public DefaultIdentityQuery(IdentityQueryBuilder queryBuilder, IdentityContext context, Class<T> identityType, PartitionManager partitionManager, StoreSelector storeSelector, IdentityCache identityCache, StoreQueryExecutor storeQueryExecutor) {
         this.queryBuilder = queryBuilder;
         this.context = context;
         this.storeSelector = storeSelector;
         this.partitionManager = partitionManager;
         this.identityType = identityType;
+        this.identityCache = identityCache;
+
+        if (storeQueryExecutor == null) {
+            storeQueryExecutor = new StoreQueryExecutor(null);
+        }
+
+        this.storeQueryExecutor = storeQueryExecutor;
     }
 
     @Override
@@ -168,55 +199,192 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
 
     @Override
     public List<T> getResultList() {
+        configureSortParameters();
 
-        // remove this statement once deprecated methods on IdentityQuery are removed
-        if (this.sortParameters != null) {
-            for (QueryParameter parameter : this.sortParameters) {
-                if (isSortAscending()) {
-                    sortBy(this.queryBuilder.asc(parameter));
-                } else {
-                    sortBy(this.queryBuilder.desc(parameter));
-                }
+        List<T> result = new ArrayList<T>();
+        EqualCondition cacheKeyCondition = getCacheKeyCondition();
+
+        long cacheVersion = 0;
+
+        if (cacheKeyCondition != null) {
+            T cachedType = lookupIdentityCache(cacheKeyCondition);
+
+            if (cachedType != null) {
+                result.add(cachedType);
+                return result;
             }
-        }
 
-        List<T> result = new ArrayList<T>();
+            cacheVersion = getIdentityCacheVersion();
+        }
 
         try {
-            Set<IdentityStore<?>> identityStores = this.storeSelector.getStoresForIdentityQuery(this.context, this.getIdentityType());
-            AttributeStore<?> attributeStore = this.storeSelector.getStoreForAttributeOperation(context);
+            List<IdentityStore<?>> identityStores = new ArrayList<IdentityStore<?>>(
+                this.storeSelector.getStoresForIdentityQuery(this.context, this.getIdentityType()));
+            AttributeStore<?> attributeStore = getAttributeStore();
+
+            // when multiple stores are queried, the offset and limit apply to the merged results
+            boolean mergeWindow = identityStores.size() > 1 && (this.offset > 0 || this.limit > 0);
+            int offset = this.offset;
+            int limit = this.limit;
+            List<List<T>> storeResults;
+
+            if (mergeWindow) {
+                this.offset = 0;
+
+                if (limit > 0) {
+                    this.limit = offset + limit;
+                }
+            }
+
+            try {
+                storeResults = fetchQueryResults(identityStores);
+            } finally {
+                this.offset = offset;
+                this.limit = limit;
+            }
+
+            Comparator<T> comparator = null;
+
+            if (identityStores.size() > 1 && !getSorting().isEmpty()) {
+                comparator = new IdentityTypeSortingComparator<T>(this);
+            }
+
+            int[] positions = new int[storeResults.size()];
+            int skipped = 0;
+
+            while (!mergeWindow || limit <= 0 || result.size() < limit) {
+                // stores return their results already sorted, the next result is the lowest head among all of them
+                int selectedStore = -1;
 
-            for (IdentityStore<?> store : identityStores) {
-                for (T identityType : store.fetchQueryResults(this.context, this)) {
-                    configureDefaultPartition(this.context, identityType, store, this.partitionManager);
+                for (int i = 0; i < storeResults.size(); i++) {
+                    List<T> storeResult = storeResults.get(i);
 
-                    if (attributeStore != null) {
-                        attributeStore.loadAttributes(this.context, identityType);
+                    if (positions[i] < storeResult.size()) {
+                        if (selectedStore == -1) {
+                            selectedStore = i;
+                        } else if (comparator != null && comparator.compare(storeResult.get(positions[i]),
+                            storeResults.get(selectedStore).get(positions[selectedStore])) < 0) {
+                            selectedStore = i;
+                        }
                     }
+                }
+
+                if (selectedStore == -1) {
+                    break;
+                }
+
+                T identityType = storeResults.get(selectedStore).get(positions[selectedStore]++);
 
-                    result.add(identityType);
+                if (mergeWindow && skipped < offset) {
+                    skipped++;
+                    continue;
                 }
+
+                configureDefaultPartition(this.context, identityType, identityStores.get(selectedStore), this.partitionManager);
+
+                result.add(identityType);
+            }
+
+            if (attributeStore != null) {
+                attributeStore.loadAttributes(this.context, result);
             }
         } catch (Exception e) {
             throw MESSAGES.queryIdentityTypeFailed(this, e);
         }
 
+        // types without their attributes are not cached
+        if (cacheKeyCondition != null && result.size() == 1 && this.loadAttributes) {
+            putIdentityCache(result.get(0), cacheVersion);
+        }
+
         return result;
     }
 
+    @Override
+    public Iterator<T> getResultIterator(int fetchSize) {
+        configureSortParameters();
+
+        try {
+            Set<IdentityStore<?>> identityStores = this.storeSelector.getStoresForIdentityQuery(this.context, this.getIdentityType());
+            AttributeStore<?> attributeStore = getAttributeStore();
+
+            return new IdentityQueryResultIterator<T>(this.context, this, this.partitionManager, attributeStore,
+                identityStores.iterator(), fetchSize);
+        } catch (IllegalArgumentException iae) {
+            throw iae;
+        } catch (Exception e) {
+            throw MESSAGES.queryIdentityTypeFailed(this, e);
+        }
+    }
+
     @Override
     public int getResultCount() {
         int count = 0;
 
-        Set<IdentityStore<?>> identityStores = this.storeSelector.getStoresForIdentityQuery(this.context, this.getIdentityType());
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+
+            List<IdentityStore<?>> identityStores = new ArrayList<IdentityStore<?>>(
+                this.storeSelector.getStoresForIdentityQuery(this.context, this.getIdentityType()));
 
-        for (IdentityStore<?> store : identityStores) {
-            count = count + store.countQueryResults(this.context, this);
+            for (final IdentityStore<?> store : identityStores) {
+                final DefaultIdentityQuery<T> storeQuery = getStoreQuery(identityStores.size());
+
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return store.countQueryResults(storeQuery.context, storeQuery);
+                    }
+                });
+            }
+
+            for (Integer storeCount : this.storeQueryExecutor.execute(identityStores, tasks)) {
+                count = count + storeCount;
+            }
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw MESSAGES.queryIdentityTypeFailed(this, e);
         }
 
         return count;
     }
 
+    @Override
+    public boolean exists() {
+        EqualCondition cacheKeyCondition = getCacheKeyCondition();
+
+        if (cacheKeyCondition != null && lookupIdentityCache(cacheKeyCondition) != null) {
+            return true;
+        }
+
+        try {
+            // stores are queried one at a time until one of them finds a matching entry
+            for (IdentityStore<?> store : this.storeSelector.getStoresForIdentityQuery(this.context, this.getIdentityType())) {
+                DefaultIdentityQuery<T> storeQuery = copy();
+
+                if (ExistenceQueryStore.class.isInstance(store)) {
+                    if (((ExistenceQueryStore<?>) store).existsQueryResults(storeQuery.context, storeQuery)) {
+                        return true;
+                    }
+                } else {
+                    // a single result is enough
+                    storeQuery.limit = 1;
+
+                    if (!store.fetchQueryResults(storeQuery.context, storeQuery).isEmpty()) {
+                        return true;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            throw iae;
+        } catch (Exception e) {
+            throw MESSAGES.queryIdentityTypeFailed(this, e);
+        }
+
+        return false;
+    }
+
     @Override
     public IdentityQuery<T> setOffset(int offset) {
         this.offset = offset;
@@ -241,6 +409,17 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
         return this;
     }
 
+    @Override
+    public boolean isLoadAttributes() {
+        return this.loadAttributes;
+    }
+
+    @Override
+    public IdentityQuery<T> setLoadAttributes(boolean loadAttributes) {
+        this.loadAttributes = loadAttributes;
+        return this;
+    }
+
     @Override
     public IdentityQuery<T> setPaginationContext(Object object) {
         this.paginationContext = object;
@@ -251,4 +430,208 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
     public Set<Condition> getConditions() {
         return unmodifiableSet(this.conditions);
     }
+
+    private List<List<T>> fetchQueryResults(List<IdentityStore<?>> identityStores) throws Exception {
+        List<Callable<List<T>>> tasks = new ArrayList<Callable<List<T>>>(identityStores.size());
+
+        for (final IdentityStore<?> store : identityStores) {
+            final DefaultIdentityQuery<T> storeQuery = getStoreQuery(identityStores.size());
+
+            tasks.add(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    return store.fetchQueryResults(storeQuery.context, storeQuery);
+                }
+            });
+        }
+
+        return this.storeQueryExecutor.execute(identityStores, tasks);
+    }
+
+    /**
+     * <p>Returns the query to run against a single store. When multiple stores are queried, possibly concurrently, each
+     * store gets its own copy of this query and of its context, given that stores may change both of them. For
+     * instance, to update the pagination context.</p>
+     *
+     * @param storeCount The number of stores being queried.
+     *
+     * @return
+     */
+    private DefaultIdentityQuery<T> getStoreQuery(int storeCount) {
+        if (storeCount <= 1) {
+            return this;
+        }
+
+        DefaultIdentityQuery<T> storeQuery = copy();
+
+        storeQuery.ordering.addAll(this.ordering);
+        storeQuery.offset = this.offset;
+        storeQuery.limit = this.limit;
+        storeQuery.paginationContext = this.paginationContext;
+        storeQuery.sortParameters = this.sortParameters;
+        storeQuery.sortAscending = this.sortAscending;
+        storeQuery.loadAttributes = this.loadAttributes;
+
+        return storeQuery;
+    }
+
+    /**
+     * <p>Returns a copy of this query, with its own context, holding the same parameters and conditions. Sorting and
+     * pagination are not copied.</p>
+     *
+     * @return
+     */
+    private DefaultIdentityQuery<T> copy() {
+        DefaultIdentityQuery<T> copy = new DefaultIdentityQuery<T>(this.queryBuilder, new StoreQueryContext(this.context),
+            this.identityType, this.partitionManager, this.storeSelector);
+
+        copy.parameters.putAll(this.parameters);
+        copy.conditions.addAll(this.conditions);
+        copy.loadAttributes = false;
+
+        return copy;
+    }
+
+    private AttributeStore<?> getAttributeStore() {
+        if (!this.loadAttributes) {
+            return null;
+        }
+
+        return this.storeSelector.getStoreForAttributeOperation(this.context);
+    }
+
+    private void configureSortParameters() {
+        // remove this method once deprecated methods on IdentityQuery are removed
+        if (this.sortParameters != null) {
+            for (QueryParameter parameter : this.sortParameters) {
+                if (isSortAscending()) {
+                    sortBy(this.queryBuilder.asc(parameter));
+                } else {
+                    sortBy(this.queryBuilder.desc(parameter));
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Returns the condition holding the unique name to be used when looking up the {@link IdentityCache}. Only queries
+     * for the basic model types, without pagination or sorting, and filtering only by login name, role name or group
+     * path (and optionally by partition) are resolved from the cache.</p>
+     *
+     * @return The condition or null if this query can not be resolved from the cache.
+     */
+    private EqualCondition getCacheKeyCondition() {
+        if (this.identityCache == null || this.limit > 0 || this.offset > 0 || this.paginationContext != null
+            || !this.ordering.isEmpty()) {
+            return null;
+        }
+
+        String keyProperty = getCacheKeyProperty();
+
+        if (keyProperty == null) {
+            return null;
+        }
+
+        EqualCondition keyCondition = null;
+
+        for (Condition condition : this.conditions) {
+            if (!EqualCondition.class.isInstance(condition)
+                || !AttributeParameter.class.isInstance(condition.getParameter())) {
+                return null;
+            }
+
+            EqualCondition equalCondition = (EqualCondition) condition;
+            String parameterName = ((AttributeParameter) equalCondition.getParameter()).getName();
+
+            if (keyProperty.equals(parameterName) && keyCondition == null && String.class.isInstance(equalCondition.getValue())) {
+                keyCondition = equalCondition;
+            } else if (!isPartitionCondition(equalCondition)) {
+                return null;
+            }
+        }
+
+        return keyCondition;
+    }
+
+    private String getCacheKeyProperty() {
+        if (Agent.class.equals(this.identityType) || User.class.equals(this.identityType)) {
+            return ((AttributeParameter) Agent.LOGIN_NAME).getName();
+        } else if (Role.class.equals(this.identityType)) {
+            return ((AttributeParameter) Role.NAME).getName();
+        } else if (Group.class.equals(this.identityType)) {
+            return ((AttributeParameter) Group.PATH).getName();
+        }
+
+        return null;
+    }
+
+    private boolean isPartitionCondition(EqualCondition condition) {
+        return ((AttributeParameter) IdentityType.PARTITION).getName().equals(((AttributeParameter) condition.getParameter()).getName())
+            && Partition.class.isInstance(condition.getValue());
+    }
+
+    private Partition getCachePartition() {
+        for (Condition condition : this.conditions) {
+            if (isPartitionCondition((EqualCondition) condition)) {
+                return (Partition) ((EqualCondition) condition).getValue();
+            }
+        }
+
+        return this.context.getPartition();
+    }
+
+    private T lookupIdentityCache(EqualCondition keyCondition) {
+        Partition partition = getCachePartition();
+        String key = (String) keyCondition.getValue();
+        IdentityType cachedType = null;
+
+        if (User.class.equals(this.identityType)) {
+            if (Realm.class.isInstance(partition)) {
+                cachedType = this.identityCache.lookupUser((Realm) partition, key);
+            }
+        } else if (Agent.class.equals(this.identityType)) {
+            if (Realm.class.isInstance(partition)) {
+                cachedType = this.identityCache.lookupAgent((Realm) partition, key);
+            }
+        } else if (Role.class.equals(this.identityType)) {
+            cachedType = this.identityCache.lookupRole(partition, key);
+        } else if (Group.class.equals(this.identityType)) {
+            cachedType = this.identityCache.lookupGroup(partition, key);
+        }
+
+        return this.identityType.cast(cachedType);
+    }
+
+    private long getIdentityCacheVersion() {
+        if (VersionedIdentityCache.class.isInstance(this.identityCache)) {
+            return ((VersionedIdentityCache) this.identityCache).getVersion();
+        }
+
+        return 0;
+    }
+
+    private void putIdentityCache(T identityType, long cacheVersion) {
+        Partition partition = identityType.getPartition();
+
+        if (partition == null) {
+            partition = getCachePartition();
+        }
+
+        if (VersionedIdentityCache.class.isInstance(this.identityCache)) {
+            // discards types loaded before a concurrent invalidation
+            ((VersionedIdentityCache) this.identityCache).put(partition, identityType, cacheVersion);
+        } else if (User.class.isInstance(identityType)) {
+            if (Realm.class.isInstance(partition)) {
+                this.identityCache.putUser((Realm) partition, (User) identityType);
+            }
+        } else if (Agent.class.isInstance(identityType)) {
+            if (Realm.class.isInstance(partition)) {
+                this.identityCache.putAgent((Realm) partition, (Agent) identityType);
+            }
+        } else if (Role.class.isInstance(identityType)) {
+            this.identityCache.putRole(partition, (Role) identityType);
+        } else if (Group.class.isInstance(identityType)) {
+            this.identityCache.putGroup(partition, (Group) identityType);
+        }
+    }
 }
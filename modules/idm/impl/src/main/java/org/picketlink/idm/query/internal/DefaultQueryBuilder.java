@@ -21,6 +21,7 @@
  */
 package org.picketlink.idm.query.internal;
 
+import org.picketlink.idm.IdentityCache;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.PartitionManager;
 import org.picketlink.idm.model.IdentityType;
@@ -40,11 +41,23 @@ public class DefaultQueryBuilder implements IdentityQueryBuilder {
     private final StoreSelector storeSelector;
     private final IdentityContext identityContext;
     private final PartitionManager partitionManager;
+    private final IdentityCache identityCache;
+    private final StoreQueryExecutor storeQueryExecutor;
 
     public DefaultQueryBuilder(IdentityContext identityContext, PartitionManager partitionManager, StoreSelector storeSelector) {
+        this(identityContext, partitionManager, storeSelector, null);
+    }
+
+    public DefaultQueryBuilder(IdentityContext identityContext, PartitionManager partitionManager, StoreSelector storeSelector, IdentityCache identityCache) {
+        this(identityContext, partitionManager, storeSelector, identityCache, null);
+    }
+
+    public DefaultQueryBuilder(IdentityContext identityContext, PartitionManager partitionManager, StoreSelector storeSelector, IdentityCache identityCache, StoreQueryExecutor storeQueryExecutor) {
         this.identityContext = identityContext;
         this.partitionManager = partitionManager;
         this.storeSelector = storeSelector;
+        this.identityCache = identityCache;
+        this.storeQueryExecutor = storeQueryExecutor;
     }
 
     @Override
@@ -105,7 +118,7 @@ public class DefaultQueryBuilder implements IdentityQueryBuilder {
 
     @Override
     public <T extends IdentityType> IdentityQuery createIdentityQuery(Class<T> identityType) {
-        return new DefaultIdentityQuery(this, this.identityContext, identityType, this.partitionManager, this.storeSelector);
+        return new DefaultIdentityQuery(this, this.identityContext, identityType, this.partitionManager, this.storeSelector, this.identityCache, this.storeQueryExecutor);
     }
 
     private void throwExceptionIfNotComparable(Object x) {
@@ -40,10 +40,12 @@ import org.picketlink.idm.spi.StoreSelector;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static org.picketlink.common.properties.query.TypedPropertyCriteria.MatchOption;
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
@@ -108,35 +110,49 @@ public class DefaultRelationshipQuery<T extends Relationship> implements Relatio
 
         try {
             AttributeStore<?> attributeStore = getStoreSelector().getStoreForAttributeOperation(this.context);
+            List<IdentityStore<?>> stores = new ArrayList<IdentityStore<?>>(getStores());
 
-            for (IdentityStore<?> store : getStores()) {
-                List<T> references = store.fetchQueryResults(context, this);
+            // when multiple stores are queried, the offset and limit apply to the merged results
+            boolean mergeWindow = stores.size() > 1 && (this.offset > 0 || this.limit > 0);
+            int offset = this.offset;
+            int limit = this.limit;
+            List<List<T>> storeResults;
 
-                for (T relationship : references) {
-                    List<Property<IdentityType>> identityTypes = PropertyQueries
-                            .<IdentityType>createQuery(relationship.getClass())
-                            .addCriteria(new TypedPropertyCriteria(IdentityType.class, MatchOption.ALL))
-                            .getResultList();
+            if (mergeWindow) {
+                this.offset = 0;
 
-                    for (Property<IdentityType> identityTypeProperty : identityTypes) {
-                        IdentityType identityType = identityTypeProperty.getValue(relationship);
+                if (limit > 0) {
+                    this.limit = offset + limit;
+                }
+            }
 
-                        configureDefaultPartition(this.context, identityType, store, getPartitionManager());
-                    }
+            try {
+                storeResults = fetchQueryResults(stores);
+            } finally {
+                this.offset = offset;
+                this.limit = limit;
+            }
 
-                    if (RelationshipReference.class.isInstance(relationship)) {
-                        RelationshipReference reference = (RelationshipReference) relationship;
-                        resolveIdentityTypes(reference);
-                        relationship = (T) reference.getRelationship();
+            int skipped = 0;
+
+            for (int i = 0; i < stores.size(); i++) {
+                for (T relationship : storeResults.get(i)) {
+                    if (mergeWindow && limit > 0 && result.size() >= limit) {
+                        break;
                     }
 
-                    if (attributeStore != null) {
-                        attributeStore.loadAttributes(context, relationship);
+                    if (mergeWindow && skipped < offset) {
+                        skipped++;
+                        continue;
                     }
 
-                    result.add(relationship);
+                    result.add(populate(stores.get(i), relationship));
                 }
             }
+
+            if (attributeStore != null) {
+                attributeStore.loadAttributes(this.context, result);
+            }
         } catch (Exception e) {
             throw MESSAGES.queryRelationshipFailed(this, e);
         }
@@ -144,6 +160,80 @@ public class DefaultRelationshipQuery<T extends Relationship> implements Relatio
         return result;
     }
 
+    @Override
+    public Iterator<T> getResultIterator(int fetchSize) {
+        AttributeStore<?> attributeStore;
+
+        try {
+            attributeStore = getStoreSelector().getStoreForAttributeOperation(this.context);
+        } catch (Exception e) {
+            throw MESSAGES.queryRelationshipFailed(this, e);
+        }
+
+        return new RelationshipQueryResultIterator(getStores().iterator(), fetchSize, attributeStore);
+    }
+
+    private List<List<T>> fetchQueryResults(List<IdentityStore<?>> stores) throws Exception {
+        List<Callable<List<T>>> tasks = new ArrayList<Callable<List<T>>>(stores.size());
+
+        for (final IdentityStore<?> store : stores) {
+            final DefaultRelationshipQuery<T> storeQuery = getStoreQuery(stores.size());
+
+            tasks.add(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    return store.fetchQueryResults(storeQuery.context, storeQuery);
+                }
+            });
+        }
+
+        return this.relationshipManager.getStoreQueryExecutor().execute(stores, tasks);
+    }
+
+    /**
+     * <p>Returns the query to run against a single store. When multiple stores are queried, possibly concurrently, each
+     * store gets its own copy of this query and of its context.</p>
+     *
+     * @param storeCount The number of stores being queried.
+     *
+     * @return
+     */
+    private DefaultRelationshipQuery<T> getStoreQuery(int storeCount) {
+        if (storeCount <= 1) {
+            return this;
+        }
+
+        DefaultRelationshipQuery<T> storeQuery = new DefaultRelationshipQuery<T>(new StoreQueryContext(this.context),
+            this.relationshipClass, this.relationshipManager);
+
+        storeQuery.parameters.putAll(this.parameters);
+        storeQuery.offset = this.offset;
+        storeQuery.limit = this.limit;
+
+        return storeQuery;
+    }
+
+    private T populate(IdentityStore<?> store, T relationship) {
+        List<Property<IdentityType>> identityTypes = PropertyQueries
+                .<IdentityType>createQuery(relationship.getClass())
+                .addCriteria(new TypedPropertyCriteria(IdentityType.class, MatchOption.ALL))
+                .getResultList();
+
+        for (Property<IdentityType> identityTypeProperty : identityTypes) {
+            IdentityType identityType = identityTypeProperty.getValue(relationship);
+
+            configureDefaultPartition(this.context, identityType, store, getPartitionManager());
+        }
+
+        if (RelationshipReference.class.isInstance(relationship)) {
+            RelationshipReference reference = (RelationshipReference) relationship;
+            resolveIdentityTypes(reference);
+            relationship = (T) reference.getRelationship();
+        }
+
+        return relationship;
+    }
+
     private PartitionManager getPartitionManager() {
         return this.relationshipManager.getPartitionManager();
     }
@@ -179,6 +269,31 @@ public class DefaultRelationshipQuery<T extends Relationship> implements Relatio
         return count;
     }
 
+    @Override
+    public boolean exists() {
+        int limit = this.limit;
+        int offset = this.offset;
+
+        try {
+            // a single result is enough, stores are queried one at a time until one of them finds it
+            this.limit = 1;
+            this.offset = 0;
+
+            for (IdentityStore<?> store : getStores()) {
+                if (!store.fetchQueryResults(context, this).isEmpty()) {
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            throw MESSAGES.queryRelationshipFailed(this, e);
+        } finally {
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        return false;
+    }
+
     @Override
     public RelationshipQuery<T> setOffset(int offset) {
         this.offset = offset;
@@ -211,4 +326,59 @@ public class DefaultRelationshipQuery<T extends Relationship> implements Relatio
         return this.relationshipManager.getStoreSelector();
     }
 
+    /**
+     * <p>Lazily iterates over the results of this query.</p>
+     */
+    private class RelationshipQueryResultIterator extends AbstractQueryResultIterator<T> {
+
+        private final AttributeStore<?> attributeStore;
+
+        RelationshipQueryResultIterator(Iterator<IdentityStore<?>> stores, int fetchSize, AttributeStore<?> attributeStore) {
+            super(stores, fetchSize);
+            this.attributeStore = attributeStore;
+        }
+
+        @Override
+        protected int getLimit() {
+            return DefaultRelationshipQuery.this.limit;
+        }
+
+        @Override
+        protected int getOffset() {
+            return DefaultRelationshipQuery.this.offset;
+        }
+
+        @Override
+        protected List<T> fetchPage(IdentityStore<?> store, int offset, int pageSize) {
+            int queryLimit = DefaultRelationshipQuery.this.limit;
+            int queryOffset = DefaultRelationshipQuery.this.offset;
+
+            try {
+                setLimit(pageSize);
+                setOffset(offset);
+
+                return store.fetchQueryResults(context, DefaultRelationshipQuery.this);
+            } catch (Exception e) {
+                throw MESSAGES.queryRelationshipFailed(DefaultRelationshipQuery.this, e);
+            } finally {
+                setLimit(queryLimit);
+                setOffset(queryOffset);
+            }
+        }
+
+        @Override
+        protected T populate(IdentityStore<?> store, T relationship) {
+            try {
+                relationship = DefaultRelationshipQuery.this.populate(store, relationship);
+
+                if (this.attributeStore != null) {
+                    this.attributeStore.loadAttributes(context, relationship);
+                }
+
+                return relationship;
+            } catch (Exception e) {
+                throw MESSAGES.queryRelationshipFailed(DefaultRelationshipQuery.this, e);
+            }
+        }
+    }
 }
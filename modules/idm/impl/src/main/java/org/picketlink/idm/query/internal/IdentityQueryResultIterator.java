@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.query.internal;
+
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.IdentityContext;
+import org.picketlink.idm.spi.IdentityStore;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
+import static org.picketlink.idm.spi.IdentityContext.PAGINATION_RESUMABLE;
+import static org.picketlink.idm.util.IDMUtil.configureDefaultPartition;
+
+/**
+ * <p>Lazily iterates over the results of a {@link IdentityQuery}.</p>
+ *
+ * <p>Stores that paginate using a pagination context, like LDAP, are supported as well: the context returned by the
+ * store is sent back when fetching the next page, and an empty context means there are no more pages.</p>
+ *
+ * @author agent
+ */
+class IdentityQueryResultIterator<T extends IdentityType> extends AbstractQueryResultIterator<T> {
+
+    private final IdentityContext context;
+    private final IdentityQuery<T> identityQuery;
+    private final PartitionManager partitionManager;
+    private final AttributeStore<?> attributeStore;
+    private Object paginationContext;
+
+    IdentityQueryResultIterator(IdentityContext context, IdentityQuery<T> identityQuery, PartitionManager partitionManager,
+                                AttributeStore<?> attributeStore, Iterator<IdentityStore<?>> stores, int fetchSize) {
+        super(stores, fetchSize);
+        this.context = context;
+        this.identityQuery = identityQuery;
+        this.partitionManager = partitionManager;
+        this.attributeStore = attributeStore;
+    }
+
+    @Override
+    protected int getLimit() {
+        return this.identityQuery.getLimit();
+    }
+
+    @Override
+    protected int getOffset() {
+        return this.identityQuery.getOffset();
+    }
+
+    @Override
+    protected void onStoreStarted(IdentityStore<?> store) {
+        this.paginationContext = this.identityQuery.getPaginationContext();
+    }
+
+    @Override
+    protected List<T> fetchPage(IdentityStore<?> store, int offset, int pageSize) {
+        int limit = this.identityQuery.getLimit();
+        int queryOffset = this.identityQuery.getOffset();
+        Object queryPaginationContext = this.identityQuery.getPaginationContext();
+        Object resumable = this.context.getParameter(PAGINATION_RESUMABLE);
+
+        try {
+            this.identityQuery.setLimit(pageSize);
+            this.identityQuery.setOffset(offset);
+            this.identityQuery.setPaginationContext(this.paginationContext);
+            // the next pages are going to be fetched using the pagination context returned by the store
+            this.context.setParameter(PAGINATION_RESUMABLE, Boolean.TRUE);
+
+            List<T> page = store.fetchQueryResults(this.context, this.identityQuery);
+
+            this.paginationContext = this.identityQuery.getPaginationContext();
+
+            if (this.attributeStore != null) {
+                this.attributeStore.loadAttributes(this.context, page);
+            }
+
+            return page;
+        } catch (Exception e) {
+            throw MESSAGES.queryIdentityTypeFailed(this.identityQuery, e);
+        } finally {
+            this.identityQuery.setLimit(limit);
+            this.identityQuery.setOffset(queryOffset);
+            this.identityQuery.setPaginationContext(queryPaginationContext);
+            this.context.setParameter(PAGINATION_RESUMABLE, resumable);
+        }
+    }
+
+    @Override
+    protected boolean hasMorePages() {
+        // an empty cookie means the last page was returned by a store using paged results
+        return !(byte[].class.isInstance(this.paginationContext) && ((byte[]) this.paginationContext).length == 0);
+    }
+
+    @Override
+    protected boolean isPaginatedByStore() {
+        // pages may be smaller than requested, for instance, when the base DN is filtered from the results
+        return byte[].class.isInstance(this.paginationContext);
+    }
+
+    @Override
+    protected T populate(IdentityStore<?> store, T identityType) {
+        try {
+            configureDefaultPartition(this.context, identityType, store, this.partitionManager);
+        } catch (Exception e) {
+            throw MESSAGES.queryIdentityTypeFailed(this.identityQuery, e);
+        }
+
+        return identityType;
+    }
+}
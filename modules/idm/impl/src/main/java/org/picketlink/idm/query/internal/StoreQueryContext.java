@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.query.internal;
+
+import org.picketlink.idm.IdGenerator;
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.permission.acl.spi.PermissionHandlerPolicy;
+import org.picketlink.idm.spi.IdentityContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>The {@link IdentityContext} used by a single store query when a query spans multiple identity stores.</p>
+ *
+ * <p>Parameters set by the store are kept in this context and never reach the parent context, which is only read. This
+ * way store queries running concurrently do not share any mutable state through their context.</p>
+ *
+ * @author agent
+ */
+class StoreQueryContext implements IdentityContext {
+
+    private final IdentityContext parent;
+    private final Map<String, Object> parameters = new HashMap<String, Object>();
+
+    StoreQueryContext(IdentityContext parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public <P> P getParameter(String paramName) {
+        if (this.parameters.containsKey(paramName)) {
+            return (P) this.parameters.get(paramName);
+        }
+
+        return this.parent.<P>getParameter(paramName);
+    }
+
+    @Override
+    public boolean isParameterSet(String paramName) {
+        return this.parameters.containsKey(paramName) || this.parent.isParameterSet(paramName);
+    }
+
+    @Override
+    public void setParameter(String paramName, Object value) {
+        this.parameters.put(paramName, value);
+    }
+
+    @Override
+    public EventBridge getEventBridge() {
+        return this.parent.getEventBridge();
+    }
+
+    @Override
+    public IdGenerator getIdGenerator() {
+        return this.parent.getIdGenerator();
+    }
+
+    @Override
+    public Partition getPartition() {
+        return this.parent.getPartition();
+    }
+
+    @Override
+    public PermissionHandlerPolicy getPermissionHandlerPolicy() {
+        return this.parent.getPermissionHandlerPolicy();
+    }
+}
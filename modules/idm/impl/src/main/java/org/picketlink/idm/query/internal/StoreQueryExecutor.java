@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.query.internal;
+
+import org.picketlink.idm.spi.ConcurrentQueryStore;
+import org.picketlink.idm.spi.IdentityStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>Executes the queries targeting different identity stores.</p>
+ *
+ * <p>If an {@link Executor} is provided, all queries but the first one that target a {@link ConcurrentQueryStore} are
+ * submitted to it and run concurrently. The first query always runs in the calling thread, as well as the queries
+ * targeting any other store, which may depend on resources bound to the calling thread, and all of them when no
+ * executor is provided. This way the latency of a query spanning multiple stores is bounded by the slowest store
+ * instead of the sum of all of them.</p>
+ *
+ * <p>Queries that were not started by the executor by the time their results are needed, because the executor rejected
+ * or discarded them or is still busy, are run in the calling thread. So the calling thread never waits for a query that
+ * is not running.</p>
+ *
+ * <p>Only the store queries are executed concurrently. Any subsequent processing of the results, like loading
+ * attributes, happens in the calling thread.</p>
+ *
+ * @author agent
+ */
+public class StoreQueryExecutor {
+
+    private final Executor executor;
+
+    /**
+     * @param executor The executor used to run the store queries concurrently. If null, store queries run sequentially in
+     * the calling thread.
+     */
+    public StoreQueryExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * <p>Executes the given tasks and returns their results, in the same order.</p>
+     *
+     * @param stores The store targeted by each task, in the same order.
+     * @param tasks
+     * @param <R>
+     *
+     * @return
+     *
+     * @throws Exception The exception thrown by the first failing task, in order.
+     */
+    public <R> List<R> execute(List<IdentityStore<?>> stores, List<Callable<R>> tasks) throws Exception {
+        List<R> results = new ArrayList<R>(tasks.size());
+
+        if (this.executor == null || tasks.size() <= 1) {
+            for (Callable<R> task : tasks) {
+                results.add(task.call());
+            }
+
+            return results;
+        }
+
+        List<FutureTask<R>> futures = new ArrayList<FutureTask<R>>(tasks.size());
+
+        for (int i = 0; i < tasks.size(); i++) {
+            FutureTask<R> future = new FutureTask<R>(tasks.get(i));
+
+            futures.add(future);
+
+            if (i > 0 && ConcurrentQueryStore.class.isInstance(stores.get(i))) {
+                try {
+                    this.executor.execute(future);
+                } catch (RejectedExecutionException ree) {
+                    // the task runs in the calling thread
+                }
+            }
+        }
+
+        try {
+            for (FutureTask<R> future : futures) {
+                // runs the task in the calling thread, unless it was already started by the executor
+                future.run();
+                results.add(future.get());
+            }
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+
+            if (Exception.class.isInstance(cause)) {
+                throw (Exception) cause;
+            }
+
+            if (Error.class.isInstance(cause)) {
+                throw (Error) cause;
+            }
+
+            throw ee;
+        } finally {
+            for (FutureTask<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+}
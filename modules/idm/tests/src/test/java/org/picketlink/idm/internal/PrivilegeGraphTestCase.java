@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.GroupMembership;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.RelationshipQuery;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class PrivilegeGraphTestCase {
+
+    private PrivilegeChainQuery privilegeChainQuery;
+    private DefaultPartitionManager partitionManager;
+
+    @Before
+    public void onBefore() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .preserveState(false)
+                        .supportAllFeatures();
+
+        builder.privilegeGraph(PrivilegeChainQuery.DEFAULT_LIFESPAN, 2);
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll());
+        this.privilegeChainQuery = this.partitionManager.getConfiguration().getPrivilegeChainQuery();
+
+        this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+    }
+
+    @Test
+    public void testGraphDisabledByDefault() {
+        assertFalse(new PrivilegeChainQuery().isGraphEnabled());
+        assertTrue(this.privilegeChainQuery.isGraphEnabled());
+    }
+
+    @Test
+    public void testGrantThenCheck() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+        Role operator = new Role("Operator");
+        Group itGroup = new Group("IT");
+        User john = new User("john");
+
+        identityManager.add(operator);
+        identityManager.add(itGroup);
+        identityManager.add(john);
+
+        relationshipManager.add(new GroupMembership(john, itGroup));
+
+        // memoizes the privileges inherited by john before the grant
+        assertFalse(relationshipManager.inheritsPrivileges(john, operator));
+
+        relationshipManager.add(new Grant(itGroup, operator));
+
+        assertTrue(relationshipManager.inheritsPrivileges(john, operator));
+    }
+
+    @Test
+    public void testRevokeThenCheck() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+        Role operator = new Role("Operator");
+        Group itGroup = new Group("IT");
+        Group employees = new Group("Employees", itGroup);
+        User john = new User("john");
+
+        identityManager.add(operator);
+        identityManager.add(itGroup);
+        identityManager.add(employees);
+        identityManager.add(john);
+
+        Grant grant = new Grant(itGroup, operator);
+
+        relationshipManager.add(grant);
+        relationshipManager.add(new GroupMembership(john, employees));
+
+        assertTrue(relationshipManager.inheritsPrivileges(john, operator));
+
+        relationshipManager.remove(grant);
+
+        assertFalse(relationshipManager.inheritsPrivileges(john, operator));
+        assertFalse(relationshipManager.inheritsPrivileges(employees, operator));
+    }
+
+    @Test
+    public void testEviction() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+        Role operator = new Role("Operator");
+
+        identityManager.add(operator);
+
+        for (int i = 0; i < 5; i++) {
+            User user = new User("user" + i);
+
+            identityManager.add(user);
+            relationshipManager.add(new Grant(user, operator));
+
+            assertTrue(relationshipManager.inheritsPrivileges(user, operator));
+            assertTrue(this.privilegeChainQuery.getGraphSize() <= 2);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            User user = identityManager.createIdentityQuery(User.class).setParameter(User.LOGIN_NAME, "user" + i)
+                .getResultList().get(0);
+
+            assertTrue(relationshipManager.inheritsPrivileges(user, operator));
+        }
+    }
+
+    @Test
+    public void testSearchStopsAtAssigneeWhenGraphDisabled() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        final RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+        Role operator = new Role("Operator");
+        Group company = new Group("Company");
+        Group itGroup = new Group("IT", company);
+        User john = new User("john");
+
+        identityManager.add(operator);
+        identityManager.add(company);
+        identityManager.add(itGroup);
+        identityManager.add(john);
+
+        relationshipManager.add(new GroupMembership(john, itGroup));
+        relationshipManager.add(new Grant(john, operator));
+
+        final AtomicInteger relationshipQueries = new AtomicInteger();
+
+        RelationshipManager countingRelationshipManager = (RelationshipManager) Proxy.newProxyInstance(
+            RelationshipManager.class.getClassLoader(), new Class<?>[] {RelationshipManager.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (RelationshipQuery.class.equals(method.getReturnType())) {
+                        relationshipQueries.incrementAndGet();
+                    }
+
+                    try {
+                        return method.invoke(relationshipManager, args);
+                    } catch (InvocationTargetException ite) {
+                        throw ite.getCause();
+                    }
+                }
+            });
+
+        PrivilegeChainQuery privilegeChainQuery = new PrivilegeChainQuery();
+
+        privilegeChainQuery.registerRelationshipType(Grant.class);
+        privilegeChainQuery.registerRelationshipType(GroupMembership.class);
+
+        // john is directly granted the role, there is no need to load the groups he inherits privileges from
+        assertTrue(privilegeChainQuery.inheritsPrivileges(countingRelationshipManager, john, operator));
+        assertEquals(1, relationshipQueries.get());
+
+        relationshipQueries.set(0);
+
+        assertTrue(privilegeChainQuery.inheritsPrivileges(countingRelationshipManager, john, company));
+        assertFalse(privilegeChainQuery.inheritsPrivileges(countingRelationshipManager, itGroup, operator));
+        assertEquals(0, privilegeChainQuery.getGraphSize());
+    }
+}
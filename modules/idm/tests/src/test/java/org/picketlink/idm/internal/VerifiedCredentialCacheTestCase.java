@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.credential.Credentials.Status;
+import org.picketlink.idm.credential.Password;
+import org.picketlink.idm.credential.UsernamePasswordCredentials;
+import org.picketlink.idm.credential.storage.EncodedPasswordStorage;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * @author agent
+ */
+public class VerifiedCredentialCacheTestCase {
+
+    private VerifiedCredentialCache credentialCache;
+    private DefaultPartitionManager partitionManager;
+    private User user;
+
+    @Before
+    public void onBefore() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .preserveState(false)
+                        .supportAllFeatures();
+
+        builder.credentialCache(100, 60000);
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll());
+        this.credentialCache = this.partitionManager.getConfiguration().getVerifiedCredentialCache();
+
+        this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        this.user = new User("john");
+
+        identityManager.add(this.user);
+        identityManager.updateCredential(this.user, new Password("123"));
+    }
+
+    @Test
+    public void testLookupFromCache() {
+        assertEquals(Status.VALID, validate("john", "123"));
+        assertEquals(0, this.credentialCache.getHitCount());
+
+        assertEquals(Status.VALID, validate("john", "123"));
+        assertEquals(1, this.credentialCache.getHitCount());
+        assertEquals(1, this.credentialCache.getSize());
+    }
+
+    @Test
+    public void testInvalidValidationsNotCached() {
+        assertEquals(Status.INVALID, validate("john", "bad"));
+        assertEquals(Status.INVALID, validate("john", "bad"));
+        assertEquals(0, this.credentialCache.getSize());
+        assertEquals(0, this.credentialCache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidateOnUpdateCredential() {
+        assertEquals(Status.VALID, validate("john", "123"));
+
+        this.partitionManager.createIdentityManager().updateCredential(this.user, new Password("456"));
+
+        assertEquals(Status.INVALID, validate("john", "123"));
+        assertEquals(Status.VALID, validate("john", "456"));
+    }
+
+    @Test
+    public void testInvalidateOnRemoveCredential() {
+        assertEquals(Status.VALID, validate("john", "123"));
+
+        this.partitionManager.createIdentityManager().removeCredential(this.user, EncodedPasswordStorage.class);
+
+        assertEquals(Status.INVALID, validate("john", "123"));
+    }
+
+    @Test
+    public void testInvalidateOnDisableAccount() {
+        assertEquals(Status.VALID, validate("john", "123"));
+
+        this.user.setEnabled(false);
+
+        this.partitionManager.createIdentityManager().update(this.user);
+
+        assertEquals(Status.ACCOUNT_DISABLED, validate("john", "123"));
+    }
+
+    @Test
+    public void testLookupReturnsCopy() {
+        assertEquals(Status.VALID, validate("john", "123"));
+
+        Realm partition = (Realm) this.user.getPartition();
+        User cachedUser = (User) this.credentialCache.lookup(partition, "john", "123".toCharArray());
+
+        assertEquals(this.user.getId(), cachedUser.getId());
+
+        cachedUser.setLoginName("mary");
+
+        assertNotSame(cachedUser, this.credentialCache.lookup(partition, "john", "123".toCharArray()));
+        assertEquals("john", ((User) this.credentialCache.lookup(partition, "john", "123".toCharArray())).getLoginName());
+    }
+
+    private Status validate(String username, String password) {
+        UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(username, new Password(password));
+
+        this.partitionManager.createIdentityManager().validateCredentials(credentials);
+
+        return credentials.getStatus();
+    }
+}
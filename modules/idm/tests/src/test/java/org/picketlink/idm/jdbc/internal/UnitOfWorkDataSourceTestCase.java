@@ -0,0 +1,317 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.jdbc.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManagementException;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>Test case for {@link UnitOfWorkDataSource}.</p>
+ *
+ * @author agent
+ */
+public class UnitOfWorkDataSourceTestCase {
+
+    private final List<String> operations = Collections.synchronizedList(new ArrayList<String>());
+    private UnitOfWorkDataSource dataSource;
+    private int openedConnections;
+    private int preparedStatements;
+    private boolean autoCommit;
+
+    @Before
+    public void onSetup() {
+        this.operations.clear();
+        this.openedConnections = 0;
+        this.preparedStatements = 0;
+        this.dataSource = new UnitOfWorkDataSource(createDataSource());
+    }
+
+    @Test
+    public void testCommitOnSuccess() throws Exception {
+        this.dataSource.begin();
+
+        executeUpdate("insert");
+
+        this.dataSource.end(true);
+
+        assertEquals(1, this.openedConnections);
+        assertTrue(this.operations.contains("setAutoCommit false"));
+        assertTrue(this.operations.contains("commit"));
+        assertFalse(this.operations.contains("rollback"));
+        assertEquals("close", this.operations.get(this.operations.size() - 1));
+        assertTrue(this.autoCommit);
+    }
+
+    @Test
+    public void testRollbackOnFailure() throws Exception {
+        this.dataSource.begin();
+
+        executeUpdate("insert");
+
+        this.dataSource.end(false);
+
+        assertTrue(this.operations.contains("rollback"));
+        assertFalse(this.operations.contains("commit"));
+        assertEquals("close", this.operations.get(this.operations.size() - 1));
+        assertTrue(this.autoCommit);
+    }
+
+    @Test
+    public void testNestedUnitsShareConnectionAndTransaction() throws Exception {
+        this.dataSource.begin();
+
+        executeUpdate("insert");
+
+        this.dataSource.begin();
+
+        executeUpdate("update");
+
+        this.dataSource.end(true);
+
+        assertFalse("Nested unit must not commit.", this.operations.contains("commit"));
+        assertFalse("Nested unit must not release the connection.", this.operations.contains("close"));
+
+        this.dataSource.end(true);
+
+        assertEquals(1, this.openedConnections);
+        assertEquals(1, count("commit"));
+        assertEquals(1, count("close"));
+    }
+
+    @Test
+    public void testNestedFailureRollsBackAndFailsOutermostUnit() throws Exception {
+        this.dataSource.begin();
+
+        executeUpdate("insert");
+
+        this.dataSource.begin();
+
+        executeUpdate("update");
+
+        this.dataSource.end(false);
+
+        try {
+            this.dataSource.end(true);
+            fail("Rolling back a successful unit of work must not be silent.");
+        } catch (IdentityManagementException expected) {
+        }
+
+        assertTrue(this.operations.contains("rollback"));
+        assertFalse(this.operations.contains("commit"));
+        assertEquals("close", this.operations.get(this.operations.size() - 1));
+
+        // the data source is usable again after the failure
+        this.dataSource.begin();
+
+        executeUpdate("insert");
+
+        this.dataSource.end(true);
+
+        assertEquals(1, count("commit"));
+    }
+
+    @Test
+    public void testReadsDoNotStartTransaction() throws Exception {
+        this.dataSource.beginReadOnly();
+
+        executeUpdate("select");
+        executeUpdate("select");
+
+        this.dataSource.end(true);
+
+        assertEquals(1, this.openedConnections);
+        assertFalse(this.operations.contains("setAutoCommit false"));
+        assertFalse(this.operations.contains("commit"));
+        assertFalse(this.operations.contains("rollback"));
+        assertEquals(1, count("close"));
+    }
+
+    @Test
+    public void testWriteNestedInReadStartsTransaction() throws Exception {
+        this.dataSource.beginReadOnly();
+
+        executeUpdate("select");
+
+        assertFalse(this.operations.contains("setAutoCommit false"));
+
+        this.dataSource.begin();
+
+        assertTrue(this.operations.contains("setAutoCommit false"));
+
+        executeUpdate("insert");
+
+        this.dataSource.end(true);
+        this.dataSource.end(true);
+
+        assertEquals(1, this.openedConnections);
+        assertEquals(1, count("commit"));
+        assertTrue(this.autoCommit);
+    }
+
+    @Test
+    public void testStatementsAreCachedDuringUnitOfWork() throws Exception {
+        this.dataSource.beginReadOnly();
+
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement("select");
+
+        statement.setString(1, "first");
+        statement.close();
+
+        PreparedStatement sameStatement = connection.prepareStatement("select");
+
+        assertSame(statement, sameStatement);
+        assertEquals(1, this.preparedStatements);
+        assertTrue("Parameters must not leak to the next use.", this.operations.contains("clearParameters select"));
+
+        // statements in use by an enclosing call are not shared
+        PreparedStatement otherStatement = connection.prepareStatement("select");
+
+        assertNotSame(sameStatement, otherStatement);
+        assertEquals(2, this.preparedStatements);
+
+        otherStatement.close();
+        sameStatement.close();
+        connection.close();
+
+        // only the statement that was not shared is closed, the cached one is kept open until the unit of work ends
+        assertEquals(1, count("closeStatement select"));
+
+        this.dataSource.end(true);
+
+        assertEquals(2, count("closeStatement select"));
+        assertEquals(1, this.openedConnections);
+    }
+
+    @Test
+    public void testStatementsAreNotCachedOutsideUnitOfWork() throws Exception {
+        executeUpdate("select");
+        executeUpdate("select");
+
+        assertEquals(2, this.openedConnections);
+        assertEquals(2, this.preparedStatements);
+        assertEquals(2, count("closeStatement select"));
+        assertEquals(2, count("close"));
+    }
+
+    private void executeUpdate(String sql) throws Exception {
+        Connection connection = this.dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement(sql);
+
+        statement.executeUpdate();
+        statement.close();
+        connection.close();
+    }
+
+    private int count(String operation) {
+        int count = 0;
+
+        for (String current : this.operations) {
+            if (current.equals(operation)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private DataSource createDataSource() {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DataSource.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("getConnection".equals(method.getName())) {
+                        openedConnections++;
+                        autoCommit = true;
+                        return createConnection();
+                    }
+
+                    return null;
+                }
+            });
+    }
+
+    private Connection createConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String methodName = method.getName();
+
+                    if ("getAutoCommit".equals(methodName)) {
+                        return autoCommit;
+                    }
+
+                    if ("setAutoCommit".equals(methodName)) {
+                        autoCommit = (Boolean) args[0];
+                        operations.add(methodName + " " + autoCommit);
+                        return null;
+                    }
+
+                    if ("prepareStatement".equals(methodName)) {
+                        preparedStatements++;
+                        return createStatement((String) args[0]);
+                    }
+
+                    operations.add(methodName);
+
+                    return null;
+                }
+            });
+    }
+
+    private PreparedStatement createStatement(final String sql) {
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {PreparedStatement.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String methodName = method.getName();
+
+                    if ("close".equals(methodName)) {
+                        operations.add("closeStatement " + sql);
+                    } else {
+                        operations.add(methodName + " " + sql);
+                    }
+
+                    if ("executeUpdate".equals(methodName)) {
+                        return 1;
+                    }
+
+                    return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.ldap.internal;
+
+import org.junit.Test;
+import org.picketlink.idm.model.basic.User;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author agent
+ */
+public class LDAPEntryCacheVersionTestCase {
+
+    private static final String JOHN_DN = "uid=john,ou=People,dc=jboss,dc=org";
+    private static final String MARY_DN = "uid=mary,ou=People,dc=jboss,dc=org";
+
+    @Test
+    public void testPutWithCurrentVersion() {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 60000);
+        User john = createUser("john");
+
+        cache.put(createEntry(JOHN_DN), john, cache.getVersion());
+
+        assertNotNull(cache.getByDN(JOHN_DN));
+        assertEquals("john", ((User) cache.getById(john.getId()).getAttributedType()).getLoginName());
+    }
+
+    @Test
+    public void testDiscardPutAfterInvalidateById() {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 60000);
+        User john = createUser("john");
+        long version = cache.getVersion();
+
+        // an update invalidates the entry while it is being read
+        cache.invalidateById(john.getId());
+
+        cache.put(createEntry(JOHN_DN), john, version);
+
+        assertNull(cache.getByDN(JOHN_DN));
+        assertNull(cache.getById(john.getId()));
+    }
+
+    @Test
+    public void testDiscardPutAfterInvalidateByDN() {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 60000);
+        long version = cache.getVersion();
+
+        cache.invalidateByDN(JOHN_DN);
+
+        cache.put(createEntry(JOHN_DN), createUser("john"), version);
+
+        assertNull(cache.getByDN(JOHN_DN));
+    }
+
+    @Test
+    public void testDiscardPutAfterInvalidateAll() {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 60000);
+        long version = cache.getVersion();
+
+        cache.put(createEntry(MARY_DN), createUser("mary"), version);
+
+        cache.invalidateAll();
+
+        cache.put(createEntry(JOHN_DN), createUser("john"), version);
+
+        assertEquals(0, cache.size());
+
+        cache.put(createEntry(JOHN_DN), createUser("john"), cache.getVersion());
+
+        assertNotNull(cache.getByDN(JOHN_DN));
+    }
+
+    private User createUser(String loginName) {
+        User user = new User(loginName);
+
+        user.setId(loginName + "-id");
+
+        return user;
+    }
+
+    private SearchResult createEntry(String dn) {
+        SearchResult entry = new SearchResult(dn, null, new BasicAttributes(true));
+
+        entry.setNameInNamespace(dn);
+
+        return entry;
+    }
+}
@@ -26,6 +26,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.picketlink.common.random.DefaultSecureRandomProvider;
 import org.picketlink.common.random.SecureRandomProvider;
+import org.picketlink.idm.AsyncIdentityManager;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.PartitionManager;
@@ -33,29 +34,43 @@ import org.picketlink.idm.config.IdentityConfigurationBuilder;
 import org.picketlink.idm.credential.Credentials.Status;
 import org.picketlink.idm.credential.Password;
 import org.picketlink.idm.credential.UsernamePasswordCredentials;
+import org.picketlink.idm.credential.encoder.AdaptivePasswordEncoder;
 import org.picketlink.idm.credential.encoder.BCryptPasswordEncoder;
 import org.picketlink.idm.credential.encoder.PBKDF2PasswordEncoder;
 import org.picketlink.idm.credential.encoder.PasswordEncoder;
 import org.picketlink.idm.credential.encoder.SHAPasswordEncoder;
 import org.picketlink.idm.credential.handler.PasswordCredentialHandler;
+import org.picketlink.idm.credential.handler.PasswordHashingExecutor;
 import org.picketlink.idm.credential.handler.annotations.SupportsCredentials;
+import org.picketlink.idm.credential.storage.EncodedPasswordStorage;
+import org.picketlink.idm.internal.ContextualIdentityManager;
 import org.picketlink.idm.internal.DefaultPartitionManager;
 import org.picketlink.idm.model.basic.Realm;
 import org.picketlink.idm.model.basic.User;
 import org.picketlink.idm.spi.CredentialStore;
+import org.picketlink.idm.spi.IdentityContext;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.picketlink.idm.credential.handler.PasswordCredentialHandler.PASSWORD_ENCODER;
+import static org.picketlink.idm.credential.handler.PasswordCredentialHandler.PASSWORD_HASHING_EXECUTOR;
+import static org.picketlink.idm.credential.handler.PasswordCredentialHandler.REHASH_ON_LOGIN;
 import static org.picketlink.idm.credential.handler.annotations.SupportsCredentials.NO_CREDENTIAL_STORAGE;
 import static org.picketlink.idm.model.basic.BasicModel.getUser;
 
@@ -364,6 +379,368 @@ public class PasswordCredentialHandlerConfigurationTestCase {
         }
     }
 
+    @Test
+    public void testPasswordHashingExecutor() throws Exception {
+        PasswordHashingExecutor hashingExecutor = new PasswordHashingExecutor(2, 4, 1);
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .setCredentialHandlerProperty(PASSWORD_HASHING_EXECUTOR, hashingExecutor)
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.build());
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        User user = new User("user");
+
+        identityManager.add(user);
+
+        user = getUser(identityManager, user.getLoginName());
+
+        Password password = new Password("123");
+
+        identityManager.updateCredential(user, password);
+
+        UsernamePasswordCredentials credential = new UsernamePasswordCredentials(user.getLoginName(), password);
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.VALID, credential.getStatus());
+
+        credential = new UsernamePasswordCredentials(user.getLoginName(), password);
+
+        assertEquals(Status.VALID, ((AsyncIdentityManager) identityManager).validateCredentialsAsync(credential, hashingExecutor)
+            .get().getStatus());
+
+        Realm realm = partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM);
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        // saturates the partition
+        hashingExecutor.submit(realm.getId(), new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                blocked.await();
+                return null;
+            }
+        });
+
+        try {
+            credential = new UsernamePasswordCredentials(user.getLoginName(), password);
+
+            identityManager.validateCredentials(credential);
+
+            assertEquals(Status.REJECTED, credential.getStatus());
+            assertNull(credential.getValidatedAccount());
+        } finally {
+            blocked.countDown();
+            hashingExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInterruptQueuedVerificationReleasesPermit() throws Exception {
+        // a single thread and a single task per partition
+        final PasswordHashingExecutor hashingExecutor = new PasswordHashingExecutor(1, 4, 1);
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .setCredentialHandlerProperty(PASSWORD_HASHING_EXECUTOR, hashingExecutor)
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.build());
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        final IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        User user = new User("user");
+
+        identityManager.add(user);
+
+        final Password password = new Password("123");
+
+        identityManager.updateCredential(user, password);
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        Future<Object> task;
+
+        try {
+            // keeps the only thread busy, without using any partition permit
+            hashingExecutor.submit(null, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    blocked.await();
+                    return null;
+                }
+            });
+
+            final UsernamePasswordCredentials credential = new UsernamePasswordCredentials(user.getLoginName(), password);
+            Thread validation = new Thread() {
+                @Override
+                public void run() {
+                    identityManager.validateCredentials(credential);
+                }
+            };
+
+            validation.start();
+
+            long deadline = System.currentTimeMillis() + 10000;
+
+            while (hashingExecutor.getQueuedCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(1, hashingExecutor.getQueuedCount());
+
+            validation.interrupt();
+            validation.join(10000);
+
+            assertFalse(validation.isAlive());
+            assertEquals(Status.REJECTED, credential.getStatus());
+
+            // the cancelled verification left the queue and gave its partition permit back
+            assertEquals(0, hashingExecutor.getQueuedCount());
+
+            Realm realm = partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM);
+
+            task = hashingExecutor.submit(realm.getId(), new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return null;
+                }
+            });
+        } finally {
+            blocked.countDown();
+        }
+
+        task.get();
+
+        try {
+            UsernamePasswordCredentials credential = new UsernamePasswordCredentials(user.getLoginName(), password);
+
+            identityManager.validateCredentials(credential);
+
+            assertEquals(Status.VALID, credential.getStatus());
+        } finally {
+            hashingExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRehashOnLogin() throws Exception {
+        final int[] cost = new int[] {1};
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .setCredentialHandlerProperty(PASSWORD_ENCODER, new AdaptivePasswordEncoder() {
+                            private final SHAPasswordEncoder delegate = new SHAPasswordEncoder(256);
+
+                            @Override
+                            public String encode(String rawPassword) {
+                                return cost[0] + ":" + this.delegate.encode(rawPassword);
+                            }
+
+                            @Override
+                            public boolean verify(String rawPassword, String encodedPassword) {
+                                return encodedPassword.endsWith(":" + this.delegate.encode(rawPassword));
+                            }
+
+                            @Override
+                            public boolean requiresRehash(String encodedPassword) {
+                                return !encodedPassword.startsWith(cost[0] + ":");
+                            }
+                        })
+                        .setCredentialHandlerProperty(REHASH_ON_LOGIN, true)
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.build());
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        User user = new User("user");
+
+        identityManager.add(user);
+
+        Password password = new Password("123");
+
+        identityManager.updateCredential(user, password);
+
+        EncodedPasswordStorage outdatedHash = identityManager.retrieveCurrentCredential(user, EncodedPasswordStorage.class);
+
+        assertTrue(outdatedHash.getEncodedHash().startsWith("1:"));
+
+        // an expired and a future-dated password, which must be kept by the rehash
+        ContextualIdentityManager contextualIdentityManager = (ContextualIdentityManager) identityManager;
+        IdentityContext context = contextualIdentityManager.getIdentityContext();
+        CredentialStore<?> store = contextualIdentityManager.getStoreSelector().getStoreForCredentialOperation(context, Password.class);
+        long now = System.currentTimeMillis();
+
+        store.storeCredential(context, user, createEncodedPasswordStorage("1:expired", now - 20000, now - 10000));
+        store.storeCredential(context, user, createEncodedPasswordStorage("1:future", now + 3600000, null));
+
+        cost[0] = 2;
+
+        UsernamePasswordCredentials credential = new UsernamePasswordCredentials(user.getLoginName(), password);
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.VALID, credential.getStatus());
+
+        EncodedPasswordStorage currentHash = identityManager.retrieveCurrentCredential(user, EncodedPasswordStorage.class);
+
+        assertTrue(currentHash.getEncodedHash().startsWith("2:"));
+        assertEquals(outdatedHash.getEffectiveDate(), currentHash.getEffectiveDate());
+
+        Set<String> storedHashes = new HashSet<String>();
+
+        for (EncodedPasswordStorage storedHash : identityManager.retrieveCredentials(user, EncodedPasswordStorage.class)) {
+            storedHashes.add(storedHash.getEncodedHash());
+        }
+
+        assertEquals(3, storedHashes.size());
+        assertTrue(storedHashes.contains(currentHash.getEncodedHash()));
+        assertTrue(storedHashes.contains("1:expired"));
+        assertTrue(storedHashes.contains("1:future"));
+
+        credential = new UsernamePasswordCredentials(user.getLoginName(), password);
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.VALID, credential.getStatus());
+        assertEquals(currentHash.getEncodedHash(), identityManager.retrieveCurrentCredential(user, EncodedPasswordStorage.class).getEncodedHash());
+    }
+
+    @Test
+    public void testRehashOnLoginWithHashingExecutor() throws Exception {
+        final int[] cost = new int[] {1};
+        final CountDownLatch rehashStarted = new CountDownLatch(1);
+        final CountDownLatch passwordChanged = new CountDownLatch(1);
+        PasswordHashingExecutor hashingExecutor = new PasswordHashingExecutor(1);
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .setCredentialHandlerProperty(PASSWORD_ENCODER, new AdaptivePasswordEncoder() {
+                            private final SHAPasswordEncoder delegate = new SHAPasswordEncoder(256);
+
+                            @Override
+                            public String encode(String rawPassword) {
+                                if (Thread.currentThread().getName().startsWith("picketlink-password-hashing-")) {
+                                    // holds the rehash until the password is changed by another thread
+                                    rehashStarted.countDown();
+
+                                    try {
+                                        passwordChanged.await();
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                    }
+                                }
+
+                                return cost[0] + ":" + this.delegate.encode(rawPassword);
+                            }
+
+                            @Override
+                            public boolean verify(String rawPassword, String encodedPassword) {
+                                return encodedPassword.endsWith(":" + this.delegate.encode(rawPassword));
+                            }
+
+                            @Override
+                            public boolean requiresRehash(String encodedPassword) {
+                                return !encodedPassword.startsWith(cost[0] + ":");
+                            }
+                        })
+                        .setCredentialHandlerProperty(PASSWORD_HASHING_EXECUTOR, hashingExecutor)
+                        .setCredentialHandlerProperty(REHASH_ON_LOGIN, true)
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.build());
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+        User user = new User("user");
+
+        identityManager.add(user);
+
+        Password password = new Password("123");
+
+        identityManager.updateCredential(user, password);
+
+        cost[0] = 2;
+
+        try {
+            UsernamePasswordCredentials credential = new UsernamePasswordCredentials(user.getLoginName(), password);
+
+            // the validation returns while the rehash is still running
+            identityManager.validateCredentials(credential);
+
+            assertEquals(Status.VALID, credential.getStatus());
+            assertTrue(rehashStarted.await(10, TimeUnit.SECONDS));
+
+            identityManager.updateCredential(user, new Password("456"));
+        } finally {
+            passwordChanged.countDown();
+        }
+
+        try {
+            // waits for the rehash, the executor has a single thread
+            hashingExecutor.submit(null, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return null;
+                }
+            }).get(10, TimeUnit.SECONDS);
+
+            // the rehash does not overwrite the new password
+            UsernamePasswordCredentials newCredential = new UsernamePasswordCredentials(user.getLoginName(), new Password("456"));
+
+            identityManager.validateCredentials(newCredential);
+
+            assertEquals(Status.VALID, newCredential.getStatus());
+
+            UsernamePasswordCredentials oldCredential = new UsernamePasswordCredentials(user.getLoginName(), new Password("123"));
+
+            identityManager.validateCredentials(oldCredential);
+
+            assertEquals(Status.INVALID, oldCredential.getStatus());
+        } finally {
+            hashingExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPBKDF2RequiresRehash() throws Exception {
+        PBKDF2PasswordEncoder encoder = new PBKDF2PasswordEncoder("salty".getBytes(), 1000, 128);
+        String encodedPassword = encoder.encode("123");
+
+        assertTrue(encoder.verify("123", encodedPassword));
+        assertFalse(encoder.verify("1234", encodedPassword));
+        assertFalse(encoder.requiresRehash(encodedPassword));
+        assertTrue(new PBKDF2PasswordEncoder("salty".getBytes(), 2000, 128).requiresRehash(encodedPassword));
+        assertTrue(new PBKDF2PasswordEncoder("salty".getBytes(), 2000, 128).verify("123", encodedPassword));
+
+        String legacyPassword = encoder.encode("123", "salt".getBytes(), true);
+
+        assertTrue(encoder.verify("123", legacyPassword));
+        assertTrue(encoder.requiresRehash(legacyPassword));
+    }
+
     @Test (expected=IdentityManagementException.class)
     public void failInvalidEncodingAlgorithm() throws Exception {
         IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
@@ -435,4 +812,18 @@ public class PasswordCredentialHandlerConfigurationTestCase {
             return salt;
         }
     }
+
+    private EncodedPasswordStorage createEncodedPasswordStorage(String encodedHash, long effectiveDate, Long expiryDate) {
+        EncodedPasswordStorage storage = new EncodedPasswordStorage();
+
+        storage.setEncodedHash(encodedHash);
+        storage.setSalt("salt");
+        storage.setEffectiveDate(new Date(effectiveDate));
+
+        if (expiryDate != null) {
+            storage.setExpiryDate(new Date(expiryDate));
+        }
+
+        return storage;
+    }
 }
@@ -37,6 +37,7 @@ import org.picketlink.idm.query.IdentityQueryBuilder;
 import org.picketlink.test.idm.AbstractPartitionManagerTestCase;
 import org.picketlink.test.idm.Configuration;
 import org.picketlink.test.idm.testers.IdentityConfigurationTester;
+import org.picketlink.test.idm.testers.JDBCStoreConfigurationTester;
 import org.picketlink.test.idm.testers.LDAPStoreConfigurationTester;
 import org.picketlink.test.idm.testers.LDAPUserGroupJPARoleConfigurationTester;
 import org.picketlink.test.idm.testers.MultipleIdentityConfigurationTester;
@@ -45,12 +46,14 @@ import org.picketlink.test.idm.testers.SingleConfigLDAPJPAStoreConfigurationTest
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  * @author Pedro Silva
@@ -84,6 +87,31 @@ public abstract class AbstractIdentityQueryTestCase<T extends IdentityType> exte
         assertEquals(identityType.getId(), result.get(0).getId());
     }
 
+    @Test
+    public void testExists() throws Exception {
+        T identityType = createIdentityType(null, null);
+
+        IdentityManager identityManager = getIdentityManager();
+
+        IdentityQuery<T> query = identityManager.<T>createIdentityQuery((Class<T>) identityType.getClass());
+
+        query.setParameter(AttributedType.ID, identityType.getId());
+        query.setLimit(10);
+        query.setOffset(5);
+
+        assertTrue(query.exists());
+        assertEquals(1, query.getResultCount());
+        assertEquals(10, query.getLimit());
+        assertEquals(5, query.getOffset());
+
+        query = identityManager.<T>createIdentityQuery((Class<T>) identityType.getClass());
+
+        query.setParameter(AttributedType.ID, "invalid");
+
+        assertFalse(query.exists());
+        assertEquals(0, query.getResultCount());
+    }
+
     @Test
     @Configuration(exclude = {LDAPStoreConfigurationTester.class, SingleConfigLDAPJPAStoreConfigurationTester.class, LDAPUserGroupJPARoleConfigurationTester.class})
     public void testPagination() throws Exception {
@@ -167,6 +195,51 @@ public abstract class AbstractIdentityQueryTestCase<T extends IdentityType> exte
         assertTrue(invalidPage.isEmpty());
     }
 
+    @Test
+    public void testResultIterator() throws Exception {
+        T identityType = null;
+
+        for (int i = 0; i < 25; i++) {
+            identityType = createIdentityType("someIdentityType" + (i + 1), null);
+        }
+
+        IdentityManager identityManager = getIdentityManager();
+
+        IdentityQuery<T> query = identityManager.createIdentityQuery((Class<T>) identityType.getClass());
+
+        List<String> expectedIds = new ArrayList<String>();
+
+        for (T result : query.getResultList()) {
+            expectedIds.add(result.getId());
+        }
+
+        List<String> iteratedIds = new ArrayList<String>();
+        Iterator<T> iterator = query.getResultIterator(10);
+
+        while (iterator.hasNext()) {
+            T result = iterator.next();
+
+            assertFalse(iteratedIds.contains(result.getId()));
+            assertNotNull(result.getPartition());
+
+            iteratedIds.add(result.getId());
+        }
+
+        assertEquals(expectedIds.size(), iteratedIds.size());
+        assertTrue(iteratedIds.containsAll(expectedIds));
+
+        query.setLimit(15);
+
+        iterator = query.getResultIterator(10);
+        iteratedIds.clear();
+
+        while (iterator.hasNext()) {
+            iteratedIds.add(iterator.next().getId());
+        }
+
+        assertEquals(15, iteratedIds.size());
+    }
+
     @Test
     @Configuration(exclude = {LDAPStoreConfigurationTester.class, SingleConfigLDAPJPAStoreConfigurationTester.class, LDAPUserGroupJPARoleConfigurationTester.class})
     public void testFindByRealm() throws Exception {
@@ -616,6 +689,34 @@ public abstract class AbstractIdentityQueryTestCase<T extends IdentityType> exte
         assertTrue(contains(result, identityType.getId()));
     }
 
+    @Test
+    @Configuration(exclude = {LDAPStoreConfigurationTester.class, SingleConfigLDAPJPAStoreConfigurationTester.class, LDAPUserGroupJPARoleConfigurationTester.class, JDBCStoreConfigurationTester.class})
+    public void testSkipAttributes() throws Exception {
+        T identityType = createIdentityType(null, null);
+
+        identityType.setAttribute(new Attribute<String>("someAttribute", "someAttributeValue"));
+
+        IdentityManager identityManager = getIdentityManager();
+
+        identityManager.update(identityType);
+
+        IdentityQuery<T> query = identityManager.<T>createIdentityQuery((Class<T>) identityType.getClass());
+
+        query.setParameter(AttributedType.ID, identityType.getId());
+
+        List<T> result = query.getResultList();
+
+        assertEquals(1, result.size());
+        assertNotNull(result.get(0).getAttribute("someAttribute"));
+
+        query.setLoadAttributes(false);
+
+        result = query.getResultList();
+
+        assertEquals(1, result.size());
+        assertNull(result.get(0).getAttribute("someAttribute"));
+    }
+
     @Test
     @Configuration(exclude = {LDAPStoreConfigurationTester.class, SingleConfigLDAPJPAStoreConfigurationTester.class, LDAPUserGroupJPARoleConfigurationTester.class})
     public void testFindByMultiValuedAttributes() throws Exception {
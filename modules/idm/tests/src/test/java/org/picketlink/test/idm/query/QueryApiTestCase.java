@@ -22,6 +22,7 @@
 package org.picketlink.test.idm.query;
 
 import org.junit.Test;
+import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
@@ -36,10 +37,12 @@ import org.picketlink.test.idm.testers.FileStoreConfigurationTester;
 import org.picketlink.test.idm.testers.IdentityConfigurationTester;
 import org.picketlink.test.idm.testers.JPAStoreConfigurationTester;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 /**
  * @author Pedro Igor
@@ -441,4 +444,92 @@ public class QueryApiTestCase extends AbstractPartitionManagerTestCase {
         return false;
     }
 
+
+    @Test
+    public void testSameQueryShapeWithDifferentValues() {
+        User john = createUser("john");
+        User mary = createUser("mary");
+
+        IdentityManager identityManager = getIdentityManager();
+        IdentityQueryBuilder builder = identityManager.getQueryBuilder();
+
+        // queries with the same conditions and sorting share a compiled plan, only the values change
+        for (User user : new User[] {john, mary, john}) {
+            List<User> result = builder
+                .createIdentityQuery(User.class)
+                .where(builder.equal(User.LOGIN_NAME, user.getLoginName()))
+                .getResultList();
+
+            assertEquals(1, result.size());
+            assertEquals(user.getId(), result.get(0).getId());
+        }
+
+        List<User> result = builder
+            .createIdentityQuery(User.class)
+            .where(builder.equal(User.LOGIN_NAME, "unknown"))
+            .getResultList();
+
+        assertTrue(result.isEmpty());
+
+        result = builder
+            .createIdentityQuery(User.class)
+            .sortBy(builder.desc(User.LOGIN_NAME))
+            .getResultList();
+
+        assertEquals(mary.getId(), result.get(0).getId());
+        assertEquals(john.getId(), result.get(1).getId());
+
+        result = builder
+            .createIdentityQuery(User.class)
+            .sortBy(builder.asc(User.LOGIN_NAME))
+            .getResultList();
+
+        assertEquals(john.getId(), result.get(0).getId());
+        assertEquals(mary.getId(), result.get(1).getId());
+    }
+
+    @Test
+    public void testPagedSortingIsStable() {
+        for (int i = 0; i < 10; i++) {
+            User user = createUser("user" + i);
+
+            user.setFirstName("Same");
+
+            getIdentityManager().update(user);
+        }
+
+        IdentityManager identityManager = getIdentityManager();
+        IdentityQueryBuilder builder = identityManager.getQueryBuilder();
+        List<String> pagedIds = new ArrayList<String>();
+
+        for (int offset = 0; offset < 10; offset = offset + 3) {
+            List<User> page = builder
+                .createIdentityQuery(User.class)
+                .sortBy(builder.asc(User.FIRST_NAME))
+                .setOffset(offset)
+                .setLimit(3)
+                .getResultList();
+
+            for (User user : page) {
+                assertFalse(pagedIds.contains(user.getId()));
+                pagedIds.add(user.getId());
+            }
+        }
+
+        assertEquals(10, pagedIds.size());
+    }
+
+    @Test (expected = IdentityManagementException.class)
+    @Configuration(include = JPAStoreConfigurationTester.class)
+    public void testSortingByUnknownProperty() {
+        createUser("john");
+
+        IdentityManager identityManager = getIdentityManager();
+        IdentityQueryBuilder builder = identityManager.getQueryBuilder();
+
+        builder
+            .createIdentityQuery(User.class)
+            .sortBy(builder.asc(AttributedType.QUERY_ATTRIBUTE.byName("loginName, e.id")))
+            .getResultList();
+    }
 }
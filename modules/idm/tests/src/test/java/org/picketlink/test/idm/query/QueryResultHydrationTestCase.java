@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.query;
+
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Relationship;
+import org.picketlink.idm.model.basic.Agent;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.GroupMembership;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.RelationshipQuery;
+import org.picketlink.test.idm.AbstractPartitionManagerTestCase;
+import org.picketlink.test.idm.Configuration;
+import org.picketlink.test.idm.relationship.CustomRelationshipTestCase.CustomRelationship;
+import org.picketlink.test.idm.testers.IdentityConfigurationTester;
+import org.picketlink.test.idm.testers.JPAStoreConfigurationTester;
+import org.picketlink.test.idm.testers.SingleConfigLDAPJPAStoreConfigurationTester;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Test case for the hydration of query results loaded in bulk by the JPA store.</p>
+ *
+ * @author agent
+ */
+@Configuration(include = {JPAStoreConfigurationTester.class, SingleConfigLDAPJPAStoreConfigurationTester.class})
+public class QueryResultHydrationTestCase extends AbstractPartitionManagerTestCase {
+
+    // more relationships than the JPA store loads members for with a single query
+    private static final int RELATIONSHIP_COUNT = 510;
+
+    public QueryResultHydrationTestCase(IdentityConfigurationTester builder) {
+        super(builder);
+    }
+
+    @Test
+    @Configuration(exclude = SingleConfigLDAPJPAStoreConfigurationTester.class)
+    public void testHydrateIdentityTypesOfDifferentEntities() throws Exception {
+        User user = createUser("someUser");
+        Agent agent = createAgent("someAgent");
+        Role role = createRole("someRole");
+        Group parentGroup = createGroup("someParentGroup");
+        Group group = createGroupWithParent("someGroup", parentGroup);
+
+        IdentityManager identityManager = getIdentityManager();
+        IdentityQuery<IdentityType> query = identityManager.createIdentityQuery(IdentityType.class);
+        Map<String, IdentityType> result = new HashMap<String, IdentityType>();
+
+        for (IdentityType identityType : query.getResultList()) {
+            result.put(identityType.getId(), identityType);
+        }
+
+        User storedUser = (User) result.get(user.getId());
+
+        assertNotNull(storedUser);
+        assertEquals(user.getLoginName(), storedUser.getLoginName());
+        assertNotNull(storedUser.getPartition());
+
+        Agent storedAgent = (Agent) result.get(agent.getId());
+
+        assertNotNull(storedAgent);
+        assertEquals(agent.getLoginName(), storedAgent.getLoginName());
+
+        Role storedRole = (Role) result.get(role.getId());
+
+        assertNotNull(storedRole);
+        assertEquals(role.getName(), storedRole.getName());
+
+        Group storedGroup = (Group) result.get(group.getId());
+
+        assertNotNull(storedGroup);
+        assertEquals(group.getPath(), storedGroup.getPath());
+        assertEquals(parentGroup.getId(), storedGroup.getParentGroup().getId());
+    }
+
+    @Test
+    public void testHydrateRelationshipsAcrossMemberBatches() throws Exception {
+        Role role = createRole("someRole");
+        Set<String> expectedAssignees = new HashSet<String>();
+        RelationshipManager relationshipManager = getPartitionManager().createRelationshipManager();
+
+        for (int i = 0; i < RELATIONSHIP_COUNT; i++) {
+            User user = createUser("someUser" + i);
+
+            relationshipManager.add(new Grant(user, role));
+            expectedAssignees.add(user.getId());
+        }
+
+        RelationshipQuery<Grant> query = relationshipManager.createRelationshipQuery(Grant.class);
+
+        query.setParameter(Grant.ROLE, role);
+
+        List<Grant> result = query.getResultList();
+
+        assertEquals(RELATIONSHIP_COUNT, result.size());
+
+        Set<String> assignees = new HashSet<String>();
+
+        for (Grant grant : result) {
+            assertEquals(role.getId(), grant.getRole().getId());
+            assertTrue(User.class.isInstance(grant.getAssignee()));
+            assignees.add(grant.getAssignee().getId());
+        }
+
+        assertEquals(expectedAssignees, assignees);
+    }
+
+    @Test
+    public void testHydrateRelationshipsOfDifferentTypes() throws Exception {
+        User user = createUser("someUser");
+        Agent agent = createAgent("someAgent");
+        Role role = createRole("someRole");
+        Group group = createGroup("someGroup");
+        RelationshipManager relationshipManager = getPartitionManager().createRelationshipManager();
+
+        relationshipManager.add(new Grant(user, role));
+        relationshipManager.add(new GroupMembership(user, group));
+        relationshipManager.add(new GroupMembership(agent, group));
+
+        CustomRelationship customRelationship = new CustomRelationship();
+
+        customRelationship.setIdentityTypeA(user);
+        customRelationship.setIdentityTypeB(role);
+        customRelationship.setIdentityTypeC(group);
+
+        relationshipManager.add(customRelationship);
+
+        RelationshipQuery<Relationship> query = relationshipManager.createRelationshipQuery(Relationship.class);
+
+        query.setParameter(Relationship.IDENTITY, user);
+
+        List<Relationship> result = query.getResultList();
+
+        assertEquals(3, result.size());
+
+        for (Relationship relationship : result) {
+            if (Grant.class.isInstance(relationship)) {
+                Grant grant = (Grant) relationship;
+
+                assertEquals(user.getId(), grant.getAssignee().getId());
+                assertEquals(role.getId(), grant.getRole().getId());
+            } else if (GroupMembership.class.isInstance(relationship)) {
+                GroupMembership groupMembership = (GroupMembership) relationship;
+
+                assertEquals(user.getId(), groupMembership.getMember().getId());
+                assertEquals(group.getId(), groupMembership.getGroup().getId());
+            } else {
+                CustomRelationship storedRelationship = (CustomRelationship) relationship;
+
+                assertEquals(customRelationship.getId(), storedRelationship.getId());
+                assertEquals(user.getId(), storedRelationship.getIdentityTypeA().getId());
+                assertEquals(role.getId(), storedRelationship.getIdentityTypeB().getId());
+                assertEquals(group.getId(), storedRelationship.getIdentityTypeC().getId());
+            }
+        }
+
+        RelationshipQuery<GroupMembership> membershipQuery = relationshipManager.createRelationshipQuery(GroupMembership.class);
+
+        membershipQuery.setParameter(GroupMembership.GROUP, group);
+
+        Set<String> members = new HashSet<String>();
+
+        for (GroupMembership groupMembership : membershipQuery.getResultList()) {
+            members.add(groupMembership.getMember().getId());
+        }
+
+        assertEquals(2, members.size());
+        assertTrue(members.contains(user.getId()));
+        assertTrue(members.contains(agent.getId()));
+    }
+}
@@ -32,6 +32,7 @@ import org.picketlink.test.idm.testers.IdentityConfigurationTester;
 import org.picketlink.test.idm.testers.JPAPermissionStoreConfigurationTester;
 import org.picketlink.test.idm.testers.LDAPStoreConfigurationTester;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -102,4 +103,39 @@ public class InheritsPrivilegeTestCase extends AbstractPartitionManagerTestCase
         assertTrue(relationshipManager.inheritsPrivileges(pmGroup, operator));
     }
 
+    @Test
+    public void testRevokeInheritedPrivileges() throws Exception {
+        Role operator = createRole("Operator");
+        Group itGroup = createGroup("IT");
+        Group employees = createGroupWithParent("Employees", itGroup);
+
+        RelationshipManager relationshipManager = getPartitionManager().createRelationshipManager();
+
+        Grant grant = new Grant(itGroup, operator);
+
+        relationshipManager.add(grant);
+
+        User john = createUser("john");
+
+        GroupMembership groupMembership = new GroupMembership(john, employees);
+
+        relationshipManager.add(groupMembership);
+
+        assertTrue(relationshipManager.inheritsPrivileges(john, operator));
+
+        relationshipManager.remove(groupMembership);
+
+        assertFalse(relationshipManager.inheritsPrivileges(john, operator));
+        assertTrue(relationshipManager.inheritsPrivileges(employees, operator));
+
+        relationshipManager.add(new GroupMembership(john, employees));
+
+        assertTrue(relationshipManager.inheritsPrivileges(john, operator));
+
+        relationshipManager.remove(grant);
+
+        assertFalse(relationshipManager.inheritsPrivileges(john, operator));
+        assertFalse(relationshipManager.inheritsPrivileges(employees, operator));
+    }
+
 }
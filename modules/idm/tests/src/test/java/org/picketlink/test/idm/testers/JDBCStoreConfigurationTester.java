@@ -19,6 +19,7 @@ package org.picketlink.test.idm.testers;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
 import org.picketlink.idm.internal.DefaultPartitionManager;
 import org.picketlink.idm.model.basic.Realm;
 import org.picketlink.idm.model.basic.Role;
@@ -39,11 +40,19 @@ public class JDBCStoreConfigurationTester implements IdentityConfigurationTester
 
     @Override
     public DefaultPartitionManager getPartitionManager() {
+        return getPartitionManager(false);
+    }
+
+    public DefaultPartitionManager getPartitionManager(boolean keysetPagination) {
+        return getPartitionManager(keysetPagination, null);
+    }
+
+    public DefaultPartitionManager getPartitionManager(boolean keysetPagination, PaginationDialect paginationDialect) {
 
         IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
 
         builder.named(SIMPLE_JDBC_STORE_CONFIG).stores().jdbc().setDataSource(ds).supportType(User.class).supportType(Role.class)
-                .supportAllFeatures();
+                .setKeysetPagination(keysetPagination).setPaginationDialect(paginationDialect).supportAllFeatures();
 
         DefaultPartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
 
@@ -119,8 +119,8 @@ public class JPAStoreConfigurationTester implements IdentityConfigurationTester
         this.emf.close();
     }
 
-    // Useful for subclasses
-    protected EntityManager getEntityManager() {
+    // Useful for subclasses and tests checking the persistence context
+    public EntityManager getEntityManager() {
         return entityManager;
     }
 
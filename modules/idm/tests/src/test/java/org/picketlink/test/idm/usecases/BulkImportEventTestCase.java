@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.BulkIdentityManager;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.IdentityTypesCreatedEvent;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>Test case for the events raised when adding many identity types at once. The behavior of the stores is covered by
+ * {@link BulkImportTestCase}.</p>
+ *
+ * @author agent
+ */
+public class BulkImportEventTestCase {
+
+    private final List<IdentityTypesCreatedEvent> events = new ArrayList<IdentityTypesCreatedEvent>();
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onBefore() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .preserveState(false)
+                        .supportAllFeatures();
+
+        EventBridge eventBridge = new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                if (IdentityTypesCreatedEvent.class.isInstance(event)) {
+                    events.add((IdentityTypesCreatedEvent) event);
+                }
+            }
+        };
+
+        this.events.clear();
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll(), eventBridge, null);
+
+        this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+    }
+
+    @Test
+    public void testOneEventForEachBatch() {
+        BulkIdentityManager identityManager = (BulkIdentityManager) this.partitionManager.createIdentityManager();
+        List<IdentityType> users = new ArrayList<IdentityType>();
+
+        for (int i = 0; i < 25; i++) {
+            users.add(new User("user" + i));
+        }
+
+        identityManager.addAll(users, 10);
+
+        assertEquals(3, this.events.size());
+        assertEquals(10, this.events.get(0).getIdentityTypes().size());
+        assertEquals(10, this.events.get(1).getIdentityTypes().size());
+        assertEquals(5, this.events.get(2).getIdentityTypes().size());
+    }
+
+    @Test
+    public void testNoEventWhenImportFails() {
+        BulkIdentityManager identityManager = (BulkIdentityManager) this.partitionManager.createIdentityManager();
+        List<IdentityType> users = new ArrayList<IdentityType>();
+
+        users.add(new User("john"));
+        users.add(new User("john"));
+
+        try {
+            identityManager.addAll(users);
+            fail();
+        } catch (IdentityManagementException ignore) {
+        }
+
+        assertEquals(0, this.events.size());
+    }
+}
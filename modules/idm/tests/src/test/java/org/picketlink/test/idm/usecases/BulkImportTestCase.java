@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Test;
+import org.picketlink.idm.BulkIdentityManager;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.jpa.model.sample.simple.IdentityTypeEntity;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.basic.BasicModel;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.test.idm.AbstractPartitionManagerTestCase;
+import org.picketlink.test.idm.Configuration;
+import org.picketlink.test.idm.testers.IdentityConfigurationTester;
+import org.picketlink.test.idm.testers.JPAStoreConfigurationTester;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>Test case for adding many identity types at once.</p>
+ *
+ * @author agent
+ */
+public class BulkImportTestCase extends AbstractPartitionManagerTestCase {
+
+    public BulkImportTestCase(IdentityConfigurationTester visitor) {
+        super(visitor);
+    }
+
+    @Test
+    public void testAddAllInBatches() {
+        BulkIdentityManager identityManager = getBulkIdentityManager();
+        List<IdentityType> users = new ArrayList<IdentityType>();
+
+        for (int i = 0; i < 25; i++) {
+            users.add(new User("bulkUser" + i));
+        }
+
+        identityManager.addAll(users, 10);
+
+        for (int i = 0; i < 25; i++) {
+            User storedUser = BasicModel.getUser(identityManager, "bulkUser" + i);
+
+            assertNotNull(storedUser);
+            assertNotNull(storedUser.getId());
+            assertNotNull(storedUser.getPartition());
+        }
+    }
+
+    @Test
+    public void testFailDuplicatedInBatch() {
+        BulkIdentityManager identityManager = getBulkIdentityManager();
+        List<IdentityType> users = new ArrayList<IdentityType>();
+
+        users.add(new User("bulkJohn"));
+        users.add(new User("bulkMary"));
+        users.add(new User("bulkJohn"));
+
+        try {
+            identityManager.addAll(users);
+            fail();
+        } catch (IdentityManagementException ignore) {
+        }
+
+        assertNull(BasicModel.getUser(identityManager, "bulkJohn"));
+        assertNull(BasicModel.getUser(identityManager, "bulkMary"));
+    }
+
+    @Test
+    public void testFailAlreadyStored() {
+        BulkIdentityManager identityManager = getBulkIdentityManager();
+
+        createUser("bulkJohn");
+
+        List<IdentityType> users = new ArrayList<IdentityType>();
+
+        users.add(new User("bulkMary"));
+        users.add(new User("bulkJohn"));
+
+        try {
+            identityManager.addAll(users);
+            fail();
+        } catch (IdentityManagementException ignore) {
+        }
+
+        assertNull(BasicModel.getUser(identityManager, "bulkMary"));
+    }
+
+    @Test
+    @Configuration(include = JPAStoreConfigurationTester.class)
+    public void testAddAllKeepsOtherEntitiesManaged() {
+        User john = createUser("bulkJohn");
+        EntityManager entityManager = ((JPAStoreConfigurationTester) this.visitor).getEntityManager();
+        IdentityTypeEntity johnEntity = entityManager.find(IdentityTypeEntity.class, john.getId());
+
+        assertNotNull(johnEntity);
+
+        List<IdentityType> users = new ArrayList<IdentityType>();
+
+        users.add(new User("bulkMary"));
+        users.add(new User("bulkJane"));
+
+        getBulkIdentityManager().addAll(users);
+
+        // only the entities persisted by the import are detached
+        assertTrue(entityManager.contains(johnEntity));
+        assertNotNull(getUser("bulkMary"));
+        assertNotNull(getUser("bulkJane"));
+    }
+
+    private BulkIdentityManager getBulkIdentityManager() {
+        return (BulkIdentityManager) getIdentityManager();
+    }
+}
@@ -1,21 +1,31 @@
 package org.picketlink.test.idm.usecases;
 
 import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
 import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.credential.Credentials;
+import org.picketlink.idm.credential.Password;
+import org.picketlink.idm.credential.UsernamePasswordCredentials;
 import org.picketlink.idm.internal.DefaultPartitionManager;
 import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.basic.BasicModel;
 import org.picketlink.idm.model.basic.Grant;
 import org.picketlink.idm.model.basic.Realm;
 import org.picketlink.idm.model.basic.Role;
 import org.picketlink.idm.model.basic.User;
 
+import java.io.FileOutputStream;
 import java.io.Serializable;
+import java.util.Date;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created with IntelliJ IDEA. User: pedroigor Date: 8/6/13 Time: 7:32 PM To change this template use File | Settings |
@@ -179,4 +189,142 @@ public class FileStorePreservingStateTestCase {
         assertFalse(result.isEmpty());
     }
 
+    @Test
+    public void testPreserveStateAfterCompaction() {
+        PartitionManager partitionManager = createPartitionManager(false);
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        for (int i = 0; i < 20; i++) {
+            identityManager.add(new User("user" + i));
+        }
+
+        identityManager.remove(BasicModel.getUser(identityManager, "user0"));
+
+        User user = BasicModel.getUser(identityManager, "user1");
+
+        user.setEmail("user1@picketlink.org");
+
+        identityManager.update(user);
+
+        identityManager = createPartitionManager(true).createIdentityManager();
+
+        assertNull(BasicModel.getUser(identityManager, "user0"));
+        assertEquals("user1@picketlink.org", BasicModel.getUser(identityManager, "user1").getEmail());
+
+        for (int i = 1; i < 20; i++) {
+            assertNotNull(BasicModel.getUser(identityManager, "user" + i));
+        }
+    }
+
+    @Test
+    public void testDiscardIncompleteJournalRecord() throws Exception {
+        PartitionManager partitionManager = createPartitionManager(false);
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+        partitionManager.createIdentityManager().add(new User("john"));
+
+        FileOutputStream journal = new FileOutputStream("/tmp/pl-idm-journal/pl-idm-journal.db", true);
+
+        try {
+            // simulates a record partially written before a crash
+            journal.write(new byte[] {0, 0, 1, 0, 1, 2, 3});
+        } finally {
+            journal.close();
+        }
+
+        IdentityManager identityManager = createPartitionManager(true).createIdentityManager();
+
+        assertNotNull(BasicModel.getUser(identityManager, "john"));
+
+        identityManager.add(new User("mary"));
+
+        identityManager = createPartitionManager(true).createIdentityManager();
+
+        assertNotNull(BasicModel.getUser(identityManager, "john"));
+        assertNotNull(BasicModel.getUser(identityManager, "mary"));
+    }
+
+    @Test
+    public void testPreserveCredentialsAttributesAndRelationshipsAfterCompaction() {
+        PartitionManager partitionManager = createPartitionManager(false);
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = partitionManager.createRelationshipManager();
+        Date lastLogin = new Date();
+        User john = new User("john");
+
+        john.setAttribute(new Attribute<String>("department", "sales"));
+        john.setAttribute(new Attribute<Date>("lastLogin", lastLogin));
+
+        identityManager.add(john);
+        identityManager.updateCredential(john, new Password("secret"));
+
+        Role admin = new Role("admin");
+
+        identityManager.add(admin);
+
+        BasicModel.grantRole(relationshipManager, john, admin);
+
+        partitionManager = createPartitionManager(true);
+        identityManager = partitionManager.createIdentityManager();
+        relationshipManager = partitionManager.createRelationshipManager();
+
+        john = BasicModel.getUser(identityManager, "john");
+
+        assertNotNull(john);
+        assertEquals("sales", john.<String>getAttribute("department").getValue());
+        assertEquals(lastLogin, john.<Date>getAttribute("lastLogin").getValue());
+        assertTrue(BasicModel.hasRole(relationshipManager, john, BasicModel.getRole(identityManager, "admin")));
+
+        UsernamePasswordCredentials credentials = new UsernamePasswordCredentials("john", new Password("secret"));
+
+        identityManager.validateCredentials(credentials);
+
+        assertEquals(Credentials.Status.VALID, credentials.getStatus());
+    }
+
+    @Test
+    public void testPreserveStateWithAsyncWrite() {
+        PartitionManager partitionManager = createPartitionManager(false, true);
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        // journal syncs and compactions are coalesced in the background while users are added
+        for (int i = 0; i < 50; i++) {
+            identityManager.add(new User("user" + i));
+        }
+
+        identityManager = createPartitionManager(true, true).createIdentityManager();
+
+        for (int i = 0; i < 50; i++) {
+            assertNotNull(BasicModel.getUser(identityManager, "user" + i));
+        }
+    }
+
+    private PartitionManager createPartitionManager(boolean preserveState) {
+        return createPartitionManager(preserveState, false);
+    }
+
+    private PartitionManager createPartitionManager(boolean preserveState, boolean asyncWrite) {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("file-store-journal")
+                .stores()
+                    .file()
+                        .preserveState(preserveState)
+                        .asyncWrite(asyncWrite)
+                        .workingDirectory("/tmp/pl-idm-journal")
+                        .journalCompactionThreshold(5)
+                        .supportAllFeatures();
+
+        return new DefaultPartitionManager(builder.buildAll());
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.basic.BasicModel;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.AttributeParameter;
+import org.picketlink.idm.query.IdentityQuery;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Checks if the indexes used by the file store to answer queries are kept in sync with the stored data.</p>
+ *
+ * @author agent
+ */
+public class FileStoreQueryIndexTestCase {
+
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onBefore() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .preserveState(false)
+                        .supportAllFeatures();
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+    }
+
+    @Test
+    public void testLookupAfterUpdateAndRemove() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        User john = BasicModel.getUser(identityManager, "john");
+
+        assertNotNull(john);
+
+        john.setLoginName("mary");
+
+        identityManager.update(john);
+
+        assertNull(BasicModel.getUser(identityManager, "john"));
+        assertNotNull(BasicModel.getUser(identityManager, "mary"));
+
+        identityManager.remove(john);
+
+        assertNull(BasicModel.getUser(identityManager, "mary"));
+    }
+
+    @Test
+    public void testLookupByDateRange() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        Calendar calendar = Calendar.getInstance();
+
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+
+        Date tomorrow = calendar.getTime();
+
+        for (int i = 0; i < 5; i++) {
+            User user = new User("user" + i);
+
+            if (i % 2 == 0) {
+                user.setExpirationDate(tomorrow);
+            }
+
+            identityManager.add(user);
+        }
+
+        IdentityQuery<User> query = identityManager.createIdentityQuery(User.class);
+
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+
+        query.setParameter(User.EXPIRY_BEFORE, calendar.getTime());
+
+        assertEquals(3, query.getResultList().size());
+
+        User user = BasicModel.getUser(identityManager, "user0");
+
+        user.setExpirationDate(null);
+
+        identityManager.update(user);
+
+        assertEquals(2, query.getResultList().size());
+    }
+
+    @Test
+    public void testLookupByAttribute() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        User john = new User("john");
+
+        john.setAttribute(new Attribute<String>("department", "sales"));
+
+        identityManager.add(john);
+        identityManager.add(new User("mary"));
+
+        IdentityQuery<User> query = identityManager.createIdentityQuery(User.class);
+
+        query.setParameter(User.QUERY_ATTRIBUTE.byName("department"), "sales");
+
+        List<User> result = query.getResultList();
+
+        assertEquals(1, result.size());
+        assertEquals("john", result.get(0).getLoginName());
+
+        john = BasicModel.getUser(identityManager, "john");
+        john.setAttribute(new Attribute<String>("department", "marketing"));
+
+        identityManager.update(john);
+
+        assertTrue(query.getResultList().isEmpty());
+    }
+
+    @Test
+    public void testLookupRelationshipsByIdentityType() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+
+        User john = new User("john");
+        User mary = new User("mary");
+        Role admin = new Role("admin");
+
+        identityManager.add(john);
+        identityManager.add(mary);
+        identityManager.add(admin);
+
+        BasicModel.grantRole(relationshipManager, john, admin);
+        BasicModel.grantRole(relationshipManager, mary, admin);
+
+        assertEquals(1, relationshipManager.createRelationshipQuery(Grant.class)
+            .setParameter(Grant.ASSIGNEE, john).getResultList().size());
+        assertEquals(2, relationshipManager.createRelationshipQuery(Grant.class)
+            .setParameter(Grant.ROLE, admin).getResultList().size());
+
+        identityManager.remove(john);
+
+        assertEquals(1, relationshipManager.createRelationshipQuery(Grant.class)
+            .setParameter(Grant.ROLE, admin).getResultList().size());
+        assertTrue(BasicModel.hasRole(relationshipManager, mary, admin));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityCache;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultIdentityCache;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.BasicModel;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * @author agent
+ */
+public class IdentityCacheTestCase {
+
+    private DefaultIdentityCache identityCache;
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onBefore() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .preserveState(false)
+                        .supportAllFeatures();
+
+        this.identityCache = new DefaultIdentityCache(2, 0);
+
+        builder.identityCache(this.identityCache);
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+    }
+
+    @Test
+    public void testLookupFromCache() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        long missCount = this.identityCache.getMissCount();
+        User storedUser = BasicModel.getUser(identityManager, "john");
+
+        assertNotNull(storedUser);
+        assertEquals(missCount + 1, this.identityCache.getMissCount());
+
+        User cachedUser = BasicModel.getUser(identityManager, "john");
+
+        assertNotSame(storedUser, cachedUser);
+        assertEquals(storedUser.getId(), cachedUser.getId());
+        assertEquals(1, this.identityCache.getHitCount());
+    }
+
+    @Test
+    public void testCustomIdentityCache() {
+        final DefaultIdentityCache delegate = new DefaultIdentityCache();
+
+        // only implements the IdentityCache contract, types are cached using its put methods
+        IdentityCache customCache = (IdentityCache) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {IdentityCache.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            });
+
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .identityCache(customCache)
+            .named("default")
+                .stores()
+                    .file()
+                        .preserveState(false)
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+        identityManager.add(new Role("admin"));
+
+        assertNotNull(BasicModel.getUser(identityManager, "john"));
+        assertNotNull(BasicModel.getRole(identityManager, "admin"));
+        assertNotNull(BasicModel.getUser(identityManager, "john"));
+        assertNotNull(BasicModel.getRole(identityManager, "admin"));
+
+        assertEquals(2, delegate.getHitCount());
+    }
+
+    @Test
+    public void testCachedTypesAreCopies() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        BasicModel.getUser(identityManager, "john").setFirstName("Changed");
+
+        User cachedUser = BasicModel.getUser(identityManager, "john");
+
+        assertEquals(1, this.identityCache.getHitCount());
+        assertNull(cachedUser.getFirstName());
+    }
+
+    @Test
+    public void testDiscardPutAfterInvalidation() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        Realm realm = this.partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM);
+        User user = new User("john");
+
+        identityManager.add(user);
+
+        long version = this.identityCache.getVersion();
+
+        // simulates an update happening while the user was being loaded from the stores
+        this.identityCache.invalidate(realm, user);
+        this.identityCache.put(realm, user, version);
+
+        assertNull(this.identityCache.lookupUser(realm, "john"));
+
+        this.identityCache.put(realm, user, this.identityCache.getVersion());
+
+        assertNotNull(this.identityCache.lookupUser(realm, "john"));
+    }
+
+    @Test
+    public void testInvalidateOnUpdate() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        User storedUser = BasicModel.getUser(identityManager, "john");
+
+        storedUser.setLoginName("mary");
+
+        identityManager.update(storedUser);
+
+        assertNull(BasicModel.getUser(identityManager, "john"));
+        assertNotNull(BasicModel.getUser(identityManager, "mary"));
+        assertEquals(0, this.identityCache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidateOnRemove() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new Role("admin"));
+
+        Role storedRole = BasicModel.getRole(identityManager, "admin");
+
+        identityManager.remove(storedRole);
+
+        assertNull(BasicModel.getRole(identityManager, "admin"));
+    }
+
+    @Test
+    public void testEviction() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        Realm realm = this.partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM);
+
+        for (int i = 0; i < 40; i++) {
+            identityManager.add(new User("user" + i));
+            assertNotNull(BasicModel.getUser(identityManager, "user" + i));
+        }
+
+        assertEquals(40 - this.identityCache.getSize(realm), this.identityCache.getEvictionCount());
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.config.JDBCIdentityStoreConfiguration.PaginationDialect;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.IdentityQueryBuilder;
+import org.picketlink.idm.query.Sort;
+import org.picketlink.test.idm.testers.JDBCStoreConfigurationTester;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>Test case for the sorting and pagination of identity queries by the JDBC store.</p>
+ *
+ * @author agent
+ */
+public class JDBCQueryPaginationTestCase {
+
+    private static final int NUMBER_OF_USERS = 10;
+
+    private final JDBCStoreConfigurationTester tester = new JDBCStoreConfigurationTester();
+
+    @Before
+    public void onSetup() {
+        this.tester.beforeTest();
+
+        IdentityManager identityManager = this.tester.getPartitionManager().createIdentityManager();
+
+        // login names and first names are sorted in opposite orders
+        for (int i = 0; i < NUMBER_OF_USERS; i++) {
+            User user = new User("user-" + i);
+
+            user.setFirstName("name-" + (NUMBER_OF_USERS - 1 - i));
+            user.setLastName(i % 2 == 0 ? "even" : "odd");
+
+            identityManager.add(user);
+        }
+    }
+
+    @After
+    public void onFinish() {
+        this.tester.afterTest();
+    }
+
+    @Test
+    public void testSorting() {
+        IdentityQueryBuilder queryBuilder = createIdentityManager(false).getQueryBuilder();
+        IdentityQuery<User> query = queryBuilder.createIdentityQuery(User.class);
+
+        query.sortBy(new Sort(User.FIRST_NAME, true));
+
+        assertEquals(getLoginNames(9, 0), getLoginNames(query.getResultList()));
+
+        query = queryBuilder.createIdentityQuery(User.class);
+
+        query.where(queryBuilder.equal(User.LAST_NAME, "even"));
+        query.sortBy(new Sort(User.LOGIN_NAME, false));
+
+        List<String> expected = new ArrayList<String>();
+
+        for (int i = 8; i >= 0; i -= 2) {
+            expected.add("user-" + i);
+        }
+
+        assertEquals(expected, getLoginNames(query.getResultList()));
+    }
+
+    @Test
+    public void testLimitAndOffset() {
+        IdentityQuery<User> query = createIdentityManager(false).getQueryBuilder().createIdentityQuery(User.class);
+
+        query.sortBy(new Sort(User.LOGIN_NAME, true));
+        query.setLimit(3);
+
+        query.setOffset(0);
+        assertEquals(getLoginNames(0, 2), getLoginNames(query.getResultList()));
+
+        query.setOffset(3);
+        assertEquals(getLoginNames(3, 5), getLoginNames(query.getResultList()));
+
+        query.setOffset(9);
+        assertEquals(getLoginNames(9, 9), getLoginNames(query.getResultList()));
+
+        query.setOffset(NUMBER_OF_USERS);
+        assertTrue(query.getResultList().isEmpty());
+    }
+
+    @Test
+    public void testLimitAndOffsetWithoutPaginationDialect() {
+        IdentityQuery<User> query = createIdentityManager(false, PaginationDialect.NONE).getQueryBuilder()
+            .createIdentityQuery(User.class);
+
+        query.sortBy(new Sort(User.LOGIN_NAME, true));
+        query.setLimit(3);
+
+        query.setOffset(0);
+        assertEquals(getLoginNames(0, 2), getLoginNames(query.getResultList()));
+
+        query.setOffset(3);
+        assertEquals(getLoginNames(3, 5), getLoginNames(query.getResultList()));
+
+        query.setOffset(9);
+        assertEquals(getLoginNames(9, 9), getLoginNames(query.getResultList()));
+
+        query.setOffset(NUMBER_OF_USERS);
+        assertTrue(query.getResultList().isEmpty());
+    }
+
+    @Test
+    public void testKeysetPaginationWithoutPaginationDialect() {
+        IdentityQuery<User> query = createIdentityManager(true, PaginationDialect.NONE).getQueryBuilder()
+            .createIdentityQuery(User.class);
+
+        query.sortBy(new Sort(User.LOGIN_NAME, true));
+        query.setLimit(4);
+
+        List<String> loginNames = new ArrayList<String>();
+        List<User> page = query.getResultList();
+
+        while (!page.isEmpty()) {
+            assertTrue(page.size() <= 4);
+            loginNames.addAll(getLoginNames(page));
+            page = query.getResultList();
+        }
+
+        assertEquals(getLoginNames(0, 9), loginNames);
+    }
+
+    @Test
+    public void testKeysetPagination() {
+        IdentityQuery<User> query = createIdentityManager(true).getQueryBuilder().createIdentityQuery(User.class);
+
+        query.sortBy(new Sort(User.FIRST_NAME, false));
+        query.setLimit(4);
+        // the offset is ignored, pages are selected by the pagination context
+        query.setOffset(100);
+
+        List<String> loginNames = new ArrayList<String>();
+        List<User> page = query.getResultList();
+
+        while (!page.isEmpty()) {
+            assertTrue(page.size() <= 4);
+            assertNotNull(query.getPaginationContext());
+            loginNames.addAll(getLoginNames(page));
+            page = query.getResultList();
+        }
+
+        assertEquals(getLoginNames(0, 9), loginNames);
+    }
+
+    @Test
+    public void testKeysetPaginationWithStaleContext() {
+        IdentityManager identityManager = createIdentityManager(true);
+        IdentityQuery<User> query = identityManager.getQueryBuilder().createIdentityQuery(User.class);
+
+        query.sortBy(new Sort(User.LOGIN_NAME, true));
+        query.setLimit(3);
+
+        assertEquals(getLoginNames(0, 2), getLoginNames(query.getResultList()));
+
+        // the last row of the page no longer exists, the next page still starts right after it
+        identityManager.remove(getUser(identityManager, "user-2"));
+        identityManager.remove(getUser(identityManager, "user-3"));
+
+        assertEquals(getLoginNames(4, 6), getLoginNames(query.getResultList()));
+
+        Object paginationContext = query.getPaginationContext();
+
+        assertEquals(getLoginNames(7, 9), getLoginNames(query.getResultList()));
+        assertTrue(query.getResultList().isEmpty());
+
+        // an empty page keeps the context, so rows added later are returned
+        identityManager.add(new User("user-99"));
+
+        List<String> expected = new ArrayList<String>();
+
+        expected.add("user-99");
+
+        assertEquals(expected, getLoginNames(query.getResultList()));
+
+        // reusing an older context returns the same page again
+        query.setPaginationContext(paginationContext);
+
+        assertEquals(getLoginNames(7, 9), getLoginNames(query.getResultList()));
+    }
+
+    @Test
+    public void testKeysetPaginationWithMismatchedContext() {
+        IdentityQueryBuilder queryBuilder = createIdentityManager(true).getQueryBuilder();
+        IdentityQuery<User> query = queryBuilder.createIdentityQuery(User.class);
+
+        query.sortBy(new Sort(User.LOGIN_NAME, true));
+        query.setLimit(3);
+        query.getResultList();
+
+        Object paginationContext = query.getPaginationContext();
+
+        assertNotNull(paginationContext);
+
+        IdentityQuery<User> otherQuery = queryBuilder.createIdentityQuery(User.class);
+
+        // same number of sort columns, but a different column
+        otherQuery.sortBy(new Sort(User.FIRST_NAME, true));
+        otherQuery.setLimit(3);
+        otherQuery.setPaginationContext(paginationContext);
+
+        assertPaginationContextRejected(otherQuery);
+
+        otherQuery = queryBuilder.createIdentityQuery(User.class);
+
+        // same column, but a different direction
+        otherQuery.sortBy(new Sort(User.LOGIN_NAME, false));
+        otherQuery.setLimit(3);
+        otherQuery.setPaginationContext(paginationContext);
+
+        assertPaginationContextRejected(otherQuery);
+
+        otherQuery = queryBuilder.createIdentityQuery(User.class);
+
+        // a context created by another kind of store
+        otherQuery.sortBy(new Sort(User.LOGIN_NAME, true));
+        otherQuery.setLimit(3);
+        otherQuery.setPaginationContext(new byte[] {1});
+
+        assertPaginationContextRejected(otherQuery);
+    }
+
+    @Test
+    public void testQueryByAttribute() {
+        IdentityManager identityManager = createIdentityManager(false);
+
+        User user = getUser(identityManager, "user-1");
+
+        user.setAttribute(new Attribute<String>("department", "sales"));
+        identityManager.update(user);
+
+        user = getUser(identityManager, "user-2");
+
+        user.setAttribute(new Attribute<String[]>("department", new String[] {"sales", "support"}));
+        identityManager.update(user);
+
+        IdentityQueryBuilder queryBuilder = identityManager.getQueryBuilder();
+        IdentityQuery<User> query = queryBuilder.createIdentityQuery(User.class);
+
+        query.where(queryBuilder.equal(AttributedType.QUERY_ATTRIBUTE.byName("department"), "sales"));
+        query.sortBy(new Sort(User.LOGIN_NAME, true));
+
+        assertEquals(getLoginNames(1, 2), getLoginNames(query.getResultList()));
+
+        // all the values must be present
+        query = queryBuilder.createIdentityQuery(User.class);
+
+        query.setParameter(AttributedType.QUERY_ATTRIBUTE.byName("department"), "sales", "support");
+
+        assertEquals(getLoginNames(2, 2), getLoginNames(query.getResultList()));
+
+        // attribute conditions are combined with the other conditions
+        query = queryBuilder.createIdentityQuery(User.class);
+
+        query.where(queryBuilder.equal(AttributedType.QUERY_ATTRIBUTE.byName("department"), "sales"),
+            queryBuilder.equal(User.LAST_NAME, "even"));
+
+        assertEquals(getLoginNames(2, 2), getLoginNames(query.getResultList()));
+
+        query = queryBuilder.createIdentityQuery(User.class);
+
+        query.where(queryBuilder.equal(AttributedType.QUERY_ATTRIBUTE.byName("department"), "marketing"));
+
+        assertTrue(query.getResultList().isEmpty());
+    }
+
+    private void assertPaginationContextRejected(IdentityQuery<User> query) {
+        try {
+            query.getResultList();
+            fail("Pagination context created for another query must be rejected.");
+        } catch (IdentityManagementException expected) {
+        }
+    }
+
+    private IdentityManager createIdentityManager(boolean keysetPagination) {
+        return createIdentityManager(keysetPagination, null);
+    }
+
+    private IdentityManager createIdentityManager(boolean keysetPagination, PaginationDialect paginationDialect) {
+        DefaultPartitionManager partitionManager = this.tester.getPartitionManager(keysetPagination, paginationDialect);
+
+        return partitionManager.createIdentityManager();
+    }
+
+    private User getUser(IdentityManager identityManager, String loginName) {
+        IdentityQueryBuilder queryBuilder = identityManager.getQueryBuilder();
+        List<User> result = queryBuilder.createIdentityQuery(User.class)
+            .where(queryBuilder.equal(User.LOGIN_NAME, loginName)).getResultList();
+
+        assertEquals(1, result.size());
+
+        return result.get(0);
+    }
+
+    private List<String> getLoginNames(List<User> users) {
+        List<String> loginNames = new ArrayList<String>();
+
+        for (User user : users) {
+            loginNames.add(user.getLoginName());
+        }
+
+        return loginNames;
+    }
+
+    private List<String> getLoginNames(int first, int last) {
+        List<String> loginNames = new ArrayList<String>();
+        int step = first <= last ? 1 : -1;
+
+        for (int i = first; i != last + step; i += step) {
+            loginNames.add("user-" + i);
+        }
+
+        return loginNames;
+    }
+}
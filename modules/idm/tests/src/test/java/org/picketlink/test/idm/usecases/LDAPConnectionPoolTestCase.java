@@ -0,0 +1,353 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.config.LDAPStoreConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.BasicModel;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.test.idm.util.LDAPEmbeddedServer;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.picketlink.common.constants.LDAPConstants.CN;
+import static org.picketlink.common.constants.LDAPConstants.CREATE_TIMESTAMP;
+import static org.picketlink.common.constants.LDAPConstants.EMAIL;
+import static org.picketlink.common.constants.LDAPConstants.SN;
+import static org.picketlink.common.constants.LDAPConstants.UID;
+
+/**
+ * <p>Tests the connection pool of the LDAP store, the connections kept for paged searches and the routing of operations
+ * between the primary and the read only server. Connections are opened through {@link RecordingContextFactory}, which records every connection opened and
+ * every operation executed.</p>
+ *
+ * @author agent
+ */
+public class LDAPConnectionPoolTestCase {
+
+    private final LDAPEmbeddedServer embeddedServer = new LDAPEmbeddedServer();
+    private final List<DefaultPartitionManager> partitionManagers = new ArrayList<DefaultPartitionManager>();
+
+    @Before
+    public void onBefore() {
+        try {
+            this.embeddedServer.setup();
+            this.embeddedServer.importLDIF("ldap/users.ldif");
+        } catch (Exception e) {
+            throw new RuntimeException("Error starting Embedded LDAP server.", e);
+        }
+
+        RecordingContextFactory.reset();
+    }
+
+    @After
+    public void onAfter() {
+        for (DefaultPartitionManager partitionManager : this.partitionManagers) {
+            partitionManager.close();
+        }
+
+        try {
+            this.embeddedServer.tearDown();
+        } catch (Exception e) {
+            throw new RuntimeException("Error stopping Embedded LDAP server.", e);
+        }
+    }
+
+    @Test
+    public void testPoolDisabledByDefault() throws Exception {
+        IdentityManager identityManager = getPartitionManager(null, -1).createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        RecordingContextFactory.reset();
+
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(BasicModel.getUser(identityManager, "john"));
+        }
+
+        assertTrue(RecordingContextFactory.getOpenedConnections() >= 5);
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        IdentityManager identityManager = getPartitionManager(null, 2).createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        RecordingContextFactory.reset();
+
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(BasicModel.getUser(identityManager, "john"));
+        }
+
+        // lookups are sequential, a single connection is enough
+        assertEquals(1, RecordingContextFactory.getOpenedConnections());
+    }
+
+    @Test
+    public void testCloseReleasesConnections() throws Exception {
+        DefaultPartitionManager partitionManager = getPartitionManager(null, 2);
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        assertTrue(RecordingContextFactory.getOpenedConnections() > 0);
+
+        partitionManager.close();
+
+        assertEquals(0, RecordingContextFactory.getOpenConnections());
+    }
+
+    @Test
+    public void testReadsAfterWritesUsePrimaryServer() throws Exception {
+        String readOnlyUrl = getReadOnlyUrl();
+        IdentityManager identityManager = getPartitionManager(readOnlyUrl, -1).createIdentityManager();
+        User john = new User("john");
+
+        RecordingContextFactory.reset();
+
+        identityManager.add(john);
+
+        assertNotNull(john.getId());
+
+        List<String> operations = RecordingContextFactory.getOperations();
+        int createIndex = operations.indexOf(this.embeddedServer.getConnectionUrl() + " createSubcontext");
+
+        assertTrue(createIndex >= 0);
+
+        // the identifier of the new entry must be read from the primary server
+        for (String operation : operations.subList(createIndex, operations.size())) {
+            assertFalse(operation, operation.startsWith(readOnlyUrl + " "));
+        }
+
+        RecordingContextFactory.reset();
+
+        assertNotNull(BasicModel.getUser(identityManager, "john"));
+
+        for (String operation : RecordingContextFactory.getOperations()) {
+            assertTrue(operation, operation.startsWith(readOnlyUrl + " "));
+        }
+    }
+
+    @Test
+    public void testLimitQueriesDoNotKeepConnections() throws Exception {
+        IdentityManager identityManager = getPartitionManager(null, 2, true).createIdentityManager();
+
+        for (int i = 0; i < 3; i++) {
+            identityManager.add(new User("user" + i));
+        }
+
+        // more queries than connections, each one would keep a connection if its paged search was kept for the next page
+        for (int i = 0; i < 10; i++) {
+            IdentityQuery<User> query = identityManager.createIdentityQuery(User.class);
+
+            query.setLimit(1);
+
+            assertEquals(1, query.getResultList().size());
+        }
+
+        assertTrue(RecordingContextFactory.getOpenConnections() <= 2);
+    }
+
+    @Test
+    public void testPagedSearchesKeptForNextPageAreLimited() throws Exception {
+        IdentityManager identityManager = getPartitionManager(null, 2, true).createIdentityManager();
+
+        for (int i = 0; i < 5; i++) {
+            identityManager.add(new User("user" + i));
+        }
+
+        List<Iterator<User>> iterators = new ArrayList<Iterator<User>>();
+
+        // each iterator starts a paged search that is kept for its next page
+        for (int i = 0; i < 5; i++) {
+            Iterator<User> iterator = identityManager.createIdentityQuery(User.class).getResultIterator(2);
+
+            assertTrue(iterator.hasNext());
+            assertNotNull(iterator.next());
+
+            iterators.add(iterator);
+        }
+
+        // only half of the pool is used by paged searches, other operations still get a connection
+        assertTrue(RecordingContextFactory.getOpenConnections() <= 2);
+        assertNotNull(BasicModel.getUser(identityManager, "user0"));
+
+        // the most recent paged search is still available
+        Iterator<User> lastIterator = iterators.get(iterators.size() - 1);
+        int count = 1;
+
+        while (lastIterator.hasNext()) {
+            assertNotNull(lastIterator.next());
+            count++;
+        }
+
+        assertEquals(5, count);
+    }
+
+    private String getReadOnlyUrl() {
+        // the same server, using a different url so that operations sent to each one can be told apart
+        return this.embeddedServer.getConnectionUrl() + "/";
+    }
+
+    private DefaultPartitionManager getPartitionManager(String readOnlyUrl, int poolSize) {
+        return getPartitionManager(readOnlyUrl, poolSize, false);
+    }
+
+    private DefaultPartitionManager getPartitionManager(String readOnlyUrl, int poolSize, boolean pagination) {
+        Properties connectionProperties = new Properties();
+
+        connectionProperties.put(Context.INITIAL_CONTEXT_FACTORY, RecordingContextFactory.class.getName());
+
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+        LDAPStoreConfigurationBuilder ldapBuilder = builder
+            .named("default")
+                .stores()
+                    .ldap()
+                        .connectionProperties(connectionProperties)
+                        .baseDN(this.embeddedServer.getBaseDn())
+                        .bindDN(this.embeddedServer.getBindDn())
+                        .bindCredential(this.embeddedServer.getBindCredential())
+                        .url(this.embeddedServer.getConnectionUrl())
+                        .pagination(pagination)
+                        .connectionPoolBorrowTimeout(1000);
+
+        if (readOnlyUrl != null) {
+            ldapBuilder.readOnlyUrl(readOnlyUrl);
+        }
+
+        if (poolSize >= 0) {
+            ldapBuilder.connectionPool(0, poolSize);
+        }
+
+        ldapBuilder
+            .supportAllFeatures()
+            .mapping(User.class)
+                .baseDN(this.embeddedServer.getUserDnSuffix())
+                .objectClasses("inetOrgPerson", "organizationalPerson")
+                .attribute("loginName", UID, true)
+                .attribute("firstName", CN)
+                .attribute("lastName", SN)
+                .attribute("email", EMAIL)
+                .readOnlyAttribute("createdDate", CREATE_TIMESTAMP);
+
+        DefaultPartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        this.partitionManagers.add(partitionManager);
+
+        return partitionManager;
+    }
+
+    /**
+     * <p>Opens connections using the default LDAP provider, recording the url of each connection and every operation
+     * executed on it.</p>
+     */
+    public static class RecordingContextFactory implements InitialContextFactory {
+
+        private static final List<String> operations = new ArrayList<String>();
+        private static int openedConnections;
+        private static int openConnections;
+
+        static synchronized void reset() {
+            operations.clear();
+            openedConnections = 0;
+        }
+
+        static synchronized List<String> getOperations() {
+            return new ArrayList<String>(operations);
+        }
+
+        static synchronized int getOpenedConnections() {
+            return openedConnections;
+        }
+
+        static synchronized int getOpenConnections() {
+            return openConnections;
+        }
+
+        private static synchronized void record(String url, String operation) {
+            operations.add(url + " " + operation);
+
+            if ("close".equals(operation)) {
+                openConnections--;
+            }
+        }
+
+        private static synchronized void opened() {
+            openedConnections++;
+            openConnections++;
+        }
+
+        @Override
+        public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+            Hashtable<Object, Object> delegateEnvironment = new Hashtable<Object, Object>(environment);
+
+            delegateEnvironment.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+
+            final String url = (String) environment.get(Context.PROVIDER_URL);
+            final Context delegate;
+
+            try {
+                delegate = ((InitialContextFactory) Class.forName("com.sun.jndi.ldap.LdapCtxFactory").newInstance())
+                    .getInitialContext(delegateEnvironment);
+            } catch (NamingException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+
+            opened();
+
+            return (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {LdapContext.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        record(url, method.getName());
+
+                        try {
+                            return method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.ldap.internal.LDAPIdentityStore;
+import org.picketlink.idm.model.basic.BasicModel;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.test.idm.util.LDAPEmbeddedServer;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import javax.naming.directory.ModificationItem;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.picketlink.common.constants.LDAPConstants.CN;
+import static org.picketlink.common.constants.LDAPConstants.CREATE_TIMESTAMP;
+import static org.picketlink.common.constants.LDAPConstants.EMAIL;
+import static org.picketlink.common.constants.LDAPConstants.SN;
+import static org.picketlink.common.constants.LDAPConstants.UID;
+
+/**
+ * @author agent
+ */
+public class LDAPEntryCacheTestCase {
+
+    private final LDAPEmbeddedServer embeddedServer = new LDAPEmbeddedServer();
+    private final List<DefaultPartitionManager> partitionManagers = new ArrayList<DefaultPartitionManager>();
+
+    @Before
+    public void onBefore() {
+        try {
+            this.embeddedServer.setup();
+            this.embeddedServer.importLDIF("ldap/users.ldif");
+        } catch (Exception e) {
+            throw new RuntimeException("Error starting Embedded LDAP server.", e);
+        }
+    }
+
+    @After
+    public void onAfter() {
+        for (DefaultPartitionManager partitionManager : this.partitionManagers) {
+            partitionManager.close();
+        }
+
+        try {
+            this.embeddedServer.tearDown();
+        } catch (Exception e) {
+            throw new RuntimeException("Error stopping Embedded LDAP server.", e);
+        }
+    }
+
+    @Test
+    public void testLookupFromCache() throws Exception {
+        IdentityManager identityManager = getPartitionManager(0).createIdentityManager();
+        User john = new User("john");
+
+        john.setLastName("Doe");
+
+        identityManager.add(john);
+
+        User storedUser = BasicModel.getUser(identityManager, "john");
+
+        assertEquals("Doe", storedUser.getLastName());
+
+        User cachedUser = identityManager.lookupIdentityById(User.class, john.getId());
+
+        assertEquals(storedUser.getId(), cachedUser.getId());
+        assertNotSame(storedUser, cachedUser);
+
+        // changes to returned instances never reach the cache
+        cachedUser.setLastName("Changed");
+
+        assertEquals("Doe", identityManager.lookupIdentityById(User.class, john.getId()).getLastName());
+
+        modifyLastName("john", "Smith");
+
+        // changes made by other clients are not visible until the entry expires
+        assertEquals("Doe", BasicModel.getUser(identityManager, "john").getLastName());
+    }
+
+    @Test
+    public void testInvalidateOnUpdate() throws Exception {
+        IdentityManager identityManager = getPartitionManager(0).createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        User storedUser = BasicModel.getUser(identityManager, "john");
+
+        storedUser.setLastName("Smith");
+
+        identityManager.update(storedUser);
+
+        assertEquals("Smith", BasicModel.getUser(identityManager, "john").getLastName());
+
+        identityManager.remove(storedUser);
+
+        assertEquals(null, BasicModel.getUser(identityManager, "john"));
+    }
+
+    @Test
+    public void testEvictRemotelyChangedEntries() throws Exception {
+        // the scheduled check does not run during the test, changes are checked explicitly
+        DefaultPartitionManager partitionManager = getPartitionManager(60 * 60 * 1000);
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+        User john = new User("john");
+
+        john.setLastName("Doe");
+
+        identityManager.add(john);
+
+        assertEquals("Doe", BasicModel.getUser(identityManager, "john").getLastName());
+
+        modifyLastName("john", "Smith");
+
+        assertEquals("Doe", BasicModel.getUser(identityManager, "john").getLastName());
+
+        getIdentityStore(partitionManager).evictChangedEntries();
+
+        assertEquals("Smith", BasicModel.getUser(identityManager, "john").getLastName());
+    }
+
+    @Test
+    public void testCloseStopsChangeDetection() throws Exception {
+        DefaultPartitionManager partitionManager = getPartitionManager(500);
+        Thread changeDetectionThread = null;
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("picketlink-ldap-change-detection".equals(thread.getName()) && thread.isAlive()) {
+                changeDetectionThread = thread;
+            }
+        }
+
+        assertNotNull(changeDetectionThread);
+
+        partitionManager.close();
+        changeDetectionThread.join(5000);
+
+        assertFalse(changeDetectionThread.isAlive());
+    }
+
+    private LDAPIdentityStore getIdentityStore(DefaultPartitionManager partitionManager) {
+        return partitionManager.getStoreSelector().getStoreForIdentityOperation(partitionManager.getIdentityContext(),
+            LDAPIdentityStore.class, User.class, IdentityStoreConfiguration.IdentityOperation.read);
+    }
+
+    private void modifyLastName(String loginName, String lastName) throws NamingException {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(Context.PROVIDER_URL, this.embeddedServer.getConnectionUrl());
+        env.put(Context.SECURITY_PRINCIPAL, this.embeddedServer.getBindDn());
+        env.put(Context.SECURITY_CREDENTIALS, this.embeddedServer.getBindCredential());
+
+        DirContext context = new InitialDirContext(env);
+
+        try {
+            context.modifyAttributes(UID + "=" + loginName + "," + this.embeddedServer.getUserDnSuffix(),
+                new ModificationItem[] {new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(SN, lastName))});
+        } finally {
+            context.close();
+        }
+    }
+
+    private DefaultPartitionManager getPartitionManager(long changePollInterval) {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .ldap()
+                        .baseDN(this.embeddedServer.getBaseDn())
+                        .bindDN(this.embeddedServer.getBindDn())
+                        .bindCredential(this.embeddedServer.getBindCredential())
+                        .url(this.embeddedServer.getConnectionUrl())
+                        .entryCache(100, 60 * 1000)
+                        .entryCacheChangePollInterval(changePollInterval)
+                        .supportAllFeatures()
+                        .mapping(User.class)
+                            .baseDN(this.embeddedServer.getUserDnSuffix())
+                            .objectClasses("inetOrgPerson", "organizationalPerson")
+                            .attribute("loginName", UID, true)
+                            .attribute("firstName", CN)
+                            .attribute("lastName", SN)
+                            .attribute("email", EMAIL)
+                            .readOnlyAttribute("createdDate", CREATE_TIMESTAMP);
+
+        DefaultPartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        this.partitionManagers.add(partitionManager);
+
+        return partitionManager;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.Agent;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.GroupMembership;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.RelationshipQuery;
+import org.picketlink.test.idm.util.LDAPEmbeddedServer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.picketlink.common.constants.LDAPConstants.CN;
+import static org.picketlink.common.constants.LDAPConstants.CREATE_TIMESTAMP;
+import static org.picketlink.common.constants.LDAPConstants.EMAIL;
+import static org.picketlink.common.constants.LDAPConstants.GROUP_OF_NAMES;
+import static org.picketlink.common.constants.LDAPConstants.SN;
+import static org.picketlink.common.constants.LDAPConstants.UID;
+
+/**
+ * <p>Test case for the resolution of parent entries and relationship members, which the LDAP store fetches in
+ * batches.</p>
+ *
+ * @author agent
+ */
+public class LDAPEntryResolutionTestCase {
+
+    // more entries than the LDAP store resolves with a single search
+    private static final int MEMBER_COUNT = 105;
+
+    private final LDAPEmbeddedServer embeddedServer = new LDAPEmbeddedServer();
+
+    @Before
+    public void onBefore() {
+        try {
+            this.embeddedServer.setup();
+            this.embeddedServer.importLDIF("ldap/users.ldif");
+        } catch (Exception e) {
+            throw new RuntimeException("Error starting Embedded LDAP server.", e);
+        }
+    }
+
+    @After
+    public void onAfter() {
+        try {
+            this.embeddedServer.tearDown();
+        } catch (Exception e) {
+            throw new RuntimeException("Error stopping Embedded LDAP server.", e);
+        }
+    }
+
+    @Test
+    public void testResolveSharedParents() throws Exception {
+        IdentityManager identityManager = getPartitionManager(4).createIdentityManager();
+        Group rootGroup = new Group("rootGroup");
+
+        identityManager.add(rootGroup);
+
+        Group parentGroup = new Group("parentGroup", rootGroup);
+
+        identityManager.add(parentGroup);
+
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            identityManager.add(new Group("childGroup" + i, parentGroup));
+        }
+
+        Map<String, Group> groups = getGroups(identityManager);
+
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            Group childGroup = groups.get("childGroup" + i);
+
+            assertNotNull(childGroup);
+            assertEquals(parentGroup.getId(), childGroup.getParentGroup().getId());
+            assertEquals(rootGroup.getId(), childGroup.getParentGroup().getParentGroup().getId());
+            assertEquals("/rootGroup/parentGroup/childGroup" + i, childGroup.getPath());
+        }
+
+        assertEquals(rootGroup.getId(), groups.get("parentGroup").getParentGroup().getId());
+        assertNull(groups.get("rootGroup").getParentGroup());
+    }
+
+    @Test
+    public void testHierarchySearchDepth() throws Exception {
+        IdentityManager identityManager = getPartitionManager(2).createIdentityManager();
+        Group parentGroup = null;
+
+        for (int i = 1; i <= 4; i++) {
+            Group group = new Group("level" + i, parentGroup);
+
+            identityManager.add(group);
+
+            parentGroup = group;
+        }
+
+        IdentityQuery<Group> query = identityManager.createIdentityQuery(Group.class);
+
+        query.setParameter(Group.NAME, "level4");
+
+        List<Group> result = query.getResultList();
+
+        assertEquals(1, result.size());
+
+        Group level3 = result.get(0).getParentGroup();
+
+        assertEquals("level3", level3.getName());
+
+        Group level2 = level3.getParentGroup();
+
+        assertEquals("level2", level2.getName());
+
+        // parents beyond the search depth are not resolved
+        assertNull(level2.getParentGroup());
+
+        // each entry returned by a query has its own parents resolved up to the search depth
+        Map<String, Group> groups = getGroups(identityManager);
+
+        assertEquals("level1", groups.get("level2").getParentGroup().getName());
+        assertEquals("level2", groups.get("level3").getParentGroup().getName());
+        assertEquals("level3", groups.get("level4").getParentGroup().getName());
+        assertNull(groups.get("level1").getParentGroup());
+    }
+
+    @Test
+    public void testResolveMembersFromMultipleBaseDNs() throws Exception {
+        PartitionManager partitionManager = getPartitionManager(4);
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = partitionManager.createRelationshipManager();
+        Group group = new Group("someGroup");
+
+        identityManager.add(group);
+
+        Set<String> userIds = new HashSet<String>();
+        Set<String> agentIds = new HashSet<String>();
+
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            User user = new User("someUser" + i);
+
+            identityManager.add(user);
+            relationshipManager.add(new GroupMembership(user, group));
+            userIds.add(user.getId());
+        }
+
+        for (int i = 0; i < 3; i++) {
+            Agent agent = new Agent("someAgent" + i);
+
+            identityManager.add(agent);
+            relationshipManager.add(new GroupMembership(agent, group));
+            agentIds.add(agent.getId());
+        }
+
+        RelationshipQuery<GroupMembership> query = relationshipManager.createRelationshipQuery(GroupMembership.class);
+
+        query.setParameter(GroupMembership.GROUP, group);
+
+        List<GroupMembership> result = query.getResultList();
+
+        assertEquals(MEMBER_COUNT + 3, result.size());
+
+        Set<String> resolvedUserIds = new HashSet<String>();
+        Set<String> resolvedAgentIds = new HashSet<String>();
+
+        for (GroupMembership groupMembership : result) {
+            assertEquals(group.getId(), groupMembership.getGroup().getId());
+
+            if (User.class.isInstance(groupMembership.getMember())) {
+                User user = (User) groupMembership.getMember();
+
+                assertTrue(user.getLoginName().startsWith("someUser"));
+                resolvedUserIds.add(user.getId());
+            } else {
+                Agent agent = (Agent) groupMembership.getMember();
+
+                assertTrue(agent.getLoginName().startsWith("someAgent"));
+                resolvedAgentIds.add(agent.getId());
+            }
+        }
+
+        assertEquals(userIds, resolvedUserIds);
+        assertEquals(agentIds, resolvedAgentIds);
+    }
+
+    private Map<String, Group> getGroups(IdentityManager identityManager) {
+        Map<String, Group> groups = new HashMap<String, Group>();
+
+        for (Group group : identityManager.createIdentityQuery(Group.class).getResultList()) {
+            groups.put(group.getName(), group);
+        }
+
+        return groups;
+    }
+
+    private PartitionManager getPartitionManager(int hierarchySearchDepth) {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .ldap()
+                        .baseDN(this.embeddedServer.getBaseDn())
+                        .bindDN(this.embeddedServer.getBindDn())
+                        .bindCredential(this.embeddedServer.getBindCredential())
+                        .url(this.embeddedServer.getConnectionUrl())
+                        .supportAllFeatures()
+                        .mapping(Agent.class)
+                            .baseDN(this.embeddedServer.getAgentDnSuffix())
+                            .objectClasses("account")
+                            .attribute("loginName", UID, true)
+                            .readOnlyAttribute("createdDate", CREATE_TIMESTAMP)
+                        .mapping(User.class)
+                            .baseDN(this.embeddedServer.getUserDnSuffix())
+                            .objectClasses("inetOrgPerson", "organizationalPerson")
+                            .attribute("loginName", UID, true)
+                            .attribute("firstName", CN)
+                            .attribute("lastName", SN)
+                            .attribute("email", EMAIL)
+                            .readOnlyAttribute("createdDate", CREATE_TIMESTAMP)
+                        .mapping(Group.class)
+                            .baseDN(this.embeddedServer.getGroupDnSuffix())
+                            .hierarchySearchDepth(hierarchySearchDepth)
+                            .objectClasses(GROUP_OF_NAMES)
+                            .attribute("name", CN, true)
+                            .readOnlyAttribute("createdDate", CREATE_TIMESTAMP)
+                            .parentMembershipAttributeName("member")
+                        .mapping(GroupMembership.class)
+                            .forMapping(Group.class)
+                            .attribute("member", "member");
+
+        return new DefaultPartitionManager(builder.buildAll());
+    }
+}
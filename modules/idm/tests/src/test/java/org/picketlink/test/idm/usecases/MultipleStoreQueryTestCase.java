@@ -0,0 +1,328 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.internal.DefaultIdentityContext;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.internal.DefaultIdentityQuery;
+import org.picketlink.idm.query.internal.EqualCondition;
+import org.picketlink.idm.query.internal.StoreQueryExecutor;
+import org.picketlink.idm.spi.ConcurrentQueryStore;
+import org.picketlink.idm.spi.ExistenceQueryStore;
+import org.picketlink.idm.spi.IdentityContext;
+import org.picketlink.idm.spi.IdentityStore;
+import org.picketlink.idm.spi.StoreSelector;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Test case for queries spanning multiple identity stores, which may be queried concurrently.</p>
+ *
+ * @author agent
+ */
+public class MultipleStoreQueryTestCase {
+
+    private final Realm partition = new Realm(Realm.DEFAULT_REALM);
+    private final List<IdentityContext> queriedContexts = Collections.synchronizedList(new ArrayList<IdentityContext>());
+    private final List<IdentityQuery<?>> queriedQueries = Collections.synchronizedList(new ArrayList<IdentityQuery<?>>());
+    private final List<Thread> queryingThreads = Collections.synchronizedList(new ArrayList<Thread>());
+    private ExecutorService executor;
+
+    @Before
+    public void onSetup() {
+        this.executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void onFinish() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testEachStoreGetsItsOwnQueryAndContext() throws Exception {
+        // both stores must be running at the same time to release the latch
+        CountDownLatch latch = new CountDownLatch(2);
+        IdentityContext context = new DefaultIdentityContext(this.partition, null, null);
+        DefaultIdentityQuery<User> query = createQuery(context, createStore("store-a", latch, true), createStore("store-b", latch, true));
+
+        List<User> result = query.getResultList();
+
+        assertEquals(4, result.size());
+        assertEquals(2, this.queriedQueries.size());
+        assertNotSame(this.queriedQueries.get(0), this.queriedQueries.get(1));
+        assertNotSame(this.queriedContexts.get(0), this.queriedContexts.get(1));
+
+        for (int i = 0; i < 2; i++) {
+            assertNotSame(query, this.queriedQueries.get(i));
+            assertNotSame(context, this.queriedContexts.get(i));
+        }
+
+        // changes made by the stores do not leak into the query and context of the caller
+        assertNull(query.getPaginationContext());
+        assertFalse(context.isParameterSet("store"));
+    }
+
+    @Test
+    public void testStoreQueryCopiesWindowAndConditions() throws Exception {
+        IdentityContext context = new DefaultIdentityContext(this.partition, null, null);
+        DefaultIdentityQuery<User> query = createQuery(context, createStore("store-a", null, true), createStore("store-b", null, true));
+
+        query.where(new EqualCondition(User.LOGIN_NAME, "john"));
+        query.setLimit(1);
+        query.setOffset(1);
+        query.setLoadAttributes(false);
+
+        List<User> result = query.getResultList();
+
+        assertEquals(1, result.size());
+
+        for (IdentityQuery<?> storeQuery : this.queriedQueries) {
+            assertEquals(query.getConditions(), storeQuery.getConditions());
+            assertEquals(0, storeQuery.getOffset());
+            assertEquals(2, storeQuery.getLimit());
+            assertFalse(storeQuery.isLoadAttributes());
+        }
+
+        assertEquals(1, query.getOffset());
+        assertEquals(1, query.getLimit());
+    }
+
+    @Test
+    public void testSingleStoreUsesQueryAndContext() throws Exception {
+        IdentityContext context = new DefaultIdentityContext(this.partition, null, null);
+        DefaultIdentityQuery<User> query = createQuery(context, createStore("store-a", null, true));
+
+        assertEquals(2, query.getResultList().size());
+        assertSame(query, this.queriedQueries.get(0));
+        assertSame(context, this.queriedContexts.get(0));
+
+        // stores paginating with a context, like LDAP, return it to the caller
+        assertEquals("store-a", query.getPaginationContext());
+    }
+
+    @Test
+    public void testNonConcurrentStoresQueriedInCallingThread() throws Exception {
+        IdentityContext context = new DefaultIdentityContext(this.partition, null, null);
+        DefaultIdentityQuery<User> query = createQuery(context, createStore("store-a", null, true),
+            createStore("store-b", null, false), createStore("store-c", null, false));
+
+        assertEquals(6, query.getResultList().size());
+        assertEquals(3, this.queryingThreads.size());
+
+        for (Thread thread : this.queryingThreads) {
+            assertSame(Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void testDiscardedQueriesRunInCallingThread() throws Exception {
+        Executor discardingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // like ThreadPoolExecutor.DiscardPolicy
+            }
+        };
+        IdentityContext context = new DefaultIdentityContext(this.partition, null, null);
+        DefaultIdentityQuery<User> query = createQuery(context, new StoreQueryExecutor(discardingExecutor),
+            createStore("store-a", null, true), createStore("store-b", null, true));
+
+        assertEquals(4, query.getResultList().size());
+        assertEquals(2, this.queryingThreads.size());
+        assertSame(Thread.currentThread(), this.queryingThreads.get(1));
+    }
+
+    @Test
+    public void testRejectedQueriesRunInCallingThread() throws Exception {
+        Executor rejectingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        IdentityContext context = new DefaultIdentityContext(this.partition, null, null);
+        DefaultIdentityQuery<User> query = createQuery(context, new StoreQueryExecutor(rejectingExecutor),
+            createStore("store-a", null, true), createStore("store-b", null, true));
+
+        assertEquals(4, query.getResultList().size());
+        assertEquals(2, this.queryingThreads.size());
+        assertSame(Thread.currentThread(), this.queryingThreads.get(1));
+    }
+
+    @Test
+    public void testExistsUsesQueryCopies() throws Exception {
+        IdentityContext context = new DefaultIdentityContext(this.partition, null, null);
+        DefaultIdentityQuery<User> query = createQuery(context, createExistenceStore(false), createStore("store-b", null, true),
+            createExistenceStore(true));
+
+        query.where(new EqualCondition(User.LOGIN_NAME, "john"));
+        query.setLimit(10);
+        query.setOffset(5);
+        query.setPaginationContext("caller");
+
+        assertTrue(query.exists());
+        assertEquals(2, this.queriedQueries.size());
+
+        for (IdentityQuery<?> storeQuery : this.queriedQueries) {
+            assertNotSame(query, storeQuery);
+            assertEquals(query.getConditions(), storeQuery.getConditions());
+            assertEquals(0, storeQuery.getOffset());
+        }
+
+        // stores without support for existence checks fetch a single result
+        assertEquals(1, this.queriedQueries.get(1).getLimit());
+
+        assertEquals(10, query.getLimit());
+        assertEquals(5, query.getOffset());
+        assertEquals("caller", query.getPaginationContext());
+    }
+
+    @Test
+    public void testExistsStopsAtFirstMatchingStore() throws Exception {
+        IdentityContext context = new DefaultIdentityContext(this.partition, null, null);
+        DefaultIdentityQuery<User> query = createQuery(context, createExistenceStore(true), createStore("store-b", null, true));
+
+        assertTrue(query.exists());
+        assertEquals(1, this.queriedQueries.size());
+
+        this.queriedQueries.clear();
+
+        query = createQuery(context, createExistenceStore(false), createExistenceStore(false));
+
+        assertFalse(query.exists());
+        assertEquals(2, this.queriedQueries.size());
+    }
+
+    private DefaultIdentityQuery<User> createQuery(IdentityContext context, IdentityStore<?>... stores) {
+        return createQuery(context, new StoreQueryExecutor(this.executor), stores);
+    }
+
+    private DefaultIdentityQuery<User> createQuery(IdentityContext context, StoreQueryExecutor storeQueryExecutor,
+                                                   IdentityStore<?>... stores) {
+        final Set<IdentityStore<?>> identityStores = new LinkedHashSet<IdentityStore<?>>();
+
+        Collections.addAll(identityStores, stores);
+
+        StoreSelector storeSelector = (StoreSelector) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {StoreSelector.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("getStoresForIdentityQuery".equals(method.getName())) {
+                        return identityStores;
+                    }
+
+                    return null;
+                }
+            });
+
+        return new DefaultIdentityQuery<User>(null, context, User.class, null, storeSelector, null, storeQueryExecutor);
+    }
+
+    private IdentityStore<?> createExistenceStore(final boolean exists) {
+        return (IdentityStore<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ExistenceQueryStore.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("existsQueryResults".equals(method.getName())) {
+                        queriedContexts.add((IdentityContext) args[0]);
+                        queriedQueries.add((IdentityQuery<?>) args[1]);
+
+                        return exists;
+                    } else if ("fetchQueryResults".equals(method.getName())) {
+                        throw new AssertionError("Stores supporting existence checks should not be fetched.");
+                    } else if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    } else if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+
+                    return null;
+                }
+            });
+    }
+
+    private IdentityStore<?> createStore(final String name, final CountDownLatch latch, boolean concurrent) {
+        Class<?> storeType = concurrent ? ConcurrentQueryStore.class : IdentityStore.class;
+
+        return (IdentityStore<?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {storeType},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("fetchQueryResults".equals(method.getName())) {
+                        IdentityContext context = (IdentityContext) args[0];
+                        IdentityQuery<?> query = (IdentityQuery<?>) args[1];
+
+                        queriedContexts.add(context);
+                        queriedQueries.add(query);
+                        queryingThreads.add(Thread.currentThread());
+
+                        context.setParameter("store", name);
+                        query.setPaginationContext(name);
+
+                        if (latch != null) {
+                            latch.countDown();
+                            assertTrue(latch.await(10, TimeUnit.SECONDS));
+                        }
+
+                        List<User> result = new ArrayList<User>();
+
+                        for (int i = 0; i < 2; i++) {
+                            User user = new User(name + "-" + i);
+
+                            user.setId(name + "-" + i);
+                            user.setPartition(partition);
+
+                            result.add(user);
+                        }
+
+                        return result;
+                    } else if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    } else if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+
+                    return null;
+                }
+            });
+    }
+}
@@ -273,13 +273,8 @@ public class OAuthServerUtil {
         IdentityQuery<Agent> agentQuery = identityManager.createIdentityQuery(Agent.class);
         agentQuery.setParameter(AttributedType.QUERY_ATTRIBUTE.byName("accessToken"), passedAccessToken);
 
-        List<Agent> agents = agentQuery.getResultList();
-        int size = agents.size();
-
-        if (size == 0 || size != 1) {
-            return false;
-        }
-        return true;
+        // the token is valid only if it is assigned to a single agent
+        return agentQuery.getResultCount() == 1;
     }
 
     /**
@@ -84,6 +84,7 @@ public class PicketLinkIDMDataProvider implements DataProvider {
         IdentityQueryBuilder queryBuilder = identityManager.<User>getQueryBuilder();
         IdentityQuery<User> query = queryBuilder.createIdentityQuery(User.class);
         query.where(queryBuilder.equal(AttributedType.ID, id));
+        query.setLimit(1);
 
         List<User> result = query.getResultList();
         User user = null;